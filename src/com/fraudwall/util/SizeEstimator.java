@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import com.fraudwall.util.coll.Weigher;
+
+/**
+ * Estimates the number of bytes of heap that objects occupy, from a model
+ * of the HotSpot object layout: an object is a header followed by its
+ * fields, rounded up to a multiple of 8 bytes, and an array is an array
+ * header followed by its elements. The header and reference sizes depend
+ * on whether the JVM is 32- or 64-bit and uses compressed references;
+ * {@link #getDefault()} detects them for the running JVM.<p>
+ *
+ * Unlike {@link Sizeof}, which measures the heap before and after allocating
+ * many instances, the estimates are cheap enough to compute for every value
+ * put in a cache, for example with the {@link #weigher()} of a weighed
+ * {@link com.fraudwall.util.coll.LRUMap}. They ignore padding between the
+ * fields of a class and its superclasses, spare capacity in collections, and
+ * the sharing of objects between different estimated objects.<p>
+ *
+ * This class is thread safe.
+ */
+public final class SizeEstimator {
+	private static final long MAX_COMPRESSED_HEAP = 32L << 30;
+	private static final SizeEstimator DEFAULT = detect();
+
+	private final int objectHeader;
+	private final int referenceSize;
+	private final int arrayHeader;
+
+	/** Shallow sizes of classes. */
+	private final Map<Class<?>,Long> shallowSizes = new ConcurrentHashMap<Class<?>,Long>();
+
+	/** The accessible instance fields of classes that hold references. */
+	private final Map<Class<?>,Field[]> referenceFields = new ConcurrentHashMap<Class<?>,Field[]>();
+
+	/**
+	 * Returns an estimator for the running JVM.
+	 */
+	public static SizeEstimator getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Creates an estimator for a JVM whose objects and arrays have headers of
+	 * <code>objectHeader</code> and <code>arrayHeader</code> bytes, and whose
+	 * references take <code>referenceSize</code> bytes.
+	 */
+	/*test*/ SizeEstimator(int objectHeader, int referenceSize, int arrayHeader) {
+		this.objectHeader = objectHeader;
+		this.referenceSize = referenceSize;
+		this.arrayHeader = arrayHeader;
+	}
+
+	private static SizeEstimator detect() {
+		String model = System.getProperty("sun.arch.data.model");
+		boolean is64 = (model != null) ? model.equals("64") : System.getProperty("os.arch").contains("64");
+		if (!is64) {
+			return new SizeEstimator(8, 4, 12);
+		}
+		return usesCompressedOops() ? new SizeEstimator(12, 4, 16) : new SizeEstimator(16, 8, 24);
+	}
+
+	/**
+	 * Returns the value of the HotSpot <code>UseCompressedOops</code> flag or,
+	 * if it cannot be read, whether the heap is small enough for compressed
+	 * references, which HotSpot then uses by default.
+	 */
+	private static boolean usesCompressedOops() {
+		try {
+			Object option = ManagementFactory.getPlatformMBeanServer().invoke(
+				new ObjectName("com.sun.management:type=HotSpotDiagnostic"), "getVMOption",
+				new Object[] { "UseCompressedOops" }, new String[] { String.class.getName() });
+			return Boolean.parseBoolean(String.valueOf(((CompositeData) option).get("value")));
+		} catch (Exception e) {
+			return Runtime.getRuntime().maxMemory() < MAX_COMPRESSED_HEAP;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes a reference takes.
+	 */
+	public int getReferenceSize() {
+		return referenceSize;
+	}
+
+	/**
+	 * Returns the size in bytes of an instance of <code>c</code>, not
+	 * counting the objects its fields refer to.
+	 */
+	public long shallowSizeOf(Class<?> c) {
+		if (c.isArray()) {
+			throw new IllegalArgumentException("use sizeOfArray() for array class " + c.getName());
+		}
+		Long size = shallowSizes.get(c);
+		if (size == null) {
+			long bytes = objectHeader;
+			for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+				for (Field f : k.getDeclaredFields()) {
+					if (!Modifier.isStatic(f.getModifiers())) {
+						bytes += sizeOfType(f.getType());
+					}
+				}
+			}
+			size = align(bytes);
+			shallowSizes.put(c, size);
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the size in bytes of an array of <code>length</code> elements
+	 * of type <code>componentType</code>, not counting the objects its
+	 * elements refer to.
+	 */
+	public long sizeOfArray(Class<?> componentType, int length) {
+		return align(arrayHeader + (long) length * sizeOfType(componentType));
+	}
+
+	/**
+	 * Returns the estimated size in bytes of <code>o</code> and of all the
+	 * objects reachable from it, counting each object once. Strings are
+	 * assumed to take two bytes per character; collections and maps from
+	 * <code>java.util</code> are estimated from their sizes and elements
+	 * rather than from their internals. Classes and enum constants, which
+	 * are shared, count for nothing, as do the fields that reflection
+	 * cannot read.
+	 */
+	public long estimate(Object o) {
+		return estimate(o, null);
+	}
+
+	private long estimate(Object o1, Object o2) {
+		Map<Object,Object> seen = new IdentityHashMap<Object,Object>();
+		List<Object> stack = new ArrayList<Object>();
+		stack.add(o1);
+		stack.add(o2);
+		long total = 0L;
+		while (!stack.isEmpty()) {
+			Object o = stack.remove(stack.size() - 1);
+			if (o == null || o instanceof Class || o instanceof Enum || seen.put(o, o) != null) {
+				continue;
+			}
+			Class<?> c = o.getClass();
+			if (c.isArray()) {
+				Class<?> componentType = c.getComponentType();
+				int length = java.lang.reflect.Array.getLength(o);
+				total += sizeOfArray(componentType, length);
+				if (!componentType.isPrimitive()) {
+					for (Object element : (Object[]) o) {
+						stack.add(element);
+					}
+				}
+			} else if (o instanceof String) {
+				total += shallowSizeOf(String.class) + sizeOfArray(char.class, ((String) o).length());
+			} else if (o instanceof Collection) {
+				Collection<?> coll = (Collection<?>) o;
+				total += shallowSizeOf(c) + coll.size() * elementOverhead(coll);
+				stack.addAll(coll);
+			} else if (o instanceof Map) {
+				Map<?,?> map = (Map<?,?>) o;
+				total += shallowSizeOf(c) + map.size() * ((map instanceof SortedMap) ? treeNode() : hashNode());
+				for (Map.Entry<?,?> e : map.entrySet()) {
+					stack.add(e.getKey());
+					stack.add(e.getValue());
+				}
+			} else {
+				total += shallowSizeOf(c);
+				for (Field f : referenceFields(c)) {
+					try {
+						stack.add(f.get(o));
+					} catch (IllegalAccessException e) {
+						// cannot happen: the field is accessible
+					}
+				}
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Returns a weigher that weighs a mapping by the estimated size of its
+	 * key and value, capped at {@link Integer#MAX_VALUE}.
+	 *
+	 * @see #estimate(Object)
+	 */
+	public <K,V> Weigher<K,V> weigher() {
+		return new Weigher<K,V>() {
+			public int weigh(K key, V value) {
+				return (int) Math.min(Integer.MAX_VALUE, estimate(key, value));
+			}
+		};
+	}
+
+	// ======================================================= helpers
+
+	private long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+
+	private int sizeOfType(Class<?> type) {
+		if (type == long.class || type == double.class) {
+			return 8;
+		} else if (type == int.class || type == float.class) {
+			return 4;
+		} else if (type == short.class || type == char.class) {
+			return 2;
+		} else if (type == byte.class || type == boolean.class) {
+			return 1;
+		}
+		return referenceSize;
+	}
+
+	/** Bytes per element of the structure backing <code>coll</code>. */
+	private long elementOverhead(Collection<?> coll) {
+		if (coll instanceof RandomAccess) {
+			return referenceSize;
+		} else if (coll instanceof SortedSet) {
+			return treeNode();
+		} else if (coll instanceof Set) {
+			return hashNode();
+		}
+		// a linked list node: prev, next and element
+		return align(objectHeader + 3 * referenceSize);
+	}
+
+	/** A hash map node (hash, key, value, next) and its share of the table. */
+	private long hashNode() {
+		return align(objectHeader + 4 + 3 * referenceSize) + referenceSize * 4 / 3;
+	}
+
+	/** A red-black tree node (key, value, left, right, parent, color). */
+	private long treeNode() {
+		return align(objectHeader + 5 * referenceSize + 1);
+	}
+
+	/**
+	 * Returns the non-static fields of <code>c</code> and its superclasses
+	 * that hold references, made accessible; fields that cannot be made
+	 * accessible are left out.
+	 */
+	private Field[] referenceFields(Class<?> c) {
+		Field[] fields = referenceFields.get(c);
+		if (fields == null) {
+			List<Field> list = new ArrayList<Field>();
+			for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+				for (Field f : k.getDeclaredFields()) {
+					if (!Modifier.isStatic(f.getModifiers()) && !f.getType().isPrimitive()) {
+						try {
+							f.setAccessible(true);
+							list.add(f);
+						} catch (RuntimeException e) {
+							// e.g. a SecurityException, or a field of a JDK
+							// class in a module that is not open
+						}
+					}
+				}
+			}
+			fields = list.toArray(new Field[list.size()]);
+			referenceFields.put(c, fields);
+		}
+		return fields;
+	}
+}
@@ -40,6 +40,8 @@ import java.util.Map;
  * takes a class and determines the memory consumption of an instance of
  * that class.  This is accomplished by allocating 10K objects of that
  * class and measuring the used memory before and after the run.
+ * It also prints the estimate of {@link SizeEstimator}, so the two can
+ * be compared.
  */
 public class Sizeof {
 	public static final Runtime s_runtime = Runtime.getRuntime();
@@ -77,6 +79,8 @@ public class Sizeof {
 				+ heap2);
 		System.out.println("heap delta: " + (heap2 - heap1) + ", {"
 				+ c.getName() + "} size = " + size + " bytes");
+		System.out.println("estimated size = "
+				+ SizeEstimator.getDefault().estimate(objects[0]) + " bytes");
 		for (int i = 0; i < count; ++i)
 			objects[i] = null;
 		objects = null;
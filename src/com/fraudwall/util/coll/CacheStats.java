@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.fraudwall.util.exc.AnchorFatalError;
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * Hit, miss, eviction, expiration and load counters for a named cache. The
+ * caches in this package ({@link LRUMap}, {@link LRUSet}, {@link ExpiringLRUMap}
+ * and {@link ConcurrentLRUMap}) record into a <code>CacheStats</code> once one
+ * is attached with their <code>setStats</code> method; several caches may
+ * share one instance.<p>
+ *
+ * The counters are striped so they are cheap enough to leave enabled in
+ * production: each thread adds to one of several cells, chosen by its thread
+ * id, and every stripe of cells sits on its own cache line, so concurrent
+ * threads rarely write to the same line. Reading a counter sums its cells,
+ * so reads are not atomic with respect to concurrent updates.<p>
+ *
+ * {@link #register} exposes the counters through JMX as a
+ * {@link CacheStatsMBean} on the platform MBean server.
+ */
+public final class CacheStats implements CacheStatsMBean {
+
+	private static final int HITS = 0;
+	private static final int MISSES = 1;
+	private static final int EVICTIONS = 2;
+	private static final int EXPIRATIONS = 3;
+	private static final int LOAD_SUCCESSES = 4;
+	private static final int LOAD_FAILURES = 5;
+	private static final int LOAD_NANOS = 6;
+
+	/** Longs per stripe: the seven counters, padded to a 64-byte cache line. */
+	private static final int STRIDE = 8;
+
+	private final String name;
+	private final AtomicLongArray cells;
+	private final int stripeMask;
+	private volatile long resetMillis = System.currentTimeMillis();
+	private ObjectName objectName;
+
+	/**
+	 * Creates a new set of counters for the cache called <code>name</code>,
+	 * with one stripe per available processor (rounded up to a power of two).
+	 */
+	public static CacheStats create(String name) {
+		return create(name, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new set of counters for the cache called <code>name</code>,
+	 * with at least <code>stripes</code> stripes (rounded up to a power of two).
+	 */
+	public static CacheStats create(String name, int stripes) {
+		ArgCheck.isTrue(name != null, "name must not be null");
+		ArgCheck.isTrue(stripes >= 1 && stripes <= (1 << 16), "stripes must be between 1 and 65536");
+		return new CacheStats(name, nextPowerOfTwo(stripes));
+	}
+
+	private CacheStats(String name, int stripes) {
+		this.name = name;
+		this.cells = new AtomicLongArray(stripes * STRIDE);
+		this.stripeMask = stripes - 1;
+	}
+
+	private static int nextPowerOfTwo(int n) {
+		int p = Integer.highestOneBit(n);
+		return (p == n) ? n : p << 1;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	// ====== recording =======
+
+	/** Records a lookup that found its key. */
+	public void recordHit() {
+		add(HITS, 1);
+	}
+
+	/** Records a lookup that did not find its key. */
+	public void recordMiss() {
+		add(MISSES, 1);
+	}
+
+	/** Records the eviction of a mapping to make room for another. */
+	public void recordEviction() {
+		add(EVICTIONS, 1);
+	}
+
+	/** Records the removal of a mapping because it expired. */
+	public void recordExpiration() {
+		add(EXPIRATIONS, 1);
+	}
+
+	/** Records a successful load of a value that took <code>nanos</code> nanoseconds. */
+	public void recordLoadSuccess(long nanos) {
+		int base = stripe();
+		cells.addAndGet(base + LOAD_SUCCESSES, 1);
+		cells.addAndGet(base + LOAD_NANOS, nanos);
+	}
+
+	/** Records a failed load of a value that took <code>nanos</code> nanoseconds. */
+	public void recordLoadFailure(long nanos) {
+		int base = stripe();
+		cells.addAndGet(base + LOAD_FAILURES, 1);
+		cells.addAndGet(base + LOAD_NANOS, nanos);
+	}
+
+	private void add(int counter, long delta) {
+		cells.addAndGet(stripe() + counter, delta);
+	}
+
+	/** Returns the index of the first cell of the calling thread's stripe. */
+	private int stripe() {
+		return ((int) KeyHashing.mix(Thread.currentThread().getId()) & stripeMask) * STRIDE;
+	}
+
+	// ====== reading =======
+
+	private long sum(int counter) {
+		long sum = 0L;
+		for (int i = counter; i < cells.length(); i += STRIDE) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+
+	public Long getHitCount() {
+		return sum(HITS);
+	}
+
+	public Long getMissCount() {
+		return sum(MISSES);
+	}
+
+	/**
+	 * Returns the fraction of lookups that were hits, or 1.0 if there have
+	 * been no lookups.
+	 */
+	public Double getHitRatio() {
+		long hits = sum(HITS);
+		long requests = hits + sum(MISSES);
+		return (requests == 0L) ? 1.0 : (double) hits / requests;
+	}
+
+	public Long getEvictionCount() {
+		return sum(EVICTIONS);
+	}
+
+	/**
+	 * Returns the average number of evictions per second since these
+	 * counters were created or last {@link #reset}.
+	 */
+	public Double getEvictionsPerSecond() {
+		long millis = Math.max(1L, System.currentTimeMillis() - resetMillis);
+		return sum(EVICTIONS) * 1000.0 / millis;
+	}
+
+	public Long getExpirationCount() {
+		return sum(EXPIRATIONS);
+	}
+
+	public Long getLoadSuccessCount() {
+		return sum(LOAD_SUCCESSES);
+	}
+
+	public Long getLoadFailureCount() {
+		return sum(LOAD_FAILURES);
+	}
+
+	/**
+	 * Returns the total number of nanoseconds spent loading values,
+	 * successfully or not.
+	 */
+	public long getTotalLoadNanos() {
+		return sum(LOAD_NANOS);
+	}
+
+	/**
+	 * Returns the average number of milliseconds spent per load, successful
+	 * or not, or 0.0 if there have been no loads.
+	 */
+	public Double getAverageLoadMillis() {
+		long loads = sum(LOAD_SUCCESSES) + sum(LOAD_FAILURES);
+		return (loads == 0L) ? 0.0 : sum(LOAD_NANOS) / (loads * 1.0e6);
+	}
+
+	/**
+	 * Zeroes all counters. Updates that race with this method may
+	 * survive it.
+	 */
+	public void reset() {
+		for (int i = 0; i < cells.length(); i++) {
+			cells.set(i, 0L);
+		}
+		resetMillis = System.currentTimeMillis();
+	}
+
+	@Override
+	public String toString() {
+		return name + "[hits=" + getHitCount() + ", misses=" + getMissCount()
+			+ ", evictions=" + getEvictionCount() + ", expirations=" + getExpirationCount()
+			+ ", loadSuccesses=" + getLoadSuccessCount() + ", loadFailures=" + getLoadFailureCount()
+			+ ", totalLoadNanos=" + getTotalLoadNanos() + "]";
+	}
+
+	// ====== JMX =======
+
+	/**
+	 * Returns the name under which {@link #register} registers these counters:
+	 * <code>com.fraudwall.util.coll:type=CacheStats,name=</code> followed by
+	 * the quoted cache name.
+	 */
+	public ObjectName getObjectName() {
+		try {
+			return new ObjectName("com.fraudwall.util.coll:type=CacheStats,name=" + ObjectName.quote(name));
+		} catch (JMException e) {
+			throw new AnchorFatalError("Invalid MBean name for cache " + name, e);
+		}
+	}
+
+	/**
+	 * Registers these counters with the platform MBean server, so they can be
+	 * watched live with a JMX console such as jconsole.
+	 *
+	 * @throws AnchorFatalError if the counters cannot be registered, for
+	 * example because another cache with the same name is registered.
+	 */
+	public synchronized void register() {
+		if (objectName != null) {
+			return;
+		}
+		ObjectName on = getObjectName();
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+		} catch (JMException e) {
+			throw new AnchorFatalError("Unable to register MBean " + on, e);
+		}
+		objectName = on;
+	}
+
+	/**
+	 * Unregisters these counters from the platform MBean server; a no-op if
+	 * they are not registered.
+	 */
+	public synchronized void unregister() {
+		if (objectName == null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			throw new AnchorFatalError("Unable to unregister MBean " + objectName, e);
+		}
+		objectName = null;
+	}
+}
@@ -0,0 +1,434 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * A "minimum-oriented" bounded priority queue with an index that supports
+ * fast lookups, like {@link IndexedPriorityQueue}, but stored as a
+ * "struct of arrays" rather than as a heap of {@link IndexedPriorityQueue.Entry}
+ * objects. Each element is a <key, value> pair, together with a priority; the
+ * keys and priorities are of type <code>long</code>, the keys must be unique,
+ * and ties in priority are broken by taking the element with the smallest key.
+ * <p>
+ * The priorities, keys and values are kept in parallel arrays arranged as a
+ * binary heap, so the comparisons made while sifting an element up or down
+ * the heap read adjacent <code>long</code>s instead of chasing a pointer per
+ * element, and adding an element allocates nothing. Because there are no
+ * Entry objects to hand out, elements are identified by key: see
+ * {@link #getPriority}, {@link #setPriority} and {@link #get}.
+ * <p>
+ * The index from keys to heap positions is an open-addressing hash table.
+ * Each heap element also records which table cell refers to it, so moving an
+ * element within the heap updates the index with a single array store rather
+ * than a hash lookup.
+ * <p>
+ * When a new queue is constructed, an integer upper bound on its size must be
+ * passed to the factory method. Once the queue becomes full, it is an error to
+ * call the {@link #add} method; the {@link #pop} method must be called first.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @param <V> The type of the values associated with the keys.
+ */
+public class CompactIndexedPriorityQueue<V> {
+
+	/* The heap, as parallel arrays; element 0 of each is not used. */
+	private final long[] prios;
+	private final long[] keys;
+	private final Object[] values;
+	private final int[] cells; // index of the table cell referring to each element
+
+	private int N; // number of elements in the priority queue
+
+	private final int maxSize; // max size of the priority queue
+
+	/*
+	 * Open-addressing hash table from keys to heap positions, using linear
+	 * probing. A heap position of 0 denotes an empty cell.
+	 */
+	private final long[] tableKeys;
+	private final int[] tablePos;
+	private final int tableBits; // log2 of the table length
+
+	/**
+	 * Constructs a new, empty queue that can hold at most
+	 * <code>maxSize</code> elements.
+	 */
+	public static <V> CompactIndexedPriorityQueue<V> create(int maxSize) {
+		return new CompactIndexedPriorityQueue<V>(maxSize);
+	}
+
+	private CompactIndexedPriorityQueue(int maxSize) {
+		ArgCheck.isTrue(maxSize >= 1, "maxSize must be positive");
+		ArgCheck.isTrue(maxSize <= (1 << 29), "maxSize too large");
+		this.maxSize = maxSize;
+		this.N = 0;
+		prios = new long[maxSize + 1];
+		keys = new long[maxSize + 1];
+		values = new Object[maxSize + 1];
+		cells = new int[maxSize + 1];
+		int bits = 1;
+		while ((1 << bits) < 2 * maxSize) {
+			bits++; // keep the table at most half full
+		}
+		tableBits = bits;
+		tableKeys = new long[1 << bits];
+		tablePos = new int[1 << bits];
+	}
+
+	/**
+	 * Returns true if and only if this priority queue cannot hold
+	 * any more elements.
+	 */
+	public boolean isFull() {
+		return (N == maxSize);
+	}
+
+	/**
+	 * Returns true if and only if this priority queue contains no elements.
+	 */
+	public boolean isEmpty() {
+		return (N == 0);
+	}
+
+	/**
+	 * Returns the number of elements in the priority queue.
+	 */
+	public int size() {
+		return N;
+	}
+
+	/**
+	 * Returns the maximum number of elements in the priority queue.
+	 */
+	public int maxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns true if and only if the queue contains an element with
+	 * the given <code>key</code>.
+	 */
+	public boolean containsKey(long key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Returns the value associated with <code>key</code>, or <code>null</code>
+	 * if the queue does not contain the key.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int cell = find(key);
+		return (cell >= 0) ? (V) values[tablePos[cell]] : null;
+	}
+
+	/**
+	 * Returns the priority of the element with the given <code>key</code>.
+	 *
+	 * @throws NoSuchElementException if the queue does not contain the key.
+	 */
+	public long getPriority(long key) {
+		return prios[position(key)];
+	}
+
+	/**
+	 * Returns the priority of the element with the given <code>key</code>,
+	 * or <code>defaultPriority</code> if the queue does not contain the key.
+	 * This saves a lookup over calling {@link #containsKey} first.
+	 */
+	public long getPriority(long key, long defaultPriority) {
+		int cell = find(key);
+		return (cell >= 0) ? prios[tablePos[cell]] : defaultPriority;
+	}
+
+	/**
+	 * Changes the priority of the element with the given <code>key</code>
+	 * to <code>priority</code>, and restores the heap invariant.
+	 *
+	 * @throws NoSuchElementException if the queue does not contain the key.
+	 */
+	public void setPriority(long key, long priority) {
+		int k = position(key);
+		prios[k] = priority;
+		sink(swim(k));
+	}
+
+	/**
+	 * Changes the value associated with <code>key</code> to <code>value</code>.
+	 *
+	 * @throws NoSuchElementException if the queue does not contain the key.
+	 */
+	public void setValue(long key, V value) {
+		values[position(key)] = value;
+	}
+
+	/**
+	 * Returns the key of the root of the priority queue, that is, the
+	 * element with the smallest priority.
+	 *
+	 * @throws NoSuchElementException if the priority queue is empty.
+	 */
+	public long peekKey() {
+		checkNotEmpty();
+		return keys[1];
+	}
+
+	/**
+	 * Returns the priority of the root of the priority queue.
+	 *
+	 * @throws NoSuchElementException if the priority queue is empty.
+	 */
+	public long peekPriority() {
+		checkNotEmpty();
+		return prios[1];
+	}
+
+	/**
+	 * Returns the value of the root of the priority queue.
+	 *
+	 * @throws NoSuchElementException if the priority queue is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public V peekValue() {
+		checkNotEmpty();
+		return (V) values[1];
+	}
+
+	/**
+	 * Removes the root of the priority queue, that is, the element with the
+	 * smallest priority, and returns its key. Use {@link #peekPriority} and
+	 * {@link #peekValue} first if the root's priority or value is needed.
+	 *
+	 * @throws NoSuchElementException if the priority queue is empty.
+	 */
+	public long pop() {
+		checkNotEmpty();
+		long key = keys[1];
+		removeAt(1);
+		return key;
+	}
+
+	/**
+	 * Removes the element with the given <code>key</code>, if any.
+	 *
+	 * @return True if and only if the queue contained the key.
+	 */
+	public boolean remove(long key) {
+		int cell = find(key);
+		if (cell < 0) {
+			return false;
+		}
+		removeAt(tablePos[cell]);
+		return true;
+	}
+
+	/**
+	 * Adds a new element to this priority queue. It is an error to call this
+	 * method if the queue is full or if it already contains an element with
+	 * the same key.
+	 *
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if this priority queue is full
+	 * @throws IllegalArgumentException
+	 *             if this priority queue already contains an element with
+	 *             the given key.
+	 */
+	public void add(long key, V value, long priority) {
+		if (isFull()) {
+			throw new ArrayIndexOutOfBoundsException();
+		}
+		int mask = tablePos.length - 1;
+		int cell = hash(key);
+		for (; tablePos[cell] != 0; cell = (cell + 1) & mask) {
+			if (tableKeys[cell] == key) {
+				throw new IllegalArgumentException("Duplicate key");
+			}
+		}
+		int k = ++N;
+		prios[k] = priority;
+		keys[k] = key;
+		values[k] = value;
+		cells[k] = cell;
+		tableKeys[cell] = key;
+		tablePos[cell] = k;
+		swim(k);
+	}
+
+	/**
+	 * Removes all elements from this priority queue.
+	 */
+	public void clear() {
+		Arrays.fill(values, 1, N + 1, null);
+		Arrays.fill(tablePos, 0);
+		N = 0;
+	}
+
+	// ====== heap helpers =======
+
+	private void checkNotEmpty() {
+		if (N < 1) {
+			throw new NoSuchElementException();
+		}
+	}
+
+	private void removeAt(int k) {
+		tableRemove(cells[k]);
+		if (k != N) {
+			move(N, k);
+		}
+		values[N--] = null;
+		if (k <= N) {
+			sink(swim(k));
+		}
+	}
+
+	/**
+	 * Bottom-up heapify: walk up the heap as needed. Returns the final
+	 * position of the element.
+	 */
+	private int swim(int k) {
+		long p = prios[k], key = keys[k];
+		Object value = values[k];
+		int cell = cells[k];
+		while (k > 1 && less(p, key, k / 2)) {
+			move(k / 2, k);
+			k = k / 2;
+		}
+		put(k, p, key, value, cell);
+		return k;
+	}
+
+	/**
+	 * Top-down heapify: walk down the heap as far as needed.
+	 */
+	private void sink(int k) {
+		long p = prios[k], key = keys[k];
+		Object value = values[k];
+		int cell = cells[k];
+		while (2 * k <= N) {
+			int j = 2 * k;
+			if (j < N && more(j, j + 1))
+				j++;
+			if (!less(prios[j], keys[j], p, key))
+				break;
+			move(j, k);
+			k = j;
+		}
+		put(k, p, key, value, cell);
+	}
+
+	/** Returns true if the element (p, key) is less than the one at position j. */
+	private boolean less(long p, long key, int j) {
+		return less(p, key, prios[j], keys[j]);
+	}
+
+	private static boolean less(long p1, long k1, long p2, long k2) {
+		return p1 < p2 || (p1 == p2 && k1 < k2);
+	}
+
+	private boolean more(int i, int j) {
+		return less(prios[j], keys[j], prios[i], keys[i]);
+	}
+
+	/** Copies the element at position <code>from</code> to <code>to</code>. */
+	private void move(int from, int to) {
+		prios[to] = prios[from];
+		keys[to] = keys[from];
+		values[to] = values[from];
+		cells[to] = cells[from];
+		tablePos[cells[to]] = to;
+	}
+
+	private void put(int k, long p, long key, Object value, int cell) {
+		prios[k] = p;
+		keys[k] = key;
+		values[k] = value;
+		cells[k] = cell;
+		tablePos[cell] = k;
+	}
+
+	// ====== hash table helpers =======
+
+	/**
+	 * Returns the home cell of <code>key</code>. A single multiply spreads
+	 * sequential keys as well as already-random ones.
+	 */
+	private int hash(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - tableBits));
+	}
+
+	/** Returns the table cell holding <code>key</code>, or -1. */
+	private int find(long key) {
+		int mask = tablePos.length - 1;
+		for (int cell = hash(key); tablePos[cell] != 0; cell = (cell + 1) & mask) {
+			if (tableKeys[cell] == key) {
+				return cell;
+			}
+		}
+		return -1;
+	}
+
+	private int position(long key) {
+		int cell = find(key);
+		if (cell < 0) {
+			throw new NoSuchElementException("No element with key " + key);
+		}
+		return tablePos[cell];
+	}
+
+	/**
+	 * Empties the table cell <code>hole</code>, shifting later members of
+	 * the probe sequence back (and updating the heap's record of their
+	 * cells) so no tombstones are needed.
+	 */
+	private void tableRemove(int hole) {
+		int mask = tablePos.length - 1;
+		for (int i = (hole + 1) & mask; tablePos[i] != 0; i = (i + 1) & mask) {
+			int home = hash(tableKeys[i]);
+			// move the cell if its home is not cyclically in (hole, i]
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				tableKeys[hole] = tableKeys[i];
+				tablePos[hole] = tablePos[i];
+				cells[tablePos[hole]] = hole;
+				hole = i;
+			}
+		}
+		tablePos[hole] = 0;
+	}
+}
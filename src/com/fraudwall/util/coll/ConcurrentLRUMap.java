@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.AbstractMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * A thread-safe, bounded cache mapping keys to values that evicts the
+ * key/value mapping that was least recently added or accessed.<p>
+ *
+ * Unlike an {@link LRUMap} wrapped in a single lock, this class splits the
+ * cache into a number of independently locked segments, each of which is an
+ * {@link LRUMap} holding its share of <code>maxSize</code>. A key is always
+ * stored in the segment selected by its hash code, so threads accessing keys
+ * in different segments never contend for the same lock. This matters because
+ * even {@link #get} must reorder the recency list of the segment it touches.<p>
+ *
+ * The price of segmentation is that the eviction order is only approximately
+ * LRU: when a segment is full, the least recently used entry <em>of that
+ * segment</em> is evicted, which is not necessarily the least recently used
+ * entry of the whole cache. With a concurrency level of 1, this class
+ * behaves exactly like a synchronized {@link LRUMap}.<p>
+ *
+ * The {@link #entrySet} method returns a snapshot of the cache contents; the
+ * snapshot is taken one segment at a time, so it is not an atomic view of the
+ * whole cache.
+ *
+ * @param <K> The type of keys stored in the map.
+ * @param <V> The type of values stored in the map.
+ */
+public class ConcurrentLRUMap<K,V> extends AbstractMap<K,V> {
+	/** Default number of independently locked segments. */
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+	/** Upper bound on the number of elements in the cache. */
+	private final int maxSize;
+
+	/** The segments; each one is guarded by its own monitor. */
+	private final LRUMap<K,V>[] segments;
+
+	/**
+	 * Creates a new concurrent LRU cache that holds at most
+	 * <code>maxSize</code> elements, using the default number
+	 * of segments.
+	 *
+	 * @see #DEFAULT_CONCURRENCY_LEVEL
+	 */
+	public static <K,V> ConcurrentLRUMap<K,V> create(int maxSize) {
+		return create(maxSize, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * Creates a new concurrent LRU cache that holds at most
+	 * <code>maxSize</code> elements, split into
+	 * <code>concurrencyLevel</code> independently locked segments.
+	 * If <code>maxSize</code> is smaller than <code>concurrencyLevel</code>,
+	 * only <code>maxSize</code> segments are used.
+	 */
+	public static <K,V> ConcurrentLRUMap<K,V> create(int maxSize, int concurrencyLevel) {
+		return new ConcurrentLRUMap<K,V>(maxSize, concurrencyLevel);
+	}
+
+	@SuppressWarnings("unchecked")
+	private ConcurrentLRUMap(int maxSize, int concurrencyLevel) {
+		ArgCheck.isTrue(maxSize >= 1, "maxSize must be positive");
+		ArgCheck.isTrue(concurrencyLevel >= 1, "concurrencyLevel must be positive");
+		this.maxSize = maxSize;
+		int n = Math.min(maxSize, concurrencyLevel);
+		segments = new LRUMap[n];
+		for (int i = 0; i < n; i++) {
+			// spread the remainder over the first segments so the
+			// segment sizes add up to exactly maxSize
+			segments[i] = LRUMap.create(maxSize / n + (i < maxSize % n ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Returns the upper bound on the number of elements in the cache.
+	 */
+	public int maxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Makes every segment of this cache record its hits, misses and
+	 * evictions into <code>stats</code>, or stops recording if
+	 * <code>stats</code> is null.
+	 *
+	 * @see LRUMap#setStats
+	 */
+	public void setStats(CacheStats stats) {
+		for (LRUMap<K,V> segment : segments) {
+			synchronized (segment) {
+				segment.setStats(stats);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of elements in the cache, which will
+	 * be between 0 and the <code>maxSize</code> value passed
+	 * to this instance's factory method (inclusive).
+	 */
+	@Override
+	public int size() {
+		int size = 0;
+		for (LRUMap<K,V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns true if and only if the given <code>key</code>
+	 * is in the cache. This method has no effect on protecting
+	 * the accessed key/value pair from eviction.
+	 */
+	@Override
+	public boolean containsKey(Object key) {
+		LRUMap<K,V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.containsKey(key);
+		}
+	}
+
+	/**
+	 * Returns the value associated with the given <code>key</code>,
+	 * or <code>null</code> if the cache does not contain the key.
+	 * If the key is present, this method also has the side-effect
+	 * of temporarily protecting the given value from eviction.
+	 */
+	@Override
+	public V get(Object key) {
+		LRUMap<K,V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.get(key);
+		}
+	}
+
+	/**
+	 * Adds a mapping from the given <code>key</code> to the given
+	 * <code>value</code> to this cache, possibly evicting some other
+	 * element of the same segment.
+	 *
+	 * @return The value to which the given <code>key</code> was
+	 * mapped prior to this call, or <code>null</code> if the cache
+	 * did not previously contain a mapping for the key.
+	 * @see LRUMap#put
+	 */
+	@Override
+	public V put(K key, V value) {
+		LRUMap<K,V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.put(key, value);
+		}
+	}
+
+	/**
+	 * Removes the mapping for the given <code>key</code> from this
+	 * cache if it is present; if not present, this method is a no-op.
+	 *
+	 * @return The value to which the key was mapped, or <code>null</code>
+	 * if the cache did not contain a mapping for the key.
+	 */
+	@Override
+	public V remove(Object key) {
+		LRUMap<K,V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.remove(key);
+		}
+	}
+
+	/**
+	 * Removes all mappings from this cache.
+	 */
+	@Override
+	public void clear() {
+		for (LRUMap<K,V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the mappings contained in this map. Changes
+	 * to the map are not reflected in the returned set, and vice-versa.
+	 */
+	@Override
+	public Set<Map.Entry<K,V>> entrySet() {
+		Set<Map.Entry<K,V>> set = new HashSet<Map.Entry<K,V>>(size());
+		for (LRUMap<K,V> segment : segments) {
+			synchronized (segment) {
+				for (Map.Entry<K,V> entry : segment.entrySet()) {
+					set.add(new LRUMap.SimpleImmutableEntry<K,V>(entry.getKey(), entry.getValue()));
+				}
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * Returns the segment responsible for <code>key</code>. The key's hash
+	 * code is re-mixed so that keys whose hash codes differ only in their
+	 * high-order bits still spread across all the segments.
+	 */
+	private LRUMap<K,V> segmentFor(Object key) {
+		int h = (key == null) ? 0 : key.hashCode();
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+}
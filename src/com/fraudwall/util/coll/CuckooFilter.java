@@ -0,0 +1,304 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * An approximate set of <code>long</code> keys, such as
+ * {@link com.fraudwall.util.fp.FP64} fingerprints of URLs or user agents,
+ * that supports deletion. Like a Bloom filter, it may report that a key is
+ * present when it is not (with probability about 0.01%), but never that a key
+ * is absent when it has been added; unlike a Bloom filter, keys can be
+ * removed.<p>
+ *
+ * This is a cuckoo filter (Fan, Andersen, Kaminsky and Mitzenmacher, 2014):
+ * each key is reduced to a 16-bit fingerprint, which is stored in one of two
+ * candidate buckets of four slots; a bucket is packed into a single
+ * <code>long</code>. When both buckets are full, a fingerprint already in
+ * one of them is moved to its own alternate bucket, and so on. The filter
+ * can be filled to about 95% of its slots, so it takes a little over 2 bytes
+ * per key, compared to about 100 for an {@link LRUSet} of {@link Long}s.<p>
+ *
+ * The filter behaves like a multiset of fingerprints: a key added twice must
+ * be removed twice, and only keys that have been added should be removed
+ * (removing any other key may remove a different key with the same
+ * fingerprint).<p>
+ *
+ * This class is thread safe. Updates are serialized, while
+ * {@link #contains} never blocks: it reads the buckets optimistically and
+ * retries if an update ran at the same time.
+ */
+public final class CuckooFilter {
+
+	/** Number of slots in a bucket. */
+	private static final int SLOTS = 4;
+
+	/** Maximum number of fingerprints moved by a single {@link #add}. */
+	private static final int MAX_KICKS = 500;
+
+	/** The buckets; slot s of a bucket is bits 16s to 16s+15. 0 is an empty slot. */
+	private final AtomicLongArray buckets;
+
+	/** buckets.length() - 1. */
+	private final int mask;
+
+	/**
+	 * Incremented before and after every update, so it is odd while an
+	 * update is in progress. Guarded by this object's monitor for writes.
+	 */
+	private volatile int sequence;
+
+	/**
+	 * A fingerprint that could not be placed by the last failed add, and
+	 * its bucket; 0 if none. While it is occupied, adds fail.
+	 */
+	private volatile int victimFingerprint;
+	private volatile int victimBucket;
+
+	/** Number of fingerprints stored. Guarded by this object's monitor. */
+	private int size;
+
+	/** State of the random number generator used to pick slots to kick. */
+	private long random = 0x2545F4914F6CDD1DL;
+
+	/**
+	 * Creates a filter with room for at least <code>expectedKeys</code> keys.
+	 */
+	public static CuckooFilter create(int expectedKeys) {
+		return new CuckooFilter(expectedKeys);
+	}
+
+	private CuckooFilter(int expectedKeys) {
+		ArgCheck.isTrue(expectedKeys >= 1, "expectedKeys must be positive");
+		long minBuckets = (long) Math.ceil(expectedKeys / (SLOTS * 0.95));
+		ArgCheck.isTrue(minBuckets <= (1 << 30), "expectedKeys too large");
+		int n = 1;
+		while (n < minBuckets) {
+			n <<= 1;
+		}
+		buckets = new AtomicLongArray(n);
+		mask = n - 1;
+	}
+
+	/**
+	 * Adds <code>key</code> to this filter. Returns false if the filter is
+	 * too full to hold it, in which case the filter is unchanged.
+	 */
+	public synchronized boolean add(long key) {
+		if (victimFingerprint != 0) {
+			return false;
+		}
+		long hash = KeyHashing.mix(key);
+		int fp = fingerprint(hash);
+		int i1 = index(hash);
+		int i2 = altIndex(i1, fp);
+		beginUpdate();
+		try {
+			if (insertIntoBucket(i1, fp) || insertIntoBucket(i2, fp)) {
+				size++;
+				return true;
+			}
+			int i = ((nextRandom() & 1) == 0) ? i1 : i2;
+			for (int kick = 0; kick < MAX_KICKS; kick++) {
+				int slot = nextRandom() & (SLOTS - 1);
+				long word = buckets.get(i);
+				int evicted = slotValue(word, slot);
+				buckets.set(i, withSlot(word, slot, fp));
+				fp = evicted;
+				i = altIndex(i, fp);
+				if (insertIntoBucket(i, fp)) {
+					size++;
+					return true;
+				}
+			}
+			// keep the last evicted fingerprint aside, so that no key is lost
+			victimBucket = i;
+			victimFingerprint = fp;
+			size++;
+			return true;
+		} finally {
+			endUpdate();
+		}
+	}
+
+	/**
+	 * Returns true if <code>key</code> has probably been added to this filter,
+	 * and false if it certainly has not. Never blocks.
+	 */
+	public boolean contains(long key) {
+		long hash = KeyHashing.mix(key);
+		int fp = fingerprint(hash);
+		int i1 = index(hash);
+		int i2 = altIndex(i1, fp);
+		while (true) {
+			int seq = sequence;
+			if ((seq & 1) != 0) {
+				Thread.yield();
+				continue;
+			}
+			boolean found = bucketContains(buckets.get(i1), fp)
+				|| bucketContains(buckets.get(i2), fp)
+				|| (victimFingerprint == fp && (victimBucket == i1 || victimBucket == i2));
+			if (sequence == seq) {
+				return found;
+			}
+		}
+	}
+
+	/**
+	 * Removes one copy of <code>key</code> from this filter. Returns false
+	 * if the key's fingerprint was not found.
+	 */
+	public synchronized boolean remove(long key) {
+		long hash = KeyHashing.mix(key);
+		int fp = fingerprint(hash);
+		int i1 = index(hash);
+		int i2 = altIndex(i1, fp);
+		beginUpdate();
+		try {
+			if (removeFromBucket(i1, fp) || removeFromBucket(i2, fp)) {
+				size--;
+				if (victimFingerprint != 0) {
+					// there is room now; retry placing the victim
+					int vfp = victimFingerprint;
+					int vi = victimBucket;
+					if (insertIntoBucket(vi, vfp) || insertIntoBucket(altIndex(vi, vfp), vfp)) {
+						victimFingerprint = 0;
+					}
+				}
+				return true;
+			}
+			if (victimFingerprint == fp && (victimBucket == i1 || victimBucket == i2)) {
+				victimFingerprint = 0;
+				size--;
+				return true;
+			}
+			return false;
+		} finally {
+			endUpdate();
+		}
+	}
+
+	/**
+	 * Returns the number of keys in this filter.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of fingerprint slots; the filter can typically be
+	 * filled to 95% of this number.
+	 */
+	public int capacity() {
+		return buckets.length() * SLOTS;
+	}
+
+	// ======================================================= helpers
+
+	private void beginUpdate() {
+		sequence++;
+	}
+
+	private void endUpdate() {
+		sequence++;
+	}
+
+	private int index(long hash) {
+		return (int) (hash >>> 32) & mask;
+	}
+
+	private static int fingerprint(long hash) {
+		int fp = (int) hash & 0xFFFF;
+		return (fp == 0) ? 1 : fp;
+	}
+
+	/**
+	 * Returns the other candidate bucket of fingerprint <code>fp</code> in
+	 * bucket <code>i</code>; applying it twice yields <code>i</code> again.
+	 */
+	private int altIndex(int i, int fp) {
+		return (i ^ (int) KeyHashing.mix(fp)) & mask;
+	}
+
+	private static int slotValue(long word, int slot) {
+		return (int) (word >>> (16 * slot)) & 0xFFFF;
+	}
+
+	private static long withSlot(long word, int slot, int fp) {
+		int shift = 16 * slot;
+		return (word & ~(0xFFFFL << shift)) | ((long) fp << shift);
+	}
+
+	private static boolean bucketContains(long word, int fp) {
+		for (int slot = 0; slot < SLOTS; slot++) {
+			if (slotValue(word, slot) == fp) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean insertIntoBucket(int i, int fp) {
+		long word = buckets.get(i);
+		for (int slot = 0; slot < SLOTS; slot++) {
+			if (slotValue(word, slot) == 0) {
+				buckets.set(i, withSlot(word, slot, fp));
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean removeFromBucket(int i, int fp) {
+		long word = buckets.get(i);
+		for (int slot = 0; slot < SLOTS; slot++) {
+			if (slotValue(word, slot) == fp) {
+				buckets.set(i, withSlot(word, slot, 0));
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** xorshift64 */
+	private int nextRandom() {
+		random ^= random << 13;
+		random ^= random >>> 7;
+		random ^= random << 17;
+		return (int) random;
+	}
+}
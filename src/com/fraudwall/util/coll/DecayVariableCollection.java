@@ -32,13 +32,23 @@
  */
 package com.fraudwall.util.coll;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.fraudwall.util.FWProps;
 import com.fraudwall.util.coll.IndexedPriorityQueue.Entry;
+import com.fraudwall.util.coll.prim.LongHashSet;
+import com.fraudwall.util.coll.prim.LongIntHashMap;
+import com.fraudwall.util.exc.ArgCheck;
 
 /**
  * A DecayVariable maintains a set of key-value pairs. The value associated with
@@ -62,6 +72,17 @@ import com.fraudwall.util.coll.IndexedPriorityQueue.Entry;
  *
  *   killtime = now + HALFLIFE * lg(energy/KILLTHRESHOLD)
  *
+ * A kill time is thus a key's log-energy relative to a fixed epoch, and adding
+ * energies amounts to combining kill times, which {@link #update} does with a
+ * precomputed table instead of calling Math.pow and Math.log. Each update is
+ * within 1e-6 half-lives (plus the rounding to milliseconds) of the exact
+ * formulae above.
+ *
+ * Since a key's energy is determined by its kill time, the state of the
+ * collection can be saved with {@link #snapshot()} and reloaded after a
+ * restart with {@link #restore(Snapshot, long)}; see {@link Snapshot} for
+ * the binary format.
+ *
  * @author marc
  * @author kfox
  */
@@ -71,6 +92,27 @@ public class DecayVariableCollection<V> {
 
 	private static final double LOG2 = Math.log(2.0);
 
+	/**
+	 * Resolution and range, in half-lives, of {@link #LOG_ADD}. Beyond
+	 * LOG_ADD_RANGE half-lives, adding the smaller energy extends the kill
+	 * time by less than 2^-LOG_ADD_RANGE half-lives, which is ignored.
+	 */
+	private static final int LOG_ADD_SCALE = 256, LOG_ADD_RANGE = 32;
+	private static final int LOG_ADD_STEPS = LOG_ADD_SCALE * LOG_ADD_RANGE;
+
+	/**
+	 * LOG_ADD[i] = lg(1 + 2^(-i/LOG_ADD_SCALE)), the number of half-lives by
+	 * which adding an energy that dies i/LOG_ADD_SCALE half-lives earlier
+	 * extends a kill time. Linear interpolation between entries is off by at
+	 * most (1/LOG_ADD_SCALE)^2 * ln(2)/32, or 3e-7 half-lives.
+	 */
+	private static final double[] LOG_ADD = new double[LOG_ADD_STEPS + 1];
+	static {
+		for (int i = 0; i <= LOG_ADD_STEPS; i++) {
+			LOG_ADD[i] = Math.log(1.0 + Math.pow(2.0, -(double) i / LOG_ADD_SCALE)) / LOG2;
+		}
+	}
+
 	/**
 	 * Type of collection (for log files)
 	 */
@@ -99,6 +141,17 @@ public class DecayVariableCollection<V> {
 	 */
 	private final long halfLife;
 
+	/**
+	 * HALFLIFE * lg(ENERGYUNIT/KILLTHRESHOLD): the time it takes one
+	 * ENERGYUNIT to decay to KILLTHRESHOLD.
+	 */
+	private final double unitLifetime;
+
+	/**
+	 * Number of {@link #LOG_ADD} entries per millisecond.
+	 */
+	private final double logAddStepsPerMilli;
+
 	/**
 	 * Priority Queue in order of each one's killTime
 	 */
@@ -146,6 +199,8 @@ public class DecayVariableCollection<V> {
 		this.energyUnit = energyUnit;
 		this.killThreshold = killThreshold;
 		this.halfLife = halfLife;
+		this.unitLifetime = halfLife * Math.log(energyUnit / killThreshold) / LOG2;
+		this.logAddStepsPerMilli = (double) LOG_ADD_SCALE / halfLife;
 
 		pq = IndexedPriorityQueue.create(maxSize);
 	}
@@ -186,23 +241,152 @@ public class DecayVariableCollection<V> {
 	 * energy.
 	 */
 	public Entry<V> update(long key, long now) {
+		return addKillTime(key, now + unitLifetime, now);
+	}
+
+	/**
+	 * Updates the energy of each of the first <code>n</code> keys in
+	 * <code>keys</code> at the corresponding time in <code>times</code>, as
+	 * if by calling {@link #update} on each pair in turn, but with a single
+	 * priority queue adjustment per distinct key.<p>
+	 *
+	 * Since energies add up, the updates of a key are first merged into the
+	 * kill time of their total energy (see {@link #logAdd}), which does not
+	 * depend on the order of the updates, and then added to the key's energy
+	 * at once. The resulting kill times differ from those of repeated calls
+	 * to {@link #update} only by the rounding of intermediate kill times to
+	 * milliseconds. Keys that are new to the collection are added in the
+	 * order of their first occurrence in the batch, each removing at most
+	 * one entry as in {@link #update}.
+	 *
+	 * @return the number of distinct keys in the batch.
+	 */
+	public int updateAll(long[] keys, long[] times, int n) {
+		ArgCheck.isTrue(0 <= n && n <= keys.length && n <= times.length,
+			"n must be between 0 and the length of keys and times");
+		LongIntHashMap index = new LongIntHashMap(n, -1);
+		long[] distinctKeys = new long[n];
+		long[] lastTimes = new long[n];
+		double[] killTimes = new double[n];
+		int numDistinct = 0;
+		for (int i = 0; i < n; i++) {
+			long time = times[i];
+			int j = index.get(keys[i]);
+			if (j < 0) {
+				j = numDistinct++;
+				index.put(keys[i], j);
+				distinctKeys[j] = keys[i];
+				lastTimes[j] = time;
+				killTimes[j] = time + unitLifetime;
+			} else {
+				lastTimes[j] = Math.max(lastTimes[j], time);
+				killTimes[j] = logAdd(killTimes[j], time + unitLifetime);
+			}
+		}
+		for (int j = 0; j < numDistinct; j++) {
+			addKillTime(distinctKeys[j], killTimes[j], lastTimes[j]);
+		}
+		return numDistinct;
+	}
+
+	/**
+	 * Adds the energy that dies at <code>killTime</code> to the energy of
+	 * <code>key</code>, adding the key to the collection if needed. As
+	 * before kill times were computed without tables, the offset of the
+	 * new kill time from <code>now</code> is rounded toward zero.
+	 */
+	private Entry<V> addKillTime(long key, double killTime, long now) {
 		Entry<V> e = pq.get(key);
-		double currentEnergy = (e != null) ? findEnergyForKillTime(
-				e.getPriority(), now) : 0.0;
-		double newEnergy = currentEnergy + energyUnit;
-		long newKillTime = findKillTimeForEnergy(newEnergy, now);
+		double newKillTime = (e != null) ? logAdd(e.getPriority(), killTime) : killTime;
+		long newPriority = now + (long) (newKillTime - now);
 
 		if (e != null) {
-			e.setPriority(newKillTime);
+			e.setPriority(newPriority);
 			pq.priorityHasChanged(e);
 		} else {
 			cleanupCollection(now);
-			e = Entry.create(key, null, newKillTime);
+			e = Entry.create(key, null, newPriority);
 			pq.add(e);
 		}
 		return e;
 	}
 
+	/**
+	 * Returns the kill time of the sum of the energies that die at
+	 * <code>killTime1</code> and <code>killTime2</code>. Since
+	 * <code>energy = KILLTHRESHOLD * 2^((killTime-now)/HALFLIFE)</code>,
+	 * this is
+	 *
+	 *   max(killTime1, killTime2) + HALFLIFE * lg(1 + 2^(-d/HALFLIFE))
+	 *
+	 * where <code>d = |killTime1 - killTime2|</code>, whatever the current
+	 * time. The logarithm is interpolated in {@link #LOG_ADD}, which keeps
+	 * the result within 1e-6 half-lives of the exact one.
+	 */
+	private double logAdd(double killTime1, double killTime2) {
+		double x = Math.abs(killTime1 - killTime2) * logAddStepsPerMilli;
+		double max = Math.max(killTime1, killTime2);
+		if (x >= LOG_ADD_STEPS) {
+			return max;
+		}
+		int i = (int) x;
+		return max + halfLife * (LOG_ADD[i] + (x - i) * (LOG_ADD[i + 1] - LOG_ADD[i]));
+	}
+
+	/**
+	 * Returns the energy of <code>key</code> as of <code>now</code>, or 0 if
+	 * the collection does not contain the key. The energy of a key whose kill
+	 * time has passed but which has not been removed yet is below
+	 * KILLTHRESHOLD. Unlike {@link #update}, this does not modify the
+	 * collection.
+	 */
+	public double getEnergy(long key, long now) {
+		Entry<V> e = pq.get(key);
+		return (e == null) ? 0.0 : findEnergyForKillTime(e.getPriority(), now);
+	}
+
+	/**
+	 * Returns an iterator over copies of the (at most) <code>n</code> entries
+	 * with the most energy, hottest first. Since energy grows with kill time,
+	 * these are the entries with the largest kill times, whatever the current
+	 * time; ties are broken by taking the larger key.<p>
+	 *
+	 * This walks the priority queue once, in place, keeping the <code>n</code>
+	 * best entries seen so far in a small heap, so it takes
+	 * O(size * log(n)) time and O(n) space rather than copying and sorting
+	 * the whole queue. Unlike {@link #update}, it does not modify the
+	 * collection.
+	 */
+	public Iterator<Entry<V>> hottest(int n) {
+		return Arrays.asList(selectHottest(pq.iterator(), n)).iterator();
+	}
+
+	/**
+	 * Returns copies of the (at most) <code>n</code> entries of
+	 * <code>entries</code> with the largest kill times, largest first.
+	 */
+	static <V> Entry<V>[] selectHottest(Iterator<Entry<V>> entries, int n) {
+		ArgCheck.isTrue(n >= 0, "n must be non-negative");
+		// a min-heap of the best entries so far, whose root is the first to go
+		PriorityQueue<Entry<V>> best = new PriorityQueue<Entry<V>>(Math.max(1, Math.min(n, 1024)));
+		while (n > 0 && entries.hasNext()) {
+			Entry<V> e = entries.next();
+			if (best.size() < n) {
+				best.add(e);
+			} else if (e.compareTo(best.peek()) > 0) {
+				best.poll();
+				best.add(e);
+			}
+		}
+		@SuppressWarnings("unchecked")
+		Entry<V>[] res = new Entry[best.size()];
+		for (int i = res.length - 1; i >= 0; i--) {
+			Entry<V> e = best.poll();
+			res[i] = Entry.create(e.getKey(), e.getValue(), e.getPriority());
+		}
+		return res;
+	}
+
 	/**
 	 * compute: energy = KILLTHRESHOLD * 2^((killTime-now)/HALFLIFE)
 	 */
@@ -211,10 +395,70 @@ public class DecayVariableCollection<V> {
 	}
 
 	/**
-	 * compute: killtime = now + HALFLIFE * lg(energy/KILLTHRESHOLD)
+	 * Returns a copy of the keys, kill times and values currently in this
+	 * collection. Taking the copy is a few array writes per key, so a client
+	 * that shares this collection between threads only needs to hold its lock
+	 * while the snapshot is taken, and not while it is written out with
+	 * {@link Snapshot#writeTo}.
 	 */
-	private long findKillTimeForEnergy(double energy, long timeNow) {
-		return timeNow + (long) (halfLife * Math.log(energy / killThreshold) / LOG2);
+	public Snapshot<V> snapshot() {
+		Snapshot<V> snapshot = new Snapshot<V>(pq.size());
+		for (Entry<V> e : pq) {
+			snapshot.add(e.getKey(), e.getPriority(), e.getValue());
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Replaces the contents of this collection by the entries of
+	 * <code>snapshot</code> whose kill times have not passed as of
+	 * <code>now</code>. If more than <code>maxSize</code> entries remain,
+	 * the ones with the largest kill times are kept. The priority queue is
+	 * rebuilt in a single linear-time pass rather than by adding the
+	 * entries one at a time.
+	 *
+	 * @return the number of entries restored.
+	 * @throws IllegalArgumentException if the snapshot contains a duplicate
+	 * key, in which case this collection is left unchanged.
+	 */
+	public int restore(Snapshot<V> snapshot, long now) {
+		LongHashSet seen = new LongHashSet(snapshot.size);
+		int live = 0;
+		for (int i = 0; i < snapshot.size; i++) {
+			ArgCheck.isTrue(seen.add(snapshot.keys[i]), "Duplicate key " + snapshot.keys[i]);
+			if (snapshot.killTimes[i] >= now) {
+				live++;
+			}
+		}
+		// if there are too many live entries, find the smallest kill
+		// time to keep, and how many entries with that kill time fit
+		long minKillTime = now;
+		int numAtMin = Integer.MAX_VALUE;
+		if (live > maxSize) {
+			long[] sorted = new long[live];
+			for (int i = 0, j = 0; i < snapshot.size; i++) {
+				if (snapshot.killTimes[i] >= now) {
+					sorted[j++] = snapshot.killTimes[i];
+				}
+			}
+			Arrays.sort(sorted);
+			int first = live - maxSize;
+			minKillTime = sorted[first];
+			numAtMin = 0;
+			for (int i = first; i < live && sorted[i] == minKillTime; i++) {
+				numAtMin++;
+			}
+		}
+		List<Entry<V>> entries = new ArrayList<Entry<V>>(Math.min(live, maxSize));
+		for (int i = 0; i < snapshot.size; i++) {
+			long killTime = snapshot.killTimes[i];
+			if (killTime > minKillTime || (killTime == minKillTime && numAtMin-- > 0)) {
+				entries.add(Entry.create(snapshot.keys[i], snapshot.getValue(i), killTime));
+			}
+		}
+		pq.clear();
+		pq.addAll(entries);
+		return entries.size();
 	}
 
 	public String toStringKillTime(long key) {
@@ -243,4 +487,177 @@ public class DecayVariableCollection<V> {
 			+ "\n\thalfLife = " + halfLife
 			+ "\n\tkillThreshold = " + killThreshold;
 	}
+
+	/**
+	 * A point-in-time copy of the entries of a {@link DecayVariableCollection},
+	 * as returned by {@link DecayVariableCollection#snapshot()}. A snapshot is
+	 * written and read in the following binary form, where the value is
+	 * present only if a {@link ValueCodec} was supplied when writing:
+	 *
+	 * <pre>
+	 *   int     MAGIC
+	 *   int     VERSION
+	 *   boolean hasValues
+	 *   int     count
+	 *   count times:
+	 *     long  key
+	 *     long  killTime
+	 *     V     value (if hasValues)
+	 * </pre>
+	 *
+	 * For best performance, wrap file streams in a
+	 * {@link java.io.BufferedOutputStream} or {@link java.io.BufferedInputStream}
+	 * before handing them to a {@link java.io.DataOutputStream} or
+	 * {@link java.io.DataInputStream}.
+	 *
+	 * @param <V> The type of values stored with the keys.
+	 */
+	public static class Snapshot<V> {
+
+		/**
+		 * Marks the start of a snapshot ("DVCS").
+		 */
+		public static final int MAGIC = 0x44564353;
+
+		/**
+		 * Version of the binary format.
+		 */
+		public static final int VERSION = 1;
+
+		/**
+		 * The most entries {@link #readFrom} makes room for before it has
+		 * read them.
+		 */
+		private static final int MAX_INITIAL_READ_CAPACITY = 1 << 16;
+
+		private long[] keys;
+		private long[] killTimes;
+		private Object[] values;
+		private int size;
+
+		/**
+		 * Creates an empty snapshot with room for <code>capacity</code>
+		 * entries; it grows as needed.
+		 */
+		public Snapshot(int capacity) {
+			ArgCheck.isTrue(capacity >= 0, "capacity must be non-negative");
+			keys = new long[capacity];
+			killTimes = new long[capacity];
+			values = new Object[capacity];
+		}
+
+		/**
+		 * Appends an entry to this snapshot.
+		 */
+		public void add(long key, long killTime, V value) {
+			if (size == keys.length) {
+				grow();
+			}
+			keys[size] = key;
+			killTimes[size] = killTime;
+			values[size] = value;
+			size++;
+		}
+
+		/**
+		 * Returns the number of entries in this snapshot.
+		 */
+		public int size() {
+			return size;
+		}
+
+		public long getKey(int i) {
+			checkIndex(i);
+			return keys[i];
+		}
+
+		public long getKillTime(int i) {
+			checkIndex(i);
+			return killTimes[i];
+		}
+
+		@SuppressWarnings("unchecked")
+		public V getValue(int i) {
+			checkIndex(i);
+			return (V) values[i];
+		}
+
+		/**
+		 * Writes this snapshot to <code>out</code>. If <code>codec</code> is
+		 * null, only the keys and kill times are written.
+		 */
+		public void writeTo(DataOutput out, ValueCodec<? super V> codec) throws IOException {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeBoolean(codec != null);
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				out.writeLong(keys[i]);
+				out.writeLong(killTimes[i]);
+				if (codec != null) {
+					codec.write(getValue(i), out);
+				}
+			}
+		}
+
+		/**
+		 * Reads a snapshot written by {@link #writeTo} from <code>in</code>.
+		 * If the snapshot contains values, <code>codec</code> must not be
+		 * null; if it does not, all values of the returned snapshot are null.
+		 *
+		 * @throws IOException if the stream does not contain a snapshot of
+		 * a supported version, or ends before the number of entries its
+		 * header promises.
+		 */
+		public static <V> Snapshot<V> readFrom(DataInput in, ValueCodec<? extends V> codec)
+			throws IOException
+		{
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a DecayVariableCollection snapshot");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported snapshot version " + version);
+			}
+			boolean hasValues = in.readBoolean();
+			if (hasValues && codec == null) {
+				throw new IOException("Snapshot contains values but no codec was given");
+			}
+			int count = in.readInt();
+			if (count < 0) {
+				throw new IOException("Corrupt snapshot: negative count " + count);
+			}
+			// the count is not trusted to size the arrays: a corrupt one must
+			// end in an EOFException, not an OutOfMemoryError
+			Snapshot<V> snapshot = new Snapshot<V>(Math.min(count, MAX_INITIAL_READ_CAPACITY));
+			for (int i = 0; i < count; i++) {
+				long key = in.readLong();
+				long killTime = in.readLong();
+				V value = hasValues ? codec.read(in) : null;
+				snapshot.add(key, killTime, value);
+			}
+			return snapshot;
+		}
+
+		// ======================================================= helpers
+
+		private void checkIndex(int i) {
+			if (i < 0 || i >= size) {
+				throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+			}
+		}
+
+		private void grow() {
+			int capacity = Math.max(16, keys.length * 2);
+			long[] newKeys = new long[capacity];
+			long[] newKillTimes = new long[capacity];
+			Object[] newValues = new Object[capacity];
+			System.arraycopy(keys, 0, newKeys, 0, size);
+			System.arraycopy(killTimes, 0, newKillTimes, 0, size);
+			System.arraycopy(values, 0, newValues, 0, size);
+			keys = newKeys;
+			killTimes = newKillTimes;
+			values = newValues;
+		}
+	}
 }
@@ -32,7 +32,7 @@
  */
 package com.fraudwall.util.coll;
 
-import java.util.BitSet;
+import java.util.Arrays;
 
 /**
  * Keeps an estimate of the number of unique keys that have been seen over some
@@ -57,8 +57,16 @@ import java.util.BitSet;
  * (more details are available on
  * http://server1/wiki/index.php/DistinctHashCounters).<p>
  *
- * Currently, each bit vector is implemented using a BitSet, which is
- * constrained to be a multiple of 64.
+ * Rather than keeping one bit vector per interval and OR-ing them together
+ * whenever the window slides, each of the N bits records the number of the
+ * last interval in which it was set, and each interval keeps a count of the
+ * bits last set in it. A bit is set in the window if it was last set in one of
+ * the 1+W/T most recent intervals, so the number of bits set in the window can
+ * be maintained incrementally: setting a bit adds one to the current
+ * interval's count, and sliding the window subtracts the count of the
+ * interval that falls out of it. Both {@link #record} and sliding the
+ * window take constant time per interval. The space used is 4 bytes per bit
+ * plus 4 bytes per interval, rather than N/8 bytes per interval.
  *
  * @author marc
  */
@@ -69,10 +77,11 @@ public final class EstCount<K> {
 	private final int N; // maximum number of keys to count
 	private final int blocks; // number of intervals in the window; = 1+int(W/T)
 
-	private BitSet[] bits; // W/T of history, plus the current
-	private BitSet acc; // OR of all bit vectors in bits
+	private final int[] lastBlock; // for each bit, the last block it was set in; 0 if never
+	private final int[] counts; // for each block, the number of bits last set in that block
+	private int cardinality; // number of bits set in the window
 
-	private int currentBlock; // index into the bits array
+	private int currentBlock; // number of the current block; increases by 1 per interval
 	private long startTimeOfCurrentBlock; // starting time of the currentBlock
 
 	public static <K> EstCount<K> create(long W, long T, int N) {
@@ -88,12 +97,10 @@ public final class EstCount<K> {
 		this.T = T;
 		this.N = N;
 		blocks = 1 + (int) (this.W / this.T);
-		bits = new BitSet[blocks];
-		for (int i = 0; i < blocks; i++) {
-			bits[i] = new BitSet(N);
-		}
-		acc = new BitSet(N);
-		currentBlock = blocks - 1;
+		lastBlock = new int[N];
+		counts = new int[blocks];
+		// start at block number "blocks" so that a lastBlock of 0 is never in the window
+		currentBlock = blocks;
 		startTimeOfCurrentBlock = -1;
 	}
 
@@ -105,28 +112,51 @@ public final class EstCount<K> {
 		if (startTimeOfCurrentBlock < 0) {
 			startTimeOfCurrentBlock = now;
 		} else if (now >= (startTimeOfCurrentBlock + T)) {
-			acc.clear();
 			int intervalsToSlide = (int) ((now - startTimeOfCurrentBlock) / T);
 			if (intervalsToSlide >= blocks) {
 				startTimeOfCurrentBlock = now;
-				for (int i = 0; i < blocks; i++) {
-					bits[i].clear();
-				}
+				// every block falls out of the window
+				advance(blocks);
+				Arrays.fill(counts, 0);
+				cardinality = 0;
 			} else {
 				for (int i = 0; i < intervalsToSlide; i++) {
 					startTimeOfCurrentBlock += T;
-					currentBlock = (currentBlock + 1) % blocks;
-					bits[currentBlock].clear();
-				}
-				for (int i = 0; i < blocks; i++) {
-					acc.or(bits[i]);
+					advance(1);
+					int slot = currentBlock % blocks;
+					cardinality -= counts[slot];
+					counts[slot] = 0;
 				}
 			}
 		}
 		int hash = hashOfKey(key, N);
-		acc.set(hash);
-		bits[currentBlock].set(hash);
-		return acc.cardinality();
+		int last = lastBlock[hash];
+		if (last != currentBlock) {
+			if (last > currentBlock - blocks) {
+				counts[last % blocks]--;
+			} else {
+				cardinality++;
+			}
+			lastBlock[hash] = currentBlock;
+			counts[currentBlock % blocks]++;
+		}
+		return cardinality;
+	}
+
+	/**
+	 * Advances the current block number by <code>n</code>. Block numbers are
+	 * rebased, keeping their remainders modulo <code>blocks</code>, before
+	 * they overflow.
+	 */
+	private void advance(int n) {
+		if (currentBlock > Integer.MAX_VALUE - n) {
+			int shift = (currentBlock / blocks - 1) * blocks;
+			for (int i = 0; i < N; i++) {
+				lastBlock[i] = (lastBlock[i] > shift) ? lastBlock[i] - shift : 0;
+			}
+			currentBlock -= shift;
+		}
+		currentBlock += n;
 	}
 
 	/**
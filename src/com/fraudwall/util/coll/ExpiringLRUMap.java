@@ -32,38 +32,116 @@
  */
 package com.fraudwall.util.coll;
 
+import java.util.AbstractCollection;
 import java.util.AbstractMap;
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.commons.lang.time.DateUtils;
 
+import com.fraudwall.util.exc.ArgCheck;
 
+/**
+ * A bounded {@link LRUMap} whose mappings expire a given number of
+ * milliseconds after they were put. Each mapping can be given its own
+ * time-to-live with {@link #put(Object, Object, long)}; {@link #put(Object, Object)}
+ * uses the time-to-live the map was created with.<p>
+ *
+ * Expired mappings are never returned. They are also reclaimed proactively:
+ * every mapping is scheduled on a {@link TimingWheel}, which every operation
+ * advances to the current time, so an expired mapping is removed within
+ * about 64 milliseconds of its expiration rather than occupying space until
+ * LRU eviction pushes it out. As a result, when the map is full, it is live
+ * mappings that compete for space. Reclaiming expired mappings costs
+ * amortized constant time per mapping.<p>
+ *
+ * The {@link #entrySet}, {@link #keySet} and {@link #values} views are live:
+ * their iterators walk the underlying {@link LRUMap} from the most recently
+ * used mapping to the least recently used one, skipping the mappings that had
+ * expired when the iterator was created, without copying the map. Like those
+ * of {@link LRUMap}, they are fail-fast: {@link #get}, which moves the
+ * mapping to the front, {@link #put}, {@link #remove} and {@link #clear},
+ * which may also reclaim expired mappings, invalidate an open iterator, as
+ * does opening another iterator, which reclaims them too. {@link #size},
+ * {@link #containsKey} and the views' own size and lookup methods do not
+ * reclaim expired mappings while an iterator is open, so they may be called
+ * while iterating. An iterator counts as open until it is exhausted or
+ * invalidated.<p>
+ *
+ * This class is not thread safe.
+ *
+ * @param <K> The type of keys stored in the map.
+ * @param <V> The type of values stored in the map.
+ */
 public class ExpiringLRUMap<K,V> extends AbstractMap<K,V> {
-	private static class Wrapper<V> {
-		public final long ts;
+	/**
+	 * A mapping, which is also the entry returned by the {@link #entrySet}
+	 * view. Entries are immutable to clients.
+	 */
+	private static class Wrapper<K,V> extends TimingWheel.Node implements Map.Entry<K,V> {
+		public final K key;
 		public final V val;
-		public Wrapper(V val) {
+		public Wrapper(K key, V val, long expiresAt) {
+			this.key = key;
 			this.val = val;
-			ts = System.currentTimeMillis();
+			this.expiresAt = expiresAt;
+		}
+
+		public K getKey() {
+			return key;
+		}
+
+		public V getValue() {
+			return val;
+		}
+
+		public V setValue(V value) {
+			throw new UnsupportedOperationException();
 		}
 
-		@SuppressWarnings("unchecked")
 		@Override
-		public boolean equals(Object other) {
-			return val.equals(((Wrapper<V>)other).val);
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?,?> e2 = (Map.Entry<?,?>) o;
+			return eq(key, e2.getKey()) && eq(val, e2.getValue());
 		}
 
 		@Override
 		public int hashCode() {
-			return val.hashCode();
+			return (key == null ? 0 : key.hashCode()) ^ (val == null ? 0 : val.hashCode());
 		}
+
+		@Override
+		public String toString() {
+			return key + "=" + val;
+		}
+	}
+
+	private static boolean eq(Object o1, Object o2) {
+		return (o1 == null) ? o2 == null : o1.equals(o2);
 	}
 
-	private final LRUMap<K,Wrapper<V>> map;
+	private final LRUMap<K,Wrapper<K,V>> map;
+	private final TimingWheel<Wrapper<K,V>> wheel;
 	private final long expireMillis;
 
+	/** Counters to record into, or null if statistics are disabled. */
+	private CacheStats stats;
+
+	/**
+	 * The number of view iterators that are neither exhausted nor
+	 * invalidated, and the generation they belong to, which advances
+	 * whenever the map is modified.
+	 */
+	private int openIterators;
+	private int iteratorGeneration;
+
 	public static <K,V> ExpiringLRUMap<K,V> create(int maxSize) {
 		return create(maxSize, DateUtils.MILLIS_PER_DAY);
 	}
@@ -72,34 +150,153 @@ public class ExpiringLRUMap<K,V> extends AbstractMap<K,V> {
 		return new ExpiringLRUMap<K,V>(maxSize, expireMillis);
 	}
 
-	private ExpiringLRUMap(int maxSize, long expireMillis) {
-		map = LRUMap.create(maxSize);
+	/**
+	 * Creates a map whose mappings expire <code>expireMillis</code>
+	 * milliseconds after they were put, and whose mappings, as
+	 * weighed by <code>weigher</code>, have a total weight of at most
+	 * <code>maxWeight</code>.
+	 *
+	 * @see LRUMap#create(long, Weigher)
+	 */
+	public static <K,V> ExpiringLRUMap<K,V> create(long maxWeight, long expireMillis,
+		Weigher<? super K,? super V> weigher)
+	{
+		return new ExpiringLRUMap<K,V>(maxWeight, expireMillis, weigher);
+	}
+
+	ExpiringLRUMap(int maxSize, long expireMillis) {
+		this(null, maxSize, expireMillis);
+	}
+
+	ExpiringLRUMap(long maxWeight, long expireMillis, Weigher<? super K,? super V> weigher) {
+		this(new WrapperWeigher<K,V>(weigher), maxWeight, expireMillis);
+	}
+
+	/**
+	 * Creates a map bounded by <code>max</code> mappings if
+	 * <code>weigher</code> is null, and by a total weight of <code>max</code>
+	 * otherwise.
+	 */
+	private ExpiringLRUMap(WrapperWeigher<K,V> weigher, long max, long expireMillis) {
+		ArgCheck.isTrue(expireMillis >= 0, "expireMillis must be non-negative");
+		map = (weigher == null) ? new Store((int) max) : new Store(max, weigher);
+		wheel = new TimingWheel<Wrapper<K,V>>(currentTimeMillis(),
+			new TimingWheel.Expirer<Wrapper<K,V>>() {
+				public void expired(Wrapper<K,V> value) {
+					// the key may have been remapped since; only
+					// remove the mapping this node was scheduled for
+					if (map.peek(value.key) == value) {
+						map.remove(value.key);
+						if (stats != null) {
+							stats.recordExpiration();
+						}
+					}
+				}
+			});
 		this.expireMillis = expireMillis;
 	}
 
+	/** The underlying LRU map, which deschedules the mappings it evicts. */
+	private class Store extends LRUMap<K,Wrapper<K,V>> {
+		Store(int maxSize) {
+			super(maxSize);
+		}
+
+		Store(long maxWeight, WrapperWeigher<K,V> weigher) {
+			super(maxWeight, weigher);
+		}
+
+		@Override
+		protected void evicted(K key, Wrapper<K,V> value) {
+			wheel.deschedule(value);
+			if (stats != null) {
+				stats.recordEviction();
+			}
+		}
+	}
+
+	/** Weighs a wrapper by the weight of the mapping it holds. */
+	private static class WrapperWeigher<K,V> implements Weigher<K,Wrapper<K,V>> {
+		private final Weigher<? super K,? super V> weigher;
+
+		WrapperWeigher(Weigher<? super K,? super V> weigher) {
+			ArgCheck.isTrue(weigher != null, "weigher must not be null");
+			this.weigher = weigher;
+		}
+
+		public int weigh(K key, Wrapper<K,V> value) {
+			return weigher.weigh(key, value.val);
+		}
+	}
+
+	/**
+	 * Makes this map record its hits, misses, evictions and expirations into
+	 * <code>stats</code>, or stops recording if <code>stats</code> is null.
+	 * Only {@link #get} and {@link #containsKey} count as lookups; finding
+	 * an expired mapping is a miss.
+	 */
+	public void setStats(CacheStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Returns the counters this map records into, or null if
+	 * statistics are disabled.
+	 */
+	public CacheStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Returns the number of mappings in the map, which may include mappings
+	 * that expired within the last few milliseconds, or, while an iterator
+	 * over the views is open, mappings that expired since it was opened.
+	 */
 	@Override
 	public int size() {
+		expireEntriesUnlessIterating();
 		return map.size();
 	}
 
+	/**
+	 * Returns true if <code>key</code> has an unexpired mapping. Unlike
+	 * {@link #get}, this does not touch the recency of the mapping, so it
+	 * does not invalidate an open iterator over the views.
+	 */
 	@Override
 	public boolean containsKey(Object key) {
-		return get(key) != null;
+		expireEntriesUnlessIterating();
+		boolean found = peekValid(key) != null;
+		if (stats != null) {
+			if (found) {
+				stats.recordHit();
+			} else {
+				stats.recordMiss();
+			}
+		}
+		return found;
 	}
 
 	@Override
 	public V get(Object key) {
-		return valueIfNotExpired(map.get(key));
+		V value = valueIfNotExpired(map.get(key), expireEntries());
+		if (stats != null) {
+			if (value != null) {
+				stats.recordHit();
+			} else {
+				stats.recordMiss();
+			}
+		}
+		return value;
 	}
 
-	private boolean isValid(Wrapper<V> value) {
-		long now = System.currentTimeMillis();
-		return (now - value.ts) < expireMillis;
+	private boolean isValid(Wrapper<K,V> value, long now) {
+		return now < value.expiresAt;
 	}
 
-	private V valueIfNotExpired(Wrapper<V> value) {
+	private V valueIfNotExpired(Wrapper<K,V> value, long now) {
 		if (value != null) {
-			if (isValid(value)) {
+			if (isValid(value, now)) {
 				return value.val;
 			}
 		}
@@ -108,40 +305,337 @@ public class ExpiringLRUMap<K,V> extends AbstractMap<K,V> {
 
 	@Override
 	public V put(K key, V value) {
-		return valueIfNotExpired(map.put(key, new Wrapper<V>(value)));
+		return put(key, value, expireMillis);
+	}
+
+	/**
+	 * Maps <code>key</code> to <code>value</code> for the next
+	 * <code>ttlMillis</code> milliseconds, instead of the time-to-live this
+	 * map was created with.
+	 *
+	 * @return the previous unexpired value of <code>key</code>, or null.
+	 */
+	public V put(K key, V value, long ttlMillis) {
+		ArgCheck.isTrue(ttlMillis >= 0, "ttlMillis must be non-negative");
+		long now = expireEntries();
+		long expiresAt = (ttlMillis > Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + ttlMillis;
+		Wrapper<K,V> wrapper = new Wrapper<K,V>(key, value, expiresAt);
+		Wrapper<K,V> old = map.put(key, wrapper);
+		if (old != null) {
+			descheduleReplaced(old, now);
+		}
+		if (map.peek(key) == wrapper) {
+			// not evicted at once for being heavier than the whole budget
+			wheel.schedule(wrapper);
+		}
+		return valueIfNotExpired(old, now);
 	}
 
 	@Override
 	public void clear() {
+		invalidateIterators();
 		map.clear();
+		wheel.clear();
 	}
 
 	@Override
 	public V remove(Object key) {
-		return valueIfNotExpired(map.remove(key));
+		long now = expireEntries();
+		Wrapper<K,V> old = map.remove(key);
+		if (old != null) {
+			descheduleReplaced(old, now);
+		}
+		return valueIfNotExpired(old, now);
+	}
+
+	/**
+	 * Deschedules <code>old</code>, which was just replaced or removed,
+	 * counting it as expired if it expired before the wheel reclaimed it.
+	 */
+	private void descheduleReplaced(Wrapper<K,V> old, long now) {
+		wheel.deschedule(old);
+		if (stats != null && !isValid(old, now)) {
+			stats.recordExpiration();
+		}
 	}
 
+	/**
+	 * Returns a live view of the unexpired mappings, whose iterator returns
+	 * them from the most recently used to the least recently used. The size
+	 * of the view is exact, so unlike {@link #size} it costs time linear in
+	 * the size of the map.
+	 */
 	@Override
 	public Set<Map.Entry<K,V>> entrySet() {
-		Set<Map.Entry<K,V>> set = new HashSet<Map.Entry<K,V>>(size());
-		for (Map.Entry<K,Wrapper<V>> entry : map.entrySet()) {
-			Wrapper<V> value = entry.getValue();
-			if (isValid(value)) {
-				set.add(new LRUMap.SimpleImmutableEntry<K,V>(entry.getKey(), value.val));
-			}
-		}
-		return set;
+		return new EntrySet();
 	}
 
+	/**
+	 * Returns a live view of the keys of the unexpired mappings, from the
+	 * most recently used to the least recently used. The size of the view is
+	 * exact, so it costs time linear in the size of the map.
+	 */
 	@Override
 	public Set<K> keySet() {
-		Set<K> set = new HashSet<K>(size());
-		for (Map.Entry<K,Wrapper<V>> entry : map.entrySet()) {
-			Wrapper<V> value = entry.getValue();
-			if (isValid(value)) {
-				set.add(entry.getKey());
+		return new KeySet();
+	}
+
+	/**
+	 * Returns a live view of the values of the unexpired mappings, from the
+	 * most recently used to the least recently used. The size of the view is
+	 * exact, so it costs time linear in the size of the map.
+	 */
+	@Override
+	public Collection<V> values() {
+		return new Values();
+	}
+
+	/** Returns the unexpired mapping for <code>key</code> without touching its recency. */
+	private Wrapper<K,V> peekValid(Object key) {
+		Wrapper<K,V> value = map.peek(key);
+		return (value != null && isValid(value, currentTimeMillis())) ? value : null;
+	}
+
+	private int countValid() {
+		int n = 0;
+		for (Iterator<?> it = new EntryIterator(currentTimeMillis()); it.hasNext(); it.next()) {
+			n++;
+		}
+		return n;
+	}
+
+	private class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+		@Override
+		public Iterator<Map.Entry<K,V>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size() {
+			return countValid();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return !new EntryIterator(currentTimeMillis()).hasNext();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+			Wrapper<K,V> value = peekValid(e.getKey());
+			return value != null && eq(value.val, e.getValue());
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (contains(o)) {
+				ExpiringLRUMap.this.remove(((Map.Entry<?,?>) o).getKey());
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void clear() {
+			ExpiringLRUMap.this.clear();
+		}
+	}
+
+	private class KeySet extends AbstractSet<K> {
+		@Override
+		public Iterator<K> iterator() {
+			final EntryIterator it = new EntryIterator();
+			return new Iterator<K>() {
+				public boolean hasNext() {
+					return it.hasNext();
+				}
+
+				public K next() {
+					return it.next().getKey();
+				}
+
+				public void remove() {
+					it.remove();
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return countValid();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return !new EntryIterator(currentTimeMillis()).hasNext();
+		}
+
+		@Override
+		public boolean contains(Object key) {
+			return peekValid(key) != null;
+		}
+
+		@Override
+		public boolean remove(Object key) {
+			if (contains(key)) {
+				ExpiringLRUMap.this.remove(key);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void clear() {
+			ExpiringLRUMap.this.clear();
+		}
+	}
+
+	private class Values extends AbstractCollection<V> {
+		@Override
+		public Iterator<V> iterator() {
+			final EntryIterator it = new EntryIterator();
+			return new Iterator<V>() {
+				public boolean hasNext() {
+					return it.hasNext();
+				}
+
+				public V next() {
+					return it.next().getValue();
+				}
+
+				public void remove() {
+					it.remove();
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return countValid();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return !new EntryIterator(currentTimeMillis()).hasNext();
+		}
+
+		@Override
+		public void clear() {
+			ExpiringLRUMap.this.clear();
+		}
+	}
+
+	/**
+	 * Iterates over the mappings of the underlying {@link LRUMap}, most
+	 * recently used first, skipping those that had expired as of
+	 * <code>now</code>.
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<K,V>> {
+		private final long now;
+		private final LRUMap<K,Wrapper<K,V>>.EntryIterator it;
+		private Wrapper<K,V> next;
+		private Wrapper<K,V> lastReturned;
+		/** Whether this iterator is open, and the generation it was opened in. */
+		private boolean open;
+		private int generation;
+
+		/**
+		 * Reclaims expired mappings, then iterates over the rest, suspending
+		 * reclamation by {@link #size} and {@link #containsKey} while it is open.
+		 */
+		EntryIterator() {
+			this(expireEntries());
+			open = true;
+			generation = iteratorGeneration;
+			openIterators++;
+		}
+
+		/**
+		 * Iterates without reclaiming expired mappings, so that counting
+		 * does not invalidate iterators that are already open.
+		 */
+		EntryIterator(long now) {
+			this.now = now;
+			this.it = map.entryIterator();
+		}
+
+		public boolean hasNext() {
+			while (next == null && it.hasNext()) {
+				Wrapper<K,V> value = it.next().getValue();
+				if (isValid(value, now)) {
+					next = value;
+				}
+			}
+			if (next == null && open) {
+				if (generation == iteratorGeneration) {
+					openIterators--;
+				}
+				open = false;
+			}
+			return next != null;
+		}
+
+		public Map.Entry<K,V> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
 			}
+			lastReturned = next;
+			next = null;
+			return lastReturned;
+		}
+
+		public void remove() {
+			if (lastReturned == null) {
+				throw new IllegalStateException();
+			}
+			// hasNext() may have advanced the underlying iterator past lastReturned
+			it.removeReturned(lastReturned.key);
+			wheel.deschedule(lastReturned);
+			lastReturned = null;
+		}
+	}
+
+	/**
+	 * Returns the current time; tests override this method to control
+	 * the clock.
+	 */
+	long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Advances the timing wheel to the current time, which removes the
+	 * mappings that have expired, and returns the current time.
+	 */
+	private long expireEntries() {
+		invalidateIterators();
+		long now = currentTimeMillis();
+		wheel.advance(now);
+		return now;
+	}
+
+	/**
+	 * Removes the mappings that have expired, unless an iterator over the
+	 * views is open, which removing them would invalidate.
+	 */
+	private void expireEntriesUnlessIterating() {
+		if (openIterators == 0) {
+			wheel.advance(currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Closes the open iterators, which the modification that is about to be
+	 * made invalidates.
+	 */
+	private void invalidateIterators() {
+		if (openIterators > 0) {
+			openIterators = 0;
+			iteratorGeneration++;
 		}
-		return set;
 	}
 }
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+/**
+ * Approximate, aging access frequencies of keys, used as the admission
+ * filter of {@link TinyLfuMap}: a Count-Min sketch of four rows of 4-bit
+ * counters, so a frequency saturates at 15. After every
+ * <code>10 * maxSize</code> increments, all counters are halved, so the
+ * frequencies reflect recent history rather than all time.<p>
+ *
+ * The counters are packed sixteen to a <code>long</code>. A key uses one
+ * group of four counters in each of four longs, one per row, so an update
+ * touches four cache lines at most.
+ */
+final class FrequencySketch {
+	private static final long[] SEEDS = {
+		0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long ONE_MASK = 0x1111111111111111L;
+
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int size;
+
+	/**
+	 * Creates a sketch sized for a cache of <code>maxSize</code> entries.
+	 */
+	FrequencySketch(int maxSize) {
+		int n = nextPowerOfTwo(Math.max(8, Math.min(maxSize, 1 << 30)));
+		table = new long[n];
+		tableMask = n - 1;
+		sampleSize = (int) Math.min(10L * Math.max(maxSize, 1), Integer.MAX_VALUE);
+	}
+
+	private static int nextPowerOfTwo(int n) {
+		int p = Integer.highestOneBit(n);
+		return (p == n) ? n : p << 1;
+	}
+
+	/**
+	 * Returns the estimated number of recent accesses of the key whose
+	 * hash code is <code>hashCode</code>, between 0 and 15.
+	 */
+	int frequency(int hashCode) {
+		long h = KeyHashing.mix(hashCode);
+		int start = ((int) h & 3) << 2;
+		int freq = 15;
+		for (int i = 0; i < 4; i++) {
+			int count = (int) (table[indexOf(h, i)] >>> ((start + i) << 2)) & 0xf;
+			freq = Math.min(freq, count);
+		}
+		return freq;
+	}
+
+	/**
+	 * Records an access of the key whose hash code is <code>hashCode</code>.
+	 */
+	void increment(int hashCode) {
+		long h = KeyHashing.mix(hashCode);
+		int start = ((int) h & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(h, i);
+			int offset = (start + i) << 2;
+			long mask = 0xfL << offset;
+			if ((table[index] & mask) != mask) {
+				table[index] += 1L << offset;
+				added = true;
+			}
+		}
+		if (added && ++size == sampleSize) {
+			reset();
+		}
+	}
+
+	/** Halves every counter. */
+	private void reset() {
+		int odd = 0;
+		for (int i = 0; i < table.length; i++) {
+			odd += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		// each row lost half a count for every odd counter
+		size = (size - (odd >>> 2)) >>> 1;
+	}
+
+	private int indexOf(long h, int row) {
+		long hash = (h + SEEDS[row]) * SEEDS[row];
+		hash += hash >>> 32;
+		return (int) hash & tableMask;
+	}
+}
@@ -33,13 +33,12 @@
 package com.fraudwall.util.coll;
 
 import java.util.AbstractCollection;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
-import org.apache.commons.lang.mutable.MutableInt;
-
+import com.fraudwall.util.coll.prim.LongObjectHashMap;
 import com.fraudwall.util.exc.ArgCheck;
 
 /**
@@ -66,11 +65,13 @@ import com.fraudwall.util.exc.ArgCheck;
  * one; rather, just change the value field and inform the class that the value
  * has changed by calling {@link #priorityHasChanged}. When replacing an item
  * in the priority queue, the caller can safely reuse the Entry returned by the
- * call to {@link #pop()}. Also, internally, a hash table is kept to index
- * where a key is stored in the priority queue; the location changes frequently
- * as the priority queue is rearranged, but the key doesn't. Rather than using
- * the immutable Integer container for the value of the index, we define a
- * mutable integer class.
+ * call to {@link #pop()}.
+ * <p>
+ * Internally, each Entry records its own position in the heap, so
+ * rearranging the heap never requires a hash table lookup. A
+ * {@link LongObjectHashMap} from keys to Entries is kept only to support
+ * {@link #get}; it is sized for <code>maxSize</code> entries up front, so it
+ * allocates nothing after construction and never boxes a key.
  */
 public class IndexedPriorityQueue<V> extends AbstractCollection<IndexedPriorityQueue.Entry<V>> {
 
@@ -79,13 +80,11 @@ public class IndexedPriorityQueue<V> extends AbstractCollection<IndexedPriorityQ
 
 	private int N; // number of elements in the priority queue
 
-	/* Index of element K in the queue. */
-	private final Map<Long, MutableInt> map;
+	/* The entries in the priority queue, by key. */
+	private final LongObjectHashMap<Entry<V>> table;
 
 	private final int maxSize; // max size of the priority queue
 
-	private MutableInt spare; // no need to allocate if there's a spare...
-
 	/**
 	 * Constructs a new, empty IndexedPriorityQueue that can hold at most
 	 * <code>maxSize</code> elements.
@@ -106,8 +105,7 @@ public class IndexedPriorityQueue<V> extends AbstractCollection<IndexedPriorityQ
 		this.N = 0;
 		this.maxSize = maxSize;
 		this.pq = new Entry[maxSize + 1];
-		this.map = new HashMap<Long, MutableInt>(((maxSize * 4) / 3) + 1);
-		this.spare = null;
+		this.table = new LongObjectHashMap<Entry<V>>(maxSize);
 	}
 
 	/**
@@ -171,7 +169,8 @@ public class IndexedPriorityQueue<V> extends AbstractCollection<IndexedPriorityQ
 		sink(1, N - 1);
 		Entry<V> item = pq[N];
 		pq[N--] = null;
-		spare = map.remove(item.getKey());
+		table.remove(item.getKey());
+		item.index = 0;
 		return item;
 	}
 
@@ -180,8 +179,7 @@ public class IndexedPriorityQueue<V> extends AbstractCollection<IndexedPriorityQ
 	 * <code>null</code> it no such Entry exists.
 	 */
 	public Entry<V> get(long key) {
-		MutableInt m = map.get(key);
-		return (m != null) ? pq[m.intValue()] : null;
+		return table.get(key);
 	}
 
 	/**
@@ -189,9 +187,8 @@ public class IndexedPriorityQueue<V> extends AbstractCollection<IndexedPriorityQ
 	 * priority queue invariant.
 	 */
 	public void priorityHasChanged(Entry<V> item) {
-		MutableInt m = map.get(item.getKey());
-		swim(m.intValue());
-		sink(m.intValue(), N);
+		swim(item.index);
+		sink(item.index, N);
 	}
 
 	/**
@@ -227,11 +224,22 @@ public class IndexedPriorityQueue<V> extends AbstractCollection<IndexedPriorityQ
 		Entry<V> t = pq[i];
 		pq[i] = pq[j];
 		pq[j] = t;
-		MutableInt m;
-		m = map.get(pq[i].getKey());
-		m.setValue(i);
-		m = map.get(pq[j].getKey());
-		m.setValue(j);
+		pq[i].index = i;
+		pq[j].index = j;
+	}
+
+	/**
+	 * Adds <code>entry</code> to the hash table, returning false if the
+	 * table already contains an entry with the same key.
+	 */
+	private boolean tableAdd(Entry<V> entry) {
+		// a single probe in the common case; a duplicate is put back
+		Entry<V> old = table.put(entry.getKey(), entry);
+		if (old != null) {
+			table.put(old.getKey(), old);
+			return false;
+		}
+		return true;
 	}
 
 	/**
@@ -254,25 +262,69 @@ public class IndexedPriorityQueue<V> extends AbstractCollection<IndexedPriorityQ
 		if (isFull()) {
 			throw new ArrayIndexOutOfBoundsException();
 		}
-		if (map.containsKey(entry.getKey())) {
+		if (!tableAdd(entry)) {
 			throw new IllegalArgumentException("Duplicate key");
 		}
-		MutableInt m = (spare != null) ? spare : new MutableInt();
-		spare = null;
 		pq[++N] = entry;
-		m.setValue(N);
-		map.put(entry.getKey(), m);
+		entry.index = N;
 		swim(N);
 		return true;
 	}
 
+	/**
+	 * Adds all of the given <code>entries</code> to this priority queue. When
+	 * the number of entries being added is large compared to the size of the
+	 * queue (in particular, when the queue is empty), the heap is rebuilt
+	 * bottom-up in time linear in the size of the queue, which is faster than
+	 * adding the entries one at a time.
+	 *
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the entries do not fit in this priority queue, in which
+	 *             case the queue is not modified.
+	 * @throws IllegalArgumentException
+	 *             if two entries have the same key, or an entry has the same
+	 *             key as an entry already in the queue, in which case the
+	 *             queue is not modified.
+	 * @return true if and only if this queue was modified.
+	 */
+	@Override
+	public boolean addAll(Collection<? extends Entry<V>> entries) {
+		if (N + entries.size() > maxSize) {
+			throw new ArrayIndexOutOfBoundsException();
+		}
+		final int start = N;
+		for (Entry<V> entry : entries) {
+			if (!tableAdd(entry)) {
+				while (N > start) {
+					table.remove(pq[N].getKey());
+					pq[N].index = 0;
+					pq[N--] = null;
+				}
+				throw new IllegalArgumentException("Duplicate key");
+			}
+			pq[++N] = entry;
+			entry.index = N;
+		}
+		if (N - start > start) {
+			for (int k = N / 2; k >= 1; k--) {
+				sink(k, N);
+			}
+		} else {
+			for (int k = start + 1; k <= N; k++) {
+				swim(k);
+			}
+		}
+		return N > start;
+	}
+
 	@Override
 	public void clear() {
 		for (int i = 1; i <= N; i++) {
+			pq[i].index = 0;
 			pq[i] = null;
 		}
 		N = 0;
-		map.clear();
+		table.clear();
 	}
 
 	/**
@@ -286,7 +338,7 @@ public class IndexedPriorityQueue<V> extends AbstractCollection<IndexedPriorityQ
 	@SuppressWarnings("unchecked")
 	public boolean contains(Object o) {
 		Entry<V> e = (Entry<V>) o;
-		return map.containsKey(e.getKey());
+		return get(e.getKey()) != null;
 	}
 
 	@Override
@@ -322,6 +374,7 @@ public class IndexedPriorityQueue<V> extends AbstractCollection<IndexedPriorityQ
 		private final long key;
 		private V value;
 		private long priority;
+		private int index; // position in the heap, or 0 if not in a queue
 
 		public static <V> Entry<V> create(long key, V value) {
 			return create(key, value, -1);
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import com.fraudwall.util.fp.FP64;
+
+/**
+ * Hash functions shared by the probabilistic sketches and hash tables in
+ * this package.
+ */
+final class KeyHashing {
+
+	private KeyHashing() { }
+
+	/**
+	 * Returns the 64-bit fingerprint of <code>key</code>. A {@link Long} or
+	 * {@link Integer} key is its own fingerprint, so that sketches give the
+	 * same answers whether such keys are passed boxed or as primitive
+	 * <code>long</code>s; any other key is fingerprinted by its string
+	 * representation.
+	 */
+	static long fingerprint(Object key) {
+		if (key instanceof Long || key instanceof Integer) {
+			return ((Number) key).longValue();
+		}
+		return FP64.fp(String.valueOf(key));
+	}
+
+	/**
+	 * Returns a <code>bits</code>-bit hash of <code>key</code> by Fibonacci
+	 * hashing, the hash the tables of {@link com.fraudwall.util.coll.prim}
+	 * use: a single multiply spreads sequential keys (such as IP numbers) as
+	 * well as already-random ones (such as fingerprints).
+	 */
+	static int fibonacci(long key, int bits) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+	}
+
+	/**
+	 * Mixes the bits of <code>fp</code> (the MurmurHash3 64-bit finalizer),
+	 * so that sequential or otherwise structured values, such as IP numbers,
+	 * are spread uniformly over all 64 bits.
+	 */
+	static long mix(long fp) {
+		fp ^= fp >>> 33;
+		fp *= 0xff51afd7ed558ccdL;
+		fp ^= fp >>> 33;
+		fp *= 0xc4ceb9fe1a85ec53L;
+		fp ^= fp >>> 33;
+		return fp;
+	}
+}
@@ -33,19 +33,35 @@
 package com.fraudwall.util.coll;
 
 import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import com.fraudwall.util.exc.ArgCheck;
 
 /**
  * A bounded cache mapping keys to values that evicts the key/value mapping
  * in the cache that was least recently added or accessed.<p>
  *
+ * A cache created with {@link #create(long, Weigher)} is bounded by the
+ * total weight of its mappings instead of by their number: each mapping is
+ * weighed once by a {@link Weigher} when it is put, and the least recently
+ * used mappings are evicted while the total weight exceeds the budget.
+ * Weighing by estimated size in bytes, for example with
+ * {@link com.fraudwall.util.SizeEstimator}, bounds the memory used by
+ * values whose sizes vary widely.<p>
+ *
  * This class is not thread safe. It is the client's responsibility
  * to guarantee single-threaded access.<p>
  *
+ * The {@link #entrySet}, {@link #keySet} and {@link #values} views are live
+ * and iterate from the most recently used mapping to the least recently used
+ * one, without copying the map.<p>
+ *
  * This class is similar to Apache's {@link org.apache.commons.collections.map.LRUMap},
  * but it is generic, so clients can get extra type safety by using the Anchor
  * Intelligence version.
@@ -58,12 +74,30 @@ public class LRUMap<K,V> extends AbstractMap<K,V> {
 	/** Upper bound on the number of elements in the cache. */
 	private final int maxSize;
 
+	/** Upper bound on the total weight of the elements, if weighed. */
+	private final long maxWeight;
+
+	/** Weighs the mappings, or null if the cache is bounded by maxSize. */
+	private final Weigher<? super K,? super V> weigher;
+
+	/** Total weight of the mappings; always 0 if not weighed. */
+	private long totalWeight;
+
 	/** Sentinel representing both the start and end of the list. */
 	private final LL<K,V> sentinel;
 
 	/** Maps a key to its node in the linked list. */
 	private final Map<K,LL<K,V>> map;
 
+	/**
+	 * Number of times the list has been modified, including reorderings
+	 * by {@link #get}; used to make iterators fail-fast.
+	 */
+	private int modCount;
+
+	/** Counters to record into, or null if statistics are disabled. */
+	private CacheStats stats;
+
 	/**
 	 * Creates a new LRU cache that holds at most <code>maxSize</code>
 	 * elements.
@@ -74,12 +108,68 @@ public class LRUMap<K,V> extends AbstractMap<K,V> {
 
 	public LRUMap(int maxSize) {
 		this.maxSize = maxSize;
+		this.maxWeight = Long.MAX_VALUE;
+		this.weigher = null;
 		map = new HashMap<K,LL<K,V>>(maxSize);
 		sentinel = new LL<K,V>(null, null, null, null);
 		sentinel.prev = sentinel;
 		sentinel.next = sentinel;
 	}
 
+	/**
+	 * Creates a new LRU cache whose mappings, as weighed by
+	 * <code>weigher</code>, have a total weight of at most
+	 * <code>maxWeight</code>.
+	 */
+	public static <K,V> LRUMap<K,V> create(long maxWeight, Weigher<? super K,? super V> weigher) {
+		return new LRUMap<K,V>(maxWeight, weigher);
+	}
+
+	public LRUMap(long maxWeight, Weigher<? super K,? super V> weigher) {
+		ArgCheck.isTrue(maxWeight >= 0, "maxWeight must be non-negative");
+		ArgCheck.isTrue(weigher != null, "weigher must not be null");
+		this.maxSize = Integer.MAX_VALUE;
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		map = new HashMap<K,LL<K,V>>();
+		sentinel = new LL<K,V>(null, null, null, null);
+		sentinel.prev = sentinel;
+		sentinel.next = sentinel;
+	}
+
+	/**
+	 * Returns the upper bound on the total weight of the mappings, or
+	 * {@link Long#MAX_VALUE} if this cache is bounded by number of mappings.
+	 */
+	public long maxWeight() {
+		return maxWeight;
+	}
+
+	/**
+	 * Returns the total weight of the mappings in this cache, or 0 if
+	 * this cache is bounded by number of mappings.
+	 */
+	public long getWeight() {
+		return totalWeight;
+	}
+
+	/**
+	 * Makes this cache record its hits, misses and evictions into
+	 * <code>stats</code>, or stops recording if <code>stats</code> is null.
+	 * Only {@link #get} counts as a lookup.
+	 */
+	public void setStats(CacheStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Returns the counters this cache records into, or null if
+	 * statistics are disabled.
+	 */
+	public CacheStats getStats() {
+		return stats;
+	}
+
 	/**
 	 * Returns the number of elements in the cache, which will
 	 * be between 0 and the <code>maxSize</code> value passed
@@ -110,12 +200,28 @@ public class LRUMap<K,V> extends AbstractMap<K,V> {
 	public V get(Object key) {
 		LL<K,V> node = map.get(key);
 		if (node != null) {
+			if (stats != null) {
+				stats.recordHit();
+			}
 			moveToFront(node);
 			return node.val;
 		}
+		if (stats != null) {
+			stats.recordMiss();
+		}
 		return null;
 	}
 
+	/**
+	 * Returns the value associated with the given <code>key</code>,
+	 * or <code>null</code> if the cache does not contain the key,
+	 * without protecting the value from eviction.
+	 */
+	V peek(Object key) {
+		LL<K,V> node = map.get(key);
+		return (node != null) ? node.val : null;
+	}
+
 	/**
 	 * Adds a mapping from the given <code>key</code> to the given
 	 * <code>value</code> to this cache, possibly evicting some other
@@ -125,7 +231,9 @@ public class LRUMap<K,V> extends AbstractMap<K,V> {
 	 * If the map already contained an entry for the given <code>key</code>,
 	 * the value to which it is mapped is changed to <code>value</code>. Whether
 	 * a mapping for the key pre-existed or not, the key/value mapping is
-	 * temporarily protected against eviction from the cache.
+	 * temporarily protected against eviction from the cache, except that
+	 * in a weighed cache, a mapping heavier than the whole budget is
+	 * evicted at once.
 	 *
 	 * @return The value to which the given <code>key</code> was
 	 * mapped prior to this call, or <code>null</code> if the cache
@@ -133,23 +241,53 @@ public class LRUMap<K,V> extends AbstractMap<K,V> {
 	 */
 	@Override
 	public V put(K key, V value) {
+		int weight = 0;
+		if (weigher != null) {
+			weight = weigher.weigh(key, value);
+			ArgCheck.isTrue(weight >= 0, "weights must be non-negative");
+		}
 		LL<K,V> node = map.get(key);
+		V res = null;
 		if (node == null) {
 			if (map.size() == maxSize) {
-				// remove last element from list and map
-				LL<K,V> removed = removeLast();
-				map.remove(removed.key);
+				evictLast();
 			}
 			node = new LL<K,V>(key, value, null, null);
 			map.put(key, node);
 			addToFront(node);
-			return null;
 		} else {
-			V res = node.val;
+			res = node.val;
 			node.val = value;
 			moveToFront(node);
-			return res;
 		}
+		if (weigher != null) {
+			totalWeight += weight - node.weight;
+			node.weight = weight;
+			while (totalWeight > maxWeight) {
+				evictLast();
+			}
+		}
+		return res;
+	}
+
+	/** Removes the least recently used mapping. */
+	private void evictLast() {
+		LL<K,V> removed = removeLast();
+		map.remove(removed.key);
+		totalWeight -= removed.weight;
+		if (stats != null) {
+			stats.recordEviction();
+		}
+		evicted(removed.key, removed.val);
+	}
+
+	/**
+	 * Called by {@link #put} after it evicts the least recently used
+	 * mapping to make room for a new key or a heavier value. Subclasses can override this
+	 * method to release resources associated with the evicted mapping;
+	 * the default implementation does nothing.
+	 */
+	protected void evicted(K key, V value) {
 	}
 
 	/**
@@ -160,6 +298,8 @@ public class LRUMap<K,V> extends AbstractMap<K,V> {
 		map.clear();
 		sentinel.prev = sentinel;
 		sentinel.next = sentinel;
+		totalWeight = 0L;
+		modCount++;
 	}
 
 	// ====== list manipulation helpers =======
@@ -176,12 +316,14 @@ public class LRUMap<K,V> extends AbstractMap<K,V> {
 		LL<K,V> node = map.remove(key);
 		if (node != null) {
 			remove(node);
+			totalWeight -= node.weight;
 			return node.val;
 		}
 		return null;
 	}
 
 	private LL<K,V> remove(LL<K,V> node) {
+		modCount++;
 		node.next.prev = node.prev;
 		node.prev.next = node.next;
 		node.prev = null;
@@ -190,6 +332,7 @@ public class LRUMap<K,V> extends AbstractMap<K,V> {
 	}
 
 	private void addToFront(LL<K,V> node) {
+		modCount++;
 		node.next = sentinel.next;
 		node.next.prev = node;
 		node.prev = sentinel;
@@ -208,9 +351,14 @@ public class LRUMap<K,V> extends AbstractMap<K,V> {
 
 	// ====== doubly-linked list node ======
 
-	private static class LL<K,V> {
+	/**
+	 * A node of the list, which is also the entry returned by the
+	 * {@link #entrySet} view. Entries are immutable to clients.
+	 */
+	private static class LL<K,V> implements Map.Entry<K,V> {
 		public K key;
 		public V val;
+		public int weight;
 		public LL<K,V> prev, next;
 
 		public LL(K key, V val, LL<K,V> prev, LL<K,V> next) {
@@ -219,20 +367,152 @@ public class LRUMap<K,V> extends AbstractMap<K,V> {
 			this.prev = prev;
 			this.next = next;
 		}
+
+		public K getKey() {
+			return key;
+		}
+
+		public V getValue() {
+			return val;
+		}
+
+		public V setValue(V value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?,?> e2 = (Map.Entry<?,?>) o;
+			return eq(key, e2.getKey()) && eq(val, e2.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return (key == null ? 0 : key.hashCode()) ^ (val == null ? 0 : val.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + val;
+		}
+	}
+
+	private static boolean eq(Object o1, Object o2) {
+		return (o1 == null) ? o2 == null : o1.equals(o2);
 	}
 
 	/**
-	 * Returns a {@link Set} view of the mappings contained in this map.
+	 * Returns a live {@link Set} view of the mappings contained in this map,
+	 * whose iterator returns the mappings from the most recently used to the
+	 * least recently used. Iterating does not change the recency order. The
+	 * entries do not support {@link Map.Entry#setValue}, but mappings can be
+	 * removed through the view or its iterator.<p>
+	 *
+	 * The iterator is fail-fast: if the map is modified while it is in use,
+	 * other than through the iterator's own <code>remove</code> method, it
+	 * throws a {@link ConcurrentModificationException}. Note that
+	 * {@link #get} modifies the map, since it changes the recency order.
 	 *
 	 * @return a set view of the mappings contained in this map
 	 */
 	@Override
 	public Set<Map.Entry<K,V>> entrySet() {
-		Set<Map.Entry<K,V>> set = new HashSet<Map.Entry<K,V>>(size());
-		for (Map.Entry<K,LL<K,V>> entry : map.entrySet()) {
-			set.add(new SimpleImmutableEntry<K,V>(entry.getKey(), entry.getValue().val));
+		return new EntrySet();
+	}
+
+	/**
+	 * Returns an iterator over the mappings of this map, from the most
+	 * recently used to the least recently used.
+	 */
+	EntryIterator entryIterator() {
+		return new EntryIterator();
+	}
+
+	private class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+		@Override
+		public Iterator<Map.Entry<K,V>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size() {
+			return map.size();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+			LL<K,V> node = map.get(e.getKey());
+			return node != null && eq(node.val, e.getValue());
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (contains(o)) {
+				LRUMap.this.remove(((Map.Entry<?,?>) o).getKey());
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void clear() {
+			LRUMap.this.clear();
+		}
+	}
+
+	final class EntryIterator implements Iterator<Map.Entry<K,V>> {
+		private LL<K,V> next = sentinel.next;
+		private LL<K,V> lastReturned;
+		private int expectedModCount = modCount;
+
+		public boolean hasNext() {
+			return next != sentinel;
+		}
+
+		public Map.Entry<K,V> next() {
+			checkForComodification();
+			if (next == sentinel) {
+				throw new NoSuchElementException();
+			}
+			lastReturned = next;
+			next = next.next;
+			return lastReturned;
+		}
+
+		public void remove() {
+			if (lastReturned == null) {
+				throw new IllegalStateException();
+			}
+			removeReturned(lastReturned.key);
+		}
+
+		/**
+		 * Removes the mapping for <code>key</code>, which must have been
+		 * returned by this iterator, though not necessarily by the last
+		 * call to {@link #next}. This lets clients that look ahead, such
+		 * as filtering iterators, remove entries.
+		 */
+		void removeReturned(K key) {
+			checkForComodification();
+			LRUMap.this.remove(key);
+			expectedModCount = modCount;
+			if (lastReturned != null && eq(lastReturned.key, key)) {
+				lastReturned = null;
+			}
+		}
+
+		private void checkForComodification() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
 		}
-		return set;
 	}
 
 	static class SimpleImmutableEntry<K,V> implements Map.Entry<K,V> {
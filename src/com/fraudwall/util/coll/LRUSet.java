@@ -59,6 +59,9 @@ public class LRUSet<T> {
 	/** Maps a set value to its node in the linked list. */
 	private final Map<T,LL<T>> map;
 
+	/** Counters to record into, or null if statistics are disabled. */
+	private CacheStats stats;
+
 	/**
 	 * Creates a new LRU cache that holds at most <code>maxSize</code>
 	 * elements.
@@ -75,6 +78,23 @@ public class LRUSet<T> {
 		sentinel.next = sentinel;
 	}
 
+	/**
+	 * Makes this cache record its hits, misses and evictions into
+	 * <code>stats</code>, or stops recording if <code>stats</code> is null.
+	 * Only {@link #contains} counts as a lookup.
+	 */
+	public void setStats(CacheStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Returns the counters this cache records into, or null if
+	 * statistics are disabled.
+	 */
+	public CacheStats getStats() {
+		return stats;
+	}
+
 	/**
 	 * Returns the number of elements in the cache, which will
 	 * be between 0 and the <code>maxSize</code> value passed
@@ -93,9 +113,15 @@ public class LRUSet<T> {
 	public boolean contains(T value) {
 		LL<T> node = map.get(value);
 		if (node != null) {
+			if (stats != null) {
+				stats.recordHit();
+			}
 			moveToFront(node);
 			return true;
 		}
+		if (stats != null) {
+			stats.recordMiss();
+		}
 		return false;
 	}
 
@@ -115,6 +141,9 @@ public class LRUSet<T> {
 				// remove last element from list and map
 				LL<T> removed = removeLast();
 				map.remove(removed.val);
+				if (stats != null) {
+					stats.recordEviction();
+				}
 			}
 			node = new LL<T>(value, null, null);
 			map.put(value, node);
@@ -0,0 +1,382 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * A thread-safe, bounded, expiring cache that computes missing values with a
+ * {@link Loader}. It replaces the check-then-fetch-then-put idiom, which
+ * makes every thread that misses the same key fetch it.<p>
+ *
+ * Loads are coalesced: when several threads miss the same key at once, the
+ * first one runs the loader and the others wait for its result, so each key
+ * is loaded at most once at a time. A failed load is not cached; its
+ * exception is thrown to every thread that waited for it.<p>
+ *
+ * Optionally, a cache created with a refresh time reloads a value in the
+ * background once it is older than that time. Until the new value arrives,
+ * {@link #get} keeps returning the old one, so as long as a key is read more
+ * often than it expires, readers never wait for it to load. If a refresh
+ * fails, the old value is kept until it expires.<p>
+ *
+ * The mappings are stored in an {@link ExpiringLRUMap} guarded by a single
+ * lock, which is never held while loading or submitting a refresh.
+ *
+ * @param <K> The type of keys stored in the cache.
+ * @param <V> The type of values stored in the cache.
+ */
+public class LoadingCache<K,V> {
+	private static final Log log = LogFactory.getLog(LoadingCache.class);
+
+	/**
+	 * Computes the value of a key for a {@link LoadingCache}.
+	 */
+	public static abstract class Loader<K,V> {
+		/**
+		 * Returns the value of <code>key</code>, which must not be null.
+		 * May be called concurrently for different keys.
+		 */
+		public abstract V load(K key) throws Exception;
+
+		/**
+		 * Returns the number of milliseconds for which the cache should keep
+		 * <code>value</code>, just loaded for <code>key</code>. The default
+		 * implementation returns <code>defaultTtlMillis</code>, the
+		 * time-to-live the cache was created with.
+		 */
+		public long timeToLive(K key, V value, long defaultTtlMillis) {
+			return defaultTtlMillis;
+		}
+	}
+
+	/** A cached value and the time it was loaded. */
+	private static final class Entry<V> {
+		final V value;
+		final long loadedAt;
+
+		Entry(V value, long loadedAt) {
+			this.value = value;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	/** The cached values; also the lock guarding this cache's state. */
+	private final ExpiringLRUMap<K,Entry<V>> map;
+
+	/** The loads in progress, by key. */
+	private final Map<K,FutureTask<V>> loading = new HashMap<K,FutureTask<V>>();
+
+	private final Loader<K,V> loader;
+	private final long ttlMillis;
+	private final long refreshMillis;
+	private final Executor executor;
+	private volatile CacheStats stats;
+
+	/**
+	 * Creates a new cache that holds at most <code>maxSize</code> values,
+	 * each for <code>ttlMillis</code> milliseconds unless the loader says
+	 * otherwise, loaded by <code>loader</code>.
+	 */
+	public static <K,V> LoadingCache<K,V> create(int maxSize, long ttlMillis, Loader<K,V> loader) {
+		return new LoadingCache<K,V>(maxSize, ttlMillis, Long.MAX_VALUE, null, loader);
+	}
+
+	/**
+	 * Creates a new cache like {@link #create(int, long, Loader)} that also
+	 * reloads a value on <code>executor</code> when it is read more than
+	 * <code>refreshMillis</code> milliseconds after it was loaded.
+	 * <code>refreshMillis</code> should be smaller than the time-to-live of
+	 * the values, or they will expire before they are refreshed.
+	 */
+	public static <K,V> LoadingCache<K,V> create(int maxSize, long ttlMillis,
+		long refreshMillis, Executor executor, Loader<K,V> loader)
+	{
+		ArgCheck.isTrue(executor != null, "executor must not be null");
+		return new LoadingCache<K,V>(maxSize, ttlMillis, refreshMillis, executor, loader);
+	}
+
+	private LoadingCache(int maxSize, long ttlMillis, long refreshMillis, Executor executor, Loader<K,V> loader) {
+		ArgCheck.isTrue(maxSize >= 1, "maxSize must be positive");
+		ArgCheck.isTrue(ttlMillis >= 0, "ttlMillis must be non-negative");
+		ArgCheck.isTrue(refreshMillis >= 0, "refreshMillis must be non-negative");
+		ArgCheck.isTrue(loader != null, "loader must not be null");
+		this.map = ExpiringLRUMap.create(maxSize, ttlMillis);
+		this.ttlMillis = ttlMillis;
+		this.refreshMillis = refreshMillis;
+		this.executor = executor;
+		this.loader = loader;
+	}
+
+	/**
+	 * Makes this cache record its hits, misses, evictions, expirations and
+	 * loads into <code>stats</code>, or stops recording if <code>stats</code>
+	 * is null. A call to {@link #get} that waits for another thread's load
+	 * counts as a miss but not as a load.
+	 */
+	public void setStats(CacheStats stats) {
+		synchronized (map) {
+			map.setStats(stats);
+			this.stats = stats;
+		}
+	}
+
+	/**
+	 * Returns the counters this cache records into, or null if
+	 * statistics are disabled.
+	 */
+	public CacheStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Returns the value of <code>key</code>, loading it if it is not
+	 * cached or has expired. If another thread is already loading the key,
+	 * waits for that load instead of starting another one.
+	 *
+	 * @throws ExecutionException if the loader threw a checked exception,
+	 * which is the cause of the <code>ExecutionException</code>. Unchecked
+	 * exceptions and errors thrown by the loader are rethrown as is.
+	 */
+	public V get(K key) throws ExecutionException {
+		FutureTask<V> load;
+		boolean mine = false;
+		Entry<V> entry;
+		synchronized (map) {
+			entry = map.get(key);
+			if (entry != null) {
+				load = null;
+				if (System.currentTimeMillis() - entry.loadedAt >= refreshMillis) {
+					load = startRefresh(key);
+				}
+			} else {
+				load = loading.get(key);
+				if (load == null) {
+					load = newLoad(key, false);
+					loading.put(key, load);
+					mine = true;
+				}
+			}
+		}
+		if (entry != null) {
+			if (load != null) {
+				submitRefresh(key, load);
+			}
+			return entry.value;
+		}
+		if (mine) {
+			load.run();
+		}
+		return await(load);
+	}
+
+	/**
+	 * Returns the value of <code>key</code> if it is cached and unexpired,
+	 * or null; never loads.
+	 */
+	public V getIfPresent(K key) {
+		synchronized (map) {
+			Entry<V> entry = map.get(key);
+			return (entry != null) ? entry.value : null;
+		}
+	}
+
+	/**
+	 * Caches <code>value</code> for <code>key</code> with the cache's
+	 * default time-to-live, replacing any cached value.
+	 */
+	public void put(K key, V value) {
+		ArgCheck.isTrue(value != null, "value must not be null");
+		synchronized (map) {
+			map.put(key, new Entry<V>(value, System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * Discards the cached value of <code>key</code>, if any. A load of the
+	 * key that is already in progress still caches its result.
+	 */
+	public void invalidate(K key) {
+		synchronized (map) {
+			map.remove(key);
+		}
+	}
+
+	/**
+	 * Discards all cached values.
+	 */
+	public void invalidateAll() {
+		synchronized (map) {
+			map.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of cached values, which may include values that
+	 * expired within the last few milliseconds.
+	 */
+	public int size() {
+		synchronized (map) {
+			return map.size();
+		}
+	}
+
+	// ====== loading =======
+
+	/**
+	 * Returns a task that loads <code>key</code> and then, atomically,
+	 * caches the value and forgets the task. Failures of background loads,
+	 * whose exceptions nobody may wait for, are logged.
+	 */
+	private FutureTask<V> newLoad(final K key, final boolean background) {
+		return new FutureTask<V>(new Callable<V>() {
+			public V call() throws Exception {
+				long start = System.nanoTime();
+				V value;
+				try {
+					value = loader.load(key);
+					if (value == null) {
+						throw new NullPointerException("loader returned null for key " + key);
+					}
+				} catch (Exception e) {
+					loaded(key, null, System.nanoTime() - start);
+					if (background) {
+						log.warn("Unable to refresh " + key, e);
+					}
+					throw e;
+				} catch (Error e) {
+					loaded(key, null, System.nanoTime() - start);
+					throw e;
+				}
+				loaded(key, value, System.nanoTime() - start);
+				return value;
+			}
+		});
+	}
+
+	/**
+	 * Records the end of the load of <code>key</code>, caching
+	 * <code>value</code> unless it is null because the load failed.
+	 */
+	private void loaded(K key, V value, long nanos) {
+		CacheStats s = stats;
+		long ttl = ttlMillis;
+		if (value != null) {
+			if (s != null) {
+				s.recordLoadSuccess(nanos);
+			}
+			ttl = loader.timeToLive(key, value, ttlMillis);
+		} else if (s != null) {
+			s.recordLoadFailure(nanos);
+		}
+		synchronized (map) {
+			if (value != null) {
+				map.put(key, new Entry<V>(value, System.currentTimeMillis()), ttl);
+			}
+			loading.remove(key);
+		}
+	}
+
+	/**
+	 * Registers a background reload of <code>key</code> and returns it,
+	 * or returns null if the key is already being loaded. Must be called
+	 * with the lock held; the caller then passes the reload to
+	 * {@link #submitRefresh} once it has released the lock.
+	 */
+	private FutureTask<V> startRefresh(K key) {
+		if (loading.containsKey(key)) {
+			return null;
+		}
+		FutureTask<V> load = newLoad(key, true);
+		loading.put(key, load);
+		return load;
+	}
+
+	/**
+	 * Hands the reload of <code>key</code> registered by {@link #startRefresh}
+	 * to the executor. Must be called without the lock held, since the
+	 * executor may block, or run the reload in the calling thread.
+	 */
+	private void submitRefresh(K key, FutureTask<V> load) {
+		try {
+			executor.execute(load);
+		} catch (RejectedExecutionException e) {
+			synchronized (map) {
+				if (loading.get(key) == load) {
+					loading.remove(key);
+				}
+			}
+			log.warn("Unable to refresh " + key, e);
+		}
+	}
+
+	/**
+	 * Waits, uninterruptibly, for <code>load</code> to finish and returns
+	 * its value.
+	 */
+	private V await(FutureTask<V> load) throws ExecutionException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return load.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
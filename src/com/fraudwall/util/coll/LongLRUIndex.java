@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * The allocation-free core shared by {@link LongLRUMap} and {@link LongLRUSet}:
+ * a bounded set of <code>long</code> keys, each assigned to a fixed "slot"
+ * number between 0 and <code>maxSize-1</code>, together with a recency order
+ * over the slots.<p>
+ *
+ * The keys are stored in a <code>long[]</code> indexed by slot. Lookups go
+ * through a {@link LongSlotTable}, whose cells hold slot numbers rather than
+ * keys. The recency list is a doubly-linked list threaded through two
+ * <code>int[]</code> arrays, with the extra index <code>maxSize</code>
+ * serving as the sentinel. Clients keep any per-key data in arrays of their
+ * own indexed by slot.<p>
+ *
+ * This class is not thread safe.
+ */
+final class LongLRUIndex {
+	/** Upper bound on the number of keys. */
+	private final int maxSize;
+
+	/** keys[slot] is the key stored in slot <code>slot</code>. */
+	private final long[] keys;
+
+	/**
+	 * Recency list: next[] points toward less recently used slots, prev[]
+	 * toward more recently used ones. Index <code>maxSize</code> is the
+	 * sentinel, so next[maxSize] is the most recently used slot. Free slots
+	 * are chained through next[] starting at <code>freeHead</code>.
+	 */
+	private final int[] prev, next;
+
+	/** Finds the slot holding a key. */
+	private final LongSlotTable table;
+
+	private int size;
+
+	/** Head of the free slot list, or -1 if every slot is in use. */
+	private int freeHead;
+
+	LongLRUIndex(int maxSize) {
+		ArgCheck.isTrue(maxSize >= 1, "maxSize must be positive");
+		ArgCheck.isTrue(maxSize <= (1 << 29), "maxSize too large");
+		this.maxSize = maxSize;
+		keys = new long[maxSize];
+		prev = new int[maxSize + 1];
+		next = new int[maxSize + 1];
+		table = new LongSlotTable(keys);
+		clear();
+	}
+
+	int maxSize() {
+		return maxSize;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/** Returns the key stored in <code>slot</code>. */
+	long key(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * Returns the slot holding <code>key</code>, or -1 if the key is
+	 * not present. Does not change the recency order.
+	 */
+	int find(long key) {
+		return table.find(key);
+	}
+
+	/** Makes <code>slot</code> the most recently used slot. */
+	void touch(int slot) {
+		unlink(slot);
+		linkFirst(slot);
+	}
+
+	/**
+	 * Adds <code>key</code>, which must not already be present, as the most
+	 * recently used key, and returns its slot. If the index is full, the
+	 * least recently used key is first removed and its slot is reused.
+	 */
+	int insert(long key) {
+		int slot;
+		if (size == maxSize) {
+			slot = prev[maxSize];
+			unlink(slot);
+			table.delete(slot);
+		} else {
+			slot = freeHead;
+			freeHead = next[slot];
+			size++;
+		}
+		keys[slot] = key;
+		table.insert(slot);
+		linkFirst(slot);
+		return slot;
+	}
+
+	/**
+	 * Returns the slot that {@link #insert} would reuse next if the index
+	 * is full (i.e., the least recently used slot), or -1 if the index is
+	 * empty.
+	 */
+	int eldest() {
+		return (size == 0) ? -1 : prev[maxSize];
+	}
+
+	/**
+	 * Removes <code>key</code> and returns the slot it occupied, or -1 if
+	 * the key was not present.
+	 */
+	int remove(long key) {
+		int slot = find(key);
+		if (slot >= 0) {
+			unlink(slot);
+			table.delete(slot);
+			next[slot] = freeHead;
+			freeHead = slot;
+			size--;
+		}
+		return slot;
+	}
+
+	void clear() {
+		table.clear();
+		prev[maxSize] = maxSize;
+		next[maxSize] = maxSize;
+		for (int i = 0; i < maxSize; i++) {
+			next[i] = i + 1;
+		}
+		next[maxSize - 1] = -1;
+		freeHead = 0;
+		size = 0;
+	}
+
+	// ====== recency list helpers =======
+
+	private void unlink(int slot) {
+		next[prev[slot]] = next[slot];
+		prev[next[slot]] = prev[slot];
+	}
+
+	private void linkFirst(int slot) {
+		next[slot] = next[maxSize];
+		prev[next[slot]] = slot;
+		prev[slot] = maxSize;
+		next[maxSize] = slot;
+	}
+}
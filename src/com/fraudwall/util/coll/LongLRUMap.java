@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache mapping primitive <code>long</code> keys to values that
+ * evicts the key/value mapping in the cache that was least recently added
+ * or accessed.<p>
+ *
+ * This class has the same semantics as an {@link LRUMap LRUMap&lt;Long,V&gt;},
+ * but it is intended for caches keyed by fingerprints (see
+ * {@link com.fraudwall.util.fp.FP64#getValue()}) or IP numbers (see
+ * {@link com.fraudwall.util.net.IpAddressUtils}) with millions of entries.
+ * Where {@link LRUMap} allocates a <code>Long</code>, a list node and a
+ * hash map entry per element, this class preallocates a handful of primitive
+ * arrays sized for <code>maxSize</code> elements and never allocates again,
+ * so each element costs between 28 and 36 bytes of heap (depending on how
+ * <code>maxSize</code> rounds up to a power of two) and nothing for the GC
+ * to trace.<p>
+ *
+ * This class is not thread safe. It is the client's responsibility
+ * to guarantee single-threaded access.
+ *
+ * @param <V> The type of values stored in the map.
+ * @see LongLRUSet
+ */
+public class LongLRUMap<V> {
+	private final LongLRUIndex index;
+
+	/** values[slot] is the value for the key in slot <code>slot</code>. */
+	private final Object[] values;
+
+	/**
+	 * Creates a new LRU cache that holds at most <code>maxSize</code>
+	 * elements.
+	 */
+	public static <V> LongLRUMap<V> create(int maxSize) {
+		return new LongLRUMap<V>(maxSize);
+	}
+
+	private LongLRUMap(int maxSize) {
+		index = new LongLRUIndex(maxSize);
+		values = new Object[maxSize];
+	}
+
+	/**
+	 * Returns the upper bound on the number of elements in the cache.
+	 */
+	public int maxSize() {
+		return index.maxSize();
+	}
+
+	/**
+	 * Returns the number of elements in the cache, which will
+	 * be between 0 and the <code>maxSize</code> value passed
+	 * to this instance's factory method (inclusive).
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Returns true if and only if the cache contains no elements.
+	 */
+	public boolean isEmpty() {
+		return index.size() == 0;
+	}
+
+	/**
+	 * Returns true if and only if the given <code>key</code>
+	 * is in the cache. This method has no effect on protecting
+	 * the accessed key/value pair from eviction.
+	 */
+	public boolean containsKey(long key) {
+		return index.find(key) >= 0;
+	}
+
+	/**
+	 * Returns the value associated with the given <code>key</code>,
+	 * or <code>null</code> if the cache does not contain the key.
+	 * If the key is present, this method also has the side-effect
+	 * of temporarily protecting the given value from eviction.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int slot = index.find(key);
+		if (slot >= 0) {
+			index.touch(slot);
+			return (V) values[slot];
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a mapping from the given <code>key</code> to the given
+	 * <code>value</code> to this cache, possibly evicting some other
+	 * element (if the cache is full and does not already contain a
+	 * mapping for the given key). Whether a mapping for the key
+	 * pre-existed or not, the key/value mapping is temporarily
+	 * protected against eviction from the cache.
+	 *
+	 * @return The value to which the given <code>key</code> was
+	 * mapped prior to this call, or <code>null</code> if the cache
+	 * did not previously contain a mapping for the key.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		int slot = index.find(key);
+		if (slot >= 0) {
+			V res = (V) values[slot];
+			values[slot] = value;
+			index.touch(slot);
+			return res;
+		}
+		values[index.insert(key)] = value;
+		return null;
+	}
+
+	/**
+	 * Removes the mapping for the given <code>key</code> from this cache
+	 * if it is present; if not present, this method is a no-op.
+	 *
+	 * @return The value to which the key was mapped, or <code>null</code>
+	 * if the cache did not contain a mapping for the key.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int slot = index.remove(key);
+		if (slot >= 0) {
+			V res = (V) values[slot];
+			values[slot] = null;
+			return res;
+		}
+		return null;
+	}
+
+	/**
+	 * Removes all mappings from this cache.
+	 */
+	public void clear() {
+		index.clear();
+		Arrays.fill(values, null);
+	}
+}
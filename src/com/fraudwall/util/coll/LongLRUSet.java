@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+/**
+ * A bounded cache of primitive <code>long</code> values that evicts the
+ * element in the cache that was least recently added or accessed.<p>
+ *
+ * This class has the same semantics as an {@link LRUSet LRUSet&lt;Long&gt;},
+ * but like {@link LongLRUMap} it stores its elements in preallocated
+ * primitive arrays, so it costs between 24 and 32 bytes of heap per element
+ * and never allocates after construction.<p>
+ *
+ * This class is not thread safe. It is the client's responsibility
+ * to guarantee single-threaded access.
+ *
+ * @see LongLRUMap
+ */
+public class LongLRUSet {
+	private final LongLRUIndex index;
+
+	/**
+	 * Creates a new LRU cache that holds at most <code>maxSize</code>
+	 * elements.
+	 */
+	public static LongLRUSet create(int maxSize) {
+		return new LongLRUSet(maxSize);
+	}
+
+	private LongLRUSet(int maxSize) {
+		index = new LongLRUIndex(maxSize);
+	}
+
+	/**
+	 * Returns the upper bound on the number of elements in the cache.
+	 */
+	public int maxSize() {
+		return index.maxSize();
+	}
+
+	/**
+	 * Returns the number of elements in the cache, which will
+	 * be between 0 and the <code>maxSize</code> value passed
+	 * to this instance's factory method (inclusive).
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Returns true if and only if the given <code>value</code>
+	 * is in the set. If the element is present, this method also
+	 * has the side-effect of temporarily protecting the given
+	 * value from eviction.
+	 */
+	public boolean contains(long value) {
+		int slot = index.find(value);
+		if (slot >= 0) {
+			index.touch(slot);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the given <code>value</code> to this cache, possibly
+	 * evicting some other element (if the cache is full). If the
+	 * element is already in the cache, this method is a complete
+	 * no-op; it does not count as an "access" of the element.
+	 *
+	 * @return True if and only if the value was not already
+	 * in the cache (i.e., if the cache was modified).
+	 */
+	public boolean add(long value) {
+		if (index.find(value) < 0) {
+			index.insert(value);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the given <code>value</code> from this cache if
+	 * it is present; if not present, this method is a no-op.
+	 *
+	 * @return True if and only if the value was present and
+	 * was therefore removed (i.e., if the cache was modified).
+	 */
+	public boolean remove(long value) {
+		return index.remove(value) >= 0;
+	}
+
+	/**
+	 * Removes all elements from this cache.
+	 */
+	public void clear() {
+		index.clear();
+	}
+}
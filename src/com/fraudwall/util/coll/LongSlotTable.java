@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Arrays;
+
+/**
+ * The hash table through which {@link LongLRUIndex} and {@link SpaceSavingTopK}
+ * find the slot holding a <code>long</code> key. The keys themselves live in
+ * the client's <code>long[]</code>, indexed by slot; the table only stores
+ * slot numbers (plus one, so that zero means "empty"), so it adds 8 to 16
+ * bytes per slot and never stores a key twice.<p>
+ *
+ * The table uses linear probing, is sized up front to be at most half full
+ * when every slot is in use, and deletes with backward-shift, so it needs no
+ * tombstones and never grows. A slot must be entered with {@link #insert}
+ * after its key is written, and withdrawn with {@link #delete} before its key
+ * is overwritten.<p>
+ *
+ * This class is not thread safe.
+ */
+final class LongSlotTable {
+	/** The client's keys, indexed by slot. */
+	private final long[] keys;
+
+	/** Hash table of (slot + 1) values; 0 denotes an empty cell. */
+	private final int[] table;
+
+	/** Number of bits in a hash table index, and table.length - 1. */
+	private final int bits, mask;
+
+	LongSlotTable(long[] keys) {
+		this.keys = keys;
+		int b = 1;
+		while ((1 << b) < 2 * keys.length) {
+			b++;
+		}
+		bits = b;
+		mask = (1 << b) - 1;
+		table = new int[1 << b];
+	}
+
+	/**
+	 * Returns the slot holding <code>key</code>, or -1 if the key is
+	 * not present.
+	 */
+	int find(long key) {
+		for (int i = KeyHashing.fibonacci(key, bits); ; i = (i + 1) & mask) {
+			int cell = table[i];
+			if (cell == 0) {
+				return -1;
+			}
+			if (keys[cell - 1] == key) {
+				return cell - 1;
+			}
+		}
+	}
+
+	/** Enters <code>slot</code> under the key currently stored in it. */
+	void insert(int slot) {
+		int i = KeyHashing.fibonacci(keys[slot], bits);
+		while (table[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		table[i] = slot + 1;
+	}
+
+	/**
+	 * Removes the table cell that refers to <code>slot</code>, shifting
+	 * later members of the probe sequence back so lookups stay correct.
+	 */
+	void delete(int slot) {
+		int hole = KeyHashing.fibonacci(keys[slot], bits);
+		while (table[hole] != slot + 1) {
+			hole = (hole + 1) & mask;
+		}
+		for (int i = (hole + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+			int home = KeyHashing.fibonacci(keys[table[i] - 1], bits);
+			// move the entry if its home cell is not cyclically in (hole, i]
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				table[hole] = table[i];
+				hole = i;
+			}
+		}
+		table[hole] = 0;
+	}
+
+	void clear() {
+		Arrays.fill(table, 0);
+	}
+}
@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * A bounded map from 64-bit fingerprints to byte arrays, stored outside the
+ * Java heap: the cold tier of {@link TwoTierCache}.<p>
+ *
+ * The values are appended to a circular log in a {@link ByteBuffer}, which
+ * may be a direct buffer or a memory-mapped file. Each record is the
+ * fingerprint, the length and the bytes of a value, and a record never wraps
+ * around the end of the buffer: the unused end is skipped instead. When the
+ * log or the entry count is full, the oldest records are dropped, so the
+ * store evicts in FIFO order. Replacing or removing a value leaves a dead
+ * record in the log, which is reclaimed when the log wraps around to it.<p>
+ *
+ * The index is an open-addressing hash table with linear probing and
+ * backward-shift deletion, also in a direct buffer: each cell holds a
+ * fingerprint and the log offset of its record plus one (so that zero means
+ * "empty"), and the table is kept at most half full. Neither the log nor the
+ * index creates objects for the garbage collector to trace, which is why the
+ * index cannot be one of the heap-resident {@link com.fraudwall.util.coll.prim}
+ * tables; it probes in the same way, with {@link KeyHashing#fibonacci}.<p>
+ *
+ * This class is not thread safe.
+ */
+final class OffHeapStore {
+	/** Record header: the fingerprint and the length of the value. */
+	private static final int HEADER = 12;
+
+	/** Length marking the skipped end of the log. */
+	private static final int PAD = -1;
+
+	/**
+	 * Largest number of values in one store: its index then has 2^26 cells
+	 * of 16 bytes, the most one direct buffer can hold.
+	 */
+	static final int MAX_ENTRIES = 1 << 25;
+
+	/** Number of bits in the index of a new store. */
+	private static final int INITIAL_BITS = 10;
+
+	private final ByteBuffer log;
+	private final int capacity;
+	private final int maxEntries;
+
+	/**
+	 * The index, which starts small and doubles as values are added, up to
+	 * <code>maxBits</code> bits, so that a store sized for many values does
+	 * not reserve its whole index up front.
+	 */
+	private LongBuffer index;
+	private int bits, mask;
+	private final int maxBits;
+
+	/** Offset of the next record to write, and of the oldest record. */
+	private int head, tail;
+
+	/** Number of bytes from tail to head, including skipped ends. */
+	private int used;
+
+	private int size;
+	private long evictions;
+
+	/**
+	 * Creates a store that logs values in <code>log</code>, from its position
+	 * to its limit, and holds at most <code>maxEntries</code> values.
+	 */
+	OffHeapStore(ByteBuffer log, int maxEntries) {
+		ArgCheck.isTrue(maxEntries >= 1, "maxEntries must be positive");
+		ArgCheck.isTrue(maxEntries <= MAX_ENTRIES, "maxEntries too large");
+		this.log = log.slice();
+		this.capacity = this.log.capacity();
+		this.maxEntries = maxEntries;
+		int b = 1;
+		while ((1 << b) < 2 * maxEntries) {
+			b++;
+		}
+		maxBits = b;
+		allocateIndex(Math.min(b, INITIAL_BITS));
+	}
+
+	int size() {
+		return size;
+	}
+
+	/** Returns the number of live values dropped to make room for others. */
+	long evictions() {
+		return evictions;
+	}
+
+	boolean contains(long fp) {
+		return findCell(fp) >= 0;
+	}
+
+	/**
+	 * Returns a copy of the value of <code>fp</code>, or null if
+	 * it is not in the store.
+	 */
+	byte[] get(long fp) {
+		int cell = findCell(fp);
+		return (cell < 0) ? null : read(offset(cell));
+	}
+
+	/**
+	 * Removes the value of <code>fp</code> from the store and returns
+	 * it, or null if it was not in the store.
+	 */
+	byte[] take(long fp) {
+		int cell = findCell(fp);
+		if (cell < 0) {
+			return null;
+		}
+		byte[] value = read(offset(cell));
+		deleteCell(cell);
+		size--;
+		return value;
+	}
+
+	/**
+	 * Stores <code>value</code> as the value of <code>fp</code>, dropping
+	 * the oldest values if needed to make room. Returns false, and stores
+	 * nothing, if the value is larger than the whole log.
+	 */
+	boolean put(long fp, byte[] value) {
+		int n = HEADER + value.length;
+		if (value.length > capacity - HEADER) {
+			return false;
+		}
+		int cell = findCell(fp);
+		if (cell >= 0) {
+			deleteCell(cell);
+			size--;
+		}
+		while (size >= maxEntries) {
+			evictTail();
+		}
+		if (head + n > capacity) {
+			// skip the end of the log, which is too short for the record
+			int pad = capacity - head;
+			while (used + pad > capacity) {
+				evictTail();
+			}
+			if (pad >= HEADER) {
+				log.putInt(head + 8, PAD);
+			}
+			used += pad;
+			head = 0;
+		}
+		while (used + n > capacity) {
+			evictTail();
+		}
+		log.putLong(head, fp);
+		log.putInt(head + 8, value.length);
+		ByteBuffer dst = log.duplicate();
+		dst.position(head + HEADER);
+		dst.put(value);
+		if (2 * (size + 1) > (1 << bits) && bits < maxBits) {
+			growIndex();
+		}
+		insertCell(fp, head);
+		size++;
+		head += n;
+		used += n;
+		return true;
+	}
+
+	/**
+	 * Removes the value of <code>fp</code>, returning true if it was
+	 * in the store.
+	 */
+	boolean remove(long fp) {
+		int cell = findCell(fp);
+		if (cell < 0) {
+			return false;
+		}
+		deleteCell(cell);
+		size--;
+		return true;
+	}
+
+	void clear() {
+		for (int i = 0; i < index.capacity(); i++) {
+			index.put(i, 0L);
+		}
+		head = tail = used = size = 0;
+	}
+
+	// ====== log helpers =======
+
+	private byte[] read(int offset) {
+		byte[] value = new byte[log.getInt(offset + 8)];
+		ByteBuffer src = log.duplicate();
+		src.position(offset + HEADER);
+		src.get(value);
+		return value;
+	}
+
+	/** Drops the oldest record, and its value if it is still live. */
+	private void evictTail() {
+		if (capacity - tail < HEADER || log.getInt(tail + 8) == PAD) {
+			used -= capacity - tail;
+			tail = 0;
+			return;
+		}
+		int n = HEADER + log.getInt(tail + 8);
+		int cell = findCell(log.getLong(tail));
+		if (cell >= 0 && offset(cell) == tail) {
+			deleteCell(cell);
+			size--;
+			evictions++;
+		}
+		used -= n;
+		tail += n;
+		if (tail == capacity) {
+			tail = 0;
+		}
+	}
+
+	// ====== hash table helpers =======
+
+	private void allocateIndex(int b) {
+		bits = b;
+		mask = (1 << b) - 1;
+		index = ByteBuffer.allocateDirect(16 << b).asLongBuffer();
+	}
+
+	/** Doubles the index, reinserting every value. */
+	private void growIndex() {
+		LongBuffer old = index;
+		allocateIndex(bits + 1);
+		for (int i = 0; i < old.capacity(); i += 2) {
+			long offset = old.get(i + 1);
+			if (offset != 0L) {
+				insertCell(old.get(i), (int) offset - 1);
+			}
+		}
+	}
+
+	private int hash(long fp) {
+		return KeyHashing.fibonacci(fp, bits);
+	}
+
+	private int offset(int cell) {
+		return (int) index.get(2 * cell + 1) - 1;
+	}
+
+	/** Returns the cell holding <code>fp</code>, or -1. */
+	private int findCell(long fp) {
+		for (int i = hash(fp); ; i = (i + 1) & mask) {
+			if (index.get(2 * i + 1) == 0L) {
+				return -1;
+			}
+			if (index.get(2 * i) == fp) {
+				return i;
+			}
+		}
+	}
+
+	private void insertCell(long fp, int offset) {
+		int i = hash(fp);
+		while (index.get(2 * i + 1) != 0L) {
+			i = (i + 1) & mask;
+		}
+		index.put(2 * i, fp);
+		index.put(2 * i + 1, offset + 1L);
+	}
+
+	/**
+	 * Empties <code>cell</code>, shifting back the cells after it that
+	 * would otherwise become unreachable.
+	 */
+	private void deleteCell(int cell) {
+		int hole = cell;
+		for (int j = (cell + 1) & mask; index.get(2 * j + 1) != 0L; j = (j + 1) & mask) {
+			long fp = index.get(2 * j);
+			if (((j - hash(fp)) & mask) >= ((j - hole) & mask)) {
+				index.put(2 * hole, fp);
+				index.put(2 * hole + 1, index.get(2 * j + 1));
+				hole = j;
+			}
+		}
+		index.put(2 * hole, 0L);
+		index.put(2 * hole + 1, 0L);
+	}
+}
@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import com.fraudwall.util.FWProps;
+import com.fraudwall.util.coll.DecayVariableCollection.Snapshot;
+import com.fraudwall.util.coll.prim.LongHashSet;
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * A thread-safe {@link DecayVariableCollection} that partitions its keys
+ * across a number of independent shards. Each shard is an ordinary
+ * {@link DecayVariableCollection} with its own slice of <code>maxSize</code>,
+ * its own priority queue and its own cleanup, guarded by its own lock, so
+ * threads updating keys in different shards never contend with each other.<p>
+ *
+ * While a key stays in the collection, its energy and kill time evolve exactly
+ * as they would in an unsharded collection with the same ENERGYUNIT, HALFLIFE
+ * and KILLTHRESHOLD. The difference lies in which keys get removed: adding a
+ * new key removes the key with the smallest kill time <em>in its own
+ * shard</em> (if that shard is full or that key has expired), rather than the
+ * one with the smallest kill time overall. With uniformly hashed keys and a
+ * large <code>maxSize</code>, the two are nearly the same.
+ *
+ * @param <V> The type of values stored with the keys.
+ * @see DecayVariableCollection
+ */
+public class ShardedDecayVariableCollection<V> {
+
+	/**
+	 * Type of collection (for log files)
+	 */
+	private final String collectionType;
+
+	/**
+	 * The shards; each one is guarded by its own monitor.
+	 */
+	private final DecayVariableCollection<V>[] shards;
+
+	/**
+	 * Instantiates a sharded collection whose parameters are read from the
+	 * same <code>decay.&lt;collectionType&gt;.*</code> properties as
+	 * {@link DecayVariableCollection#DecayVariableCollection(String)}. The
+	 * number of shards is read from <code>decay.&lt;collectionType&gt;.shards</code>
+	 * if that property is defined, and from <code>decay.shards</code> otherwise.
+	 */
+	public ShardedDecayVariableCollection(String collectionType) {
+		this(collectionType,
+			getNumShardsProperty(collectionType),
+			FWProps.getIntegerProperty("decay." + collectionType + ".maxSize"),
+			FWProps.getDoubleProperty("decay." + collectionType + ".energyUnit"),
+			FWProps.getDoubleProperty("decay." + collectionType + ".killThreshold"),
+			FWProps.getTimeProperty("decay." + collectionType + ".halfLife"));
+	}
+
+	/**
+	 * Instantiates a sharded collection that can store up to
+	 * <code>maxSize</code> keys in total, split evenly across
+	 * <code>numShards</code> shards. If <code>maxSize</code> is smaller
+	 * than <code>numShards</code>, only <code>maxSize</code> shards are used.
+	 */
+	@SuppressWarnings("unchecked")
+	public ShardedDecayVariableCollection(String collectionType, int numShards, int maxSize,
+			double energyUnit, double killThreshold, long halfLife)
+	{
+		ArgCheck.isTrue(maxSize >= 1, "maxSize must be positive");
+		ArgCheck.isTrue(numShards >= 1, "numShards must be positive");
+		this.collectionType = collectionType;
+		int n = Math.min(numShards, maxSize);
+		shards = new DecayVariableCollection[n];
+		for (int i = 0; i < n; i++) {
+			// spread the remainder over the first shards so the
+			// shard sizes add up to exactly maxSize
+			int shardSize = maxSize / n + (i < maxSize % n ? 1 : 0);
+			shards[i] = new DecayVariableCollection<V>(collectionType + "[" + i + "]",
+				shardSize, energyUnit, killThreshold, halfLife);
+		}
+	}
+
+	private static int getNumShardsProperty(String collectionType) {
+		String shardsProp = "decay." + collectionType + ".shards";
+		return FWProps.getProperty(shardsProp) != null
+			? FWProps.getIntegerProperty(shardsProp)
+			: FWProps.getIntegerProperty("decay.shards");
+	}
+
+	/**
+	 * Returns the number of shards.
+	 */
+	public int getNumShards() {
+		return shards.length;
+	}
+
+	/**
+	 * Update the energy associated with the specified key, as in
+	 * {@link DecayVariableCollection#update}, and return the key's
+	 * new kill time.
+	 */
+	public long update(long key, long now) {
+		DecayVariableCollection<V> shard = shardFor(key);
+		synchronized (shard) {
+			return shard.update(key, now).getPriority();
+		}
+	}
+
+	/**
+	 * Updates the energy of each of the first <code>n</code> keys in
+	 * <code>keys</code> at the corresponding time in <code>times</code>, as
+	 * described in {@link DecayVariableCollection#updateAll}. The batch is
+	 * split by shard first, so each shard is locked once per batch rather
+	 * than once per key.
+	 *
+	 * @return the number of distinct keys in the batch.
+	 */
+	public int updateAll(long[] keys, long[] times, int n) {
+		ArgCheck.isTrue(0 <= n && n <= keys.length && n <= times.length,
+			"n must be between 0 and the length of keys and times");
+		if (shards.length == 1) {
+			synchronized (shards[0]) {
+				return shards[0].updateAll(keys, times, n);
+			}
+		}
+		// split the batch by shard, preserving the order within each shard
+		int[] shardOf = new int[n];
+		int[] counts = new int[shards.length];
+		for (int i = 0; i < n; i++) {
+			shardOf[i] = shardIndex(keys[i]);
+			counts[shardOf[i]]++;
+		}
+		long[][] shardKeys = new long[shards.length][];
+		long[][] shardTimes = new long[shards.length][];
+		for (int s = 0; s < shards.length; s++) {
+			shardKeys[s] = new long[counts[s]];
+			shardTimes[s] = new long[counts[s]];
+			counts[s] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			int s = shardOf[i];
+			shardKeys[s][counts[s]] = keys[i];
+			shardTimes[s][counts[s]++] = times[i];
+		}
+		int numDistinct = 0;
+		for (int s = 0; s < shards.length; s++) {
+			if (counts[s] > 0) {
+				synchronized (shards[s]) {
+					numDistinct += shards[s].updateAll(shardKeys[s], shardTimes[s], counts[s]);
+				}
+			}
+		}
+		return numDistinct;
+	}
+
+	/**
+	 * Returns the kill time of the given key, or 0 if the
+	 * collection does not contain the key.
+	 */
+	public long getKillTime(long key) {
+		DecayVariableCollection<V> shard = shardFor(key);
+		synchronized (shard) {
+			IndexedPriorityQueue.Entry<V> e = shard.getPQ().get(key);
+			return (e == null) ? 0L : e.getPriority();
+		}
+	}
+
+	/**
+	 * Returns the energy of <code>key</code> as of <code>now</code>, or 0 if
+	 * the collection does not contain the key, as described in
+	 * {@link DecayVariableCollection#getEnergy}.
+	 */
+	public double getEnergy(long key, long now) {
+		DecayVariableCollection<V> shard = shardFor(key);
+		synchronized (shard) {
+			return shard.getEnergy(key, now);
+		}
+	}
+
+	/**
+	 * Returns an iterator over copies of the (at most) <code>n</code> entries
+	 * with the most energy, hottest first, as described in
+	 * {@link DecayVariableCollection#hottest}. Each shard is locked only
+	 * while its own <code>n</code> hottest entries are selected, so updates
+	 * to the other shards proceed meanwhile.
+	 */
+	public Iterator<IndexedPriorityQueue.Entry<V>> hottest(int n) {
+		ArgCheck.isTrue(n >= 0, "n must be non-negative");
+		List<IndexedPriorityQueue.Entry<V>> candidates = new ArrayList<IndexedPriorityQueue.Entry<V>>();
+		for (DecayVariableCollection<V> shard : shards) {
+			Iterator<IndexedPriorityQueue.Entry<V>> it;
+			synchronized (shard) {
+				it = shard.hottest(n);
+			}
+			while (it.hasNext()) {
+				candidates.add(it.next());
+			}
+		}
+		return Arrays.asList(DecayVariableCollection.selectHottest(candidates.iterator(), n)).iterator();
+	}
+
+	/**
+	 * Returns the total number of keys in the collection.
+	 */
+	public int size() {
+		int size = 0;
+		for (DecayVariableCollection<V> shard : shards) {
+			synchronized (shard) {
+				size += shard.getPQ().size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns a copy of the entries of all shards, as described in
+	 * {@link DecayVariableCollection#snapshot()}. Each shard is locked only
+	 * while its own entries are copied, so updates to the other shards
+	 * proceed while the snapshot is taken.
+	 */
+	public Snapshot<V> snapshot() {
+		Snapshot<V> result = new Snapshot<V>(0);
+		for (DecayVariableCollection<V> shard : shards) {
+			Snapshot<V> part;
+			synchronized (shard) {
+				part = shard.snapshot();
+			}
+			for (int i = 0; i < part.size(); i++) {
+				result.add(part.getKey(i), part.getKillTime(i), part.getValue(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Replaces the contents of this collection by the live entries of
+	 * <code>snapshot</code>, as described in
+	 * {@link DecayVariableCollection#restore}. The snapshot need not have
+	 * been taken from a collection with the same number of shards.
+	 *
+	 * @return the number of entries restored.
+	 * @throws IllegalArgumentException if the snapshot contains a duplicate
+	 * key, in which case no shard is changed.
+	 */
+	public int restore(Snapshot<V> snapshot, long now) {
+		LongHashSet seen = new LongHashSet(snapshot.size());
+		int[] counts = new int[shards.length];
+		for (int i = 0; i < snapshot.size(); i++) {
+			long key = snapshot.getKey(i);
+			ArgCheck.isTrue(seen.add(key), "Duplicate key " + key);
+			counts[shardIndex(key)]++;
+		}
+		@SuppressWarnings("unchecked")
+		Snapshot<V>[] parts = new Snapshot[shards.length];
+		for (int s = 0; s < shards.length; s++) {
+			parts[s] = new Snapshot<V>(counts[s]);
+		}
+		for (int i = 0; i < snapshot.size(); i++) {
+			long key = snapshot.getKey(i);
+			parts[shardIndex(key)].add(key, snapshot.getKillTime(i), snapshot.getValue(i));
+		}
+		int restored = 0;
+		for (int s = 0; s < shards.length; s++) {
+			synchronized (shards[s]) {
+				restored += shards[s].restore(parts[s], now);
+			}
+		}
+		return restored;
+	}
+
+	/**
+	 * Returns the shard responsible for <code>key</code>. Fibonacci hashing
+	 * spreads sequential keys (such as IP numbers) across the shards.
+	 */
+	private DecayVariableCollection<V> shardFor(long key) {
+		return shards[shardIndex(key)];
+	}
+
+	private int shardIndex(long key) {
+		return KeyHashing.fibonacci(key, 31) % shards.length;
+	}
+
+	@Override
+	public String toString() {
+		return "ShardedDecayVariable " + collectionType + ":"
+			+ "\n\tshards = " + shards.length
+			+ "\n\t" + shards[0];
+	}
+}
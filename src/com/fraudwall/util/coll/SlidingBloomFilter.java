@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Arrays;
+
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * Answers "has this key been seen in the past W milliseconds?" in fixed
+ * memory, with a configurable rate of false positives and no false
+ * negatives, using a Bloom filter whose contents slide with time. It is
+ * meant for duplicate detection on 64-bit keys such as
+ * {@link com.fraudwall.util.fp.FP64} fingerprints of clicks, where an
+ * {@link ExpiringLRUMap} would use around 100 bytes per key.<p>
+ *
+ * The window is controlled by the same parameters as {@link EstCount}: W, the
+ * width of the sliding window, and T, the interval by which the window
+ * slides; as in {@link SlidingHyperLogLog}, intervals start at multiples of
+ * T. A separate bit vector is kept for each of the 1+W/T intervals; a key is
+ * added to the vector of the current interval, and is reported as present if
+ * each of its bit positions is set in the vector of some interval in the
+ * window. The vectors are interleaved word by word, so that the 1+W/T words
+ * holding a given bit position are adjacent in memory. When the window
+ * slides, the vector of the oldest interval is cleared.<p>
+ *
+ * The filter is sized for a given number of distinct keys per window and
+ * false positive probability, using the usual formulas
+ * <pre>
+ *   bits   = -keys * ln(fpp) / ln(2)^2
+ *   hashes = bits / keys * ln(2)
+ * </pre>
+ * for each interval, so the filter uses (1+W/T) * bits / 8 bytes; for
+ * example, 1.2 MB per interval for a million keys per window at 1%. The
+ * false positive rate holds as long as no more than that many distinct keys
+ * are added per window.<p>
+ *
+ * This class is not thread safe.
+ */
+public final class SlidingBloomFilter {
+
+	private final long T; // interval size
+	private final int blocks; // number of intervals in the window; = 1+int(W/T)
+	private final long numBits; // bits per interval
+	private final int numHashes; // bit positions per key
+
+	/**
+	 * words[w * blocks + b] holds bits 64w to 64w+63 of the vector of block b.
+	 */
+	private final long[] words;
+
+	private int currentBlock; // index of the current interval
+	private long startTimeOfCurrentBlock; // starting time of the currentBlock
+
+	/**
+	 * Creates a filter for a window of <code>W</code> milliseconds, sliding
+	 * by <code>T</code> milliseconds at a time, that reports false positives
+	 * with probability <code>fpp</code> if at most <code>expectedKeys</code>
+	 * distinct keys are added per window. <code>T</code> must divide
+	 * <code>W</code>.
+	 */
+	public static SlidingBloomFilter create(long W, long T, int expectedKeys, double fpp) {
+		ArgCheck.isTrue(expectedKeys >= 1, "expectedKeys must be positive");
+		ArgCheck.isTrue(fpp > 0.0 && fpp < 1.0, "fpp must be between 0 and 1");
+		double ln2 = Math.log(2.0);
+		long numBits = (long) Math.ceil(-expectedKeys * Math.log(fpp) / (ln2 * ln2));
+		int numHashes = (int) Math.max(1, Math.round((double) numBits / expectedKeys * ln2));
+		return new SlidingBloomFilter(W, T, numBits, numHashes);
+	}
+
+	/**
+	 * Creates a filter for a window of <code>W</code> milliseconds, sliding
+	 * by <code>T</code> milliseconds at a time, with <code>numBits</code>
+	 * bits per interval (rounded up to a multiple of 64) and
+	 * <code>numHashes</code> bit positions per key.
+	 */
+	public static SlidingBloomFilter create(long W, long T, long numBits, int numHashes) {
+		return new SlidingBloomFilter(W, T, numBits, numHashes);
+	}
+
+	private SlidingBloomFilter(long W, long T, long numBits, int numHashes) {
+		if (T <= 0 || W < 0 || W % T != 0) {
+			throw new IllegalArgumentException(
+					"interval must be a factor of the time window");
+		}
+		ArgCheck.isTrue(numBits >= 1 && numBits <= (1L << 32), "numBits must be between 1 and 2^32");
+		ArgCheck.isTrue(numHashes >= 1 && numHashes <= 32, "numHashes must be between 1 and 32");
+		this.T = T;
+		blocks = 1 + (int) (W / T);
+		long numWords = (numBits + 63) / 64;
+		ArgCheck.isTrue(numWords * blocks <= Integer.MAX_VALUE, "filter is too large");
+		this.numBits = numWords * 64;
+		this.numHashes = numHashes;
+		words = new long[(int) (numWords * blocks)];
+		currentBlock = blocks - 1;
+		startTimeOfCurrentBlock = -1;
+	}
+
+	/**
+	 * Adds <code>key</code> as seen at time <code>now</code>. Returns true if
+	 * the key has not been seen in the past W milliseconds, and false if it
+	 * probably has (which, like {@link java.util.Set#add}, means that it is
+	 * a duplicate).
+	 */
+	public boolean add(long key, long now) {
+		slide(now);
+		long hash = KeyHashing.mix(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		boolean present = true;
+		for (int i = 0; i < numHashes; i++) {
+			long bit = position(h1 + i * h2);
+			int base = (int) (bit >>> 6) * blocks;
+			long mask = 1L << bit;
+			if (present && !isSet(base, mask)) {
+				present = false;
+			}
+			words[base + currentBlock] |= mask;
+		}
+		return !present;
+	}
+
+	/**
+	 * Returns true if <code>key</code> has probably been seen in the W
+	 * milliseconds up to <code>now</code>, and false if it has certainly not.
+	 */
+	public boolean mightContain(long key, long now) {
+		slide(now);
+		long hash = KeyHashing.mix(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < numHashes; i++) {
+			long bit = position(h1 + i * h2);
+			if (!isSet((int) (bit >>> 6) * blocks, 1L << bit)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of bits per interval.
+	 */
+	public long getNumBits() {
+		return numBits;
+	}
+
+	/**
+	 * Returns the number of bit positions per key.
+	 */
+	public int getNumHashes() {
+		return numHashes;
+	}
+
+	// ======================================================= helpers
+
+	/**
+	 * Maps a 32-bit hash uniformly onto a bit position, using a multiply
+	 * and shift rather than a division.
+	 */
+	private long position(int h) {
+		return ((h & 0xffffffffL) * numBits) >>> 32;
+	}
+
+	/**
+	 * Returns true if the bit selected by <code>mask</code> is set in any
+	 * of the words starting at <code>base</code>.
+	 */
+	private boolean isSet(int base, long mask) {
+		for (int b = 0; b < blocks; b++) {
+			if ((words[base + b] & mask) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Slides the window so that its current interval contains time
+	 * <code>now</code>. As in {@link EstCount#record}, a time earlier than
+	 * the current interval is counted in the current interval.
+	 */
+	private void slide(long now) {
+		if (startTimeOfCurrentBlock < 0) {
+			startTimeOfCurrentBlock = intervalStart(now);
+		} else if (now >= (startTimeOfCurrentBlock + T)) {
+			long intervalsToSlide = (now - startTimeOfCurrentBlock) / T;
+			if (intervalsToSlide >= blocks) {
+				startTimeOfCurrentBlock = intervalStart(now);
+				Arrays.fill(words, 0L);
+			} else {
+				for (int i = 0; i < intervalsToSlide; i++) {
+					startTimeOfCurrentBlock += T;
+					currentBlock = (currentBlock + 1) % blocks;
+					for (int w = currentBlock; w < words.length; w += blocks) {
+						words[w] = 0L;
+					}
+				}
+			}
+		}
+	}
+
+	private long intervalStart(long time) {
+		return time - (((time % T) + T) % T);
+	}
+}
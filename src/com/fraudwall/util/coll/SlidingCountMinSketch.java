@@ -0,0 +1,280 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Arrays;
+
+import com.fraudwall.util.exc.ArgCheck;
+import com.fraudwall.util.fp.FP64;
+
+/**
+ * Estimates how many times each key has been seen over a sliding window of
+ * time, in fixed memory, using a Count-Min sketch. The estimate for a key is
+ * never smaller than its true count, and with probability at least 1 - DELTA
+ * it exceeds the true count by at most EPSILON times the total number of
+ * events in the window, where the sketch has e/EPSILON columns and
+ * ln(1/DELTA) rows.<p>
+ *
+ * The window is controlled by the same parameters as {@link EstCount}: W, the
+ * width of the sliding window, and T, the interval by which the window
+ * slides; as in {@link SlidingHyperLogLog}, intervals start at multiples of
+ * T. A separate table of counters is kept for each of the 1+W/T intervals,
+ * together with their sum over the window, so the sketch uses
+ * 4 * (2+W/T) * width * depth bytes. Adding a key and estimating its count
+ * take time proportional to the depth; sliding the window subtracts the
+ * counters of the expiring interval from the sum.<p>
+ *
+ * Keys are hashed by fingerprinting their string representation with
+ * {@link FP64}, except that {@link Long} and {@link Integer} keys are used
+ * as they are, so <code>add(Long.valueOf(ip), now)</code> and
+ * <code>add(ip, now)</code> count the same key. Clients whose keys are
+ * already numbers (such as IP numbers or fingerprints) should use the
+ * methods that take <code>long</code> keys, which do not allocate.
+ *
+ * @param <K> The type of keys counted.
+ * @see SlidingHyperLogLog
+ */
+public final class SlidingCountMinSketch<K> {
+
+	private final long T; // interval size
+	private final int blocks; // number of intervals in the window; = 1+int(W/T)
+	private final int width; // number of counters per row; a power of two
+	private final int depth; // number of rows
+	private final int cells; // = width * depth
+
+	private final int[] counts; // blocks tables of depth rows of width counters
+	private final int[] acc; // sum of the tables of all blocks
+	private long total; // number of events in the window
+
+	private int currentBlock; // index of the current interval
+	private long startTimeOfCurrentBlock; // starting time of the currentBlock
+
+	/**
+	 * Creates a sketch of the key counts during a window of <code>W</code>
+	 * milliseconds, sliding by <code>T</code> milliseconds at a time, with
+	 * <code>depth</code> rows of <code>width</code> counters each.
+	 * <code>T</code> must divide <code>W</code>, and <code>width</code> is
+	 * rounded up to a power of two.
+	 */
+	public static <K> SlidingCountMinSketch<K> create(long W, long T, int width, int depth) {
+		return new SlidingCountMinSketch<K>(W, T, width, depth);
+	}
+
+	/**
+	 * Creates a sketch of the key counts during a window of <code>W</code>
+	 * milliseconds, sliding by <code>T</code> milliseconds at a time, whose
+	 * estimates exceed the true counts by at most <code>epsilon</code> times
+	 * the number of events in the window with probability at least
+	 * 1 - <code>delta</code>.
+	 */
+	public static <K> SlidingCountMinSketch<K> createWithError(long W, long T,
+			double epsilon, double delta)
+	{
+		ArgCheck.isTrue(epsilon > 0.0 && epsilon < 1.0, "epsilon must be between 0 and 1");
+		ArgCheck.isTrue(delta > 0.0 && delta < 1.0, "delta must be between 0 and 1");
+		int width = (int) Math.ceil(Math.E / epsilon);
+		int depth = (int) Math.ceil(Math.log(1.0 / delta));
+		return new SlidingCountMinSketch<K>(W, T, width, depth);
+	}
+
+	private SlidingCountMinSketch(long W, long T, int width, int depth) {
+		if (T <= 0 || W < 0 || W % T != 0) {
+			throw new IllegalArgumentException(
+					"interval must be a factor of the time window");
+		}
+		ArgCheck.isTrue(width >= 1 && width <= (1 << 30), "width must be between 1 and 2^30");
+		ArgCheck.isTrue(depth >= 1 && depth <= 32, "depth must be between 1 and 32");
+		this.T = T;
+		this.blocks = 1 + (int) (W / T);
+		this.width = nextPowerOfTwo(width);
+		this.depth = depth;
+		long size = (long) blocks * this.width * depth;
+		ArgCheck.isTrue(size <= Integer.MAX_VALUE, "sketch is too large");
+		cells = this.width * depth;
+		counts = new int[(int) size];
+		acc = new int[cells];
+		currentBlock = blocks - 1;
+		startTimeOfCurrentBlock = -1;
+	}
+
+	/**
+	 * Records one occurrence of <code>key</code> at time <code>now</code>,
+	 * and returns the estimate of the number of times it has been seen in
+	 * the past W milliseconds.
+	 */
+	public int add(K key, long now) {
+		return add(KeyHashing.fingerprint(key), 1, now);
+	}
+
+	/**
+	 * Records one occurrence of the key whose fingerprint (or IP number) is
+	 * <code>key</code> at time <code>now</code>, and returns the estimate
+	 * of the number of times it has been seen in the past W milliseconds.
+	 */
+	public int add(long key, long now) {
+		return add(key, 1, now);
+	}
+
+	/**
+	 * Records <code>count</code> occurrences of the key whose fingerprint
+	 * (or IP number) is <code>key</code> at time <code>now</code>, and
+	 * returns the estimate of the number of times it has been seen in the
+	 * past W milliseconds.
+	 */
+	public int add(long key, int count, long now) {
+		ArgCheck.isTrue(count >= 0, "count must be non-negative");
+		slide(now);
+		long hash = KeyHashing.mix(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		int base = currentBlock * cells;
+		int min = Integer.MAX_VALUE;
+		for (int row = 0, offset = 0; row < depth; row++, offset += width) {
+			int cell = offset + ((h1 + row * h2) & (width - 1));
+			counts[base + cell] += count;
+			int c = (acc[cell] += count);
+			if (c < min) {
+				min = c;
+			}
+		}
+		total += count;
+		return min;
+	}
+
+	/**
+	 * Returns the estimate of the number of times <code>key</code> has been
+	 * seen in the W milliseconds up to <code>now</code>.
+	 */
+	public int estimate(K key, long now) {
+		return estimate(KeyHashing.fingerprint(key), now);
+	}
+
+	/**
+	 * Returns the estimate of the number of times the key whose fingerprint
+	 * (or IP number) is <code>key</code> has been seen in the W milliseconds
+	 * up to <code>now</code>.
+	 */
+	public int estimate(long key, long now) {
+		slide(now);
+		long hash = KeyHashing.mix(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		int min = Integer.MAX_VALUE;
+		for (int row = 0, offset = 0; row < depth; row++, offset += width) {
+			int c = acc[offset + ((h1 + row * h2) & (width - 1))];
+			if (c < min) {
+				min = c;
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * Returns the total number of occurrences of all keys recorded in the W
+	 * milliseconds up to <code>now</code>.
+	 */
+	public long getTotal(long now) {
+		slide(now);
+		return total;
+	}
+
+	/**
+	 * Returns the number of counters per row.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the number of rows.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	// ======================================================= helpers
+
+	/**
+	 * Slides the window so that its current interval contains time
+	 * <code>now</code>. As in {@link EstCount#record}, a time earlier than
+	 * the current interval is counted in the current interval.
+	 */
+	private void slide(long now) {
+		if (startTimeOfCurrentBlock < 0) {
+			startTimeOfCurrentBlock = intervalStart(now);
+		} else if (now >= (startTimeOfCurrentBlock + T)) {
+			long intervalsToSlide = (now - startTimeOfCurrentBlock) / T;
+			if (intervalsToSlide >= blocks) {
+				startTimeOfCurrentBlock = intervalStart(now);
+				Arrays.fill(counts, 0);
+				Arrays.fill(acc, 0);
+				total = 0;
+			} else {
+				for (int i = 0; i < intervalsToSlide; i++) {
+					startTimeOfCurrentBlock += T;
+					currentBlock = (currentBlock + 1) % blocks;
+					clearBlock(currentBlock);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Subtracts the counters of block <code>b</code> from the sums, and
+	 * clears them.
+	 */
+	private void clearBlock(int b) {
+		int base = b * cells;
+		for (int cell = 0; cell < cells; cell++) {
+			int c = counts[base + cell];
+			if (c != 0) {
+				acc[cell] -= c;
+				counts[base + cell] = 0;
+			}
+		}
+		// every event in the window is counted exactly once in each row
+		total = 0;
+		for (int cell = 0; cell < width; cell++) {
+			total += acc[cell];
+		}
+	}
+
+	private long intervalStart(long time) {
+		return time - (((time % T) + T) % T);
+	}
+
+	private static int nextPowerOfTwo(int n) {
+		int p = Integer.highestOneBit(n);
+		return (p == n) ? n : p << 1;
+	}
+}
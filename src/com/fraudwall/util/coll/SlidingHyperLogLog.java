@@ -0,0 +1,463 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+import com.fraudwall.util.exc.ArgCheck;
+import com.fraudwall.util.fp.FP64;
+
+/**
+ * Keeps an estimate of the number of unique keys that have been seen over a
+ * sliding window of time, using the HyperLogLog algorithm. Unlike
+ * {@link EstCount}, whose accuracy degrades once the number of distinct keys
+ * approaches its bit vector size N, the relative error of a HyperLogLog
+ * estimate does not depend on the number of keys, which makes it suitable for
+ * counts in the millions.<p>
+ *
+ * The window is controlled by the same parameters as {@link EstCount}: W, the
+ * width of the sliding window, and T, the interval by which the window
+ * slides. Intervals start at multiples of T, so that sketches kept on
+ * different machines cover the same intervals. Accuracy is controlled by the precision P: the sketch has
+ * 2<sup>P</sup> one-byte registers, and the standard error of the estimate is
+ * about 1.04 / sqrt(2<sup>P</sup>) (3.3% for P = 10, 1.6% for P = 12).<p>
+ *
+ * A separate set of registers is kept for each of the 1+W/T intervals of the
+ * window, together with their register-wise maximum over the window, so the
+ * sketch uses (2+W/T) * 2<sup>P</sup> bytes; for example, 8K with W = 24
+ * hours, T = 4 hours and P = 10. When the window slides, the registers of the
+ * oldest interval are cleared, and only those maxima that came from the
+ * cleared interval are recomputed. The estimate is maintained incrementally,
+ * so {@link #record} takes constant time.<p>
+ *
+ * Keys are hashed by fingerprinting their string representation with
+ * {@link FP64}, except that {@link Long} and {@link Integer} keys are their
+ * own fingerprints, so that recording a boxed IP number counts the same key
+ * as passing it to {@link #recordFingerprint}; clients whose keys are
+ * already numbers (such as IP
+ * addresses) can call {@link #recordFingerprint} instead. Either way, the
+ * 64-bit value is mixed further before use, so it need not be uniformly
+ * distributed.<p>
+ *
+ * Sketches with the same W, T and P can be combined with {@link #merge},
+ * which yields the sketch of the union of the keys recorded in each, at a
+ * cost that depends only on the size of the sketches. A sketch can be saved
+ * in a stable binary form with {@link #writeTo} and {@link #readFrom}, and is
+ * {@link Serializable} (using the same form) so that it can be passed to
+ * remote services.
+ *
+ * @param <K> The type of keys counted.
+ * @see EstCount
+ */
+public final class SlidingHyperLogLog<K> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Marks the start of the binary form of a sketch ("SHLL").
+	 */
+	public static final int MAGIC = 0x53484C4C;
+
+	/**
+	 * Version of the binary form. Version 1 sketches hashed {@link Long} and
+	 * {@link Integer} keys by their string representation; see {@link #readFrom}.
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * 2^-r for every possible register value r.
+	 */
+	private static final double[] POW2_NEG = new double[65];
+	static {
+		for (int r = 0; r < POW2_NEG.length; r++) {
+			POW2_NEG[r] = Math.pow(2.0, -r);
+		}
+	}
+
+	private final long W; // window
+	private final long T; // interval size
+	private final int p; // precision; number of index bits
+	private final int m; // number of registers; = 2^p
+	private final int blocks; // number of intervals in the window; = 1+int(W/T)
+
+	private final byte[] registers; // blocks * m registers, one run of m per interval
+	private final byte[] acc; // register-wise maximum over all blocks
+
+	private double sum; // sum over the acc registers of 2^-acc[j]
+	private int zeros; // number of acc registers equal to 0
+
+	private int currentBlock; // index of the current interval
+	private long startTimeOfCurrentBlock; // starting time of the currentBlock
+
+	private boolean stringKeyHashing; // hashes all keys by their string form, as version 1 did
+
+	/**
+	 * Creates a sketch of the keys seen during a window of <code>W</code>
+	 * milliseconds, sliding by <code>T</code> milliseconds at a time, with
+	 * 2<sup>p</sup> registers. <code>T</code> must divide <code>W</code>,
+	 * and <code>p</code> must be between 4 and 16, inclusive.
+	 */
+	public static <K> SlidingHyperLogLog<K> create(long W, long T, int p) {
+		return new SlidingHyperLogLog<K>(W, T, p);
+	}
+
+	private SlidingHyperLogLog(long W, long T, int p) {
+		if (T <= 0 || W < 0 || W % T != 0) {
+			throw new IllegalArgumentException(
+					"interval must be a factor of the time window");
+		}
+		ArgCheck.isTrue(p >= 4 && p <= 16, "precision must be between 4 and 16");
+		this.W = W;
+		this.T = T;
+		this.p = p;
+		m = 1 << p;
+		// 1 + W/T blocks of m registers; W/T must not overflow the int count
+		ArgCheck.isTrue(W / T < Integer.MAX_VALUE / m, "sketch is too large");
+		blocks = 1 + (int) (this.W / this.T);
+		registers = new byte[blocks * m];
+		acc = new byte[m];
+		sum = m;
+		zeros = m;
+		currentBlock = blocks - 1;
+		startTimeOfCurrentBlock = -1;
+	}
+
+	/**
+	 * Records <code>key</code> as seen at time <code>now</code>, and returns
+	 * the estimate of the number of distinct keys that have been seen in the
+	 * past W milliseconds.
+	 */
+	public int record(K key, long now) {
+		long fp = stringKeyHashing ? FP64.fp(String.valueOf(key)) : KeyHashing.fingerprint(key);
+		return recordFingerprint(fp, now);
+	}
+
+	/**
+	 * Records the key whose 64-bit fingerprint is <code>fp</code> as seen at
+	 * time <code>now</code>, and returns the estimate of the number of distinct
+	 * keys that have been seen in the past W milliseconds. Any value that
+	 * identifies the key can be used as its fingerprint, such as the result of
+	 * {@link FP64#fp(String)} or an IP number.
+	 */
+	public int recordFingerprint(long fp, long now) {
+		slide(now);
+		long hash = KeyHashing.mix(fp);
+		int j = (int) (hash >>> (64 - p));
+		byte rank = (byte) (Math.min(Long.numberOfLeadingZeros(hash << p), 64 - p) + 1);
+		int cell = currentBlock * m + j;
+		if (rank > registers[cell]) {
+			registers[cell] = rank;
+			if (rank > acc[j]) {
+				setAcc(j, rank);
+			}
+		}
+		return estimate();
+	}
+
+	/**
+	 * Returns the estimate of the number of distinct keys that have been seen
+	 * in the W milliseconds up to <code>now</code>, without recording a key.
+	 */
+	public int estimate(long now) {
+		slide(now);
+		return estimate();
+	}
+
+	/**
+	 * Adds the keys recorded in <code>other</code> to this sketch, which must
+	 * have the same window, interval and precision. If <code>other</code> has
+	 * seen a later time than this sketch, this sketch first slides forward to
+	 * that time; intervals of <code>other</code> that are older than the
+	 * window of this sketch are ignored. <code>other</code> is not modified.
+	 * A sketch read from the version 1 binary form can only be merged with
+	 * another such sketch, since they hash numeric keys differently.
+	 */
+	public void merge(SlidingHyperLogLog<? extends K> other) {
+		ArgCheck.isTrue(W == other.W && T == other.T && p == other.p,
+			"sketches must have the same window, interval and precision");
+		ArgCheck.isTrue(stringKeyHashing == other.stringKeyHashing,
+			"sketches must hash keys the same way; one was written by version 1");
+		if (other.startTimeOfCurrentBlock < 0) {
+			return;
+		}
+		slide(other.startTimeOfCurrentBlock);
+		for (int age = 0; age < blocks; age++) {
+			long start = other.startTimeOfCurrentBlock - age * T;
+			int ageHere = (int) ((startTimeOfCurrentBlock - start) / T);
+			if (ageHere >= blocks) {
+				break;
+			}
+			int base = blockAtAge(ageHere) * m;
+			int otherBase = other.blockAtAge(age) * m;
+			for (int j = 0; j < m; j++) {
+				byte r = other.registers[otherBase + j];
+				if (r > registers[base + j]) {
+					registers[base + j] = r;
+					if (r > acc[j]) {
+						setAcc(j, r);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes this sketch to <code>out</code>. The format only depends on the
+	 * parameters and contents of the sketch; a sketch read from version 1 is
+	 * written as version 1 again, so that it keeps hashing keys as it did:
+	 *
+	 * <pre>
+	 *   int   MAGIC
+	 *   int   VERSION
+	 *   long  W
+	 *   long  T
+	 *   byte  P
+	 *   long  start time of the current interval, or -1 if nothing was recorded
+	 *   1+W/T times, from the current interval to the oldest one:
+	 *     2^P bytes of registers
+	 * </pre>
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(stringKeyHashing ? 1 : VERSION);
+		out.writeLong(W);
+		out.writeLong(T);
+		out.writeByte(p);
+		out.writeLong(startTimeOfCurrentBlock);
+		for (int age = 0; age < blocks; age++) {
+			out.write(registers, blockAtAge(age) * m, m);
+		}
+	}
+
+	/**
+	 * Reads a sketch written by {@link #writeTo} from <code>in</code>. A
+	 * version 1 sketch is still read, but it goes on hashing {@link Long} and
+	 * {@link Integer} keys by their string representation, and can only be
+	 * merged with other version 1 sketches.
+	 *
+	 * @throws IOException if the stream does not contain a valid sketch
+	 * of a supported version.
+	 */
+	public static <K> SlidingHyperLogLog<K> readFrom(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a SlidingHyperLogLog sketch");
+		}
+		int version = in.readInt();
+		if (version != 1 && version != VERSION) {
+			throw new IOException("Unsupported sketch version " + version);
+		}
+		long W = in.readLong();
+		long T = in.readLong();
+		int p = in.readByte();
+		SlidingHyperLogLog<K> sketch;
+		try {
+			sketch = new SlidingHyperLogLog<K>(W, T, p);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Corrupt sketch: " + e.getMessage());
+		}
+		sketch.stringKeyHashing = (version == 1);
+		sketch.startTimeOfCurrentBlock = in.readLong();
+		for (int age = 0; age < sketch.blocks; age++) {
+			in.readFully(sketch.registers, sketch.blockAtAge(age) * sketch.m, sketch.m);
+		}
+		int maxRank = 64 - p + 1;
+		for (int cell = 0; cell < sketch.registers.length; cell++) {
+			byte r = sketch.registers[cell];
+			if (r < 0 || r > maxRank) {
+				throw new IOException("Corrupt sketch: register value " + r);
+			}
+			int j = cell & (sketch.m - 1);
+			if (r > sketch.acc[j]) {
+				sketch.setAcc(j, r);
+			}
+		}
+		return sketch;
+	}
+
+	/**
+	 * Returns the precision P of this sketch.
+	 */
+	public int getPrecision() {
+		return p;
+	}
+
+	// ======================================================= helpers
+
+	/**
+	 * Returns the index of the block <code>age</code> intervals older than
+	 * the current one.
+	 */
+	private int blockAtAge(int age) {
+		return (currentBlock - age + blocks) % blocks;
+	}
+
+	/**
+	 * Slides the window so that its current interval contains time
+	 * <code>now</code>. As in {@link EstCount#record}, a time earlier than
+	 * the current interval is counted in the current interval.
+	 */
+	private void slide(long now) {
+		if (startTimeOfCurrentBlock < 0) {
+			startTimeOfCurrentBlock = intervalStart(now);
+		} else if (now >= (startTimeOfCurrentBlock + T)) {
+			long intervalsToSlide = (now - startTimeOfCurrentBlock) / T;
+			if (intervalsToSlide >= blocks) {
+				startTimeOfCurrentBlock = intervalStart(now);
+				Arrays.fill(registers, (byte) 0);
+				Arrays.fill(acc, (byte) 0);
+			} else {
+				for (int i = 0; i < intervalsToSlide; i++) {
+					startTimeOfCurrentBlock += T;
+					currentBlock = (currentBlock + 1) % blocks;
+					clearBlock(currentBlock);
+				}
+			}
+			// recompute the sum from scratch to discard rounding errors
+			sum = 0.0;
+			zeros = 0;
+			for (int j = 0; j < m; j++) {
+				sum += POW2_NEG[acc[j]];
+				if (acc[j] == 0) {
+					zeros++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Clears the registers of block <code>b</code>, and recomputes the
+	 * maxima to which they contributed.
+	 */
+	private void clearBlock(int b) {
+		int base = b * m;
+		for (int j = 0; j < m; j++) {
+			byte r = registers[base + j];
+			if (r != 0) {
+				registers[base + j] = 0;
+				if (r == acc[j]) {
+					byte max = 0;
+					for (int cell = j; cell < registers.length; cell += m) {
+						if (registers[cell] > max) {
+							max = registers[cell];
+						}
+					}
+					acc[j] = max;
+				}
+			}
+		}
+	}
+
+	private long intervalStart(long time) {
+		return time - (((time % T) + T) % T);
+	}
+
+	private void setAcc(int j, byte r) {
+		if (acc[j] == 0) {
+			zeros--;
+		}
+		sum += POW2_NEG[r] - POW2_NEG[acc[j]];
+		acc[j] = r;
+	}
+
+	/**
+	 * Returns the HyperLogLog estimate for the acc registers, using linear
+	 * counting for small cardinalities.
+	 */
+	private int estimate() {
+		double e = alpha(m) * m * m / sum;
+		if (e <= 2.5 * m && zeros > 0) {
+			e = m * Math.log((double) m / zeros);
+		}
+		return (int) Math.min(Math.round(e), Integer.MAX_VALUE);
+	}
+
+	private static double alpha(int m) {
+		switch (m) {
+		case 16: return 0.673;
+		case 32: return 0.697;
+		case 64: return 0.709;
+		default: return 0.7213 / (1.0 + 1.079 / m);
+		}
+	}
+
+	// ======================================================= serialization
+
+	private Object writeReplace() throws ObjectStreamException {
+		return new SerializedForm(this);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException {
+		throw new InvalidObjectException("SerializedForm required");
+	}
+
+	/**
+	 * The serialized form of a sketch, which holds its {@link #writeTo
+	 * binary form}.
+	 */
+	private static final class SerializedForm implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] bytes;
+
+		SerializedForm(SlidingHyperLogLog<?> sketch) {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			try {
+				sketch.writeTo(new DataOutputStream(buf));
+			} catch (IOException e) {
+				// cannot happen when writing to a byte array
+				throw new IllegalStateException(e);
+			}
+			bytes = buf.toByteArray();
+		}
+
+		private Object readResolve() throws ObjectStreamException {
+			try {
+				return readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+			} catch (IOException e) {
+				throw new StreamCorruptedException(e.getMessage());
+			}
+		}
+	}
+}
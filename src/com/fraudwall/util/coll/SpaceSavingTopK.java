@@ -0,0 +1,372 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * Tracks the most frequent <code>long</code> keys (such as IP numbers or
+ * {@link com.fraudwall.util.fp.FP64} fingerprints) of an unbounded stream
+ * in memory fixed by the number of counters K, using the Space-Saving
+ * algorithm of Metwally, Agrawal and El Abbadi.<p>
+ *
+ * Each of the K counters monitors one key. When a key that is not monitored
+ * arrives and all counters are in use, the counter with the smallest count
+ * is taken over by the new key, which inherits that count (plus one); the
+ * inherited count is remembered as the counter's <em>error</em>. As a
+ * result, for every monitored key,
+ * <pre>
+ *   count - error &lt;= true frequency &lt;= count
+ * </pre>
+ * and every key whose true frequency exceeds N/K, where N is the length of
+ * the stream, is monitored.<p>
+ *
+ * The counters are kept in a "stream summary": counters with the same count
+ * share a bucket, and the buckets form a doubly-linked list in increasing
+ * order of count, so incrementing a counter moves it to the adjacent bucket
+ * and {@link #add} takes constant time. Keys are found through a
+ * {@link LongSlotTable} of counter numbers, as in {@link LongLRUMap}. All of these
+ * structures live in primitive arrays allocated up front, about 60 bytes per
+ * counter, and {@link #add} allocates nothing.<p>
+ *
+ * This class is not thread safe.
+ */
+public final class SpaceSavingTopK {
+
+	/**
+	 * A monitored key with its count and error, as returned by
+	 * {@link SpaceSavingTopK#top}.
+	 */
+	public static final class Counter {
+		private final long key;
+		private final long count;
+		private final long error;
+
+		Counter(long key, long count, long error) {
+			this.key = key;
+			this.count = count;
+			this.error = error;
+		}
+
+		public long getKey() {
+			return key;
+		}
+
+		/**
+		 * Returns an upper bound on the frequency of the key.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the maximum amount by which {@link #getCount} may
+		 * overestimate the frequency of the key.
+		 */
+		public long getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + count + "(+/-" + error + ")";
+		}
+	}
+
+	/** Number of counters. */
+	private final int capacity;
+
+	/** Per-counter state: monitored key, error, and bucket. */
+	private final long[] keys, errors;
+	private final int[] bucketOf;
+
+	/** Circular doubly-linked lists of the counters in each bucket. */
+	private final int[] prevInBucket, nextInBucket;
+
+	/**
+	 * Per-bucket state: count shared by its counters, one of its counters,
+	 * and its neighbors in order of count (-1 at the ends). Free buckets are
+	 * chained through bucketNext starting at <code>freeBucket</code>.
+	 */
+	private final long[] bucketCount;
+	private final int[] bucketHead, bucketPrev, bucketNext;
+
+	/** Bucket with the smallest and largest count, or -1 if empty. */
+	private int minBucket, maxBucket;
+	private int freeBucket;
+
+	/** Finds the counter monitoring a key. */
+	private final LongSlotTable table;
+
+	/** Number of counters in use. */
+	private int size;
+
+	/** Number of keys added, N. */
+	private long total;
+
+	/**
+	 * Creates a tracker with <code>capacity</code> counters.
+	 */
+	public static SpaceSavingTopK create(int capacity) {
+		return new SpaceSavingTopK(capacity);
+	}
+
+	private SpaceSavingTopK(int capacity) {
+		ArgCheck.isTrue(capacity >= 1, "capacity must be positive");
+		ArgCheck.isTrue(capacity <= (1 << 29), "capacity too large");
+		this.capacity = capacity;
+		keys = new long[capacity];
+		errors = new long[capacity];
+		bucketOf = new int[capacity];
+		prevInBucket = new int[capacity];
+		nextInBucket = new int[capacity];
+		bucketCount = new long[capacity];
+		bucketHead = new int[capacity];
+		bucketPrev = new int[capacity];
+		bucketNext = new int[capacity];
+		table = new LongSlotTable(keys);
+		clear();
+	}
+
+	/**
+	 * Records one occurrence of <code>key</code>, and returns the count of
+	 * its counter.
+	 */
+	public long add(long key) {
+		total++;
+		int c = table.find(key);
+		if (c >= 0) {
+			return increment(c);
+		}
+		if (size < capacity) {
+			c = size++;
+			errors[c] = 0;
+			keys[c] = key;
+			table.insert(c);
+			// a new counter starts in the bucket of count 1
+			if (minBucket >= 0 && bucketCount[minBucket] == 1) {
+				attach(c, minBucket);
+			} else {
+				int b = newBucket(1, -1, minBucket);
+				attach(c, b);
+			}
+			return 1;
+		}
+		// take over a counter with the smallest count
+		c = bucketHead[minBucket];
+		table.delete(c);
+		keys[c] = key;
+		errors[c] = bucketCount[minBucket];
+		table.insert(c);
+		return increment(c);
+	}
+
+	/**
+	 * Returns the count of the counter monitoring <code>key</code>, or 0
+	 * if the key is not monitored.
+	 */
+	public long getCount(long key) {
+		int c = table.find(key);
+		return (c < 0) ? 0 : bucketCount[bucketOf[c]];
+	}
+
+	/**
+	 * Returns the error of the counter monitoring <code>key</code>, or 0
+	 * if the key is not monitored.
+	 */
+	public long getError(long key) {
+		int c = table.find(key);
+		return (c < 0) ? 0 : errors[c];
+	}
+
+	/**
+	 * Returns the (at most) <code>n</code> monitored keys with the largest
+	 * counts, in decreasing order of count. The keys guaranteed to be among
+	 * the true top <code>n</code> are those whose count minus error is at
+	 * least the count of the <code>n+1</code>'th counter.
+	 */
+	public Counter[] top(int n) {
+		ArgCheck.isTrue(n >= 0, "n must be non-negative");
+		Counter[] result = new Counter[Math.min(n, size)];
+		int i = 0;
+		for (int b = maxBucket; b >= 0 && i < result.length; b = bucketPrev[b]) {
+			int head = bucketHead[b];
+			int c = head;
+			do {
+				result[i++] = new Counter(keys[c], bucketCount[b], errors[c]);
+				c = nextInBucket[c];
+			} while (c != head && i < result.length);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of keys being monitored.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of counters, K.
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of keys added since creation or the last
+	 * {@link #clear}, N.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	public void clear() {
+		table.clear();
+		for (int b = 0; b < capacity; b++) {
+			bucketNext[b] = b + 1;
+		}
+		bucketNext[capacity - 1] = -1;
+		freeBucket = 0;
+		minBucket = -1;
+		maxBucket = -1;
+		size = 0;
+		total = 0;
+	}
+
+	// ====== stream summary helpers =======
+
+	/**
+	 * Moves counter <code>c</code> to the bucket for its count plus one,
+	 * and returns the new count.
+	 */
+	private long increment(int c) {
+		int b = bucketOf[c];
+		long count = bucketCount[b] + 1;
+		int next = bucketNext[b];
+		boolean empty = detach(c, b);
+		if (next >= 0 && bucketCount[next] == count) {
+			attach(c, next);
+			if (empty) {
+				freeBucket(b);
+			}
+		} else if (empty) {
+			// b stays between its neighbors in order of count
+			bucketCount[b] = count;
+			attach(c, b);
+		} else {
+			attach(c, newBucket(count, b, next));
+		}
+		return count;
+	}
+
+	/**
+	 * Removes counter <code>c</code> from bucket <code>b</code>, and returns
+	 * true if the bucket is now empty.
+	 */
+	private boolean detach(int c, int b) {
+		int next = nextInBucket[c];
+		if (next == c) {
+			bucketHead[b] = -1;
+			return true;
+		}
+		int prev = prevInBucket[c];
+		nextInBucket[prev] = next;
+		prevInBucket[next] = prev;
+		if (bucketHead[b] == c) {
+			bucketHead[b] = next;
+		}
+		return false;
+	}
+
+	private void attach(int c, int b) {
+		bucketOf[c] = b;
+		int head = bucketHead[b];
+		if (head < 0) {
+			bucketHead[b] = c;
+			prevInBucket[c] = c;
+			nextInBucket[c] = c;
+		} else {
+			// insert at the tail, so the head is the least recently
+			// incremented counter of the bucket
+			int tail = prevInBucket[head];
+			nextInBucket[tail] = c;
+			prevInBucket[c] = tail;
+			nextInBucket[c] = head;
+			prevInBucket[head] = c;
+		}
+	}
+
+	/**
+	 * Allocates an empty bucket with the given count, linked between
+	 * buckets <code>prev</code> and <code>next</code> (either of which may
+	 * be -1).
+	 */
+	private int newBucket(long count, int prev, int next) {
+		int b = freeBucket;
+		freeBucket = bucketNext[b];
+		bucketCount[b] = count;
+		bucketHead[b] = -1;
+		bucketPrev[b] = prev;
+		bucketNext[b] = next;
+		if (prev >= 0) {
+			bucketNext[prev] = b;
+		} else {
+			minBucket = b;
+		}
+		if (next >= 0) {
+			bucketPrev[next] = b;
+		} else {
+			maxBucket = b;
+		}
+		return b;
+	}
+
+	private void freeBucket(int b) {
+		int prev = bucketPrev[b];
+		int next = bucketNext[b];
+		if (prev >= 0) {
+			bucketNext[prev] = next;
+		} else {
+			minBucket = next;
+		}
+		if (next >= 0) {
+			bucketPrev[next] = prev;
+		} else {
+			maxBucket = prev;
+		}
+		bucketNext[b] = freeBucket;
+		freeBucket = b;
+	}
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+/**
+ * A hierarchical timing wheel that calls back when scheduled nodes reach their
+ * expiration times, in amortized constant time per node.<p>
+ *
+ * The wheel has several levels of buckets; a bucket on level <i>i</i> covers
+ * 2<sup>SHIFT[i]</sup> milliseconds, and level <i>i</i> as a whole covers
+ * one bucket of level <i>i+1</i>. A node is placed on the lowest level that
+ * can hold its expiration time, in the bucket covering that time; nodes
+ * expiring beyond the span of the wheel go in a single overflow bucket. As
+ * time advances, the buckets whose time has come are emptied: nodes that
+ * have expired are passed to the {@link Expirer}, and the others cascade
+ * down to a more precise level. Each node is therefore visited at most once
+ * per level, and advancing over a period in which nothing expires costs at
+ * most one comparison per level. Nodes are expired within
+ * 2<sup>SHIFT[0]</sup> milliseconds of their expiration time.<p>
+ *
+ * Buckets are circular doubly-linked lists threaded through the nodes
+ * themselves, so nodes can be descheduled in constant time and the wheel
+ * allocates nothing after construction.<p>
+ *
+ * This class is not thread safe.
+ *
+ * @param <N> The type of nodes scheduled on the wheel.
+ */
+final class TimingWheel<N extends TimingWheel.Node> {
+
+	/**
+	 * An item that can be scheduled on a wheel. A node can be on at most
+	 * one wheel at a time.
+	 */
+	static class Node {
+		/** Time at which the node expires. */
+		long expiresAt;
+
+		/** Neighbors in the node's bucket; null when not scheduled. */
+		Node prev, next;
+
+		boolean isScheduled() {
+			return next != null;
+		}
+	}
+
+	/**
+	 * Receives the nodes that expire as the wheel advances. The node has
+	 * already been descheduled; the expirer must not deschedule any other
+	 * node.
+	 */
+	interface Expirer<N> {
+		void expired(N node);
+	}
+
+	/** Number of buckets on each level; each a power of two. */
+	private static final int[] BUCKETS = { 64, 64, 64, 16, 1 };
+
+	/**
+	 * log2 of the milliseconds covered by a bucket on each level: about
+	 * 64ms, 4s, 4.4min, 4.7h, and 3.1 days for the overflow bucket.
+	 */
+	private static final int[] SHIFT = { 6, 12, 18, 24, 28 };
+
+	/** Sentinel nodes of the buckets, by level. */
+	private final Node[][] wheel;
+
+	private final Expirer<N> expirer;
+
+	/** The time up to which the wheel has advanced. */
+	private long time;
+
+	/** Number of nodes scheduled. */
+	private int size;
+
+	TimingWheel(long now, Expirer<N> expirer) {
+		this.expirer = expirer;
+		time = now;
+		wheel = new Node[BUCKETS.length][];
+		for (int i = 0; i < BUCKETS.length; i++) {
+			wheel[i] = new Node[BUCKETS[i]];
+			for (int j = 0; j < BUCKETS[i]; j++) {
+				Node sentinel = new Node();
+				sentinel.prev = sentinel;
+				sentinel.next = sentinel;
+				wheel[i][j] = sentinel;
+			}
+		}
+	}
+
+	/**
+	 * Schedules <code>node</code>, which must not be scheduled already, to
+	 * expire at its <code>expiresAt</code> time.
+	 */
+	void schedule(N node) {
+		link(bucketFor(node.expiresAt), node);
+		size++;
+	}
+
+	/**
+	 * Removes <code>node</code> from the wheel, if it is scheduled.
+	 */
+	void deschedule(Node node) {
+		if (node.isScheduled()) {
+			unlink(node);
+			size--;
+		}
+	}
+
+	/**
+	 * Advances the wheel to time <code>now</code>, passing every node whose
+	 * expiration time is no later than <code>now</code> (give or take the
+	 * resolution of the wheel) to the expirer. Does nothing if
+	 * <code>now</code> is earlier than a previous time.
+	 */
+	void advance(long now) {
+		long previous = time;
+		if (now <= previous) {
+			return;
+		}
+		time = now;
+		for (int i = 0; i < SHIFT.length; i++) {
+			long previousTicks = previous >> SHIFT[i];
+			long currentTicks = now >> SHIFT[i];
+			if (currentTicks == previousTicks) {
+				break;
+			}
+			expire(i, previousTicks, currentTicks - previousTicks);
+		}
+	}
+
+	/**
+	 * Returns the number of nodes scheduled.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Deschedules all nodes.
+	 */
+	void clear() {
+		for (Node[] level : wheel) {
+			for (Node sentinel : level) {
+				Node node = sentinel.next;
+				while (node != sentinel) {
+					Node next = node.next;
+					node.prev = null;
+					node.next = null;
+					node = next;
+				}
+				sentinel.prev = sentinel;
+				sentinel.next = sentinel;
+			}
+		}
+		size = 0;
+	}
+
+	// ======================================================= helpers
+
+	/**
+	 * Empties the buckets of level <code>i</code> for the ticks from
+	 * <code>previousTicks</code> through <code>previousTicks + delta</code>,
+	 * expiring or rescheduling their nodes.
+	 */
+	@SuppressWarnings("unchecked")
+	private void expire(int i, long previousTicks, long delta) {
+		Node[] level = wheel[i];
+		int mask = level.length - 1;
+		int start = (int) (previousTicks & mask);
+		int count = (int) Math.min(delta + 1, level.length);
+		for (int k = 0; k < count; k++) {
+			Node sentinel = level[(start + k) & mask];
+			Node node = sentinel.next;
+			sentinel.prev = sentinel;
+			sentinel.next = sentinel;
+			while (node != sentinel) {
+				Node next = node.next;
+				node.prev = null;
+				node.next = null;
+				if (node.expiresAt <= time) {
+					size--;
+					expirer.expired((N) node);
+				} else {
+					link(bucketFor(node.expiresAt), node);
+				}
+				node = next;
+			}
+		}
+	}
+
+	/**
+	 * Returns the sentinel of the bucket for a node expiring at
+	 * <code>expiresAt</code>, relative to the current time.
+	 */
+	private Node bucketFor(long expiresAt) {
+		long when = Math.max(expiresAt, time);
+		long delay = when - time;
+		for (int i = 0; i < SHIFT.length - 1; i++) {
+			if (delay < (1L << SHIFT[i + 1])) {
+				return wheel[i][(int) ((when >> SHIFT[i]) & (BUCKETS[i] - 1))];
+			}
+		}
+		return wheel[SHIFT.length - 1][0];
+	}
+
+	private static void link(Node sentinel, Node node) {
+		node.prev = sentinel.prev;
+		node.next = sentinel;
+		sentinel.prev.next = node;
+		sentinel.prev = node;
+	}
+
+	private static void unlink(Node node) {
+		node.prev.next = node.next;
+		node.next.prev = node.prev;
+		node.prev = null;
+		node.next = null;
+	}
+}
@@ -0,0 +1,481 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * A bounded cache with the same interface as {@link LRUMap}, but which
+ * decides what to keep with the W-TinyLFU policy instead of pure LRU, so it
+ * is not polluted by keys that are used only once, such as the ones in
+ * scanner traffic.<p>
+ *
+ * The cache is split into a small <em>window</em> LRU, holding 1% of the
+ * entries, and a <em>main</em> segmented LRU, whose <em>protected</em> part
+ * holds the entries accessed at least twice while in the main cache and whose
+ * <em>probation</em> part holds the rest. New entries enter the window. When
+ * the window overflows, its least recently used entry becomes a candidate for
+ * the main cache, and it is admitted only if it has been accessed more often
+ * recently than the least recently used entry of the probation part, which it
+ * then evicts; otherwise the candidate is evicted. Access frequencies are
+ * estimated by a compact {@link FrequencySketch}, which counts the accesses
+ * of all keys, including those not in the cache, and ages its counts. The
+ * window lets bursts of new keys build up frequency before they compete for
+ * admission.<p>
+ *
+ * Every operation takes constant time. This class is not thread safe. It is
+ * the client's responsibility to guarantee single-threaded access.<p>
+ *
+ * The {@link #entrySet}, {@link #keySet} and {@link #values} views are live
+ * and fail-fast, like those of {@link LRUMap}, but their iteration order is
+ * unspecified.
+ *
+ * @param <K> The type of keys stored in the map.
+ * @param <V> The type of values stored in the map.
+ * @see <a href="http://arxiv.org/abs/1512.00727">TinyLFU: A Highly Efficient Cache Admission Policy</a>
+ */
+public class TinyLfuMap<K,V> extends AbstractMap<K,V> {
+	private static final byte WINDOW = 0;
+	private static final byte PROBATION = 1;
+	private static final byte PROTECTED = 2;
+
+	/** Upper bound on the number of elements in the cache. */
+	private final int maxSize;
+	private final int maxWindow;
+	private final int maxProtected;
+
+	/** Sentinels of the three lists, indexed by queue. */
+	private final Node<K,V>[] sentinels;
+	private final int[] sizes = new int[3];
+
+	/** Maps a key to its node. */
+	private final Map<K,Node<K,V>> map;
+
+	private final FrequencySketch sketch;
+	private int modCount;
+	private CacheStats stats;
+
+	/**
+	 * Creates a new cache that holds at most <code>maxSize</code>
+	 * mappings.
+	 */
+	public static <K,V> TinyLfuMap<K,V> create(int maxSize) {
+		return new TinyLfuMap<K,V>(maxSize);
+	}
+
+	@SuppressWarnings("unchecked")
+	public TinyLfuMap(int maxSize) {
+		ArgCheck.isTrue(maxSize >= 1, "maxSize must be positive");
+		this.maxSize = maxSize;
+		this.maxWindow = Math.max(1, maxSize / 100);
+		this.maxProtected = (int) ((maxSize - maxWindow) * 80L / 100);
+		map = new HashMap<K,Node<K,V>>(maxSize);
+		sketch = new FrequencySketch(maxSize);
+		sentinels = new Node[3];
+		for (int q = 0; q < 3; q++) {
+			Node<K,V> sentinel = new Node<K,V>(null, null, (byte) q);
+			sentinel.prev = sentinel;
+			sentinel.next = sentinel;
+			sentinels[q] = sentinel;
+		}
+	}
+
+	/**
+	 * Makes this cache record its hits, misses and evictions into
+	 * <code>stats</code>, or stops recording if <code>stats</code> is null.
+	 * Only {@link #get} counts as a lookup.
+	 */
+	public void setStats(CacheStats stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Returns the counters this cache records into, or null if
+	 * statistics are disabled.
+	 */
+	public CacheStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Returns the upper bound on the number of elements in the cache.
+	 */
+	public int maxSize() {
+		return maxSize;
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * Returns true if and only if the given <code>key</code> is in the
+	 * cache. This method does not count as an access of the key.
+	 */
+	@Override
+	public boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	/**
+	 * Returns the value associated with the given <code>key</code>, or
+	 * <code>null</code> if the cache does not contain the key. Either
+	 * way, this method counts as an access of the key.
+	 */
+	@Override
+	public V get(Object key) {
+		sketch.increment(hash(key));
+		Node<K,V> node = map.get(key);
+		if (node != null) {
+			if (stats != null) {
+				stats.recordHit();
+			}
+			onHit(node);
+			return node.val;
+		}
+		if (stats != null) {
+			stats.recordMiss();
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a mapping from the given <code>key</code> to the given
+	 * <code>value</code> to this cache, which counts as an access of the
+	 * key. If the cache is full and does not already contain a mapping for
+	 * the key, some mapping is evicted: possibly the least recently used
+	 * one of the window, and possibly the new mapping itself later on,
+	 * if it is not used again before it leaves the window.
+	 *
+	 * @return The value to which the given <code>key</code> was
+	 * mapped prior to this call, or <code>null</code> if the cache
+	 * did not previously contain a mapping for the key.
+	 */
+	@Override
+	public V put(K key, V value) {
+		sketch.increment(hash(key));
+		Node<K,V> node = map.get(key);
+		if (node != null) {
+			V res = node.val;
+			node.val = value;
+			onHit(node);
+			return res;
+		}
+		node = new Node<K,V>(key, value, WINDOW);
+		map.put(key, node);
+		linkFirst(node);
+		if (sizes[WINDOW] > maxWindow) {
+			Node<K,V> candidate = sentinels[WINDOW].prev;
+			move(candidate, PROBATION);
+			if (map.size() > maxSize) {
+				evictOne(candidate);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Called by {@link #put} after it evicts a mapping to make room for a
+	 * new key. Subclasses can override this method to release resources
+	 * associated with the evicted mapping; the default implementation does
+	 * nothing.
+	 */
+	protected void evicted(K key, V value) {
+	}
+
+	/**
+	 * Removes the mapping for the given <code>key</code> from this cache if
+	 * it is present; if not present, this method is a no-op.
+	 *
+	 * @return The value to which the key was mapped, or <code>null</code>
+	 * if the cache did not contain a mapping for the key.
+	 */
+	@Override
+	public V remove(Object key) {
+		Node<K,V> node = map.remove(key);
+		if (node != null) {
+			unlink(node);
+			return node.val;
+		}
+		return null;
+	}
+
+	/**
+	 * Removes all mappings from this cache. The access frequencies of
+	 * the keys are kept.
+	 */
+	@Override
+	public void clear() {
+		map.clear();
+		for (int q = 0; q < 3; q++) {
+			sentinels[q].prev = sentinels[q];
+			sentinels[q].next = sentinels[q];
+			sizes[q] = 0;
+		}
+		modCount++;
+	}
+
+	// ====== policy =======
+
+	private static int hash(Object key) {
+		return (key == null) ? 0 : key.hashCode();
+	}
+
+	/** Moves <code>node</code>, which was just accessed, forward. */
+	private void onHit(Node<K,V> node) {
+		if (node.queue == PROBATION) {
+			move(node, PROTECTED);
+			if (sizes[PROTECTED] > maxProtected) {
+				move(sentinels[PROTECTED].prev, PROBATION);
+			}
+		} else {
+			move(node, node.queue);
+		}
+	}
+
+	/**
+	 * Evicts either <code>candidate</code>, which just left the window, or
+	 * the least recently used entry of the probation part, whichever has
+	 * been accessed less often recently.
+	 */
+	private void evictOne(Node<K,V> candidate) {
+		// the probation list is not empty: it contains the candidate
+		Node<K,V> victim = sentinels[PROBATION].prev;
+		if (victim != candidate && sketch.frequency(hash(candidate.key)) > sketch.frequency(hash(victim.key))) {
+			evict(victim);
+		} else {
+			evict(candidate);
+		}
+	}
+
+	private void evict(Node<K,V> node) {
+		map.remove(node.key);
+		unlink(node);
+		if (stats != null) {
+			stats.recordEviction();
+		}
+		evicted(node.key, node.val);
+	}
+
+	// ====== list manipulation helpers =======
+
+	private void unlink(Node<K,V> node) {
+		modCount++;
+		sizes[node.queue]--;
+		node.next.prev = node.prev;
+		node.prev.next = node.next;
+		node.prev = null;
+		node.next = null;
+	}
+
+	private void linkFirst(Node<K,V> node) {
+		modCount++;
+		Node<K,V> sentinel = sentinels[node.queue];
+		sizes[node.queue]++;
+		node.next = sentinel.next;
+		node.next.prev = node;
+		node.prev = sentinel;
+		sentinel.next = node;
+	}
+
+	/** Moves <code>node</code> to the front of the list <code>queue</code>. */
+	private void move(Node<K,V> node, byte queue) {
+		unlink(node);
+		node.queue = queue;
+		linkFirst(node);
+	}
+
+	// ====== nodes =======
+
+	/**
+	 * A node of one of the lists, which is also the entry returned by the
+	 * {@link #entrySet} view. Entries are immutable to clients.
+	 */
+	private static class Node<K,V> implements Map.Entry<K,V> {
+		final K key;
+		V val;
+		byte queue;
+		Node<K,V> prev, next;
+
+		Node(K key, V val, byte queue) {
+			this.key = key;
+			this.val = val;
+			this.queue = queue;
+		}
+
+		public K getKey() {
+			return key;
+		}
+
+		public V getValue() {
+			return val;
+		}
+
+		public V setValue(V value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?,?> e2 = (Map.Entry<?,?>) o;
+			return eq(key, e2.getKey()) && eq(val, e2.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return (key == null ? 0 : key.hashCode()) ^ (val == null ? 0 : val.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + val;
+		}
+	}
+
+	private static boolean eq(Object o1, Object o2) {
+		return (o1 == null) ? o2 == null : o1.equals(o2);
+	}
+
+	// ====== views =======
+
+	/**
+	 * Returns a live {@link Set} view of the mappings contained in this
+	 * map. Iterating does not count as accessing the keys. The entries do
+	 * not support {@link Map.Entry#setValue}, but mappings can be removed
+	 * through the view or its iterator, which is fail-fast.
+	 */
+	@Override
+	public Set<Map.Entry<K,V>> entrySet() {
+		return new EntrySet();
+	}
+
+	private class EntrySet extends AbstractSet<Map.Entry<K,V>> {
+		@Override
+		public Iterator<Map.Entry<K,V>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size() {
+			return map.size();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+			Node<K,V> node = map.get(e.getKey());
+			return node != null && eq(node.val, e.getValue());
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (contains(o)) {
+				TinyLfuMap.this.remove(((Map.Entry<?,?>) o).getKey());
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void clear() {
+			TinyLfuMap.this.clear();
+		}
+	}
+
+	/** Iterates over the window, protected and probation lists in turn. */
+	private class EntryIterator implements Iterator<Map.Entry<K,V>> {
+		private static final int DONE = 3;
+		private final byte[] order = { WINDOW, PROTECTED, PROBATION };
+		private int list = 0;
+		private Node<K,V> next = sentinels[order[0]].next;
+		private Node<K,V> lastReturned;
+		private int expectedModCount = modCount;
+
+		EntryIterator() {
+			skipSentinels();
+		}
+
+		private void skipSentinels() {
+			while (list < DONE && next == sentinels[order[list]]) {
+				if (++list < DONE) {
+					next = sentinels[order[list]].next;
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			return list < DONE;
+		}
+
+		public Map.Entry<K,V> next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (list == DONE) {
+				throw new NoSuchElementException();
+			}
+			lastReturned = next;
+			next = next.next;
+			skipSentinels();
+			return lastReturned;
+		}
+
+		public void remove() {
+			if (lastReturned == null) {
+				throw new IllegalStateException();
+			}
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			TinyLfuMap.this.remove(lastReturned.key);
+			expectedModCount = modCount;
+			lastReturned = null;
+		}
+	}
+}
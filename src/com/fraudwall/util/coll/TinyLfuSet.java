@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+/**
+ * A bounded cache with the same interface as {@link LRUSet}, but which
+ * decides what to keep with the W-TinyLFU policy of {@link TinyLfuMap}
+ * instead of pure LRU, so that elements used only once do not push out
+ * the frequently used ones.<p>
+ *
+ * This class is not thread safe. It is the client's responsibility
+ * to guarantee single-threaded access.
+ *
+ * @param <T> The type of elements stored in the set.
+ */
+public class TinyLfuSet<T> {
+	private final TinyLfuMap<T,Boolean> map;
+
+	/**
+	 * Creates a new cache that holds at most <code>maxSize</code>
+	 * elements.
+	 */
+	public static <T> TinyLfuSet<T> create(int maxSize) {
+		return new TinyLfuSet<T>(maxSize);
+	}
+
+	private TinyLfuSet(int maxSize) {
+		map = TinyLfuMap.create(maxSize);
+	}
+
+	/**
+	 * Makes this cache record its hits, misses and evictions into
+	 * <code>stats</code>, or stops recording if <code>stats</code> is null.
+	 * Only {@link #contains} counts as a lookup.
+	 */
+	public void setStats(CacheStats stats) {
+		map.setStats(stats);
+	}
+
+	/**
+	 * Returns the counters this cache records into, or null if
+	 * statistics are disabled.
+	 */
+	public CacheStats getStats() {
+		return map.getStats();
+	}
+
+	/**
+	 * Returns the number of elements in the cache, which will
+	 * be between 0 and the <code>maxSize</code> value passed
+	 * to this instance's factory method (inclusive).
+	 */
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * Returns true if and only if the given <code>value</code> is in the
+	 * set. Either way, this method counts as an access of the value.
+	 */
+	public boolean contains(T value) {
+		return map.get(value) != null;
+	}
+
+	/**
+	 * Adds the given <code>value</code> to this cache, possibly evicting
+	 * some other element (if the cache is full). If the element is already
+	 * in the cache, this method is a complete no-op; it does not count as
+	 * an access of the element.
+	 *
+	 * @return True if and only if the value was not already
+	 * in the cache (i.e., if the cache was modified).
+	 */
+	public boolean add(T value) {
+		if (map.containsKey(value)) {
+			return false;
+		}
+		map.put(value, Boolean.TRUE);
+		return true;
+	}
+
+	/**
+	 * Removes the given <code>value</code> from this cache if
+	 * it is present; if not present, this method is a no-op.
+	 *
+	 * @return True if and only if the value was present and
+	 * was therefore removed (i.e., if the cache was modified).
+	 */
+	public boolean remove(T value) {
+		return map.remove(value) != null;
+	}
+
+	/**
+	 * Removes all elements from this cache.
+	 */
+	public void clear() {
+		map.clear();
+	}
+}
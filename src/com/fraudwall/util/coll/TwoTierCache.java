@@ -0,0 +1,316 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.fraudwall.util.exc.AnchorFatalError;
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * A cache with a small hot tier on the Java heap and a large cold tier
+ * outside of it. The hot tier is an {@link LRUMap}; the values it evicts are
+ * encoded with a {@link ValueCodec} and spilled to the cold tier, which holds
+ * them in direct memory or in a memory-mapped file, keyed by the 64-bit
+ * fingerprint of their key. Reading a spilled value decodes it and promotes
+ * it back to the hot tier. The cold tier drops its oldest values first when
+ * it is full (see {@link OffHeapStore}).<p>
+ *
+ * Since the cold tier holds no objects, it can hold hundreds of millions of
+ * values without making garbage collections any longer. The price is that
+ * reads from the cold tier copy and decode the value, and that the cold tier
+ * knows keys only by their fingerprints, as computed by
+ * {@link KeyHashing#fingerprint}: {@link Long} and {@link Integer} keys are
+ * their own fingerprints, and any other key is fingerprinted by its string
+ * representation, which must therefore identify it. Two distinct keys with
+ * the same fingerprint share a cold entry; for 64-bit fingerprints this
+ * is very unlikely.<p>
+ *
+ * A file-backed cold tier is scratch space, not a persistent store: its
+ * contents are not read back by a new cache on the same file. Values may
+ * not be null. This class is not thread safe.
+ */
+public class TwoTierCache<K,V> {
+	/** Largest log and entry count of one cold tier segment. */
+	private static final int MAX_SEGMENT_BYTES = 1 << 30;
+	private static final int MAX_SEGMENT_ENTRIES = OffHeapStore.MAX_ENTRIES;
+
+	private final LRUMap<K,V> hot;
+	private final OffHeapStore[] cold;
+	private final ValueCodec<V> codec;
+	private final RandomAccessFile file;
+
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final DataOutputStream out = new DataOutputStream(bytes);
+
+	private CacheStats stats;
+
+	/**
+	 * Returns a new cache whose hot tier holds at most <code>hotMaxSize</code>
+	 * values and whose cold tier holds at most <code>coldMaxEntries</code>
+	 * values in <code>coldBytes</code> bytes of direct memory. The direct
+	 * memory must be allowed by the JVM's <code>-XX:MaxDirectMemorySize</code>.
+	 */
+	public static <K,V> TwoTierCache<K,V> create(
+		int hotMaxSize, long coldBytes, int coldMaxEntries, ValueCodec<V> codec)
+	{
+		ArgCheck.isNotNull(codec, "codec");
+		OffHeapStore[] cold = new OffHeapStore[segments(coldBytes, coldMaxEntries)];
+		for (int i = 0; i < cold.length; i++) {
+			cold[i] = new OffHeapStore(
+				ByteBuffer.allocateDirect(segmentBytes(coldBytes, cold.length)),
+				segmentEntries(coldMaxEntries, cold.length));
+		}
+		return new TwoTierCache<K,V>(hotMaxSize, cold, codec, null);
+	}
+
+	/**
+	 * Returns a new cache whose hot tier holds at most <code>hotMaxSize</code>
+	 * values and whose cold tier holds at most <code>coldMaxEntries</code>
+	 * values in the first <code>coldBytes</code> bytes of <code>file</code>,
+	 * which is created or extended as needed and mapped into memory. The
+	 * operating system pages the file in and out, so the cold tier may be
+	 * larger than physical memory. {@link #close} closes the file.
+	 */
+	public static <K,V> TwoTierCache<K,V> create(
+		int hotMaxSize, File file, long coldBytes, int coldMaxEntries, ValueCodec<V> codec)
+		throws IOException
+	{
+		ArgCheck.isNotNull(codec, "codec");
+		OffHeapStore[] cold = new OffHeapStore[segments(coldBytes, coldMaxEntries)];
+		int segmentBytes = segmentBytes(coldBytes, cold.length);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() < (long) segmentBytes * cold.length) {
+				raf.setLength((long) segmentBytes * cold.length);
+			}
+			FileChannel channel = raf.getChannel();
+			for (int i = 0; i < cold.length; i++) {
+				cold[i] = new OffHeapStore(
+					channel.map(FileChannel.MapMode.READ_WRITE, (long) segmentBytes * i, segmentBytes),
+					segmentEntries(coldMaxEntries, cold.length));
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		return new TwoTierCache<K,V>(hotMaxSize, cold, codec, raf);
+	}
+
+	private TwoTierCache(int hotMaxSize, OffHeapStore[] cold, ValueCodec<V> codec, RandomAccessFile file) {
+		ArgCheck.isTrue(hotMaxSize >= 1, "hotMaxSize must be positive");
+		this.hot = new LRUMap<K,V>(hotMaxSize) {
+			@Override
+			protected void evicted(K key, V value) {
+				spill(key, value);
+			}
+		};
+		this.cold = cold;
+		this.codec = codec;
+		this.file = file;
+	}
+
+	private static int segments(long coldBytes, int coldMaxEntries) {
+		ArgCheck.isTrue(coldBytes >= 1, "coldBytes must be positive");
+		ArgCheck.isTrue(coldMaxEntries >= 1, "coldMaxEntries must be positive");
+		long n = Math.max(
+			(coldBytes + MAX_SEGMENT_BYTES - 1) / MAX_SEGMENT_BYTES,
+			((long) coldMaxEntries + MAX_SEGMENT_ENTRIES - 1) / MAX_SEGMENT_ENTRIES);
+		return (int) n;
+	}
+
+	private static int segmentBytes(long coldBytes, int segments) {
+		return (int) ((coldBytes + segments - 1) / segments);
+	}
+
+	private static int segmentEntries(int coldMaxEntries, int segments) {
+		return (int) (((long) coldMaxEntries + segments - 1) / segments);
+	}
+
+	/**
+	 * Makes this cache record its hits, misses and cold tier evictions in
+	 * <code>stats</code>, or stop recording if it is null. A read that
+	 * promotes a value from the cold tier counts as a hit.
+	 */
+	public void setStats(CacheStats stats) {
+		this.stats = stats;
+	}
+
+	public CacheStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Returns the value of <code>key</code>, or null if it is in neither
+	 * tier. A value found in the cold tier is moved to the hot tier.
+	 */
+	public V get(K key) {
+		V value = hot.get(key);
+		if (value == null) {
+			long fp = KeyHashing.fingerprint(key);
+			byte[] encoded = segment(fp).take(fp);
+			if (encoded != null) {
+				value = decode(encoded);
+				hot.put(key, value);
+			}
+		}
+		if (stats != null) {
+			if (value != null) {
+				stats.recordHit();
+			} else {
+				stats.recordMiss();
+			}
+		}
+		return value;
+	}
+
+	/** Returns true if <code>key</code> has a value in either tier. */
+	public boolean containsKey(K key) {
+		if (hot.containsKey(key)) {
+			return true;
+		}
+		long fp = KeyHashing.fingerprint(key);
+		return segment(fp).contains(fp);
+	}
+
+	/**
+	 * Makes <code>value</code> the value of <code>key</code> in the hot tier,
+	 * replacing any value in either tier.
+	 */
+	public void put(K key, V value) {
+		ArgCheck.isNotNull(value, "value");
+		long fp = KeyHashing.fingerprint(key);
+		segment(fp).remove(fp);
+		hot.put(key, value);
+	}
+
+	/**
+	 * Removes the value of <code>key</code> from both tiers, returning it,
+	 * or null if it was in neither.
+	 */
+	public V remove(K key) {
+		V value = hot.remove(key);
+		long fp = KeyHashing.fingerprint(key);
+		byte[] encoded = segment(fp).take(fp);
+		if (value == null && encoded != null) {
+			value = decode(encoded);
+		}
+		return value;
+	}
+
+	public void clear() {
+		hot.clear();
+		for (OffHeapStore s : cold) {
+			s.clear();
+		}
+	}
+
+	/** Returns the number of values in both tiers. */
+	public int size() {
+		return getHotSize() + getColdSize();
+	}
+
+	public int getHotSize() {
+		return hot.size();
+	}
+
+	/*test*/ int getSegmentCount() {
+		return cold.length;
+	}
+
+	public int getColdSize() {
+		int n = 0;
+		for (OffHeapStore s : cold) {
+			n += s.size();
+		}
+		return n;
+	}
+
+	/**
+	 * Closes the file of a file-backed cold tier. The cache must not be
+	 * used afterwards. Does nothing for a cold tier in direct memory,
+	 * which is freed when the cache is garbage collected.
+	 */
+	public void close() throws IOException {
+		if (file != null) {
+			file.close();
+		}
+	}
+
+	// ======================================================= helpers
+
+	private OffHeapStore segment(long fp) {
+		return (cold.length == 1) ? cold[0]
+			: cold[(int) ((KeyHashing.mix(fp) >>> 1) % cold.length)];
+	}
+
+	/**
+	 * Encodes <code>value</code> into the cold tier, counting the values
+	 * the cold tier drops to make room for it (and the value itself, if it
+	 * is too large to store) as evictions.
+	 */
+	private void spill(K key, V value) {
+		bytes.reset();
+		try {
+			codec.write(value, out);
+			out.flush();
+		} catch (IOException e) {
+			throw new AnchorFatalError("Unable to encode value of " + key, e);
+		}
+		long fp = KeyHashing.fingerprint(key);
+		OffHeapStore s = segment(fp);
+		long before = s.evictions();
+		boolean stored = s.put(fp, bytes.toByteArray());
+		if (stats != null) {
+			for (long n = s.evictions() - before + (stored ? 0 : 1); n > 0; n--) {
+				stats.recordEviction();
+			}
+		}
+	}
+
+	private V decode(byte[] encoded) {
+		try {
+			return codec.read(new DataInputStream(new ByteArrayInputStream(encoded)));
+		} catch (IOException e) {
+			throw new AnchorFatalError("Unable to decode cold tier value", e);
+		}
+	}
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll.prim;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * A growable list of <code>long</code> values, stored in a
+ * <code>long[]</code> that grows by half when it is full, so that it
+ * costs 8 to 12 bytes per value.<p>
+ *
+ * This class is not thread safe.
+ */
+public class LongArrayList {
+	private static final long[] EMPTY = new long[0];
+
+	private long[] elements;
+	private int size;
+
+	/** Creates an empty list. */
+	public LongArrayList() {
+		this(10);
+	}
+
+	/**
+	 * Creates an empty list that can hold <code>capacity</code>
+	 * values without growing.
+	 */
+	public LongArrayList(int capacity) {
+		ArgCheck.isTrue(capacity >= 0, "capacity must be non-negative");
+		elements = (capacity == 0) ? EMPTY : new long[capacity];
+	}
+
+	/** Creates a list of the values in <code>values</code>. */
+	public LongArrayList(long[] values) {
+		elements = values.clone();
+		size = values.length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Returns the value at <code>index</code>. */
+	public long get(int index) {
+		checkIndex(index);
+		return elements[index];
+	}
+
+	/**
+	 * Replaces the value at <code>index</code> by <code>value</code>,
+	 * returning the value it replaced.
+	 */
+	public long set(int index, long value) {
+		checkIndex(index);
+		long res = elements[index];
+		elements[index] = value;
+		return res;
+	}
+
+	/** Appends <code>value</code> to the end of this list. */
+	public void add(long value) {
+		if (size == elements.length) {
+			grow(size + 1);
+		}
+		elements[size++] = value;
+	}
+
+	/**
+	 * Inserts <code>value</code> at <code>index</code>, shifting the
+	 * values from <code>index</code> on one position to the right.
+	 */
+	public void add(int index, long value) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		if (size == elements.length) {
+			grow(size + 1);
+		}
+		System.arraycopy(elements, index, elements, index + 1, size - index);
+		elements[index] = value;
+		size++;
+	}
+
+	/** Appends the values in <code>values</code> to the end of this list. */
+	public void addAll(long[] values) {
+		ensureCapacity(size + values.length);
+		System.arraycopy(values, 0, elements, size, values.length);
+		size += values.length;
+	}
+
+	/**
+	 * Removes the value at <code>index</code>, shifting the values after
+	 * it one position to the left, and returns it.
+	 */
+	public long removeAt(int index) {
+		checkIndex(index);
+		long res = elements[index];
+		System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+		size--;
+		return res;
+	}
+
+	/**
+	 * Removes the last value of this list and returns it.
+	 *
+	 * @throws NoSuchElementException if the list is empty.
+	 */
+	public long removeLast() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return elements[--size];
+	}
+
+	/** Removes every value from this list, keeping its capacity. */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of <code>value</code> in
+	 * this list, or -1 if it does not occur.
+	 */
+	public int indexOf(long value) {
+		for (int i = 0; i < size; i++) {
+			if (elements[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public boolean contains(long value) {
+		return indexOf(value) >= 0;
+	}
+
+	/** Sorts this list into ascending order. */
+	public void sort() {
+		Arrays.sort(elements, 0, size);
+	}
+
+	/**
+	 * Returns the index of <code>value</code> in this list, which must be
+	 * sorted, as {@link Arrays#binarySearch(long[], long)} does.
+	 */
+	public int binarySearch(long value) {
+		int lo = 0, hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			long v = elements[mid];
+			if (v < value) {
+				lo = mid + 1;
+			} else if (v > value) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(lo + 1);
+	}
+
+	/** Returns the values in this list, in order. */
+	public long[] toArray() {
+		long[] res = new long[size];
+		System.arraycopy(elements, 0, res, 0, size);
+		return res;
+	}
+
+	/** Returns an iterator over the values in this list, in order. */
+	public LongIterator iterator() {
+		return new LongIterator() {
+			private int next = 0;
+
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			public long next() {
+				if (next >= size) {
+					throw new NoSuchElementException();
+				}
+				return elements[next++];
+			}
+		};
+	}
+
+	/**
+	 * Grows this list if needed so that it can hold <code>capacity</code>
+	 * values without growing again.
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > elements.length) {
+			grow(capacity);
+		}
+	}
+
+	/** Shrinks the capacity of this list to its size. */
+	public void trimToSize() {
+		if (size < elements.length) {
+			elements = (size == 0) ? EMPTY : toArray();
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof LongArrayList)) {
+			return false;
+		}
+		LongArrayList other = (LongArrayList) obj;
+		if (other.size != size) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			if (elements[i] != other.elements[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Returns the same hash code as a {@link java.util.List} of the boxed values. */
+	@Override
+	public int hashCode() {
+		int res = 1;
+		for (int i = 0; i < size; i++) {
+			long v = elements[i];
+			res = 31 * res + (int) (v ^ (v >>> 32));
+		}
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(elements[i]);
+		}
+		return sb.append(']').toString();
+	}
+
+	// ======================================================= helpers
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	private void grow(int minCapacity) {
+		int capacity = Math.max(elements.length + (elements.length >> 1), minCapacity);
+		if (capacity < 0) {
+			// overflow
+			capacity = Integer.MAX_VALUE - 8;
+		}
+		elements = Arrays.copyOf(elements, Math.max(capacity, 4));
+	}
+}
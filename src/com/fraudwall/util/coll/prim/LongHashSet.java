@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll.prim;
+
+/**
+ * A set of <code>long</code> values, stored in an open-addressing hash table
+ * that costs 8 bytes per slot, with at least one slot in four left empty.<p>
+ *
+ * This class is not thread safe.
+ */
+public class LongHashSet extends LongTable {
+
+	/** Creates an empty set. */
+	public LongHashSet() {
+		this(16);
+	}
+
+	/**
+	 * Creates an empty set that can hold <code>expectedSize</code> values
+	 * without growing.
+	 */
+	public LongHashSet(int expectedSize) {
+		super(expectedSize);
+	}
+
+	/** Creates a set of the values in <code>values</code>. */
+	public LongHashSet(long[] values) {
+		this(values.length);
+		for (long v : values) {
+			add(v);
+		}
+	}
+
+	/** Returns true if <code>value</code> is in this set. */
+	public boolean contains(long value) {
+		return containsKey(value);
+	}
+
+	/**
+	 * Adds <code>value</code> to this set, returning true if it was
+	 * not already in the set.
+	 */
+	public boolean add(long value) {
+		if (addSlot(value) >= 0) {
+			return false;
+		}
+		added();
+		return true;
+	}
+
+	/**
+	 * Removes <code>value</code> from this set, returning true if it
+	 * was in the set.
+	 */
+	public boolean remove(long value) {
+		int slot = slotOf(value);
+		if (slot < 0) {
+			return false;
+		}
+		removeSlot(slot);
+		return true;
+	}
+
+	/** Returns the values in this set, in no particular order. */
+	public long[] toArray() {
+		return keys();
+	}
+
+	/**
+	 * Returns an iterator over the values in this set, in no particular
+	 * order. The iterator fails fast if the set is modified.
+	 */
+	public LongIterator iterator() {
+		return new Iter();
+	}
+
+	private final class Iter extends SlotIterator implements LongIterator {
+		public long next() {
+			return keyAt(advance());
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof LongHashSet)) {
+			return false;
+		}
+		LongHashSet other = (LongHashSet) obj;
+		if (other.size() != size()) {
+			return false;
+		}
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			if (!other.contains(keyAt(slot))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Returns the same hash code as a {@link java.util.Set} of the boxed values. */
+	@Override
+	public int hashCode() {
+		int res = 0;
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			long key = keyAt(slot);
+			res += (int) (key ^ (key >>> 32));
+		}
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(keyAt(slot));
+		}
+		return sb.append(']').toString();
+	}
+
+	// ====== LongTable hooks =======
+
+	@Override
+	protected Object values() {
+		return null;
+	}
+
+	@Override
+	protected void moved(Object oldValues, int from, int to) {
+	}
+
+	@Override
+	protected void shifted(int from, int to) {
+	}
+
+	@Override
+	protected void cleared(int slot) {
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll.prim;
+
+/**
+ * A map from <code>long</code> keys to <code>int</code> values, stored in an
+ * open-addressing hash table with parallel key and value arrays that cost
+ * 12 bytes per slot, with at least one slot in four left empty.<p>
+ *
+ * Since values are not objects, a map has a <i>missing value</i> (0 unless
+ * given otherwise) that {@link #get}, {@link #put} and {@link #remove} return
+ * for a key that is not in the map; use {@link #containsKey} to tell such a
+ * key apart from one whose value is the missing value.<p>
+ *
+ * This class is not thread safe.
+ */
+public class LongIntHashMap extends LongTable {
+	private final int missingValue;
+
+	/** values[slot] is the value of keys[slot]; see {@link LongTable}. */
+	private int[] values;
+
+	/** Creates an empty map whose missing value is 0. */
+	public LongIntHashMap() {
+		this(16);
+	}
+
+	/**
+	 * Creates an empty map whose missing value is 0 and that can hold
+	 * <code>expectedSize</code> keys without growing.
+	 */
+	public LongIntHashMap(int expectedSize) {
+		this(expectedSize, 0);
+	}
+
+	/**
+	 * Creates an empty map whose missing value is <code>missingValue</code>
+	 * and that can hold <code>expectedSize</code> keys without growing.
+	 */
+	public LongIntHashMap(int expectedSize, int missingValue) {
+		super(expectedSize);
+		this.missingValue = missingValue;
+	}
+
+	public int getMissingValue() {
+		return missingValue;
+	}
+
+	/**
+	 * Returns the value of <code>key</code>, or the missing value if
+	 * <code>key</code> is not in this map.
+	 */
+	public int get(long key) {
+		int slot = slotOf(key);
+		return (slot < 0) ? missingValue : values[slot];
+	}
+
+	/**
+	 * Makes <code>value</code> the value of <code>key</code>, returning its
+	 * previous value, or the missing value if it was not in this map.
+	 */
+	public int put(long key, int value) {
+		int slot = addSlot(key);
+		if (slot >= 0) {
+			int res = values[slot];
+			values[slot] = value;
+			return res;
+		}
+		values[~slot] = value;
+		added();
+		return missingValue;
+	}
+
+	/**
+	 * Adds <code>delta</code> to the value of <code>key</code>, or to the
+	 * missing value if <code>key</code> is not in this map, and returns
+	 * the sum, which becomes the value of <code>key</code>.
+	 */
+	public int addTo(long key, int delta) {
+		int slot = addSlot(key);
+		if (slot >= 0) {
+			return values[slot] += delta;
+		}
+		int res = values[~slot] = missingValue + delta;
+		added();
+		return res;
+	}
+
+	/**
+	 * Removes <code>key</code> from this map, returning its value, or the
+	 * missing value if it was not in the map.
+	 */
+	public int remove(long key) {
+		int slot = slotOf(key);
+		if (slot < 0) {
+			return missingValue;
+		}
+		int res = values[slot];
+		removeSlot(slot);
+		return res;
+	}
+
+	/**
+	 * Returns a cursor over the entries of this map, in no particular order.
+	 * The cursor fails fast if keys are added to or removed from the map.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * A cursor over the entries of a {@link LongIntHashMap}, used as follows:
+	 * <pre>
+	 * for (LongIntHashMap.Cursor c = map.cursor(); c.hasNext(); ) {
+	 *     c.next();
+	 *     ... c.key() ... c.value() ...
+	 * }
+	 * </pre>
+	 */
+	public final class Cursor extends SlotIterator {
+		private int slot = -1;
+
+		private Cursor() {
+		}
+
+		/** Moves to the next entry. */
+		public void next() {
+			slot = advance();
+		}
+
+		public long key() {
+			return keyAt(slot);
+		}
+
+		public int value() {
+			return values[slot];
+		}
+
+		public void setValue(int value) {
+			values[slot] = value;
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(keyAt(slot)).append('=').append(values[slot]);
+		}
+		return sb.append('}').toString();
+	}
+
+	// ====== LongTable hooks =======
+
+	@Override
+	protected void allocate(int capacity) {
+		super.allocate(capacity);
+		values = new int[capacity + 1];
+	}
+
+	@Override
+	protected Object values() {
+		return values;
+	}
+
+	@Override
+	protected void moved(Object oldValues, int from, int to) {
+		values[to] = ((int[]) oldValues)[from];
+	}
+
+	@Override
+	protected void shifted(int from, int to) {
+		values[to] = values[from];
+	}
+
+	@Override
+	protected void cleared(int slot) {
+	}
+}
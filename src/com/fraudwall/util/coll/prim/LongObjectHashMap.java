@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll.prim;
+
+import java.util.Arrays;
+
+/**
+ * A map from <code>long</code> keys to objects, stored in an open-addressing
+ * hash table with parallel key and value arrays that cost 12 or 16 bytes per
+ * slot (depending on the size of a reference), with at least one slot in four
+ * left empty. Values may be null, in which case {@link #containsKey} tells
+ * a key whose value is null apart from a key that is not in the map.<p>
+ *
+ * This class is not thread safe.
+ */
+public class LongObjectHashMap<V> extends LongTable {
+
+	/** values[slot] is the value of keys[slot]; see {@link LongTable}. */
+	private Object[] values;
+
+	/** Creates an empty map. */
+	public LongObjectHashMap() {
+		this(16);
+	}
+
+	/**
+	 * Creates an empty map that can hold <code>expectedSize</code> keys
+	 * without growing.
+	 */
+	public LongObjectHashMap(int expectedSize) {
+		super(expectedSize);
+	}
+
+	/**
+	 * Returns the value of <code>key</code>, or null if <code>key</code>
+	 * is not in this map.
+	 */
+	public V get(long key) {
+		int slot = slotOf(key);
+		return (slot < 0) ? null : valueAt(slot);
+	}
+
+	/**
+	 * Makes <code>value</code> the value of <code>key</code>, returning its
+	 * previous value, or null if it was not in this map.
+	 */
+	public V put(long key, V value) {
+		int slot = addSlot(key);
+		if (slot >= 0) {
+			V res = valueAt(slot);
+			values[slot] = value;
+			return res;
+		}
+		values[~slot] = value;
+		added();
+		return null;
+	}
+
+	/**
+	 * Removes <code>key</code> from this map, returning its value, or null
+	 * if it was not in the map.
+	 */
+	public V remove(long key) {
+		int slot = slotOf(key);
+		if (slot < 0) {
+			return null;
+		}
+		V res = valueAt(slot);
+		removeSlot(slot);
+		return res;
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		Arrays.fill(values, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	private V valueAt(int slot) {
+		return (V) values[slot];
+	}
+
+	/**
+	 * Returns a cursor over the entries of this map, in no particular order.
+	 * The cursor fails fast if keys are added to or removed from the map.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * A cursor over the entries of a {@link LongObjectHashMap}, used as follows:
+	 * <pre>
+	 * for (LongObjectHashMap&lt;V&gt;.Cursor c = map.cursor(); c.hasNext(); ) {
+	 *     c.next();
+	 *     ... c.key() ... c.value() ...
+	 * }
+	 * </pre>
+	 */
+	public final class Cursor extends SlotIterator {
+		private int slot = -1;
+
+		private Cursor() {
+		}
+
+		/** Moves to the next entry. */
+		public void next() {
+			slot = advance();
+		}
+
+		public long key() {
+			return keyAt(slot);
+		}
+
+		public V value() {
+			return valueAt(slot);
+		}
+
+		public void setValue(V value) {
+			values[slot] = value;
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(keyAt(slot)).append('=').append(values[slot]);
+		}
+		return sb.append('}').toString();
+	}
+
+	// ====== LongTable hooks =======
+
+	@Override
+	protected void allocate(int capacity) {
+		super.allocate(capacity);
+		values = new Object[capacity + 1];
+	}
+
+	@Override
+	protected Object values() {
+		return values;
+	}
+
+	@Override
+	protected void moved(Object oldValues, int from, int to) {
+		values[to] = ((Object[]) oldValues)[from];
+	}
+
+	@Override
+	protected void shifted(int from, int to) {
+		values[to] = values[from];
+	}
+
+	@Override
+	protected void cleared(int slot) {
+		values[slot] = null;
+	}
+}
@@ -0,0 +1,318 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll.prim;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * The hash table of <code>long</code> keys shared by the collections of this
+ * package: open addressing with linear probing over a <code>long[]</code>
+ * whose length is a power of two, kept at most three quarters full.<p>
+ *
+ * The key 0 marks an empty slot, so a 0 key is instead recorded by the flag
+ * {@link #hasZeroKey}; subclasses that keep values in parallel arrays make
+ * those arrays one longer than {@link #keys} and keep the value of the 0 key
+ * at index <code>keys.length</code>. Keys are hashed by Fibonacci hashing, a
+ * single multiplication, which is all that keys that are already well mixed
+ * (such as {@link com.fraudwall.util.fp.FP64} fingerprints) need, and which
+ * also spreads structured keys such as IP numbers. Deletions use
+ * backward-shift, so no tombstones are ever needed.<p>
+ *
+ * This class is not thread safe.
+ */
+abstract class LongTable {
+	private static final float LOAD_FACTOR = 0.75f;
+	private static final int MIN_CAPACITY = 8;
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	/** The keys, with 0 denoting an empty slot. */
+	protected long[] keys;
+
+	/** keys.length - 1, and the shift that hashes a key into it. */
+	private int mask, shift;
+
+	/** Number of keys, including the 0 key. */
+	protected int size;
+
+	protected boolean hasZeroKey;
+
+	/** Size above which the table grows. */
+	private int threshold;
+
+	/** Counts structural changes, so that iterators can fail fast. */
+	protected int modCount;
+
+	protected LongTable(int expectedSize) {
+		ArgCheck.isTrue(expectedSize >= 0, "expectedSize must be non-negative");
+		allocate(capacityFor(expectedSize));
+	}
+
+	/** Returns the number of slots needed to hold <code>n</code> keys. */
+	private static int capacityFor(int n) {
+		long needed = (long) Math.ceil(n / LOAD_FACTOR) + 1;
+		if (needed > MAX_CAPACITY) {
+			return MAX_CAPACITY;
+		}
+		int capacity = MIN_CAPACITY;
+		while (capacity < needed) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Replaces {@link #keys} by an empty array of <code>capacity</code>
+	 * slots. Subclasses override this to replace their value arrays too,
+	 * making them <code>capacity + 1</code> long.
+	 */
+	protected void allocate(int capacity) {
+		keys = new long[capacity];
+		mask = capacity - 1;
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/** Returns the number of keys in the table. */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Returns true if <code>key</code> is in the table. */
+	public boolean containsKey(long key) {
+		return slotOf(key) >= 0;
+	}
+
+	/** Removes every key from the table, keeping its capacity. */
+	public void clear() {
+		Arrays.fill(keys, 0L);
+		hasZeroKey = false;
+		size = 0;
+		modCount++;
+	}
+
+	/** Returns the keys in the table, in no particular order. */
+	public long[] keys() {
+		long[] res = new long[size];
+		int n = 0;
+		for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+			res[n++] = keyAt(slot);
+		}
+		return res;
+	}
+
+	// ====== slot helpers for subclasses =======
+
+	private int hash(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	/**
+	 * Returns the slot of <code>key</code>, which is <code>keys.length</code>
+	 * for the 0 key, or -1 if <code>key</code> is not in the table.
+	 */
+	protected final int slotOf(long key) {
+		if (key == 0L) {
+			return hasZeroKey ? keys.length : -1;
+		}
+		for (int i = hash(key); ; i = (i + 1) & mask) {
+			long k = keys[i];
+			if (k == key) {
+				return i;
+			}
+			if (k == 0L) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Returns the slot of <code>key</code> if it is in the table. Otherwise
+	 * adds <code>key</code> to the table and returns <code>~slot</code>, after
+	 * which the caller must store the value of the new key in that slot and
+	 * then call {@link #added}.
+	 */
+	protected final int addSlot(long key) {
+		if (key == 0L) {
+			if (hasZeroKey) {
+				return keys.length;
+			}
+			hasZeroKey = true;
+			size++;
+			return ~keys.length;
+		}
+		int i = hash(key);
+		for (long k; (k = keys[i]) != 0L; i = (i + 1) & mask) {
+			if (k == key) {
+				return i;
+			}
+		}
+		keys[i] = key;
+		size++;
+		return ~i;
+	}
+
+	/** Grows the table if the key just added by {@link #addSlot} filled it. */
+	protected final void added() {
+		modCount++;
+		if (size > threshold) {
+			if (keys.length == MAX_CAPACITY) {
+				if (size >= MAX_CAPACITY) {
+					throw new IllegalStateException("table is full");
+				}
+			} else {
+				rehash(keys.length << 1);
+			}
+		}
+	}
+
+	/**
+	 * Moves every key to a new table of <code>capacity</code> slots,
+	 * calling {@link #moved} for each one.
+	 */
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		Object oldValues = values();
+		allocate(capacity);
+		for (int from = 0; from < oldKeys.length; from++) {
+			long key = oldKeys[from];
+			if (key != 0L) {
+				int to = hash(key);
+				while (keys[to] != 0L) {
+					to = (to + 1) & mask;
+				}
+				keys[to] = key;
+				moved(oldValues, from, to);
+			}
+		}
+		moved(oldValues, oldKeys.length, keys.length);
+	}
+
+	/**
+	 * Returns the array(s) of values, for {@link #moved}, or null if the
+	 * table has no values.
+	 */
+	protected abstract Object values();
+
+	/**
+	 * Copies the value in slot <code>from</code> of the value array(s)
+	 * <code>oldValues</code> returned by {@link #values} before a rehash
+	 * to slot <code>to</code> of the current ones.
+	 */
+	protected abstract void moved(Object oldValues, int from, int to);
+
+	/**
+	 * Copies the value in slot <code>from</code> to slot <code>to</code>
+	 * of the current value array(s), during a deletion.
+	 */
+	protected abstract void shifted(int from, int to);
+
+	/** Clears the value in <code>slot</code>, so it can be collected. */
+	protected abstract void cleared(int slot);
+
+	/**
+	 * Removes the key in <code>slot</code>, shifting back the keys after it
+	 * that would otherwise become unreachable.
+	 */
+	protected final void removeSlot(int slot) {
+		size--;
+		modCount++;
+		if (slot == keys.length) {
+			hasZeroKey = false;
+			cleared(slot);
+			return;
+		}
+		int hole = slot;
+		for (int j = (slot + 1) & mask; keys[j] != 0L; j = (j + 1) & mask) {
+			if (((j - hash(keys[j])) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = keys[j];
+				shifted(j, hole);
+				hole = j;
+			}
+		}
+		keys[hole] = 0L;
+		cleared(hole);
+	}
+
+	/** Returns the key in <code>slot</code>, as returned by {@link #nextSlot}. */
+	protected final long keyAt(int slot) {
+		return (slot == keys.length) ? 0L : keys[slot];
+	}
+
+	/**
+	 * Returns the first occupied slot after <code>slot</code>, or -1 if there
+	 * is none; the slot of the 0 key comes last. Pass -1 to get the first
+	 * occupied slot.
+	 */
+	protected final int nextSlot(int slot) {
+		for (int i = slot + 1; i < keys.length; i++) {
+			if (keys[i] != 0L) {
+				return i;
+			}
+		}
+		return (slot < keys.length && hasZeroKey) ? keys.length : -1;
+	}
+
+	/**
+	 * A fail-fast walk over the occupied slots, for the iterators of
+	 * subclasses. The table must not be modified during the walk.
+	 */
+	protected abstract class SlotIterator {
+		private final int expectedModCount = modCount;
+		private int next = nextSlot(-1);
+
+		public boolean hasNext() {
+			return next >= 0;
+		}
+
+		/** Returns the next occupied slot. */
+		protected final int advance() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (next < 0) {
+				throw new NoSuchElementException();
+			}
+			int res = next;
+			next = LongTable.this.nextSlot(next);
+			return res;
+		}
+	}
+}
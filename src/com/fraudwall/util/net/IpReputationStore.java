@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import com.fraudwall.util.exc.ArgCheck;
+
+/**
+ * A table of per-IP reputation records for a range of IPv4 addresses, held
+ * in a memory-mapped file rather than on the Java heap.<p>
+ *
+ * Each record has the fields of a reputation record: the day the IP was first
+ * seen, a reputation code and a count of reports, each a <code>short</code>.
+ * The table is a struct of arrays: each field is a column of 2-byte values
+ * indexed by the IP's offset from the start of the range, so a lookup or an
+ * update is a single array access, and a record costs 6 bytes of the file
+ * instead of the 24 bytes of a heap object plus the cost of the map that
+ * indexes it. The whole IPv4 space takes 24GB of file; since records are
+ * never written for inactive IPs, the file is sparse on file systems that
+ * support it, and the operating system keeps only the active pages in
+ * memory.<p>
+ *
+ * The file starts with a header recording the range, so the table survives
+ * restarts: {@link #open} on an existing file reopens the records written
+ * to it, which are flushed to disk by {@link #force}, {@link #close} or the
+ * operating system.<p>
+ *
+ * The first-seen column stores the day plus one, so that the zeros of a new
+ * file mean "no data". An IP has a record as soon as any of its fields is
+ * non-zero, whichever setter wrote it: {@link #setCode} and
+ * {@link #setReports} do not require the first-seen day to be set, and
+ * {@link #getFirstSeen} returns -1 until it is. {@link #remove} clears all
+ * the fields. This class is not thread safe.
+ */
+public final class IpReputationStore {
+	private static final long MAGIC = 0x4657495052455031L; // "FWIPREP1"
+
+	/** Size of the file header, a page so that the columns stay aligned. */
+	private static final int HEADER_BYTES = 4096;
+
+	/** The columns, in file order. */
+	private static final int FIRST_SEEN = 0, CODE = 1, REPORTS = 2, NUM_COLUMNS = 3;
+
+	/**
+	 * Each column is mapped in chunks of 2^29 values (1GB), since one
+	 * buffer can map less than 2GB.
+	 */
+	private static final int CHUNK_BITS = 29;
+	private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+	private final long startIp, endIp;
+	private final RandomAccessFile file;
+	private final MappedByteBuffer[] buffers;
+
+	/** columns[c][chunk] is a chunk of column <code>c</code>. */
+	private final ShortBuffer[][] columns;
+
+	/**
+	 * Opens the table in <code>file</code> for the whole IPv4 space, creating
+	 * it if <code>file</code> does not exist.
+	 *
+	 * @throws IOException if the file cannot be mapped, or if it holds a
+	 * table for a different range.
+	 */
+	public static IpReputationStore open(File file) throws IOException {
+		return open(file, 0L, 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Opens the table in <code>file</code> for the IPs between
+	 * <code>startIp</code> and <code>endIp</code> (inclusive), creating it
+	 * if <code>file</code> does not exist.
+	 *
+	 * @throws IOException if the file cannot be mapped, or if it holds a
+	 * table for a different range.
+	 */
+	public static IpReputationStore open(File file, long startIp, long endIp) throws IOException {
+		ArgCheck.isTrue(0L <= startIp && startIp <= endIp && endIp <= 0xFFFFFFFFL,
+			"invalid IP range");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			return new IpReputationStore(raf, startIp, endIp);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	private IpReputationStore(RandomAccessFile file, long startIp, long endIp) throws IOException {
+		this.file = file;
+		this.startIp = startIp;
+		this.endIp = endIp;
+		long numIps = endIp - startIp + 1;
+		long length = HEADER_BYTES + NUM_COLUMNS * 2 * numIps;
+		FileChannel channel = file.getChannel();
+		if (file.length() == 0L) {
+			file.setLength(length);
+			ByteBuffer header = ByteBuffer.allocate(24);
+			header.putLong(MAGIC).putLong(startIp).putLong(endIp).flip();
+			channel.write(header, 0L);
+		} else {
+			ByteBuffer header = ByteBuffer.allocate(24);
+			channel.read(header, 0L);
+			header.flip();
+			if (header.remaining() < 24 || header.getLong() != MAGIC) {
+				throw new IOException("Not an IP reputation table");
+			}
+			long fileStart = header.getLong(), fileEnd = header.getLong();
+			if (fileStart != startIp || fileEnd != endIp || file.length() != length) {
+				throw new IOException("IP reputation table is for range "
+					+ IpAddressUtils.formatIp(fileStart) + "-" + IpAddressUtils.formatIp(fileEnd));
+			}
+		}
+		int numChunks = (int) ((numIps + CHUNK_MASK) >>> CHUNK_BITS);
+		buffers = new MappedByteBuffer[NUM_COLUMNS * numChunks];
+		columns = new ShortBuffer[NUM_COLUMNS][numChunks];
+		for (int c = 0; c < NUM_COLUMNS; c++) {
+			long columnStart = HEADER_BYTES + c * 2 * numIps;
+			for (int chunk = 0; chunk < numChunks; chunk++) {
+				long first = (long) chunk << CHUNK_BITS;
+				long count = Math.min(numIps - first, 1L << CHUNK_BITS);
+				MappedByteBuffer buf = channel.map(
+					FileChannel.MapMode.READ_WRITE, columnStart + 2 * first, 2 * count);
+				buffers[c * numChunks + chunk] = buf;
+				columns[c][chunk] = buf.asShortBuffer();
+			}
+		}
+	}
+
+	public long getStartIp() {
+		return startIp;
+	}
+
+	public long getEndIp() {
+		return endIp;
+	}
+
+	/**
+	 * Returns true if <code>ip</code> has a reputation record, that is,
+	 * if any of its fields is set.
+	 */
+	public boolean contains(long ip) {
+		return get(FIRST_SEEN, ip) != 0 || get(CODE, ip) != 0 || get(REPORTS, ip) != 0;
+	}
+
+	/**
+	 * Returns the day <code>ip</code> was first seen, or -1 if it has
+	 * no reputation record or its first-seen day has not been set.
+	 */
+	public short getFirstSeen(long ip) {
+		return (short) (get(FIRST_SEEN, ip) - 1);
+	}
+
+	/**
+	 * Sets the day <code>ip</code> was first seen, which creates its
+	 * reputation record if it has none.
+	 */
+	public void setFirstSeen(long ip, short day) {
+		ArgCheck.isTrue(day >= 0 && day < Short.MAX_VALUE, "day out of range: " + day);
+		set(FIRST_SEEN, ip, (short) (day + 1));
+	}
+
+	public short getCode(long ip) {
+		return get(CODE, ip);
+	}
+
+	public void setCode(long ip, short code) {
+		set(CODE, ip, code);
+	}
+
+	public short getReports(long ip) {
+		return get(REPORTS, ip);
+	}
+
+	public void setReports(long ip, short reports) {
+		set(REPORTS, ip, reports);
+	}
+
+	/**
+	 * Adds <code>delta</code> to the number of reports of <code>ip</code>,
+	 * saturating at {@link Short#MAX_VALUE} and 0, and returns the sum.
+	 */
+	public short addReports(long ip, int delta) {
+		// in long arithmetic, so that a huge delta saturates rather than wrapping
+		int sum = (int) Math.max(0L, Math.min(Short.MAX_VALUE, (long) get(REPORTS, ip) + delta));
+		set(REPORTS, ip, (short) sum);
+		return (short) sum;
+	}
+
+	/**
+	 * Records a report about <code>ip</code> on day <code>day</code>: creates
+	 * its reputation record, first seen on <code>day</code>, if it has none,
+	 * sets its code to <code>code</code>, and counts the report.
+	 */
+	public void report(long ip, short day, short code) {
+		if (get(FIRST_SEEN, ip) == 0) {
+			setFirstSeen(ip, day);
+		}
+		setCode(ip, code);
+		addReports(ip, 1);
+	}
+
+	/** Deletes the reputation record of <code>ip</code>, clearing all its fields. */
+	public void remove(long ip) {
+		for (int c = 0; c < NUM_COLUMNS; c++) {
+			set(c, ip, (short) 0);
+		}
+	}
+
+	/** Writes the records changed since the last call to the file. */
+	public void force() {
+		for (MappedByteBuffer buf : buffers) {
+			buf.force();
+		}
+	}
+
+	/**
+	 * Writes the changed records to the file and closes it. The table must
+	 * not be used afterwards.
+	 */
+	public void close() throws IOException {
+		force();
+		file.close();
+	}
+
+	// ======================================================= helpers
+
+	private long offset(long ip) {
+		if (ip < startIp || ip > endIp) {
+			throw new IllegalArgumentException("IP not in table range: " + IpAddressUtils.formatIp(ip));
+		}
+		return ip - startIp;
+	}
+
+	private short get(int column, long ip) {
+		long off = offset(ip);
+		return columns[column][(int) (off >>> CHUNK_BITS)].get((int) off & CHUNK_MASK);
+	}
+
+	private void set(int column, long ip, short value) {
+		long off = offset(ip);
+		columns[column][(int) (off >>> CHUNK_BITS)].put((int) off & CHUNK_MASK, value);
+	}
+}
@@ -39,6 +39,7 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpConnectionManager;
@@ -56,7 +57,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.fraudwall.util.FWProps;
-import com.fraudwall.util.coll.ExpiringLRUMap;
+import com.fraudwall.util.coll.LoadingCache;
 
 /**
  * Fetches and parses robots.txt files per the Robots Exclusion Standard.
@@ -70,11 +71,13 @@ public class RobotsTxtParser {
 	public static final int DEFAULT_TIMEOUT = 10;
 	/** number of hostnames for the cache */
 	public static final int DEFAULT_CACHESIZE = 1000;
+	/** time (in milliseconds) to cache a robots.txt, or the lack of one */
+	private static final long ROBOTS_TXT_TTL = DateUtils.MILLIS_PER_DAY;
 	private static final String ROBOTS_TXT_DISALLOW = "Disallow:";
 	private static final String ROBOTS_TXT_USER_AGENT = "User-agent:";
 	private static final List<String> EMPTY_LIST = Collections.emptyList();
 
-	private final ExpiringLRUMap<String,List<String>> robotsTxtCache;
+	private final LoadingCache<String,List<String>> robotsTxtCache;
 	private final HttpConnectionManager hcm;
 	private final HttpClient client;
 
@@ -83,7 +86,13 @@ public class RobotsTxtParser {
 	}
 
 	public RobotsTxtParser(int timeout, int cacheSize) {
-		robotsTxtCache = ExpiringLRUMap.create(cacheSize);
+		robotsTxtCache = LoadingCache.create(cacheSize, ROBOTS_TXT_TTL,
+			new LoadingCache.Loader<String,List<String>>() {
+				@Override
+				public List<String> load(String hostname) throws IOException {
+					return fetch(hostname);
+				}
+			});
 
 		int timeToWaitForResponse = (int) (timeout * DateUtils.MILLIS_PER_SECOND);
 		HttpConnectionManagerParams hmcp = new HttpConnectionManagerParams();
@@ -116,18 +125,26 @@ public class RobotsTxtParser {
 	 * or another HTTP error, throws an exception. If the web server is
 	 * responding correctly but robots.txt simply returns a 404 Not Found
 	 * or some other HTTP error, this method assumes that the URI is not
-	 * disallowed, and returns false.
+	 * disallowed, and returns false.<p>
+	 *
+	 * This method is thread safe. When several threads need the robots.txt
+	 * of the same host at once, it is fetched only once.
 	 *
 	 * @throws IOException
 	 * @throws HttpException
 	 */
 	public boolean isDisallowed(URI uri) throws HttpException, IOException {
-		String hostname = uri.getHost();
-		List<String> prevResult = robotsTxtCache.get(hostname);
-		if (prevResult != null) {
-			return isDeniedByRobotsTxtInner(uri, prevResult);
+		List<String> disallowed;
+		try {
+			disallowed = robotsTxtCache.get(uri.getHost());
+		} catch (ExecutionException e) {
+			// the loader only throws IOExceptions (including HttpExceptions)
+			throw (IOException) e.getCause();
 		}
+		return isDeniedByRobotsTxtInner(uri, disallowed);
+	}
 
+	private List<String> fetch(String hostname) throws HttpException, IOException {
 		String robotsTxtUrl = "http://" + hostname + "/robots.txt";
 		HttpMethod method = new GetMethod(robotsTxtUrl);
 
@@ -137,12 +154,9 @@ public class RobotsTxtParser {
 			if (statusCode != HttpStatus.SC_OK) {
 				// common case: 404 Not Found
 				log.info("Got " + statusCode + " from "+ robotsTxtUrl);
-				robotsTxtCache.put(hostname, EMPTY_LIST);
-				return false;
+				return EMPTY_LIST;
 			}
-			List<String> result = parse(method.getResponseBodyAsStream());
-			robotsTxtCache.put(hostname, result);
-			return isDeniedByRobotsTxtInner(uri, result);
+			return parse(method.getResponseBodyAsStream());
 		} finally {
 			method.releaseConnection();
 		}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fraudwall.util.coll.Weigher;
+
+/**
+ * Tests the {@link SizeEstimator} implementation, using the layout of a
+ * 64-bit JVM with compressed references.
+ */
+public class SizeEstimatorTest extends AbstractAnchorTest {
+	private final SizeEstimator est = new SizeEstimator(12, 4, 16);
+
+	@SuppressWarnings("unused")
+	private static class Point {
+		private static long instances;
+		private int x, y;
+	}
+
+	@SuppressWarnings("unused")
+	private static class Point3 extends Point {
+		private long z;
+	}
+
+	@SuppressWarnings("unused")
+	private static class Node {
+		private Node next;
+		private String name;
+		private int[] data;
+		private TimeUnit unit;
+	}
+
+	private enum TimeUnit { SECONDS }
+
+	public void testShallowSizeOfAddsFieldsToHeaderAndAligns() {
+		assertEquals(16, est.shallowSizeOf(Object.class));
+		assertEquals(24, est.shallowSizeOf(Point.class));
+		assertEquals(32, est.shallowSizeOf(Point3.class));
+		assertEquals(32, est.shallowSizeOf(Node.class));
+		assertEquals(24, new SizeEstimator(16, 8, 24).shallowSizeOf(Point.class));
+		try {
+			est.shallowSizeOf(int[].class);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testSizeOfArray() {
+		assertEquals(16, est.sizeOfArray(byte.class, 0));
+		assertEquals(24, est.sizeOfArray(byte.class, 1));
+		assertEquals(416, est.sizeOfArray(int.class, 100));
+		assertEquals(56, est.sizeOfArray(String.class, 10));
+	}
+
+	public void testEstimateFollowsReferencesOnce() {
+		Node a = new Node();
+		Node b = new Node();
+		a.next = b;
+		b.next = a;
+		a.data = new int[4];
+		b.data = a.data;
+		a.unit = TimeUnit.SECONDS;
+		assertEquals(0, est.estimate(null));
+		assertEquals(32 + 32 + est.sizeOfArray(int.class, 4), est.estimate(a));
+	}
+
+	public void testEstimateOfStringsAndCollections() {
+		long shallowString = est.shallowSizeOf(String.class);
+		assertEquals(shallowString + 24, est.estimate("abcd"));
+
+		List<String> list = new ArrayList<String>();
+		list.add("abcd");
+		list.add("abcd");
+		// the two elements are the same interned object
+		assertEquals(est.shallowSizeOf(ArrayList.class) + 2 * 4 + shallowString + 24, est.estimate(list));
+
+		List<String> linked = new LinkedList<String>(list);
+		assertTrue(est.estimate(linked) > est.estimate(list));
+
+		Map<String,String> hash = new HashMap<String,String>();
+		Map<String,String> tree = new TreeMap<String,String>();
+		for (int i = 0; i < 10; i++) {
+			hash.put("k" + i, "v" + i);
+			tree.put("k" + i, "v" + i);
+		}
+		long entries = 20 * (shallowString + est.sizeOfArray(char.class, 2));
+		assertTrue(est.estimate(hash) > entries);
+		assertTrue(est.estimate(tree) > entries);
+	}
+
+	public void testWeigherAddsKeyAndValue() {
+		Weigher<String,int[]> weigher = est.weigher();
+		assertEquals(est.estimate("key") + est.sizeOfArray(int.class, 10), weigher.weigh("key", new int[10]));
+	}
+
+	public void testDefaultEstimatorReferenceSize() {
+		int ref = SizeEstimator.getDefault().getReferenceSize();
+		assertTrue(ref == 4 || ref == 8);
+	}
+}
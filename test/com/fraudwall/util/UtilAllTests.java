@@ -37,12 +37,32 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 import com.fraudwall.util.coll.AnchorCollectionUtilsTest;
+import com.fraudwall.util.coll.CacheStatsTest;
+import com.fraudwall.util.coll.CompactIndexedPriorityQueueTest;
+import com.fraudwall.util.coll.ConcurrentLRUMapTest;
+import com.fraudwall.util.coll.CuckooFilterTest;
 import com.fraudwall.util.coll.DecayVariableCollectionTest;
 import com.fraudwall.util.coll.EstCountTest;
 import com.fraudwall.util.coll.ExpiringLRUMapTest;
 import com.fraudwall.util.coll.IndexedPriorityQueueTest;
 import com.fraudwall.util.coll.LRUMapTest;
 import com.fraudwall.util.coll.LRUSetTest;
+import com.fraudwall.util.coll.LoadingCacheTest;
+import com.fraudwall.util.coll.LongLRUMapTest;
+import com.fraudwall.util.coll.LongLRUSetTest;
+import com.fraudwall.util.coll.ShardedDecayVariableCollectionTest;
+import com.fraudwall.util.coll.SlidingBloomFilterTest;
+import com.fraudwall.util.coll.SlidingCountMinSketchTest;
+import com.fraudwall.util.coll.SlidingHyperLogLogTest;
+import com.fraudwall.util.coll.SpaceSavingTopKTest;
+import com.fraudwall.util.coll.TinyLfuMapTest;
+import com.fraudwall.util.coll.TinyLfuSetTest;
+import com.fraudwall.util.coll.TwoTierCacheTest;
+import com.fraudwall.util.coll.prim.LongArrayListTest;
+import com.fraudwall.util.coll.prim.LongHashSetTest;
+import com.fraudwall.util.coll.prim.LongIntHashMapTest;
+import com.fraudwall.util.coll.prim.LongLongHashMapTest;
+import com.fraudwall.util.coll.prim.LongObjectHashMapTest;
 import com.fraudwall.util.date.DateTimeUtilsTest;
 import com.fraudwall.util.date.SmartDateParserTest;
 import com.fraudwall.util.db.AnchorResultSetTest;
@@ -66,6 +86,7 @@ import com.fraudwall.util.net.EmailUtilsTest;
 import com.fraudwall.util.net.HttpQueryTest;
 import com.fraudwall.util.net.IpAddressRangeTest;
 import com.fraudwall.util.net.IpAddressUtilsTest;
+import com.fraudwall.util.net.IpReputationStoreTest;
 
 @RunWith(Suite.class)
 @SuiteClasses( {
@@ -79,6 +100,7 @@ import com.fraudwall.util.net.IpAddressUtilsTest;
 	MultiThreadedLineNumberReaderTest.class,
 
 	AnchorCollectionUtilsTest.class,
+	CacheStatsTest.class,
 	AnchorResultSetTest.class,
 	AnchorThreadTest.class,
 	ApplicationRunnerTest.class,
@@ -86,6 +108,9 @@ import com.fraudwall.util.net.IpAddressUtilsTest;
 	RequireTest.class,
 	BrowscapUserAgentTest.class,
 	CanonicalUrlTest.class,
+	CompactIndexedPriorityQueueTest.class,
+	ConcurrentLRUMapTest.class,
+	CuckooFilterTest.class,
 	ConnectionPoolTest.class,
 	DateTimeUtilsTest.class,
 	DBUtilsTest.class,
@@ -99,19 +124,37 @@ import com.fraudwall.util.net.IpAddressUtilsTest;
 	IndexedPriorityQueueTest.class,
 	IOUtilsTest.class,
 	IpAddressUtilsTest.class,
+	IpReputationStoreTest.class,
 	IpAddressRangeTest.class,
 	LRUMapTest.class,
 	LRUSetTest.class,
+	LoadingCacheTest.class,
+	LongArrayListTest.class,
+	LongHashSetTest.class,
+	LongIntHashMapTest.class,
+	LongLRUMapTest.class,
+	LongLRUSetTest.class,
+	LongLongHashMapTest.class,
+	LongObjectHashMapTest.class,
 	MathUtilitiesTest.class,
 	PrimitiveUtilsTest.class,
 	RangeTest.class,
 	ReflectUtilsTest.class,
+	ShardedDecayVariableCollectionTest.class,
 	ShellCommandTest.class,
+	SizeEstimatorTest.class,
+	SlidingBloomFilterTest.class,
+	SlidingCountMinSketchTest.class,
+	SlidingHyperLogLogTest.class,
 	SmartDateParserTest.class,
+	SpaceSavingTopKTest.class,
 	SqlStatementIteratorTest.class,
 	StringUtilsTest.class,
 	TemplateExpanderTest.class,
 	TimeGrainRotatingWriterTest.class,
+	TinyLfuMapTest.class,
+	TinyLfuSetTest.class,
+	TwoTierCacheTest.class,
 	UtilitiesTest.class,
 	XmlUtilitiesTest.class
 })
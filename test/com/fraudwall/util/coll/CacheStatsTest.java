@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import com.fraudwall.util.exc.AnchorFatalError;
+
+/**
+ * Tests the {@link CacheStats} implementation and its use by the caches
+ * in this package.
+ */
+public class CacheStatsTest extends TestCase {
+
+	public void testCreateRejectsBadArguments() {
+		try {
+			CacheStats.create(null);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+		try {
+			CacheStats.create("c", 0);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testCountersStartAtZero() {
+		CacheStats stats = CacheStats.create("c");
+		assertEquals("c", stats.getName());
+		assertEquals(0L, stats.getHitCount().longValue());
+		assertEquals(0L, stats.getMissCount().longValue());
+		assertEquals(1.0, stats.getHitRatio(), 0.0);
+		assertEquals(0.0, stats.getEvictionsPerSecond(), 0.0);
+		assertEquals(0.0, stats.getAverageLoadMillis(), 0.0);
+	}
+
+	public void testRecordAndReset() {
+		CacheStats stats = CacheStats.create("c", 3);
+		stats.recordHit();
+		stats.recordHit();
+		stats.recordHit();
+		stats.recordMiss();
+		stats.recordEviction();
+		stats.recordExpiration();
+		stats.recordExpiration();
+		stats.recordLoadSuccess(1000000L);
+		stats.recordLoadFailure(3000000L);
+		assertEquals(3L, stats.getHitCount().longValue());
+		assertEquals(1L, stats.getMissCount().longValue());
+		assertEquals(0.75, stats.getHitRatio(), 0.0);
+		assertEquals(1L, stats.getEvictionCount().longValue());
+		assertTrue(stats.getEvictionsPerSecond() > 0.0);
+		assertEquals(2L, stats.getExpirationCount().longValue());
+		assertEquals(1L, stats.getLoadSuccessCount().longValue());
+		assertEquals(1L, stats.getLoadFailureCount().longValue());
+		assertEquals(4000000L, stats.getTotalLoadNanos());
+		assertEquals(2.0, stats.getAverageLoadMillis(), 1e-9);
+		stats.reset();
+		assertEquals(0L, stats.getHitCount().longValue());
+		assertEquals(0L, stats.getEvictionCount().longValue());
+		assertEquals(0L, stats.getTotalLoadNanos());
+	}
+
+	public void testConcurrentUpdatesAreNotLost() throws InterruptedException {
+		final CacheStats stats = CacheStats.create("c", 4);
+		final int perThread = 100000;
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < perThread; j++) {
+						stats.recordHit();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals((long) threads.length * perThread, stats.getHitCount().longValue());
+	}
+
+	public void testRegisterExposesCountersThroughJmx() throws Exception {
+		CacheStats stats = CacheStats.create("test cache, with \"odd\" name");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = stats.getObjectName();
+		stats.register();
+		try {
+			stats.register(); // no-op
+			stats.recordHit();
+			stats.recordMiss();
+			assertEquals(1L, server.getAttribute(name, "HitCount"));
+			assertEquals(0.5, server.getAttribute(name, "HitRatio"));
+			assertEquals(stats.getName(), server.getAttribute(name, "Name"));
+			CacheStats dup = CacheStats.create(stats.getName());
+			try {
+				dup.register();
+				fail();
+			} catch (AnchorFatalError ex) {
+				// expected case
+			}
+			server.invoke(name, "reset", null, null);
+			assertEquals(0L, stats.getHitCount().longValue());
+		} finally {
+			stats.unregister();
+		}
+		assertFalse(server.isRegistered(name));
+		stats.unregister(); // no-op
+	}
+
+	// ======================================================= caches
+
+	public void testLRUMapRecordsHitsMissesAndEvictions() {
+		CacheStats stats = CacheStats.create("c");
+		LRUMap<Integer,String> map = LRUMap.create(2);
+		map.setStats(stats);
+		assertSame(stats, map.getStats());
+		map.put(1, "a");
+		map.put(2, "b");
+		map.get(1);
+		map.get(3);
+		map.put(3, "c");
+		assertEquals(1L, stats.getHitCount().longValue());
+		assertEquals(1L, stats.getMissCount().longValue());
+		assertEquals(1L, stats.getEvictionCount().longValue());
+		map.setStats(null);
+		map.get(1);
+		assertEquals(1L, stats.getHitCount().longValue());
+	}
+
+	public void testLRUSetRecordsHitsMissesAndEvictions() {
+		CacheStats stats = CacheStats.create("c");
+		LRUSet<Integer> set = LRUSet.create(2);
+		set.setStats(stats);
+		set.add(1);
+		set.add(2);
+		set.contains(1);
+		set.contains(1);
+		set.contains(3);
+		set.add(3);
+		set.add(4);
+		assertEquals(2L, stats.getHitCount().longValue());
+		assertEquals(1L, stats.getMissCount().longValue());
+		assertEquals(2L, stats.getEvictionCount().longValue());
+	}
+
+	public void testConcurrentLRUMapSharesStatsAcrossSegments() {
+		CacheStats stats = CacheStats.create("c");
+		ConcurrentLRUMap<Integer,String> map = ConcurrentLRUMap.create(100, 4);
+		map.setStats(stats);
+		for (int i = 0; i < 50; i++) {
+			map.put(i, "v" + i);
+		}
+		for (int i = 0; i < 100; i++) {
+			map.get(i);
+		}
+		assertEquals(50L, stats.getHitCount().longValue());
+		assertEquals(50L, stats.getMissCount().longValue());
+	}
+
+	public void testExpiringLRUMapRecordsExpirations() {
+		final long[] clock = new long[1];
+		ExpiringLRUMap<Integer,String> map = new ExpiringLRUMap<Integer,String>(2, 1000L) {
+			@Override
+			long currentTimeMillis() {
+				return clock[0];
+			}
+		};
+		CacheStats stats = CacheStats.create("c");
+		map.setStats(stats);
+		map.put(1, "a");
+		map.put(2, "b", 10L);
+		map.put(3, "c");
+		assertEquals(1L, stats.getEvictionCount().longValue());
+		assertEquals("b", map.get(2));
+		assertNull(map.get(1));
+		clock[0] = 10;
+		// expired but not yet reclaimed by the wheel: a miss
+		assertNull(map.get(2));
+		assertEquals(1L, stats.getHitCount().longValue());
+		assertEquals(2L, stats.getMissCount().longValue());
+		map.put(2, "again");
+		assertEquals(1L, stats.getExpirationCount().longValue());
+		clock[0] = 5000;
+		assertEquals(0, map.size());
+		assertEquals(3L, stats.getExpirationCount().longValue());
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.fraudwall.util.coll.IndexedPriorityQueue.Entry;
+
+/**
+ * Tests of the {@link CompactIndexedPriorityQueue} implementation.
+ */
+public class CompactIndexedPriorityQueueTest extends TestCase {
+
+	public void testCreateMakesEmptyQueue() {
+		CompactIndexedPriorityQueue<String> pq = CompactIndexedPriorityQueue.create(3);
+		assertEquals(0, pq.size());
+		assertTrue(pq.isEmpty());
+		assertFalse(pq.isFull());
+	}
+
+	public void testIsFullReturnsTrueIfQueueContainsTheMaxNumberOfElements() {
+		CompactIndexedPriorityQueue<String> pq = makePopulatedPQ(4);
+		assertTrue(pq.isFull());
+		pq.pop();
+		assertFalse(pq.isFull());
+	}
+
+	public void testPeekReturnsElementWithSmallestPriority() {
+		CompactIndexedPriorityQueue<String> pq = makePopulatedPQ(10);
+		assertEquals(2, pq.peekKey());
+		assertEquals(3, pq.peekPriority());
+		assertEquals("bar", pq.peekValue());
+		assertEquals(4, pq.size());
+	}
+
+	public void testPeekThrowsNoSuchElementExceptionIfQueueIsEmpty() {
+		CompactIndexedPriorityQueue<String> pq = CompactIndexedPriorityQueue.create(3);
+		try {
+			pq.peekKey();
+			fail();
+		} catch (NoSuchElementException ex) {
+			// expected case
+		}
+	}
+
+	public void testPopRemovesElementsInIncreasingPriority() {
+		final int SIZE = 5000;
+		CompactIndexedPriorityQueue<String> pq = makePQWithPermutedPriorities(SIZE);
+		for (long i = 0; i < SIZE; i++) {
+			assertEquals(i, pq.peekPriority());
+			assertEquals(i, pq.pop());
+			assertFalse(pq.containsKey(i));
+		}
+		assertTrue(pq.isEmpty());
+	}
+
+	public void testPopThrowsNoSuchElementExceptionIfQueueIsEmpty() {
+		CompactIndexedPriorityQueue<String> pq = CompactIndexedPriorityQueue.create(3);
+		try {
+			pq.pop();
+			fail();
+		} catch (NoSuchElementException ex) {
+			// expected case
+		}
+	}
+
+	public void testGetReturnsValueOfElementWithGivenKey() {
+		CompactIndexedPriorityQueue<String> pq = makePopulatedPQ(10);
+		assertEquals("foo", pq.get(1));
+		assertEquals("faz", pq.get(4));
+		assertNull(pq.get(9999));
+		assertEquals(7, pq.getPriority(4));
+		assertEquals(7, pq.getPriority(4, -1));
+		assertEquals(-1, pq.getPriority(9999, -1));
+	}
+
+	public void testGetPriorityThrowsNoSuchElementExceptionForMissingKey() {
+		CompactIndexedPriorityQueue<String> pq = makePopulatedPQ(10);
+		try {
+			pq.getPriority(9999);
+			fail();
+		} catch (NoSuchElementException ex) {
+			// expected case
+		}
+	}
+
+	public void testSetPriorityReorganizesHeapCorrectly() {
+		final int SIZE = 1000;
+		CompactIndexedPriorityQueue<String> pq = makePQWithPermutedPriorities(SIZE);
+		for (long i = 0; i < SIZE; i++) {
+			assertEquals(i, pq.peekKey());
+			pq.setPriority(i, (2 * SIZE) - i);
+		}
+		for (long i = 0; i < SIZE; i++) {
+			assertEquals(SIZE + i + 1, pq.peekPriority());
+			assertEquals(SIZE - i - 1, pq.pop());
+		}
+	}
+
+	public void testSetValueChangesValue() {
+		CompactIndexedPriorityQueue<String> pq = makePopulatedPQ(10);
+		pq.setValue(3, "quux");
+		assertEquals("quux", pq.get(3));
+	}
+
+	public void testRemoveRemovesElement() {
+		CompactIndexedPriorityQueue<String> pq = makePopulatedPQ(10);
+		assertTrue(pq.remove(3));
+		assertFalse(pq.remove(3));
+		assertFalse(pq.containsKey(3));
+		assertEquals(3, pq.size());
+		assertEquals(2, pq.pop());
+		assertEquals(1, pq.pop());
+		assertEquals(4, pq.pop());
+	}
+
+	public void testAddThrowsArrayIndexOutOfBoundsExceptionIfSizeLimitIsHit() {
+		CompactIndexedPriorityQueue<String> pq = CompactIndexedPriorityQueue.create(1);
+		pq.add(1, "foo", 1);
+		try {
+			pq.add(2, "bar", 2);
+			fail();
+		} catch (ArrayIndexOutOfBoundsException ex) {
+			// expected case
+		}
+	}
+
+	public void testAddThrowsIllegalArgumentExceptionIfElementWithSameKeyAlreadyExists() {
+		CompactIndexedPriorityQueue<String> pq = CompactIndexedPriorityQueue.create(5);
+		pq.add(5, "foo", 1);
+		try {
+			pq.add(5, "bar", 2);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testBreaksPriorityTiesUsingKey() {
+		final int SIZE = 1000;
+		CompactIndexedPriorityQueue<String> pq = CompactIndexedPriorityQueue.create(SIZE);
+		for (long key : permuteLongs(SIZE)) {
+			pq.add(key, null, 1L);
+		}
+		for (long key = 0; !pq.isEmpty(); key++) {
+			assertEquals(key, pq.pop());
+		}
+	}
+
+	public void testClearRemovesAllElements() {
+		CompactIndexedPriorityQueue<String> pq = makePopulatedPQ(10);
+		pq.clear();
+		assertEquals(0, pq.size());
+		assertFalse(pq.containsKey(1));
+		pq.add(1, "foo", 6);
+		assertEquals("foo", pq.get(1));
+	}
+
+	public void testBehavesLikeIndexedPriorityQueueUnderRandomLoad() {
+		final int SIZE = 500;
+		CompactIndexedPriorityQueue<String> pq = CompactIndexedPriorityQueue.create(SIZE);
+		IndexedPriorityQueue<String> expected = IndexedPriorityQueue.create(SIZE);
+		Random r = new Random(0);
+		for (int i = 0; i < 100000; i++) {
+			long key = r.nextInt(2 * SIZE) << 16;
+			long priority = r.nextInt(1000);
+			Entry<String> e = expected.get(key);
+			if (e != null) {
+				e.setPriority(priority);
+				expected.priorityHasChanged(e);
+				pq.setPriority(key, priority);
+			} else {
+				if (expected.isFull()) {
+					assertEquals(expected.pop().getKey(), pq.pop());
+				}
+				expected.add(Entry.create(key, "v" + key, priority));
+				pq.add(key, "v" + key, priority);
+			}
+			assertEquals(expected.size(), pq.size());
+			assertEquals(expected.peek().getKey(), pq.peekKey());
+			assertEquals(expected.peek().getValue(), pq.peekValue());
+		}
+	}
+
+	// ============================================================ helper methods
+
+	private CompactIndexedPriorityQueue<String> makePopulatedPQ(int maxSize) {
+		CompactIndexedPriorityQueue<String> pq = CompactIndexedPriorityQueue.create(maxSize);
+		pq.add(1, "foo", 6);
+		pq.add(2, "bar", 3);
+		pq.add(3, "baz", 5);
+		pq.add(4, "faz", 7);
+		return pq;
+	}
+
+	private CompactIndexedPriorityQueue<String> makePQWithPermutedPriorities(final int size) {
+		CompactIndexedPriorityQueue<String> pq = CompactIndexedPriorityQueue.create(size);
+		for (long priority : permuteLongs(size)) {
+			pq.add(priority, Long.toString(priority), priority);
+		}
+		assertEquals(size, pq.size());
+		return pq;
+	}
+
+	private List<Long> permuteLongs(final int size) {
+		List<Long> priorities = new ArrayList<Long>(size);
+		for (long i = 0; i < size; i++) priorities.add(i);
+		Collections.shuffle(priorities);
+		return priorities;
+	}
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.fraudwall.util.AbstractAnchorTest;
+
+/**
+ * Tests the {@link ConcurrentLRUMap} implementation.
+ */
+public class ConcurrentLRUMapTest extends AbstractAnchorTest {
+	private static final Log log = LogFactory.getLog(ConcurrentLRUMapTest.class);
+
+	// --------------------------------- create
+
+	public void testCreateRejectsNonPositiveMaxSize() {
+		try {
+			ConcurrentLRUMap.create(0);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testCreateUsesAtMostMaxSizeSegments() {
+		ConcurrentLRUMap<Integer,String> cache = ConcurrentLRUMap.create(2, 16);
+		cache.put(1, "foo");
+		cache.put(2, "bar");
+		cache.put(3, "baz");
+		assertEquals(2, cache.size());
+	}
+
+	// --------------------------------- single segment (exact LRU)
+
+	public void testGetCausesElementToBeProtectedFromEviction() {
+		ConcurrentLRUMap<Integer,String> cache = ConcurrentLRUMap.create(3, 1);
+		cache.put(1, "foo");
+		cache.put(2, "bar");
+		cache.put(3, "baz");
+		cache.get(1);
+		cache.put(4, "bam");
+		assertTrue(cache.containsKey(1));
+		assertFalse(cache.containsKey(2));
+	}
+
+	public void testContainsKeyDoesNotCauseElementToBeProtectedFromEviction() {
+		ConcurrentLRUMap<Integer,String> cache = ConcurrentLRUMap.create(3, 1);
+		cache.put(1, "foo");
+		cache.put(2, "bar");
+		cache.put(3, "baz");
+		assertTrue(cache.containsKey(1));
+		cache.put(4, "bam");
+		assertFalse(cache.containsKey(1));
+	}
+
+	public void testPutReturnsCorrectResult() {
+		ConcurrentLRUMap<Integer,String> cache = ConcurrentLRUMap.create(3);
+		assertNull(cache.put(1, "foo"));
+		assertNull(cache.put(2, "bar"));
+		assertEquals("foo", cache.put(1, "baz"));
+		assertEquals("baz", cache.get(1));
+	}
+
+	public void testRemoveReturnsValueOfElement() {
+		ConcurrentLRUMap<Integer,String> cache = ConcurrentLRUMap.create(3);
+		cache.put(1, "foo");
+		assertEquals("foo", cache.remove(1));
+		assertNull(cache.remove(1));
+		assertFalse(cache.containsKey(1));
+	}
+
+	public void testClearRemovesAllElementsFromCache() {
+		ConcurrentLRUMap<Integer,String> cache = ConcurrentLRUMap.create(100);
+		for (int i = 0; i < 50; i++) {
+			cache.put(i, "Elt" + i);
+		}
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertTrue(cache.isEmpty());
+	}
+
+	// --------------------------------- segmented behavior
+
+	public void testSizeNeverExceedsMaxSize() {
+		ConcurrentLRUMap<Integer,String> cache = ConcurrentLRUMap.create(100, 8);
+		for (int i = 0; i < 10000; i++) {
+			cache.put(i, "Elt" + i);
+			assertTrue(cache.size() <= 100);
+		}
+		assertEquals(100, cache.size());
+	}
+
+	public void testEntrySetContainsEveryElement() {
+		ConcurrentLRUMap<Integer,String> cache = ConcurrentLRUMap.create(100, 8);
+		for (int i = 0; i < 50; i++) {
+			cache.put(i, "Elt" + i);
+		}
+		int count = 0;
+		for (Map.Entry<Integer,String> entry : cache.entrySet()) {
+			assertEquals("Elt" + entry.getKey(), entry.getValue());
+			count++;
+		}
+		assertEquals(50, count);
+	}
+
+	// --------------------------------- multi-threaded
+
+	public void testConcurrentAccessKeepsCacheConsistent() throws Exception {
+		final ConcurrentLRUMap<Integer,String> cache = ConcurrentLRUMap.create(1000);
+		runWorkers(new Cache() {
+			public String get(Integer key) { return cache.get(key); }
+			public void put(Integer key, String value) { cache.put(key, value); }
+		}, 8, 20000);
+		assertTrue(cache.size() <= 1000);
+		for (Map.Entry<Integer,String> entry : cache.entrySet()) {
+			assertEquals("Elt" + entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Compares the throughput of a {@link ConcurrentLRUMap} with that of an
+	 * {@link LRUMap} guarded by a single lock under a read-mostly load. The
+	 * timings are only logged, since they depend on the number of cores.
+	 */
+	public void testThroughputAgainstSynchronizedLRUMap() throws Exception {
+		final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		final int opsPerThread = 200000;
+
+		final LRUMap<Integer,String> lru = LRUMap.create(10000);
+		long lockedNanos = runWorkers(new Cache() {
+			public String get(Integer key) {
+				synchronized (lru) {
+					return lru.get(key);
+				}
+			}
+			public void put(Integer key, String value) {
+				synchronized (lru) {
+					lru.put(key, value);
+				}
+			}
+		}, threads, opsPerThread);
+
+		final ConcurrentLRUMap<Integer,String> concurrent = ConcurrentLRUMap.create(10000);
+		long concurrentNanos = runWorkers(new Cache() {
+			public String get(Integer key) { return concurrent.get(key); }
+			public void put(Integer key, String value) { concurrent.put(key, value); }
+		}, threads, opsPerThread);
+
+		long totalOps = (long) threads * opsPerThread;
+		log.info(String.format("%d threads: synchronized LRUMap %.0f ops/ms, ConcurrentLRUMap %.0f ops/ms",
+			threads, totalOps * 1e6 / lockedNanos, totalOps * 1e6 / concurrentNanos));
+	}
+
+	// --------------------------------- private helpers
+
+	private interface Cache {
+		String get(Integer key);
+		void put(Integer key, String value);
+	}
+
+	/**
+	 * Runs <code>threads</code> threads that each perform <code>ops</code>
+	 * operations against <code>cache</code>, 90% of which are reads, and
+	 * returns the elapsed wall-clock time in nanoseconds.
+	 */
+	private long runWorkers(final Cache cache, int threads, final int ops) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		for (int t = 0; t < threads; t++) {
+			final long seed = t;
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						Random r = new Random(seed);
+						start.await();
+						for (int i = 0; i < ops; i++) {
+							Integer key = r.nextInt(20000);
+							if (r.nextInt(10) == 0) {
+								cache.put(key, "Elt" + key);
+							} else {
+								String value = cache.get(key);
+								if (value != null && !value.equals("Elt" + key)) {
+									throw new IllegalStateException("bad value for " + key);
+								}
+							}
+						}
+					} catch (Throwable ex) {
+						failure.compareAndSet(null, ex);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		long startNanos = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - startNanos;
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		return elapsed;
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link CuckooFilter} implementation.
+ */
+public class CuckooFilterTest extends TestCase {
+
+	public void testCreateRejectsNonPositiveSize() {
+		try {
+			CuckooFilter.create(0);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testCapacityIsPowerOfTwoBucketsWithRoomForExpectedKeys() {
+		CuckooFilter f = CuckooFilter.create(1000);
+		// 1000 / (4 * 0.95) = 264 buckets, rounded up to 512
+		assertEquals(2048, f.capacity());
+	}
+
+	public void testAddContainsRemove() {
+		CuckooFilter f = CuckooFilter.create(1000);
+		assertFalse(f.contains(42));
+		assertTrue(f.add(42));
+		assertTrue(f.contains(42));
+		assertEquals(1, f.size());
+		assertTrue(f.remove(42));
+		assertFalse(f.contains(42));
+		assertFalse(f.remove(42));
+		assertEquals(0, f.size());
+	}
+
+	public void testKeyAddedTwiceMustBeRemovedTwice() {
+		CuckooFilter f = CuckooFilter.create(1000);
+		f.add(7);
+		f.add(7);
+		assertTrue(f.remove(7));
+		assertTrue(f.contains(7));
+		assertTrue(f.remove(7));
+		assertFalse(f.contains(7));
+	}
+
+	public void testFillsToHighLoadWithoutFalseNegatives() {
+		CuckooFilter f = CuckooFilter.create(100000);
+		Random r = new Random(0);
+		long[] keys = new long[f.capacity()];
+		int n = 0;
+		while (n < keys.length) {
+			long key = r.nextLong();
+			if (!f.add(key)) {
+				break;
+			}
+			keys[n++] = key;
+		}
+		assertTrue("load: " + n, n >= 0.95 * f.capacity());
+		assertEquals(n, f.size());
+		for (int i = 0; i < n; i++) {
+			assertTrue(f.contains(keys[i]));
+		}
+		// removing keys makes room again
+		for (int i = 0; i < n / 2; i++) {
+			assertTrue(f.remove(keys[i]));
+		}
+		for (int i = n / 2; i < n; i++) {
+			assertTrue(f.contains(keys[i]));
+		}
+		assertTrue(f.add(r.nextLong()));
+	}
+
+	public void testFalsePositiveRateIsLow() {
+		CuckooFilter f = CuckooFilter.create(100000);
+		for (long ip = 0; ip < 100000; ip++) {
+			f.add(ip);
+		}
+		int falsePositives = 0;
+		for (long ip = 100000; ip < 1100000; ip++) {
+			if (f.contains(ip)) {
+				falsePositives++;
+			}
+		}
+		// 8 candidate slots / 2^16 fingerprints = 0.012%
+		assertTrue("false positives: " + falsePositives, falsePositives < 300);
+	}
+
+	public void testReadersNeverMissStableKeysDuringUpdates() throws Exception {
+		final CuckooFilter f = CuckooFilter.create(20000);
+		final long[] stable = new long[5000];
+		Random r = new Random(1);
+		for (int i = 0; i < stable.length; i++) {
+			stable[i] = r.nextLong();
+			f.add(stable[i]);
+		}
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicInteger misses = new AtomicInteger();
+		Thread[] readers = new Thread[2];
+		for (int t = 0; t < readers.length; t++) {
+			readers[t] = new Thread() {
+				@Override
+				public void run() {
+					while (!done.get()) {
+						for (long key : stable) {
+							if (!f.contains(key)) {
+								misses.incrementAndGet();
+							}
+						}
+					}
+				}
+			};
+			readers[t].start();
+		}
+		// churn the rest of the filter near full load, which moves
+		// fingerprints of stable keys between buckets
+		long[] churn = new long[25000];
+		for (int round = 0; round < 20; round++) {
+			int added = 0;
+			for (int i = 0; i < churn.length; i++) {
+				churn[added] = r.nextLong();
+				if (f.add(churn[added])) {
+					added++;
+				}
+			}
+			for (int i = 0; i < added; i++) {
+				assertTrue(f.remove(churn[i]));
+			}
+		}
+		done.set(true);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		assertEquals(0, misses.get());
+		assertEquals(stable.length, f.size());
+	}
+}
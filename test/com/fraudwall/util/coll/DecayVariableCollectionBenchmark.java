@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Random;
+
+/**
+ * Micro-benchmark of {@link DecayVariableCollection#update} and
+ * {@link DecayVariableCollection#updateAll}: each operation updates a random
+ * key, with a skewed key distribution so some keys are hot, at a time that
+ * advances by one millisecond per operation.<p>
+ *
+ * Run with <code>java -server -cp ... com.fraudwall.util.coll.DecayVariableCollectionBenchmark
+ * [maxSize [keySpace [ops [batchSize]]]]</code>. Each configuration is run
+ * several times and the best time is reported, after a warm-up run to let
+ * the JIT compile the code under test.
+ */
+public class DecayVariableCollectionBenchmark {
+
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) {
+		int maxSize = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		int keySpace = (args.length > 1) ? Integer.parseInt(args[1]) : 2 * maxSize;
+		int ops = (args.length > 2) ? Integer.parseInt(args[2]) : 10000000;
+		int batchSize = (args.length > 3) ? Integer.parseInt(args[3]) : 1000;
+
+		long[] keys = new long[ops];
+		long[] times = new long[ops];
+		Random r = new Random(0);
+		for (int i = 0; i < ops; i++) {
+			keys[i] = (long) (keySpace * Math.pow(r.nextDouble(), 2.0));
+			times[i] = 1000000L + i;
+		}
+
+		runUpdate(maxSize, keys, times); // warm-up
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			best = Math.min(best, runUpdate(maxSize, keys, times));
+		}
+		System.out.printf("update maxSize=%d keySpace=%d ops=%d: %.1f ns/op%n",
+			maxSize, keySpace, ops, (double) best / ops);
+
+		runUpdateAll(maxSize, keys, times, batchSize); // warm-up
+		best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			best = Math.min(best, runUpdateAll(maxSize, keys, times, batchSize));
+		}
+		System.out.printf("updateAll maxSize=%d keySpace=%d ops=%d batchSize=%d: %.1f ns/op%n",
+			maxSize, keySpace, ops, batchSize, (double) best / ops);
+	}
+
+	private static DecayVariableCollection<Object> newCollection(int maxSize) {
+		return new DecayVariableCollection<Object>("bench", maxSize, 2.0, 0.25, 60000L);
+	}
+
+	private static long runUpdate(int maxSize, long[] keys, long[] times) {
+		DecayVariableCollection<Object> d = newCollection(maxSize);
+		long start = System.nanoTime();
+		for (int i = 0; i < keys.length; i++) {
+			d.update(keys[i], times[i]);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long runUpdateAll(int maxSize, long[] keys, long[] times, int batchSize) {
+		DecayVariableCollection<Object> d = newCollection(maxSize);
+		long[] batchKeys = new long[batchSize];
+		long[] batchTimes = new long[batchSize];
+		long start = System.nanoTime();
+		for (int i = 0; i < keys.length; i += batchSize) {
+			int n = Math.min(batchSize, keys.length - i);
+			System.arraycopy(keys, i, batchKeys, 0, n);
+			System.arraycopy(times, i, batchTimes, 0, n);
+			d.updateAll(batchKeys, batchTimes, n);
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -32,6 +32,15 @@
  */
 package com.fraudwall.util.coll;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Random;
 
 import junit.framework.TestCase;
@@ -40,6 +49,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.fraudwall.util.coll.DecayVariableCollection;
+import com.fraudwall.util.coll.DecayVariableCollection.Snapshot;
 import com.fraudwall.util.coll.IndexedPriorityQueue;
 
 public class DecayVariableCollectionTest extends TestCase {
@@ -109,11 +119,301 @@ public class DecayVariableCollectionTest extends TestCase {
 		assertNotNull(pq.get(1001));
 	}
 
+	public void testSnapshotRoundTripPreservesKillTimesAndValues() throws IOException {
+		DecayVariableCollection<String> d = makeDecayVariableCollection("snap", 100, 8.0, 0.25, 1000);
+		Random r = new Random(1);
+		long time = 100;
+		for (int i = 0; i < 2000; i++) {
+			long key = r.nextInt(150);
+			d.update(key, time).setValue("v" + key);
+			time += r.nextInt(5);
+		}
+		Snapshot<String> snapshot = roundTrip(d.snapshot(), STRING_CODEC);
+		assertEquals(d.getPQ().size(), snapshot.size());
+
+		DecayVariableCollection<String> d2 = makeDecayVariableCollection("snap", 100, 8.0, 0.25, 1000);
+		assertEquals(d.getPQ().size(), d2.restore(snapshot, time));
+		assertSameEntries(d, d2);
+
+		// updates after the restore behave exactly as on the original
+		for (int i = 0; i < 2000; i++) {
+			long key = r.nextInt(150);
+			assertEquals(d.update(key, time).getPriority(), d2.update(key, time).getPriority());
+			time += r.nextInt(5);
+		}
+		assertSameEntries(d, d2);
+	}
+
+	public void testSnapshotWithoutCodecOmitsValues() throws IOException {
+		DecayVariableCollection<String> d = makeDecayVariableCollection("snap", 10, 8.0, 0.25, 1000);
+		d.update(1001, 100).setValue("a");
+		Snapshot<String> snapshot = roundTrip(d.snapshot(), null);
+		assertEquals(1, snapshot.size());
+		assertEquals(1001, snapshot.getKey(0));
+		assertEquals(d.getPQ().get(1001).getPriority(), snapshot.getKillTime(0));
+		assertNull(snapshot.getValue(0));
+	}
+
+	public void testReadFromRejectsBadInput() throws IOException {
+		try {
+			Snapshot.readFrom(new DataInputStream(new ByteArrayInputStream(new byte[16])), null);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		DecayVariableCollection<String> d = makeDecayVariableCollection("snap", 10, 8.0, 0.25, 1000);
+		d.update(1001, 100).setValue("a");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		d.snapshot().writeTo(new DataOutputStream(bytes), STRING_CODEC);
+		try {
+			Snapshot.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), null);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testReadFromRejectsTruncatedSnapshotWithHugeCount() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(Snapshot.MAGIC);
+			out.writeInt(Snapshot.VERSION);
+			out.writeBoolean(false);
+			out.writeInt(Integer.MAX_VALUE);
+			out.writeLong(1001);
+			out.writeLong(100);
+			Snapshot.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), null);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testRestoreWithDuplicateKeyLeavesContentsUnchanged() {
+		DecayVariableCollection<String> d = makeDecayVariableCollection("snap", 10, 8.0, 0.25, 1000);
+		d.update(1001, 100).setValue("a");
+		Snapshot<String> snapshot = new Snapshot<String>(3);
+		snapshot.add(2002, 5000, "x");
+		snapshot.add(3003, 5000, "y");
+		snapshot.add(2002, 6000, "z");
+		try {
+			d.restore(snapshot, 100);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(1, d.getPQ().size());
+		assertEquals("a", d.getPQ().get(1001).getValue());
+	}
+
+	public void testRestoreSkipsExpiredEntries() {
+		Snapshot<String> snapshot = new Snapshot<String>(3);
+		snapshot.add(1, 50, null);
+		snapshot.add(2, 100, null);
+		snapshot.add(3, 150, null);
+		DecayVariableCollection<String> d = makeDecayVariableCollection("snap", 10, 8.0, 0.25, 1000);
+		assertEquals(2, d.restore(snapshot, 100));
+		assertNull(d.getPQ().get(1));
+		assertEquals(100, d.getPQ().get(2).getPriority());
+		assertEquals(150, d.getPQ().get(3).getPriority());
+	}
+
+	public void testRestoreKeepsLargestKillTimesWhenSnapshotExceedsMaxSize() {
+		Snapshot<String> snapshot = new Snapshot<String>(0);
+		for (int i = 0; i < 10; i++) {
+			// kill times 100, 100, 200, 200, ..., 500, 500 in scrambled order
+			int key = (i * 7) % 10;
+			snapshot.add(key, 100 * (key / 2 + 1), null);
+		}
+		DecayVariableCollection<String> d = makeDecayVariableCollection("snap", 5, 8.0, 0.25, 1000);
+		assertEquals(5, d.restore(snapshot, 0));
+		IndexedPriorityQueue<String> pq = d.getPQ();
+		assertEquals(5, pq.size());
+		for (int key = 6; key < 10; key++) {
+			assertNotNull(pq.get(key));
+		}
+		assertEquals(300, pq.peek().getPriority());
+	}
+
+	public void testRestoreReplacesExistingContents() {
+		DecayVariableCollection<String> d = makeDecayVariableCollection("snap", 10, 8.0, 0.25, 1000);
+		d.update(1001, 100);
+		Snapshot<String> snapshot = new Snapshot<String>(1);
+		snapshot.add(2002, 5000, "x");
+		assertEquals(1, d.restore(snapshot, 100));
+		assertNull(d.getPQ().get(1001));
+		assertEquals("x", d.getPQ().get(2002).getValue());
+	}
+
+	public void testUpdateAllMatchesRepeatedUpdates() {
+		DecayVariableCollection<String> batched = makeDecayVariableCollection("batch", 100, 2.0, 0.25, 10000);
+		DecayVariableCollection<String> single = makeDecayVariableCollection("single", 100, 2.0, 0.25, 10000);
+		Random r = new Random(5);
+		long time = 1000;
+		for (int batch = 0; batch < 20; batch++) {
+			long[] keys = new long[500];
+			long[] times = new long[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				// a few hot keys, and times that are not sorted within a key
+				keys[i] = (r.nextInt(4) == 0) ? r.nextInt(50) : r.nextInt(5);
+				times[i] = time + r.nextInt(200);
+				single.update(keys[i], times[i]);
+			}
+			batched.updateAll(keys, times, keys.length);
+			time += 200;
+		}
+		assertEquals(single.getPQ().size(), batched.getPQ().size());
+		for (IndexedPriorityQueue.Entry<String> e : single.getPQ()) {
+			// repeated updates round each intermediate kill time down
+			long killTime = batched.getPQ().get(e.getKey()).getPriority();
+			assertTrue(Math.abs(killTime - e.getPriority()) <= 1000);
+		}
+	}
+
+	/**
+	 * Checks that kill times stay within the documented tolerance of the
+	 * exact energy formulae, applied with the same rounding.
+	 */
+	public void testUpdateMatchesExactFormulae() {
+		double energyUnit = 2.0, killThreshold = 0.25;
+		for (long halfLife : new long[] { 1000, 60000, 86400000 }) {
+			DecayVariableCollection<String> d =
+				makeDecayVariableCollection("exact", 100, energyUnit, killThreshold, halfLife);
+			long[] exact = new long[10];
+			Random r = new Random(halfLife);
+			long time = 1000;
+			double maxError = 0.0;
+			for (int i = 0; i < 100000; i++) {
+				int key = r.nextInt(exact.length);
+				time += r.nextInt((int) (halfLife / 100) + 1);
+				double energy = (exact[key] == 0L) ? 0.0
+					: killThreshold * Math.pow(2.0, ((double) exact[key] - time) / halfLife);
+				exact[key] = time + (long) (halfLife * Math.log((energy + energyUnit) / killThreshold) / Math.log(2.0));
+				long killTime = d.update(key, time).getPriority();
+				maxError = Math.max(maxError, Math.abs(killTime - exact[key]));
+				// re-sync, so that the error of each update is checked separately
+				d.getPQ().get(key).setPriority(exact[key]);
+				d.getPQ().priorityHasChanged(d.getPQ().get(key));
+			}
+			assertTrue("halfLife " + halfLife + ": error " + maxError,
+				maxError <= 1 + 1e-6 * halfLife);
+		}
+	}
+
+	public void testUpdateAllMergesDuplicateKeys() {
+		DecayVariableCollection<String> d = makeDecayVariableCollection("batch", 10, 2.0, 0.25, 1000);
+		long[] keys = { 1001, 2002, 1001, 1001, 9999 };
+		long[] times = { 100, 100, 100, 100, 100 };
+		assertEquals(2, d.updateAll(keys, times, 4));
+		assertEquals(2, d.getPQ().size());
+		assertNull(d.getPQ().get(9999));
+		// three units of energy: killtime = now + HALFLIFE * lg(3*2.0/0.25)
+		long expected = 100 + (long) (1000 * Math.log(24.0) / Math.log(2.0));
+		assertEquals(expected, d.getPQ().get(1001).getPriority());
+	}
+
+	public void testUpdateAllEvictsWhenFull() {
+		DecayVariableCollection<String> d = makeDecayVariableCollection("batch", 3, 2.0, 0.25, 1000);
+		long[] keys = { 1, 2, 3, 4, 5, 5, 5 };
+		long[] times = { 100, 100, 100, 100, 100, 100, 100 };
+		assertEquals(5, d.updateAll(keys, times, keys.length));
+		assertEquals(3, d.getPQ().size());
+		assertNotNull(d.getPQ().get(5));
+	}
+
+	public void testUpdateAllRejectsBadLength() {
+		DecayVariableCollection<String> d = makeDecayVariableCollection("batch", 3, 2.0, 0.25, 1000);
+		try {
+			d.updateAll(new long[2], new long[1], 2);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testGetEnergy() {
+		DecayVariableCollection<String> d = makeDecayVariableCollection("energy", 10, 2.0, 0.25, 1000);
+		assertEquals(0.0, d.getEnergy(1001, 100), 0.0);
+		d.update(1001, 100);
+		assertEquals(2.0, d.getEnergy(1001, 100), 1e-2);
+		assertEquals(1.0, d.getEnergy(1001, 1100), 1e-2);
+		d.update(1001, 1100);
+		assertEquals(3.0, d.getEnergy(1001, 1100), 1e-2);
+		// does not remove or reorder anything
+		long killTime = d.getPQ().get(1001).getPriority();
+		d.getEnergy(1001, 1000000);
+		assertEquals(killTime, d.getPQ().get(1001).getPriority());
+		assertEquals(1, d.getPQ().size());
+	}
+
+	public void testHottestReturnsLargestKillTimesFirst() {
+		DecayVariableCollection<String> d = makeDecayVariableCollection("hot", 1000, 2.0, 0.25, 1000);
+		Random r = new Random(1);
+		long time = 100;
+		for (int i = 0; i < 5000; i++) {
+			d.update(r.nextInt(500), time++);
+		}
+		IndexedPriorityQueue.Entry<String>[] all = d.getPQ().toArray();
+		Arrays.sort(all);
+		Iterator<IndexedPriorityQueue.Entry<String>> it = d.hottest(10);
+		for (int i = 0; i < 10; i++) {
+			IndexedPriorityQueue.Entry<String> expected = all[all.length - 1 - i];
+			IndexedPriorityQueue.Entry<String> e = it.next();
+			assertEquals(expected.getKey(), e.getKey());
+			assertEquals(expected.getPriority(), e.getPriority());
+			assertNotSame(expected, e);
+		}
+		assertFalse(it.hasNext());
+		assertEquals(all.length, d.getPQ().size());
+	}
+
+	public void testHottestWithFewerEntriesThanN() {
+		DecayVariableCollection<String> d = makeDecayVariableCollection("hot", 10, 2.0, 0.25, 1000);
+		assertFalse(d.hottest(5).hasNext());
+		d.update(1, 100);
+		d.update(2, 100);
+		d.update(2, 100);
+		Iterator<IndexedPriorityQueue.Entry<String>> it = d.hottest(5);
+		assertEquals(2L, it.next().getKey());
+		assertEquals(1L, it.next().getKey());
+		assertFalse(it.hasNext());
+		assertFalse(d.hottest(0).hasNext());
+	}
+
 	// ======================================================= private helpers
 
+	private static final ValueCodec<String> STRING_CODEC = new ValueCodec<String>() {
+		public void write(String value, DataOutput out) throws IOException {
+			out.writeUTF(value);
+		}
+		public String read(DataInput in) throws IOException {
+			return in.readUTF();
+		}
+	};
+
+	private <T> Snapshot<T> roundTrip(Snapshot<T> snapshot, ValueCodec<T> codec) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		snapshot.writeTo(new DataOutputStream(bytes), codec);
+		return Snapshot.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), codec);
+	}
+
+	private <T> void assertSameEntries(DecayVariableCollection<T> expected, DecayVariableCollection<T> actual) {
+		IndexedPriorityQueue<T> pq = actual.getPQ();
+		assertEquals(expected.getPQ().size(), pq.size());
+		for (IndexedPriorityQueue.Entry<T> e : expected.getPQ()) {
+			IndexedPriorityQueue.Entry<T> a = pq.get(e.getKey());
+			assertNotNull(a);
+			assertEquals(e.getPriority(), a.getPriority());
+			assertEquals(e.getValue(), a.getValue());
+		}
+		assertEquals(expected.getPQ().peek().getPriority(), pq.peek().getPriority());
+	}
+
+
 	private <T> DecayVariableCollection<T> makeDecayVariableCollection(
 			String collectionType, int maxSize, double energyUnit,
-			double killThreshold, int halfLife) {
+			double killThreshold, long halfLife) {
 		DecayVariableCollection<T> d = new DecayVariableCollection<T>(
 				collectionType, maxSize, energyUnit, killThreshold, halfLife);
 		if (log.isDebugEnabled())
@@ -32,6 +32,9 @@
  */
 package com.fraudwall.util.coll;
 
+import java.util.BitSet;
+import java.util.Random;
+
 import junit.framework.TestCase;
 
 import org.apache.commons.logging.Log;
@@ -64,6 +67,44 @@ public class EstCountTest extends TestCase {
 		doit(15, 5, 64);
 	}
 
+	public void testMatchesBitSetImplementation() {
+		Random r = new Random(0);
+		int[][] params = { { 20, 10, 64 }, { 20, 5, 4 }, { 15, 5, 100 }, { 1000, 10, 512 }, { 0, 1, 8 } };
+		for (int[] p : params) {
+			int W = p[0], T = p[1], N = p[2];
+			EstCount<Long> e = EstCount.create(W, T, N);
+			BitSetEstCount<Long> expected = new BitSetEstCount<Long>(W, T, N);
+			long time = r.nextInt(100);
+			for (int i = 0; i < 100000; i++) {
+				int step = r.nextInt(100);
+				if (step == 0) {
+					time += W + r.nextInt(3 * T + 1); // slide past the whole window
+				} else if (step == 1) {
+					time -= r.nextInt(2 * T + 1); // clock goes backwards
+				} else if (step < 20) {
+					time += r.nextInt(2 * T);
+				}
+				Long key = (long) r.nextInt(3 * N) - N;
+				assertEquals(expected.record(key, time), e.record(key, time));
+			}
+		}
+	}
+
+	public void testCountIsCorrectAcrossBlockNumberRebase() {
+		// every outer iteration advances the block number by 1+W/T+2, so
+		// the block number overflows, and is rebased, after ~21000 iterations
+		final int W = 100000;
+		EstCount<Long> e = EstCount.create(W, 1, 16);
+		long time = 0;
+		for (int i = 0; i < 25000; i++) {
+			time += 2 * W;
+			assertEquals(1, e.record(1L, time));
+			assertEquals(2, e.record(2L, time + 1));
+			assertEquals(2, e.record(1L, time + 2));
+			assertEquals(3, e.record(3L, time + 2));
+		}
+	}
+
 	public void doit(int W, int T, int N) {
 		EstCount<Long> e = EstCount.create(W, T, N);
 
@@ -75,4 +116,59 @@ public class EstCountTest extends TestCase {
 		assertTrue(true);
 	}
 
+	/**
+	 * The original implementation of {@link EstCount}, which keeps one bit
+	 * vector per interval; used as a reference for the current one.
+	 */
+	private static final class BitSetEstCount<K> {
+		private final long T;
+		private final int N;
+		private final int blocks;
+		private final BitSet[] bits;
+		private final BitSet acc;
+		private int currentBlock;
+		private long startTimeOfCurrentBlock;
+
+		BitSetEstCount(long W, long T, int N) {
+			this.T = T;
+			this.N = N;
+			blocks = 1 + (int) (W / T);
+			bits = new BitSet[blocks];
+			for (int i = 0; i < blocks; i++) {
+				bits[i] = new BitSet(N);
+			}
+			acc = new BitSet(N);
+			currentBlock = blocks - 1;
+			startTimeOfCurrentBlock = -1;
+		}
+
+		int record(K key, long now) {
+			if (startTimeOfCurrentBlock < 0) {
+				startTimeOfCurrentBlock = now;
+			} else if (now >= (startTimeOfCurrentBlock + T)) {
+				acc.clear();
+				int intervalsToSlide = (int) ((now - startTimeOfCurrentBlock) / T);
+				if (intervalsToSlide >= blocks) {
+					startTimeOfCurrentBlock = now;
+					for (int i = 0; i < blocks; i++) {
+						bits[i].clear();
+					}
+				} else {
+					for (int i = 0; i < intervalsToSlide; i++) {
+						startTimeOfCurrentBlock += T;
+						currentBlock = (currentBlock + 1) % blocks;
+						bits[currentBlock].clear();
+					}
+					for (int i = 0; i < blocks; i++) {
+						acc.or(bits[i]);
+					}
+				}
+			}
+			int hash = Math.abs(key.hashCode()) % N;
+			acc.set(hash);
+			bits[currentBlock].set(hash);
+			return acc.cardinality();
+		}
+	}
+
 }
@@ -35,7 +35,15 @@
  */
 package com.fraudwall.util.coll;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Random;
 
 import com.fraudwall.util.AbstractAnchorTest;
 import com.fraudwall.util.coll.ExpiringLRUMap;
@@ -155,6 +163,241 @@ public class ExpiringLRUMapTest extends AbstractAnchorTest {
 		assertEquals(0, cache.keySet().size());
 	}
 
+	public void testEntrySetIsOrderedLiveViewOfUnexpiredEntries() {
+		FakeClockMap<Integer,String> cache = new FakeClockMap<Integer,String>(10, 1000L);
+		Set<Map.Entry<Integer,String>> entries = cache.entrySet();
+		cache.put(1, "foo");
+		cache.put(2, "bar", 10L);
+		cache.put(3, "baaz");
+		cache.get(1);
+		List<Integer> keys = new ArrayList<Integer>();
+		for (Integer key : cache.keySet()) {
+			keys.add(key);
+		}
+		assertListEquals(new Integer[] { 1, 3, 2 }, keys);
+		assertEquals(3, entries.size());
+		assertTrue(cache.values().contains("bar"));
+
+		// the expired mapping disappears from the views before it is reclaimed
+		cache.now = 10;
+		assertEquals(2, entries.size());
+		assertFalse(entries.contains(new LRUMap.SimpleImmutableEntry<Integer,String>(2, "bar")));
+		assertTrue(entries.contains(new LRUMap.SimpleImmutableEntry<Integer,String>(3, "baaz")));
+		assertFalse(cache.keySet().contains(2));
+		assertFalse(cache.values().contains("bar"));
+		cache.put(4, "quux");
+		assertEquals(3, entries.size());
+	}
+
+	public void testEntrySetIteratorRemove() {
+		FakeClockMap<Integer,String> cache = new FakeClockMap<Integer,String>(10, 1000L);
+		for (int i = 0; i < 6; i++) {
+			cache.put(i, "v" + i, (i == 3) ? 10L : 1000L);
+		}
+		cache.now = 10;
+		Iterator<Map.Entry<Integer,String>> it = cache.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Integer,String> entry = it.next();
+			// hasNext() looks ahead past the expired mapping before remove()
+			if (entry.getKey() == 4 && it.hasNext()) {
+				it.remove();
+			} else if (entry.getKey() == 0) {
+				it.remove();
+			}
+		}
+		assertEquals(3, cache.entrySet().size());
+		assertNull(cache.get(4));
+		assertNull(cache.get(0));
+		assertEquals("v1", cache.get(1));
+
+		// removed mappings are no longer scheduled for expiration
+		cache.put(4, "again", 5000L);
+		cache.now = 1000;
+		assertEquals("again", cache.get(4));
+		assertEquals(1, cache.size());
+	}
+
+	public void testEntrySetIteratorIsFailFast() {
+		ExpiringLRUMap<Integer,String> cache = createMapWithCapacity3Insert4Entries(100000L);
+		Iterator<Integer> it = cache.keySet().iterator();
+		it.next();
+		cache.put(5, "toto");
+		try {
+			it.next();
+			fail();
+		} catch (ConcurrentModificationException ex) {
+			// expected case
+		}
+	}
+
+	public void testWeighedMapEvictsToStayUnderBudget() {
+		ExpiringLRUMap<Integer,String> cache = ExpiringLRUMap.create(10L, 100000L,
+			new Weigher<Integer,String>() {
+				public int weigh(Integer key, String value) {
+					return value.length();
+				}
+			});
+		cache.put(1, "aaaa");
+		cache.put(2, "bbbb");
+		cache.get(1);
+		cache.put(3, "cccc");
+		assertEquals(2, cache.size());
+		assertNull(cache.get(2));
+		assertEquals("aaaa", cache.get(1));
+		assertEquals("cccc", cache.get(3));
+	}
+
+	public void testOverweightPutDoesNotExpireLaterMapping() {
+		FakeClockMap<String,String> cache = new FakeClockMap<String,String>(10L, 100000L,
+			new Weigher<String,String>() {
+				public int weigh(String key, String value) {
+					return value.length();
+				}
+			});
+		cache.put("k", "much too heavy", 50L);
+		assertEquals(0, cache.size());
+		cache.put("k", "ok", 60000L);
+		cache.now = 500;
+		assertEquals("ok", cache.get("k"));
+		assertEquals(1, cache.size());
+	}
+
+	public void testSizeAndContainsKeyDoNotInvalidateOpenIterator() {
+		FakeClockMap<Integer,String> cache = new FakeClockMap<Integer,String>(10, 1000L);
+		cache.put(1, "foo", 100L);
+		cache.put(2, "bar");
+		Iterator<Map.Entry<Integer,String>> it = cache.entrySet().iterator();
+		assertEquals(2, it.next().getKey().intValue());
+		cache.now = 200;
+		assertEquals(2, cache.size());
+		assertFalse(cache.containsKey(1));
+		assertTrue(cache.containsKey(2));
+		// the iterator skips what had expired when it was created
+		assertEquals(1, it.next().getKey().intValue());
+		assertFalse(it.hasNext());
+		// once it is exhausted, size() reclaims again
+		assertEquals(1, cache.size());
+	}
+
+	public void testGetInvalidatesOpenIterator() {
+		FakeClockMap<Integer,String> cache = new FakeClockMap<Integer,String>(10, 1000L);
+		cache.put(1, "foo");
+		cache.put(2, "bar");
+		Iterator<Integer> it = cache.keySet().iterator();
+		it.next();
+		cache.get(1);
+		try {
+			it.next();
+			fail();
+		} catch (ConcurrentModificationException ex) {
+			// expected case
+		}
+		// the invalidated iterator no longer suspends reclamation
+		cache.now = 1000;
+		assertEquals(0, cache.size());
+	}
+
+	public void testPerEntryTimeToLive() {
+		FakeClockMap<Integer,String> cache = new FakeClockMap<Integer,String>(10, 1000L);
+		cache.put(1, "foo", 10L);
+		cache.put(2, "bar");
+		cache.put(3, "baaz", 5000L);
+		cache.now = 10;
+		assertNull(cache.get(1));
+		assertEquals("bar", cache.get(2));
+		cache.now = 1000;
+		assertNull(cache.get(2));
+		assertEquals("baaz", cache.get(3));
+		cache.now = 5000;
+		assertNull(cache.get(3));
+		assertEquals(0, cache.size());
+	}
+
+	public void testExpiredEntriesAreReclaimedWithoutBeingAccessed() {
+		FakeClockMap<Integer,String> cache = new FakeClockMap<Integer,String>(10, 100L);
+		for (int i = 0; i < 10; i++) {
+			cache.put(i, "foo");
+		}
+		assertEquals(10, cache.size());
+		cache.now = 200;
+		assertEquals(0, cache.size());
+	}
+
+	public void testExpiredEntriesDoNotCauseEvictionOfLiveEntries() {
+		FakeClockMap<Integer,String> cache = new FakeClockMap<Integer,String>(3, 100000L);
+		cache.put(1, "live");
+		cache.put(2, "short", 10L);
+		cache.put(3, "short", 10L);
+		cache.now = 1000;
+		// key 1 is least recently used, but the expired keys make room
+		cache.put(4, "new");
+		cache.put(5, "new");
+		assertEquals("live", cache.get(1));
+		assertEquals(3, cache.size());
+	}
+
+	public void testRemoveAndReplaceDescheduleOldEntry() {
+		FakeClockMap<Integer,String> cache = new FakeClockMap<Integer,String>(3, 100L);
+		cache.put(1, "foo");
+		cache.put(1, "bar", 100000L);
+		cache.put(2, "baz");
+		assertEquals("baz", cache.remove(2));
+		cache.now = 1000;
+		assertEquals("bar", cache.get(1));
+		assertEquals(1, cache.size());
+	}
+
+	public void testMixedTimeToLivesAreReclaimedPromptly() {
+		final int resolution = 64;
+		FakeClockMap<Integer,String> cache = new FakeClockMap<Integer,String>(100000, 1000L);
+		Map<Integer,Long> expiresAt = new HashMap<Integer,Long>();
+		Random r = new Random(0);
+		for (int step = 0; step < 2000; step++) {
+			for (int i = 0; i < 20; i++) {
+				int key = r.nextInt(50000);
+				// time-to-lives from milliseconds to weeks
+				long ttl = (long) Math.pow(10, r.nextDouble() * 9);
+				cache.put(key, "v", ttl);
+				expiresAt.put(key, cache.now + ttl);
+			}
+			cache.now += (long) Math.pow(10, r.nextDouble() * 7);
+			int live = 0, notYetReclaimable = 0;
+			for (Long t : expiresAt.values()) {
+				if (t > cache.now) {
+					live++;
+				}
+				if (t > cache.now - resolution) {
+					notYetReclaimable++;
+				}
+			}
+			int size = cache.size();
+			assertTrue(size >= live);
+			assertTrue(size <= notYetReclaimable);
+		}
+	}
+
+	// ======================================================= helpers
+
+	/**
+	 * An ExpiringLRUMap whose clock is set by the test.
+	 */
+	private static class FakeClockMap<K,V> extends ExpiringLRUMap<K,V> {
+		long now;
+
+		FakeClockMap(int maxSize, long expireMillis) {
+			super(maxSize, expireMillis);
+		}
+
+		FakeClockMap(long maxWeight, long expireMillis, Weigher<? super K,? super V> weigher) {
+			super(maxWeight, expireMillis, weigher);
+		}
+
+		@Override
+		long currentTimeMillis() {
+			return now;
+		}
+	}
+
 	private ExpiringLRUMap<Integer, String> createMapWithCapacity3Insert4Entries(long timeout) {
 		ExpiringLRUMap<Integer,String> cache = ExpiringLRUMap.create(3, timeout);
 		cache.put(1, "foo");
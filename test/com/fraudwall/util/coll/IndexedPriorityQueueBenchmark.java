@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Random;
+
+import com.fraudwall.util.coll.IndexedPriorityQueue.Entry;
+
+/**
+ * Micro-benchmark of update-heavy {@link IndexedPriorityQueue} and
+ * {@link CompactIndexedPriorityQueue} workloads, modeled on
+ * {@link DecayVariableCollection#update}: each operation looks up a random
+ * key, and either bumps its priority or, if the key is absent, pops the root
+ * of a full queue and adds a new element.<p>
+ *
+ * Run with <code>java -server -cp ... com.fraudwall.util.coll.IndexedPriorityQueueBenchmark
+ * [maxSize [keySpace [ops]]]</code>. Each configuration is run several times
+ * and the best time is reported, after a warm-up run to let the JIT compile
+ * the code under test.
+ */
+public class IndexedPriorityQueueBenchmark {
+
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) {
+		int maxSize = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		int keySpace = (args.length > 1) ? Integer.parseInt(args[1]) : 2 * maxSize;
+		int ops = (args.length > 2) ? Integer.parseInt(args[2]) : 10000000;
+
+		long[] keys = new long[ops];
+		Random r = new Random(0);
+		for (int i = 0; i < ops; i++) {
+			// skew the key distribution so some keys are hot
+			keys[i] = (long) (keySpace * Math.pow(r.nextDouble(), 2.0));
+		}
+
+		run(maxSize, keys); // warm-up
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			best = Math.min(best, run(maxSize, keys));
+		}
+		System.out.printf("IndexedPriorityQueue maxSize=%d keySpace=%d ops=%d: %.1f ns/op%n",
+			maxSize, keySpace, ops, (double) best / ops);
+
+		runCompact(maxSize, keys); // warm-up
+		best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			best = Math.min(best, runCompact(maxSize, keys));
+		}
+		System.out.printf("CompactIndexedPriorityQueue maxSize=%d keySpace=%d ops=%d: %.1f ns/op%n",
+			maxSize, keySpace, ops, (double) best / ops);
+	}
+
+	private static long runCompact(int maxSize, long[] keys) {
+		CompactIndexedPriorityQueue<Object> pq = CompactIndexedPriorityQueue.create(maxSize);
+		long start = System.nanoTime();
+		for (int i = 0; i < keys.length; i++) {
+			long key = keys[i];
+			long priority = pq.getPriority(key, Long.MIN_VALUE);
+			if (priority != Long.MIN_VALUE) {
+				pq.setPriority(key, priority + 1000);
+			} else {
+				if (pq.isFull()) {
+					pq.pop();
+				}
+				pq.add(key, null, i);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long run(int maxSize, long[] keys) {
+		IndexedPriorityQueue<Object> pq = IndexedPriorityQueue.create(maxSize);
+		long start = System.nanoTime();
+		for (int i = 0; i < keys.length; i++) {
+			long key = keys[i];
+			Entry<Object> e = pq.get(key);
+			if (e != null) {
+				e.setPriority(e.getPriority() + 1000);
+				pq.priorityHasChanged(e);
+			} else {
+				if (pq.isFull()) {
+					pq.pop();
+				}
+				pq.add(Entry.create(key, null, i));
+			}
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -37,6 +37,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Set;
 
 import junit.framework.TestCase;
@@ -216,6 +217,27 @@ public class IndexedPriorityQueueTest extends TestCase {
 		}
 	}
 
+	public void testGetFindsEveryKeyAfterRandomPopsAndAdds() {
+		// exercise deletions from the index with keys that collide heavily
+		final int SIZE = 1000;
+		IndexedPriorityQueue<String> pq = IndexedPriorityQueue.create(SIZE);
+		Set<Long> keys = new HashSet<Long>();
+		Random r = new Random(0);
+		for (int i = 0; i < 20 * SIZE; i++) {
+			if (pq.isFull() || (!pq.isEmpty() && r.nextInt(3) == 0)) {
+				assertTrue(keys.remove(pq.pop().getKey()));
+			}
+			long key = r.nextInt(4 * SIZE) << 20;
+			if (keys.add(key)) {
+				pq.add(Entry.create(key, "foo", r.nextInt()));
+			}
+			assertEquals(keys.size(), pq.size());
+		}
+		for (long key : keys) {
+			assertEquals(key, pq.get(key).getKey());
+		}
+	}
+
 	// ============================================================ add
 
 	public void testAddAddsEntry() {
@@ -259,6 +281,71 @@ public class IndexedPriorityQueueTest extends TestCase {
 		assertTrue(pq.add(Entry.create(5, "foo")));
 	}
 
+	// ============================================================ addAll
+
+	public void testAddAllIntoEmptyQueuePopsInPriorityOrder() {
+		final int size = 1000;
+		List<Entry<String>> entries = new ArrayList<Entry<String>>(size);
+		for (long priority : permuteLongs(size)) {
+			entries.add(Entry.create(priority, Long.toString(priority), priority));
+		}
+		IndexedPriorityQueue<String> pq = IndexedPriorityQueue.create(size);
+		assertTrue(pq.addAll(entries));
+		assertEquals(size, pq.size());
+		for (long key = 0; key < size; key++) {
+			assertEquals(Long.toString(key), pq.get(key).getValue());
+		}
+		for (long priority = 0; priority < size; priority++) {
+			assertEquals(priority, pq.pop().getPriority());
+		}
+	}
+
+	public void testAddAllIntoPopulatedQueueKeepsHeapOrder() {
+		IndexedPriorityQueue<String> pq = makePopulatedPQ();
+		List<Entry<String>> entries = new ArrayList<Entry<String>>();
+		entries.add(Entry.create(5, "a", 4));
+		entries.add(Entry.create(6, "b", 1));
+		assertTrue(pq.addAll(entries));
+		assertEquals(6, pq.size());
+		long last = Long.MIN_VALUE;
+		while (!pq.isEmpty()) {
+			Entry<String> e = pq.pop();
+			assertTrue(e.getPriority() >= last);
+			last = e.getPriority();
+		}
+	}
+
+	public void testAddAllLeavesQueueUnchangedOnDuplicateKey() {
+		IndexedPriorityQueue<String> pq = makePopulatedPQ();
+		List<Entry<String>> entries = new ArrayList<Entry<String>>();
+		entries.add(Entry.create(5, "a", 4));
+		entries.add(Entry.create(1, "b", 1));
+		try {
+			pq.addAll(entries);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+		assertEquals(4, pq.size());
+		assertNull(pq.get(5));
+		assertEquals("foo", pq.get(1).getValue());
+		pq.add(Entry.create(5, "a", 4));
+	}
+
+	public void testAddAllThrowsArrayIndexOutOfBoundsExceptionIfSizeLimitIsHit() {
+		IndexedPriorityQueue<String> pq = IndexedPriorityQueue.create(1);
+		List<Entry<String>> entries = new ArrayList<Entry<String>>();
+		entries.add(Entry.create(1, "a"));
+		entries.add(Entry.create(2, "b"));
+		try {
+			pq.addAll(entries);
+			fail();
+		} catch (ArrayIndexOutOfBoundsException ex) {
+			// expected case
+		}
+		assertEquals(0, pq.size());
+	}
+
 	// ============================================================ clear
 
 	public void testClearRemovesAllEntriesFromQueue() {
@@ -270,6 +357,14 @@ public class IndexedPriorityQueueTest extends TestCase {
 		assertNull(pq.get(1));
 	}
 
+	public void testClearAllowsEntriesToBeReadded() {
+		IndexedPriorityQueue<String> pq = makePopulatedPQ();
+		pq.clear();
+		pq.add(Entry.create(1, "foo", 6));
+		assertEquals("foo", pq.get(1).getValue());
+		assertEquals(1, pq.size());
+	}
+
 	// ============================================================ contains
 
 	public void testContainsReturnsFalseForEmptyQueue() {
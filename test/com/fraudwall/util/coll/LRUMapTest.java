@@ -35,8 +35,11 @@ package com.fraudwall.util.coll;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.fraudwall.util.AbstractAnchorTest;
 import com.fraudwall.util.coll.LRUMap;
@@ -305,6 +308,165 @@ public class LRUMapTest extends AbstractAnchorTest {
 		}
 	}
 
+	public void testEntrySetIteratesMostRecentlyUsedFirst() {
+		LRUMap<Integer,String> cache = makeCacheWithFiveEntries(5);
+		cache.get(2);
+		List<Integer> keys = new ArrayList<Integer>();
+		for (Map.Entry<Integer,String> entry : cache.entrySet()) {
+			keys.add(entry.getKey());
+		}
+		assertListEquals(new Integer[] { 2, 5, 4, 3, 1 }, keys);
+		// iterating does not change the recency order
+		cache.put(6, "six");
+		assertFalse(cache.containsKey(1));
+		assertTrue(cache.containsKey(2));
+	}
+
+	public void testEntrySetIsLiveView() {
+		LRUMap<Integer,String> cache = makeCacheWithFiveEntries(10);
+		Set<Map.Entry<Integer,String>> entries = cache.entrySet();
+		Set<Integer> keys = cache.keySet();
+		assertEquals(5, entries.size());
+		cache.put(6, "six");
+		assertEquals(6, entries.size());
+		assertTrue(entries.contains(new LRUMap.SimpleImmutableEntry<Integer,String>(6, "six")));
+		assertFalse(entries.contains(new LRUMap.SimpleImmutableEntry<Integer,String>(6, "seven")));
+		assertTrue(keys.remove(6));
+		assertFalse(cache.containsKey(6));
+		assertTrue(entries.remove(new LRUMap.SimpleImmutableEntry<Integer,String>(1, "foo")));
+		assertEquals(4, cache.size());
+		assertEquals(4, keys.size());
+		assertTrue(cache.values().contains("bar"));
+		entries.clear();
+		assertTrue(cache.isEmpty());
+	}
+
+	public void testEntrySetIteratorRemove() {
+		LRUMap<Integer,String> cache = makeCacheWithFiveEntries(5);
+		for (Iterator<Map.Entry<Integer,String>> it = cache.entrySet().iterator(); it.hasNext(); ) {
+			if (it.next().getKey() % 2 == 0) {
+				it.remove();
+			}
+		}
+		assertEquals(3, cache.size());
+		assertNull(cache.get(2));
+		assertNull(cache.get(4));
+		Iterator<Integer> it = cache.keySet().iterator();
+		try {
+			it.remove();
+			fail();
+		} catch (IllegalStateException ex) {
+			// expected case
+		}
+		it.next();
+		it.remove();
+		try {
+			it.remove();
+			fail();
+		} catch (IllegalStateException ex) {
+			// expected case
+		}
+		assertEquals(2, cache.size());
+	}
+
+	// --------------------------------- weighed caches
+
+	private static final Weigher<Integer,String> LENGTH = new Weigher<Integer,String>() {
+		public int weigh(Integer key, String value) {
+			return value.length();
+		}
+	};
+
+	public void testWeighedCacheEvictsToStayUnderBudget() {
+		LRUMap<Integer,String> cache = LRUMap.create(10L, LENGTH);
+		assertEquals(10L, cache.maxWeight());
+		cache.put(1, "aaaa");
+		cache.put(2, "bbbb");
+		assertEquals(8L, cache.getWeight());
+		cache.get(1);
+		cache.put(3, "cc");
+		assertEquals(10L, cache.getWeight());
+		assertEquals(3, cache.size());
+		cache.put(4, "d");
+		// 2 is the least recently used
+		assertFalse(cache.containsKey(2));
+		assertEquals(7L, cache.getWeight());
+		cache.put(5, "eeeeeeee");
+		assertEquals(2, cache.size());
+		assertEquals(9L, cache.getWeight());
+		assertEquals("d", cache.get(4));
+	}
+
+	public void testWeighedCacheReweighsUpdatedValues() {
+		LRUMap<Integer,String> cache = LRUMap.create(10L, LENGTH);
+		cache.put(1, "a");
+		cache.put(2, "b");
+		assertEquals("a", cache.put(1, "aaaaaaaaa"));
+		assertEquals(10L, cache.getWeight());
+		assertEquals("b", cache.put(2, "bb"));
+		// 1 is now the least recently used
+		assertEquals(2L, cache.getWeight());
+		assertFalse(cache.containsKey(1));
+		assertEquals("bb", cache.remove(2));
+		assertEquals(0L, cache.getWeight());
+	}
+
+	public void testWeighedCacheEvictsValueHeavierThanBudget() {
+		LRUMap<Integer,String> cache = LRUMap.create(3L, LENGTH);
+		cache.put(1, "a");
+		cache.put(2, "bbbb");
+		assertTrue(cache.isEmpty());
+		assertEquals(0L, cache.getWeight());
+		cache.put(3, "ccc");
+		cache.clear();
+		assertEquals(0L, cache.getWeight());
+	}
+
+	public void testWeighedCacheRejectsNegativeWeights() {
+		LRUMap<Integer,String> cache = LRUMap.create(10L, new Weigher<Integer,String>() {
+			public int weigh(Integer key, String value) {
+				return key;
+			}
+		});
+		cache.put(1, "a");
+		try {
+			cache.put(-1, "b");
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+		assertEquals(1, cache.size());
+		assertEquals(1L, cache.getWeight());
+	}
+
+	public void testCountBoundedCacheHasNoWeight() {
+		LRUMap<Integer,String> cache = makeCacheWithFiveEntries(5);
+		assertEquals(Long.MAX_VALUE, cache.maxWeight());
+		assertEquals(0L, cache.getWeight());
+	}
+
+	public void testEntrySetIteratorIsFailFast() {
+		LRUMap<Integer,String> cache = makeCacheWithFiveEntries(5);
+		Iterator<Map.Entry<Integer,String>> it = cache.entrySet().iterator();
+		it.next();
+		cache.get(3);
+		try {
+			it.next();
+			fail();
+		} catch (ConcurrentModificationException ex) {
+			// expected case
+		}
+		it = cache.entrySet().iterator();
+		it.next();
+		cache.put(6, "six");
+		try {
+			it.next();
+			fail();
+		} catch (ConcurrentModificationException ex) {
+			// expected case
+		}
+	}
+
 
 	// --------------------------------- load test
 
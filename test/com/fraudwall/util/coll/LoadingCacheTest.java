@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link LoadingCache} implementation.
+ */
+public class LoadingCacheTest extends TestCase {
+
+	/** Loads "key#n", where n counts the loads of all keys. */
+	private static class CountingLoader extends LoadingCache.Loader<String,String> {
+		final AtomicInteger loads = new AtomicInteger();
+
+		@Override
+		public String load(String key) throws Exception {
+			return key + "#" + loads.incrementAndGet();
+		}
+	}
+
+	/** Collects tasks instead of running them. */
+	private static class ManualExecutor implements Executor {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		public void execute(Runnable task) {
+			tasks.add(task);
+		}
+
+		void runAll() {
+			List<Runnable> copy = new ArrayList<Runnable>(tasks);
+			tasks.clear();
+			for (Runnable task : copy) {
+				task.run();
+			}
+		}
+	}
+
+	public void testCreateRejectsBadArguments() {
+		try {
+			LoadingCache.create(0, 1000L, new CountingLoader());
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+		try {
+			LoadingCache.create(10, 1000L, null);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+		try {
+			LoadingCache.create(10, 1000L, 100L, null, new CountingLoader());
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testGetLoadsOnceAndCaches() throws Exception {
+		CountingLoader loader = new CountingLoader();
+		LoadingCache<String,String> cache = LoadingCache.create(10, 100000L, loader);
+		assertNull(cache.getIfPresent("a"));
+		assertEquals("a#1", cache.get("a"));
+		assertEquals("a#1", cache.get("a"));
+		assertEquals("a#1", cache.getIfPresent("a"));
+		assertEquals("b#2", cache.get("b"));
+		assertEquals(2, cache.size());
+		cache.invalidate("a");
+		assertEquals("a#3", cache.get("a"));
+		cache.put("c", "cc");
+		assertEquals("cc", cache.get("c"));
+		cache.invalidateAll();
+		assertEquals(0, cache.size());
+		assertEquals(3, loader.loads.get());
+	}
+
+	public void testLoaderTimeToLive() throws Exception {
+		CountingLoader loader = new CountingLoader() {
+			@Override
+			public long timeToLive(String key, String value, long defaultTtlMillis) {
+				return key.equals("short") ? 0L : defaultTtlMillis;
+			}
+		};
+		LoadingCache<String,String> cache = LoadingCache.create(10, 100000L, loader);
+		assertEquals("short#1", cache.get("short"));
+		assertEquals("short#2", cache.get("short"));
+		assertEquals("long#3", cache.get("long"));
+		assertEquals("long#3", cache.get("long"));
+	}
+
+	public void testFailedLoadsAreThrownAndNotCached() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		LoadingCache<String,String> cache = LoadingCache.create(10, 100000L,
+			new LoadingCache.Loader<String,String>() {
+				@Override
+				public String load(String key) throws Exception {
+					int n = calls.incrementAndGet();
+					if (key.equals("io")) {
+						throw new IOException("boom");
+					} else if (key.equals("npe")) {
+						return null;
+					} else if (n == 3) {
+						throw new IllegalStateException("unchecked");
+					}
+					return key;
+				}
+			});
+		try {
+			cache.get("io");
+			fail();
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof IOException);
+		}
+		try {
+			cache.get("npe");
+			fail();
+		} catch (NullPointerException ex) {
+			// expected case
+		}
+		try {
+			cache.get("x");
+			fail();
+		} catch (IllegalStateException ex) {
+			// expected case
+		}
+		assertEquals("x", cache.get("x"));
+		assertEquals(1, cache.size());
+	}
+
+	public void testConcurrentMissesShareOneLoad() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		final LoadingCache<String,String> cache = LoadingCache.create(10, 100000L,
+			new LoadingCache.Loader<String,String>() {
+				@Override
+				public String load(String key) throws Exception {
+					loads.incrementAndGet();
+					started.countDown();
+					release.await();
+					return key.toUpperCase();
+				}
+			});
+		final int numThreads = 8;
+		final String[] results = new String[numThreads];
+		Thread[] threads = new Thread[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			final int id = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						results[id] = cache.get("hot");
+					} catch (ExecutionException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		started.await();
+		// give the other threads time to miss and join the load
+		Thread.sleep(50L);
+		release.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(1, loads.get());
+		for (String result : results) {
+			assertEquals("HOT", result);
+		}
+	}
+
+	public void testRefreshAheadServesOldValueUntilReloaded() throws Exception {
+		CountingLoader loader = new CountingLoader();
+		ManualExecutor executor = new ManualExecutor();
+		LoadingCache<String,String> cache = LoadingCache.create(10, 100000L, 0L, executor, loader);
+		assertEquals("a#1", cache.get("a"));
+		assertTrue(executor.tasks.isEmpty());
+		assertEquals("a#1", cache.get("a"));
+		assertEquals("a#1", cache.get("a"));
+		// only one refresh is scheduled at a time
+		assertEquals(1, executor.tasks.size());
+		executor.runAll();
+		assertEquals("a#2", cache.getIfPresent("a"));
+		assertEquals(2, loader.loads.get());
+	}
+
+	public void testFailedRefreshKeepsOldValue() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		ManualExecutor executor = new ManualExecutor();
+		LoadingCache<String,String> cache = LoadingCache.create(10, 100000L, 0L, executor,
+			new LoadingCache.Loader<String,String>() {
+				@Override
+				public String load(String key) throws Exception {
+					if (calls.incrementAndGet() == 2) {
+						throw new IOException("refresh failed");
+					}
+					return key + calls.get();
+				}
+			});
+		CacheStats stats = CacheStats.create("refresh");
+		cache.setStats(stats);
+		assertEquals("a1", cache.get("a"));
+		assertEquals("a1", cache.get("a"));
+		executor.runAll();
+		assertEquals("a1", cache.get("a"));
+		executor.runAll();
+		assertEquals("a3", cache.get("a"));
+		assertEquals(2L, stats.getLoadSuccessCount().longValue());
+		assertEquals(1L, stats.getLoadFailureCount().longValue());
+		assertEquals(1L, stats.getMissCount().longValue());
+		assertEquals(3L, stats.getHitCount().longValue());
+	}
+
+	public void testRefreshIsSubmittedWithoutHoldingLock() throws Exception {
+		final AtomicReference<LoadingCache<String,String>> ref =
+			new AtomicReference<LoadingCache<String,String>>();
+		final AtomicReference<String> seen = new AtomicReference<String>();
+		// an executor that hands the task to another thread and waits for it,
+		// which deadlocks if the cache's lock is held while submitting
+		Executor handOff = new Executor() {
+			public void execute(final Runnable task) {
+				Thread t = new Thread() {
+					@Override
+					public void run() {
+						seen.set(ref.get().getIfPresent("a"));
+						task.run();
+					}
+				};
+				t.start();
+				try {
+					t.join(10000L);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				assertFalse(t.isAlive());
+			}
+		};
+		LoadingCache<String,String> cache =
+			LoadingCache.create(10, 100000L, 0L, handOff, new CountingLoader());
+		ref.set(cache);
+		assertEquals("a#1", cache.get("a"));
+		assertEquals("a#1", cache.get("a"));
+		assertEquals("a#1", seen.get());
+		assertEquals("a#2", cache.getIfPresent("a"));
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Random;
+
+import com.fraudwall.util.AbstractAnchorTest;
+
+/**
+ * Tests the {@link LongLRUMap} implementation.
+ */
+public class LongLRUMapTest extends AbstractAnchorTest {
+
+	// --------------------------------- get
+
+	public void testGetReturnsNullIfKeyNotInMap() {
+		LongLRUMap<String> cache = LongLRUMap.create(3);
+		assertNull(cache.get(0L));
+	}
+
+	public void testGetReturnsValueToWhichKeyIsMapped() {
+		LongLRUMap<String> cache = LongLRUMap.create(3);
+		cache.put(1L, "foo");
+		cache.put(-1L, "bar");
+		cache.put(Long.MIN_VALUE, "baz");
+		assertEquals("foo", cache.get(1L));
+		assertEquals("bar", cache.get(-1L));
+		assertEquals("baz", cache.get(Long.MIN_VALUE));
+	}
+
+	public void testGetCausesElementToBeProtectedFromEviction() {
+		LongLRUMap<String> cache = LongLRUMap.create(3);
+		cache.put(1L, "foo");
+		cache.put(2L, "bar");
+		cache.put(3L, "baz");
+		cache.get(1L);
+		cache.put(4L, "bam");
+		assertTrue(cache.containsKey(1L));
+		assertFalse(cache.containsKey(2L));
+	}
+
+	public void testContainsKeyDoesNotCauseElementToBeProtectedFromEviction() {
+		LongLRUMap<String> cache = LongLRUMap.create(3);
+		cache.put(1L, "foo");
+		cache.put(2L, "bar");
+		cache.put(3L, "baz");
+		assertTrue(cache.containsKey(1L));
+		cache.put(4L, "bam");
+		assertFalse(cache.containsKey(1L));
+		assertTrue(cache.containsKey(2L));
+	}
+
+	// --------------------------------- put
+
+	public void testPutReturnsCorrectResult() {
+		LongLRUMap<String> cache = LongLRUMap.create(3);
+		assertNull(cache.put(1L, "foo"));
+		assertNull(cache.put(2L, "bar"));
+		assertEquals("foo", cache.put(1L, "baz"));
+		assertEquals("baz", cache.get(1L));
+	}
+
+	public void testPutOfExistingElementDoesChangeItsOrder() {
+		LongLRUMap<String> cache = LongLRUMap.create(3);
+		cache.put(1L, "foo");
+		cache.put(2L, "bar");
+		cache.put(3L, "baz");
+		cache.put(1L, "foo");
+		cache.put(4L, "bam");
+		assertTrue(cache.containsKey(1L));
+		assertFalse(cache.containsKey(2L));
+	}
+
+	public void testPutIntoCacheOfSizeOne() {
+		LongLRUMap<String> cache = LongLRUMap.create(1);
+		cache.put(1L, "foo");
+		cache.put(2L, "bar");
+		assertEquals(1, cache.size());
+		assertFalse(cache.containsKey(1L));
+		assertEquals("bar", cache.get(2L));
+	}
+
+	// --------------------------------- remove & clear
+
+	public void testRemoveReturnsCorrectResult() {
+		LongLRUMap<String> cache = LongLRUMap.create(3);
+		cache.put(1L, "foo");
+		cache.put(2L, "bar");
+		assertEquals("foo", cache.remove(1L));
+		assertNull(cache.remove(1L));
+		assertNull(cache.remove(3L));
+		assertEquals("bar", cache.remove(2L));
+		assertTrue(cache.isEmpty());
+	}
+
+	public void testRemoveMakesRoomForAdditionalElement() {
+		LongLRUMap<String> cache = LongLRUMap.create(3);
+		cache.put(1L, "foo");
+		cache.put(2L, "bar");
+		cache.put(3L, "baz");
+		cache.remove(1L);
+		cache.put(4L, "bam");
+		assertTrue(cache.containsKey(2L));
+		assertTrue(cache.containsKey(3L));
+		assertTrue(cache.containsKey(4L));
+	}
+
+	public void testClearRemovesAllElementsFromCache() {
+		LongLRUMap<String> cache = LongLRUMap.create(3);
+		cache.put(1L, "foo");
+		cache.put(2L, "bar");
+		cache.put(3L, "baz");
+		cache.clear();
+		cache.put(4L, "bam");
+		assertFalse(cache.containsKey(1L));
+		assertFalse(cache.containsKey(2L));
+		assertFalse(cache.containsKey(3L));
+		assertTrue(cache.containsKey(4L));
+		assertEquals(1, cache.size());
+	}
+
+	// --------------------------------- load test
+
+	public void testBehavesLikeLRUMapUnderRandomLoad() {
+		final int maxSize = 500;
+		LongLRUMap<String> cache = LongLRUMap.create(maxSize);
+		LRUMap<Long,String> expected = LRUMap.create(maxSize);
+		Random r = new Random(0);
+		for (int i = 0; i < 200000; i++) {
+			// use sequential-ish keys to stress clustering in the hash table
+			long key = r.nextInt(2000) * 256L;
+			switch (r.nextInt(4)) {
+			case 0:
+				assertEquals(expected.put(key, "v" + i), cache.put(key, "v" + i));
+				break;
+			case 1:
+				assertEquals(expected.remove(key), cache.remove(key));
+				break;
+			default:
+				assertEquals(expected.get(key), cache.get(key));
+				break;
+			}
+			assertEquals(expected.size(), cache.size());
+		}
+	}
+}
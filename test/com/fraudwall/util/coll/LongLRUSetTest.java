@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Random;
+
+import com.fraudwall.util.AbstractAnchorTest;
+
+/**
+ * Tests the {@link LongLRUSet} implementation.
+ */
+public class LongLRUSetTest extends AbstractAnchorTest {
+
+	public void testContainsReturnsFalseForElementNotInCache() {
+		LongLRUSet cache = LongLRUSet.create(3);
+		assertFalse(cache.contains(0L));
+		cache.add(1L);
+		assertFalse(cache.contains(0L));
+	}
+
+	public void testContainsCausesElementToBeProtectedFromEviction() {
+		LongLRUSet cache = LongLRUSet.create(3);
+		cache.add(1L);
+		cache.add(2L);
+		cache.add(3L);
+		assertTrue(cache.contains(1L));
+		cache.add(4L);
+		assertTrue(cache.contains(1L));
+		assertFalse(cache.contains(2L));
+	}
+
+	public void testAddReturnsCorrectResult() {
+		LongLRUSet cache = LongLRUSet.create(3);
+		assertTrue(cache.add(1L));
+		assertTrue(cache.add(2L));
+		assertFalse(cache.add(1L));
+	}
+
+	public void testAddOfExistingElementDoesNotChangeItsOrder() {
+		LongLRUSet cache = LongLRUSet.create(3);
+		cache.add(1L);
+		cache.add(2L);
+		cache.add(3L);
+		cache.add(1L);
+		cache.add(4L);
+		assertFalse(cache.contains(1L));
+		assertTrue(cache.contains(2L));
+	}
+
+	public void testRemoveReturnsCorrectResult() {
+		LongLRUSet cache = LongLRUSet.create(3);
+		cache.add(1L);
+		assertTrue(cache.remove(1L));
+		assertFalse(cache.remove(1L));
+		assertEquals(0, cache.size());
+	}
+
+	public void testClearRemovesAllElementsFromCache() {
+		LongLRUSet cache = LongLRUSet.create(3);
+		cache.add(1L);
+		cache.add(2L);
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertFalse(cache.contains(1L));
+	}
+
+	public void testBehavesLikeLRUSetUnderRandomLoad() {
+		final int maxSize = 300;
+		LongLRUSet cache = LongLRUSet.create(maxSize);
+		LRUSet<Long> expected = LRUSet.create(maxSize);
+		Random r = new Random(1);
+		for (int i = 0; i < 200000; i++) {
+			long key = r.nextLong() % 1000;
+			switch (r.nextInt(3)) {
+			case 0:
+				assertEquals(expected.add(key), cache.add(key));
+				break;
+			case 1:
+				assertEquals(expected.remove(key), cache.remove(key));
+				break;
+			default:
+				assertEquals(expected.contains(key), cache.contains(key));
+				break;
+			}
+			assertEquals(expected.size(), cache.size());
+		}
+	}
+}
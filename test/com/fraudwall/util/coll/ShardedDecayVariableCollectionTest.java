@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link ShardedDecayVariableCollection} implementation.
+ */
+public class ShardedDecayVariableCollectionTest extends TestCase {
+
+	public void testSingleShardMatchesDecayVariableCollection() {
+		DecayVariableCollection<String> expected =
+			new DecayVariableCollection<String>("test", 7, 8.0, 0.25, 20);
+		ShardedDecayVariableCollection<String> d =
+			new ShardedDecayVariableCollection<String>("test", 1, 7, 8.0, 0.25, 20);
+		Random r = new Random(0);
+		long time = 100;
+		for (int i = 0; i < 10000; i++) {
+			long key = r.nextInt(10);
+			assertEquals(expected.update(key, time).getPriority(), d.update(key, time));
+			time += 2;
+		}
+		assertEquals(expected.getPQ().size(), d.size());
+	}
+
+	public void testShardingPreservesKillTimesOfLiveKeys() {
+		// no key overflows the collection or outlives its kill time
+		DecayVariableCollection<String> expected =
+			new DecayVariableCollection<String>("test", 1000, 2.0, 0.25, 100000);
+		ShardedDecayVariableCollection<String> d =
+			new ShardedDecayVariableCollection<String>("test", 8, 1000, 2.0, 0.25, 100000);
+		Random r = new Random(1);
+		long time = 100;
+		for (int i = 0; i < 10000; i++) {
+			long key = r.nextInt(50);
+			assertEquals(expected.update(key, time).getPriority(), d.update(key, time));
+			time += r.nextInt(5);
+		}
+		for (long key = 0; key < 50; key++) {
+			assertEquals(expected.toStringKillTime(key), Long.toString(d.getKillTime(key)));
+		}
+	}
+
+	public void testGetKillTimeReturnsZeroForMissingKey() {
+		ShardedDecayVariableCollection<String> d =
+			new ShardedDecayVariableCollection<String>("test", 4, 10, 2.0, 0.25, 50);
+		assertEquals(0L, d.getKillTime(42));
+	}
+
+	public void testSizeNeverExceedsMaxSize() {
+		ShardedDecayVariableCollection<String> d =
+			new ShardedDecayVariableCollection<String>("test", 4, 10, 2.0, 0.25, 1000000);
+		for (int key = 0; key < 1000; key++) {
+			d.update(key, 100);
+			assertTrue(d.size() <= 10);
+		}
+		assertEquals(10, d.size());
+	}
+
+	public void testSnapshotRestoresIntoDifferentShardCount() {
+		ShardedDecayVariableCollection<String> d =
+			new ShardedDecayVariableCollection<String>("test", 8, 1000, 2.0, 0.25, 100000);
+		Random r = new Random(2);
+		long time = 100;
+		for (int i = 0; i < 5000; i++) {
+			d.update(r.nextInt(500), time);
+			time += r.nextInt(5);
+		}
+		ShardedDecayVariableCollection<String> d2 =
+			new ShardedDecayVariableCollection<String>("test", 3, 1000, 2.0, 0.25, 100000);
+		assertEquals(d.size(), d2.restore(d.snapshot(), time));
+		assertEquals(d.size(), d2.size());
+		for (long key = 0; key < 500; key++) {
+			assertEquals(d.getKillTime(key), d2.getKillTime(key));
+		}
+	}
+
+	public void testUsesAtMostMaxSizeShards() {
+		ShardedDecayVariableCollection<String> d =
+			new ShardedDecayVariableCollection<String>("test", 16, 3, 2.0, 0.25, 50);
+		assertEquals(3, d.getNumShards());
+	}
+
+	public void testUpdateAllMatchesRepeatedUpdates() {
+		ShardedDecayVariableCollection<String> batched =
+			new ShardedDecayVariableCollection<String>("test", 8, 1000, 2.0, 0.25, 100000);
+		ShardedDecayVariableCollection<String> single =
+			new ShardedDecayVariableCollection<String>("test", 8, 1000, 2.0, 0.25, 100000);
+		Random r = new Random(11);
+		long[] keys = new long[5000];
+		long[] times = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = r.nextInt(300);
+			times[i] = 1000 + i;
+			single.update(keys[i], times[i]);
+		}
+		assertEquals(300, batched.updateAll(keys, times, keys.length));
+		assertEquals(single.size(), batched.size());
+		for (long key = 0; key < 300; key++) {
+			assertTrue(Math.abs(single.getKillTime(key) - batched.getKillTime(key)) <= 100);
+		}
+	}
+
+	public void testGetEnergyAndHottestMatchUnshardedCollection() {
+		ShardedDecayVariableCollection<String> sharded =
+			new ShardedDecayVariableCollection<String>("test", 8, 1000, 2.0, 0.25, 100000);
+		DecayVariableCollection<String> single =
+			new DecayVariableCollection<String>("test", 1000, 2.0, 0.25, 100000);
+		Random r = new Random(13);
+		for (int i = 0; i < 5000; i++) {
+			long key = r.nextInt(300);
+			sharded.update(key, 1000 + i);
+			single.update(key, 1000 + i);
+		}
+		for (long key = 0; key < 300; key++) {
+			assertEquals(single.getEnergy(key, 7000), sharded.getEnergy(key, 7000), 1e-9);
+		}
+		Iterator<IndexedPriorityQueue.Entry<String>> expected = single.hottest(20);
+		Iterator<IndexedPriorityQueue.Entry<String>> actual = sharded.hottest(20);
+		for (int i = 0; i < 20; i++) {
+			IndexedPriorityQueue.Entry<String> e = expected.next();
+			IndexedPriorityQueue.Entry<String> a = actual.next();
+			assertEquals(e.getKey(), a.getKey());
+			assertEquals(e.getPriority(), a.getPriority());
+		}
+		assertFalse(actual.hasNext());
+	}
+
+	public void testConcurrentUpdates() throws Exception {
+		final ShardedDecayVariableCollection<String> d =
+			new ShardedDecayVariableCollection<String>("test", 8, 5000, 2.0, 0.25, 1000);
+		final int threads = 4;
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		for (int t = 0; t < threads; t++) {
+			final long seed = t;
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						Random r = new Random(seed);
+						for (int i = 0; i < 50000; i++) {
+							long key = r.nextInt(10000);
+							long killTime = d.update(key, 1000 + i);
+							assertTrue(killTime >= 1000 + i);
+						}
+					} catch (Throwable ex) {
+						failure.compareAndSet(null, ex);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		assertTrue(d.size() <= 5000);
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link SlidingBloomFilter} implementation.
+ */
+public class SlidingBloomFilterTest extends TestCase {
+
+	public void testCreateRejectsIntervalThatDoesNotDivideWindow() {
+		try {
+			SlidingBloomFilter.create(20, 3, 1000, 0.01);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testCreateSizesFilter() {
+		SlidingBloomFilter f = SlidingBloomFilter.create(20, 10, 1000000, 0.01);
+		// 9585059 bits, rounded up to a multiple of 64
+		assertEquals(9585088, f.getNumBits());
+		assertEquals(7, f.getNumHashes());
+	}
+
+	public void testAddReportsDuplicatesWithinWindow() {
+		SlidingBloomFilter f = SlidingBloomFilter.create(20, 10, 1000, 0.001);
+		assertTrue(f.add(42, 0));
+		assertFalse(f.add(42, 5));
+		assertTrue(f.add(43, 5));
+		assertTrue(f.mightContain(42, 25));
+		assertFalse(f.mightContain(44, 25));
+	}
+
+	public void testKeysSlideOutOfWindow() {
+		SlidingBloomFilter f = SlidingBloomFilter.create(20, 10, 1000, 0.001);
+		f.add(1, 0);
+		f.add(2, 15);
+		// the interval [0, 10) still overlaps the window at time 29...
+		assertTrue(f.mightContain(1, 29));
+		// ...but not at time 30
+		assertFalse(f.mightContain(1, 30));
+		assertTrue(f.mightContain(2, 30));
+		assertTrue(f.add(1, 30));
+		// a gap longer than the window forgets everything
+		assertFalse(f.mightContain(1, 1000));
+		assertFalse(f.mightContain(2, 1000));
+	}
+
+	public void testNoFalseNegativesAndFalsePositiveRateNearTarget() {
+		final int n = 100000;
+		final double fpp = 0.01;
+		SlidingBloomFilter f = SlidingBloomFilter.create(60000, 10000, n, fpp);
+		Random r = new Random(0);
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = r.nextLong();
+			// spread the keys over the window
+			f.add(keys[i], i * 50000L / n);
+		}
+		for (int i = 0; i < n; i++) {
+			assertTrue(f.mightContain(keys[i], 50000));
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < n; i++) {
+			if (f.mightContain(r.nextLong(), 50000)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("false positives: " + falsePositives, falsePositives < 2 * fpp * n);
+	}
+
+	public void testSequentialKeysAreSpread() {
+		// IP numbers are sequential; they must not collide more than random keys
+		SlidingBloomFilter f = SlidingBloomFilter.create(20, 10, 10000, 0.01);
+		for (long ip = 0; ip < 10000; ip++) {
+			f.add(ip, 0);
+		}
+		int falsePositives = 0;
+		for (long ip = 10000; ip < 20000; ip++) {
+			if (f.mightContain(ip, 0)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("false positives: " + falsePositives, falsePositives < 200);
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link SlidingCountMinSketch} implementation.
+ */
+public class SlidingCountMinSketchTest extends TestCase {
+
+	public void testCreateRejectsIntervalThatDoesNotDivideWindow() {
+		try {
+			SlidingCountMinSketch.create(20, 3, 64, 4);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testCreateRoundsWidthUpToPowerOfTwo() {
+		SlidingCountMinSketch<Long> cms = SlidingCountMinSketch.create(20, 10, 100, 4);
+		assertEquals(128, cms.getWidth());
+		assertEquals(4, cms.getDepth());
+	}
+
+	public void testCreateWithErrorSizesSketch() {
+		SlidingCountMinSketch<Long> cms = SlidingCountMinSketch.createWithError(20, 10, 0.001, 0.01);
+		assertEquals(4096, cms.getWidth()); // e / 0.001 = 2719, rounded up
+		assertEquals(5, cms.getDepth()); // ln(100) = 4.6
+	}
+
+	public void testCountsAreExactForFewKeys() {
+		SlidingCountMinSketch<String> cms = SlidingCountMinSketch.create(20, 10, 1024, 4);
+		assertEquals(1, cms.add("a", 0));
+		assertEquals(2, cms.add("a", 1));
+		assertEquals(1, cms.add("b", 2));
+		assertEquals(4, cms.add(42L, 4, 3));
+		assertEquals(2, cms.estimate("a", 3));
+		assertEquals(0, cms.estimate("c", 3));
+		assertEquals(7, cms.getTotal(3));
+	}
+
+	public void testOldCountsSlideOutOfWindow() {
+		SlidingCountMinSketch<Long> cms = SlidingCountMinSketch.create(20, 10, 1024, 4);
+		cms.add(1L, 5, 0);
+		cms.add(1L, 3, 15);
+		assertEquals(8, cms.estimate(1L, 25));
+		assertEquals(8, cms.getTotal(25));
+		assertEquals(3, cms.estimate(1L, 30));
+		assertEquals(3, cms.getTotal(30));
+		assertEquals(0, cms.estimate(1L, 40));
+		assertEquals(1, cms.add(1L, 100));
+		assertEquals(1, cms.getTotal(100));
+	}
+
+	public void testBoxedAndPrimitiveLongKeysAreTheSameKey() {
+		SlidingCountMinSketch<Long> cms = SlidingCountMinSketch.create(20, 10, 1024, 4);
+		cms.add(Long.valueOf(7), 0);
+		assertEquals(2, cms.add(7L, 0));
+		assertEquals(2, cms.estimate(Long.valueOf(7), 0));
+	}
+
+	public void testEstimatesAreWithinErrorBound() {
+		final double epsilon = 0.001;
+		SlidingCountMinSketch<Long> cms = SlidingCountMinSketch.createWithError(60, 10, epsilon, 0.001);
+		Map<Long, Integer> exact = new HashMap<Long, Integer>();
+		Random r = new Random(0);
+		final int n = 200000;
+		for (int i = 0; i < n; i++) {
+			// skewed: a few heavy keys and a long tail
+			long ip = (r.nextInt(10) == 0) ? r.nextInt(10) : r.nextInt(100000);
+			cms.add(ip, 0);
+			Integer c = exact.get(ip);
+			exact.put(ip, (c == null) ? 1 : c + 1);
+		}
+		int violations = 0;
+		for (Map.Entry<Long, Integer> e : exact.entrySet()) {
+			int estimate = cms.estimate(e.getKey(), 0);
+			assertTrue(estimate >= e.getValue());
+			if (estimate > e.getValue() + epsilon * n) {
+				violations++;
+			}
+		}
+		assertTrue("violations: " + violations, violations <= exact.size() / 100);
+	}
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link SlidingHyperLogLog} implementation.
+ */
+public class SlidingHyperLogLogTest extends TestCase {
+
+	public void testCreateRejectsIntervalThatDoesNotDivideWindow() {
+		try {
+			SlidingHyperLogLog.create(20, 3, 10);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testCreateRejectsBadPrecision() {
+		try {
+			SlidingHyperLogLog.create(20, 10, 3);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+		try {
+			SlidingHyperLogLog.create(20, 10, 17);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testSmallCountsAreExact() {
+		SlidingHyperLogLog<String> hll = SlidingHyperLogLog.create(20, 10, 12);
+		assertEquals(1, hll.record("a", 0));
+		assertEquals(1, hll.record("a", 1));
+		assertEquals(2, hll.record("b", 2));
+		assertEquals(3, hll.record("c", 3));
+		assertEquals(3, hll.record("b", 4));
+	}
+
+	public void testEstimateIsWithinErrorBoundForMillionsOfKeys() {
+		SlidingHyperLogLog<Long> hll = SlidingHyperLogLog.create(1000, 100, 12);
+		final int n = 2000000;
+		int estimate = 0;
+		for (long ip = 0; ip < n; ip++) {
+			estimate = hll.recordFingerprint(ip, 500);
+		}
+		// standard error is 1.6%; allow four of them
+		assertEquals(n, estimate, 0.065 * n);
+	}
+
+	public void testOldKeysSlideOutOfWindow() {
+		SlidingHyperLogLog<Long> hll = SlidingHyperLogLog.create(20, 10, 10);
+		for (long key = 0; key < 100; key++) {
+			hll.record(key, 0);
+		}
+		for (long key = 100; key < 200; key++) {
+			hll.record(key, 15);
+		}
+		// the block of time 0 still overlaps the window at time 25...
+		int both = hll.record(100L, 25);
+		assertEquals(200, both, 10);
+		// ...but is gone at time 30
+		int second = hll.record(100L, 30);
+		assertEquals(100, second, 5);
+		// and everything is gone after a gap longer than the window
+		assertEquals(1, hll.record(100L, 100));
+	}
+
+	public void testRecordUsesNumericKeysAsFingerprints() {
+		SlidingHyperLogLog<Object> hll = SlidingHyperLogLog.create(20, 10, 10);
+		hll.recordFingerprint(42, 0);
+		assertEquals(1, hll.record(Long.valueOf(42), 0));
+		assertEquals(1, hll.record(Integer.valueOf(42), 0));
+		assertEquals(2, hll.record("42", 0));
+	}
+
+	public void testVersion1SketchKeepsHashingTheStringFormOfTheKey() throws IOException {
+		SlidingHyperLogLog<Object> hll = SlidingHyperLogLog.create(20, 10, 10);
+		hll.record("42", 0);
+		byte[] bytes = toBytes(hll);
+		bytes[7] = 1; // the low byte of the version
+		SlidingHyperLogLog<Object> old =
+			SlidingHyperLogLog.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+		assertEquals(1, old.record(Long.valueOf(42), 0));
+		assertEquals(2, old.record(Long.valueOf(43), 0));
+		// and is written back as version 1
+		assertEquals(1, toBytes(old)[7]);
+		try {
+			hll.merge(old);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testMergeEqualsSketchOfUnion() throws IOException {
+		SlidingHyperLogLog<Long> all = SlidingHyperLogLog.create(100, 10, 10);
+		SlidingHyperLogLog<Long> node1 = SlidingHyperLogLog.create(100, 10, 10);
+		SlidingHyperLogLog<Long> node2 = SlidingHyperLogLog.create(100, 10, 10);
+		Random r = new Random(0);
+		long time = 3;
+		for (int i = 0; i < 50000; i++) {
+			long key = r.nextInt(20000);
+			all.recordFingerprint(key, time);
+			(r.nextBoolean() ? node1 : node2).recordFingerprint(key, time);
+			time += r.nextInt(2) * r.nextInt(2);
+		}
+		// node2 has not seen the last few intervals
+		node1.recordFingerprint(1, time + 35);
+		all.recordFingerprint(1, time + 35);
+
+		SlidingHyperLogLog<Long> coordinator = SlidingHyperLogLog.create(100, 10, 10);
+		coordinator.merge(node2);
+		coordinator.merge(node1);
+		assertEquals(all.estimate(time + 35), coordinator.estimate(time + 35));
+		assertTrue(Arrays.equals(toBytes(all), toBytes(coordinator)));
+	}
+
+	public void testMergeIgnoresIntervalsOlderThanWindow() {
+		SlidingHyperLogLog<Long> old = SlidingHyperLogLog.create(20, 10, 10);
+		old.recordFingerprint(1, 0);
+		old.recordFingerprint(2, 10);
+		SlidingHyperLogLog<Long> current = SlidingHyperLogLog.create(20, 10, 10);
+		current.recordFingerprint(3, 30);
+		current.merge(old);
+		assertEquals(2, current.estimate(30));
+	}
+
+	public void testMergeRejectsDifferentParameters() {
+		SlidingHyperLogLog<Long> hll = SlidingHyperLogLog.create(20, 10, 10);
+		try {
+			hll.merge(SlidingHyperLogLog.<Long>create(20, 10, 11));
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+		try {
+			hll.merge(SlidingHyperLogLog.<Long>create(40, 10, 10));
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testWriteToAndReadFromRoundTrip() throws IOException {
+		SlidingHyperLogLog<Long> hll = SlidingHyperLogLog.create(60, 10, 8);
+		for (long key = 0; key < 1000; key++) {
+			hll.recordFingerprint(key, key / 10);
+		}
+		byte[] bytes = toBytes(hll);
+		assertEquals(4 + 4 + 8 + 8 + 1 + 8 + 7 * 256, bytes.length);
+		SlidingHyperLogLog<Long> copy =
+			SlidingHyperLogLog.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+		assertEquals(hll.estimate(99), copy.estimate(99));
+		assertEquals(hll.recordFingerprint(5000, 120), copy.recordFingerprint(5000, 120));
+		assertTrue(Arrays.equals(toBytes(hll), toBytes(copy)));
+	}
+
+	public void testReadFromRejectsCorruptInput() throws IOException {
+		byte[] bytes = toBytes(SlidingHyperLogLog.<Long>create(20, 10, 4));
+		bytes[bytes.length - 1] = 100;
+		try {
+			SlidingHyperLogLog.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+			fail();
+		} catch (IOException ex) {
+			// expected case
+		}
+		bytes[0] = 0;
+		try {
+			SlidingHyperLogLog.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+			fail();
+		} catch (IOException ex) {
+			// expected case
+		}
+	}
+
+	public void testReadFromRejectsHugeWindow() throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buf);
+		out.writeInt(SlidingHyperLogLog.MAGIC);
+		out.writeInt(SlidingHyperLogLog.VERSION);
+		out.writeLong(1L << 40); // W
+		out.writeLong(1L); // T
+		out.writeByte(16);
+		out.writeLong(-1L);
+		try {
+			SlidingHyperLogLog.readFrom(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())));
+			fail();
+		} catch (IOException ex) {
+			assertEquals("Corrupt sketch: sketch is too large", ex.getMessage());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public void testJavaSerializationRoundTrip() throws Exception {
+		SlidingHyperLogLog<Long> hll = SlidingHyperLogLog.create(60, 10, 8);
+		for (long key = 0; key < 1000; key++) {
+			hll.recordFingerprint(key, 0);
+		}
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(buf);
+		out.writeObject(hll);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray()));
+		SlidingHyperLogLog<Long> copy = (SlidingHyperLogLog<Long>) in.readObject();
+		assertTrue(Arrays.equals(toBytes(hll), toBytes(copy)));
+	}
+
+	public void testMatchesEstCountWhileEstCountIsAccurate() {
+		SlidingHyperLogLog<Integer> hll = SlidingHyperLogLog.create(60, 10, 14);
+		EstCount<Integer> est = EstCount.create(60, 10, 1 << 20);
+		for (int i = 0; i < 20000; i++) {
+			int key = (i * 7919) % 5000;
+			long now = i / 100;
+			int expected = est.record(key, now);
+			assertEquals(expected, hll.record(key, now), Math.max(2, 0.04 * expected));
+		}
+	}
+
+	// ============================================================ helper methods
+
+	private static byte[] toBytes(SlidingHyperLogLog<?> hll) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		hll.writeTo(new DataOutputStream(buf));
+		return buf.toByteArray();
+	}
+}
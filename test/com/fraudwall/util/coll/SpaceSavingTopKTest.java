@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.fraudwall.util.coll.SpaceSavingTopK.Counter;
+
+/**
+ * Tests the {@link SpaceSavingTopK} implementation.
+ */
+public class SpaceSavingTopKTest extends TestCase {
+
+	public void testCreateRejectsNonPositiveCapacity() {
+		try {
+			SpaceSavingTopK.create(0);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testCountsAreExactWhileKeysFit() {
+		SpaceSavingTopK topK = SpaceSavingTopK.create(3);
+		assertEquals(1, topK.add(10));
+		assertEquals(1, topK.add(20));
+		assertEquals(2, topK.add(10));
+		assertEquals(1, topK.add(30));
+		assertEquals(3, topK.add(10));
+		assertEquals(2, topK.add(20));
+		assertEquals(3, topK.getCount(10));
+		assertEquals(0, topK.getError(10));
+		assertEquals(0, topK.getCount(40));
+		assertEquals(3, topK.size());
+		assertEquals(6, topK.getTotal());
+
+		Counter[] top = topK.top(10);
+		assertEquals(3, top.length);
+		assertEquals(10, top[0].getKey());
+		assertEquals(3, top[0].getCount());
+		assertEquals(20, top[1].getKey());
+		assertEquals(30, top[2].getKey());
+		assertEquals(1, topK.top(1).length);
+		assertEquals(0, topK.top(0).length);
+	}
+
+	public void testNewKeyTakesOverLeastCountedKey() {
+		SpaceSavingTopK topK = SpaceSavingTopK.create(2);
+		topK.add(1);
+		topK.add(1);
+		topK.add(2);
+		assertEquals(2, topK.add(3));
+		assertEquals(0, topK.getCount(2));
+		assertEquals(2, topK.getCount(3));
+		assertEquals(1, topK.getError(3));
+		assertEquals(2, topK.size());
+	}
+
+	public void testCountsBoundTrueFrequenciesAndFindHeavyHitters() {
+		final int k = 100;
+		SpaceSavingTopK topK = SpaceSavingTopK.create(k);
+		Map<Long, Integer> exact = new HashMap<Long, Integer>();
+		Random r = new Random(0);
+		final int n = 200000;
+		for (int i = 0; i < n; i++) {
+			// ten heavy keys with 2% of the stream each, and a long tail
+			long ip = (r.nextInt(5) == 0) ? r.nextInt(10) : 1000 + r.nextInt(1000000);
+			topK.add(ip);
+			Integer c = exact.get(ip);
+			exact.put(ip, (c == null) ? 1 : c + 1);
+		}
+		assertEquals(n, topK.getTotal());
+		Counter[] all = topK.top(k);
+		assertEquals(k, all.length);
+		long sum = 0;
+		for (int i = 0; i < all.length; i++) {
+			Counter c = all[i];
+			int f = exact.get(c.getKey());
+			assertTrue(c.getCount() >= f);
+			assertTrue(c.getCount() - c.getError() <= f);
+			if (i > 0) {
+				assertTrue(all[i - 1].getCount() >= c.getCount());
+			}
+			sum += c.getCount();
+		}
+		// the counts always add up to the length of the stream
+		assertEquals(n, sum);
+		Counter[] top = topK.top(10);
+		for (Counter c : top) {
+			assertTrue(c.getKey() < 10);
+		}
+		for (long key = 0; key < 10; key++) {
+			assertTrue(topK.getCount(key) > 0);
+		}
+	}
+
+	public void testClearForgetsEverything() {
+		SpaceSavingTopK topK = SpaceSavingTopK.create(2);
+		topK.add(1);
+		topK.add(2);
+		topK.add(3);
+		topK.clear();
+		assertEquals(0, topK.size());
+		assertEquals(0, topK.getTotal());
+		assertEquals(0, topK.getCount(3));
+		assertEquals(1, topK.add(3));
+		assertEquals(1, topK.add(4));
+		assertEquals(2, topK.add(4));
+		assertEquals(4, topK.top(1)[0].getKey());
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Trace-driven comparison of the hit ratios of {@link LRUMap} and
+ * {@link TinyLfuMap} at the same <code>maxSize</code>. Each key of the trace
+ * is looked up with <code>get</code>, and put on a miss.<p>
+ *
+ * Run with <code>java -cp ... com.fraudwall.util.coll.TinyLfuBenchmark
+ * [traceFile]</code>. A trace file has one key per line, for example a user
+ * agent or URL per request. Without one, a synthetic trace is used: half of
+ * the requests draw from a Zipf-distributed population of recurring keys,
+ * and the other half are keys that are never seen again, as in scanner
+ * traffic.
+ */
+public class TinyLfuBenchmark {
+
+	private static final int[] SIZES = { 500, 1000, 5000, 20000 };
+
+	public static void main(String[] args) throws IOException {
+		List<String> trace = (args.length > 0) ? readTrace(args[0]) : syntheticTrace(2000000, 100000, 0.9, 0.5);
+		System.out.printf("%d requests%n", trace.size());
+		for (int maxSize : SIZES) {
+			double lru = hitRatio(LRUMap.<String,String>create(maxSize), trace);
+			double tinyLfu = hitRatio(TinyLfuMap.<String,String>create(maxSize), trace);
+			System.out.printf("maxSize=%6d  LRUMap %5.1f%%  TinyLfuMap %5.1f%%%n",
+				maxSize, 100.0 * lru, 100.0 * tinyLfu);
+		}
+	}
+
+	private static double hitRatio(Map<String,String> cache, List<String> trace) {
+		long hits = 0L;
+		for (String key : trace) {
+			if (cache.get(key) != null) {
+				hits++;
+			} else {
+				cache.put(key, key);
+			}
+		}
+		return (double) hits / trace.size();
+	}
+
+	private static List<String> readTrace(String fileName) throws IOException {
+		List<String> trace = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				trace.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return trace;
+	}
+
+	/**
+	 * Returns <code>length</code> keys, a fraction <code>oneHitFraction</code>
+	 * of which are unique, and the others drawn from <code>population</code>
+	 * keys with Zipf exponent <code>skew</code>.
+	 */
+	private static List<String> syntheticTrace(int length, int population, double skew, double oneHitFraction) {
+		double[] cdf = new double[population];
+		double sum = 0.0;
+		for (int i = 0; i < population; i++) {
+			sum += 1.0 / Math.pow(i + 1, skew);
+			cdf[i] = sum;
+		}
+		Random r = new Random(0);
+		List<String> trace = new ArrayList<String>(length);
+		for (int i = 0; i < length; i++) {
+			if (r.nextDouble() < oneHitFraction) {
+				trace.add("scan" + i);
+			} else {
+				int rank = Arrays.binarySearch(cdf, r.nextDouble() * sum);
+				trace.add("key" + ((rank >= 0) ? rank : -rank - 1));
+			}
+		}
+		return trace;
+	}
+}
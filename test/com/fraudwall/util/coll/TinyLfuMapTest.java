@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link TinyLfuMap} implementation and its {@link FrequencySketch}.
+ */
+public class TinyLfuMapTest extends TestCase {
+
+	public void testCreateRejectsNonPositiveSize() {
+		try {
+			TinyLfuMap.create(0);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testPutGetRemove() {
+		TinyLfuMap<Integer,String> cache = TinyLfuMap.create(10);
+		assertNull(cache.put(1, "foo"));
+		assertEquals("foo", cache.put(1, "bar"));
+		assertEquals("bar", cache.get(1));
+		assertNull(cache.get(2));
+		assertTrue(cache.containsKey(1));
+		assertEquals(1, cache.size());
+		assertEquals("bar", cache.remove(1));
+		assertNull(cache.remove(1));
+		assertEquals(0, cache.size());
+		cache.put(3, "baaz");
+		cache.clear();
+		assertTrue(cache.isEmpty());
+		assertNull(cache.get(3));
+	}
+
+	public void testSizeOneCacheKeepsNewestKey() {
+		TinyLfuMap<Integer,String> cache = TinyLfuMap.create(1);
+		cache.put(1, "foo");
+		cache.get(1);
+		cache.put(2, "bar");
+		assertEquals(1, cache.size());
+		assertEquals("bar", cache.get(2));
+	}
+
+	public void testSizeIsBoundedUnderLoad() {
+		final int maxSize = 200;
+		final int[] evictions = new int[1];
+		TinyLfuMap<Integer,Integer> cache = new TinyLfuMap<Integer,Integer>(maxSize) {
+			@Override
+			protected void evicted(Integer key, Integer value) {
+				assertEquals(key, value);
+				assertFalse(containsKey(key));
+				evictions[0]++;
+			}
+		};
+		CacheStats stats = CacheStats.create("load");
+		cache.setStats(stats);
+		Random r = new Random(1);
+		int puts = 0, removes = 0;
+		for (int i = 0; i < 100000; i++) {
+			int key = (int) (1000 * Math.pow(r.nextDouble(), 3.0));
+			if (r.nextInt(10) == 0) {
+				if (cache.remove(key) != null) {
+					removes++;
+				}
+			} else if (cache.get(key) == null) {
+				cache.put(key, key);
+				puts++;
+			}
+			assertTrue(cache.size() <= maxSize);
+		}
+		assertEquals(maxSize, cache.size());
+		assertEquals(puts - removes - maxSize, evictions[0]);
+		assertEquals(evictions[0], stats.getEvictionCount().intValue());
+		assertEquals(puts, stats.getMissCount().intValue());
+	}
+
+	public void testOneHitWondersDoNotEvictHotKeys() {
+		final int maxSize = 100;
+		TinyLfuMap<String,String> lfu = TinyLfuMap.create(maxSize);
+		LRUMap<String,String> lru = LRUMap.create(maxSize);
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 50; i++) {
+				access(lfu, "hot" + i);
+				access(lru, "hot" + i);
+			}
+		}
+		// keep using the hot keys, but only one for every three scanned keys,
+		// so each hot key is used once every 200 accesses
+		int lfuHits = 0, lruHits = 0;
+		for (int i = 0; i < 30 * maxSize; i++) {
+			access(lfu, "scan" + i);
+			access(lru, "scan" + i);
+			if (i % 3 == 0) {
+				lfuHits += access(lfu, "hot" + (i / 3) % 50) ? 1 : 0;
+				lruHits += access(lru, "hot" + (i / 3) % 50) ? 1 : 0;
+			}
+		}
+		assertEquals(10 * maxSize, lfuHits);
+		// LRU only hits the hot keys at the start of the scan
+		assertTrue(lruHits < 50);
+	}
+
+	/** Looks up <code>key</code>, adding it on a miss; returns true on a hit. */
+	private static boolean access(Map<String,String> cache, String key) {
+		if (cache.get(key) == null) {
+			cache.put(key, key);
+			return false;
+		}
+		return true;
+	}
+
+	public void testEntrySetIsLiveAndFailFast() {
+		TinyLfuMap<Integer,String> cache = TinyLfuMap.create(100);
+		for (int i = 0; i < 100; i++) {
+			cache.put(i, "v" + i);
+			if (i % 3 == 0) {
+				cache.get(i);
+			}
+		}
+		Set<Map.Entry<Integer,String>> entries = cache.entrySet();
+		assertEquals(100, entries.size());
+		int n = 0;
+		for (Iterator<Map.Entry<Integer,String>> it = entries.iterator(); it.hasNext(); n++) {
+			Map.Entry<Integer,String> entry = it.next();
+			assertEquals("v" + entry.getKey(), entry.getValue());
+			if (entry.getKey() % 2 == 0) {
+				it.remove();
+			}
+		}
+		assertEquals(100, n);
+		assertEquals(50, cache.size());
+		assertEquals(50, cache.keySet().size());
+		assertFalse(cache.containsKey(4));
+		assertTrue(cache.values().contains("v5"));
+		Iterator<Integer> it = cache.keySet().iterator();
+		it.next();
+		cache.get(5);
+		try {
+			it.next();
+			fail();
+		} catch (ConcurrentModificationException ex) {
+			// expected case
+		}
+	}
+
+	// ======================================================= FrequencySketch
+
+	public void testFrequencySketchCountsAndSaturates() {
+		FrequencySketch sketch = new FrequencySketch(1000);
+		assertEquals(0, sketch.frequency("a".hashCode()));
+		for (int i = 0; i < 5; i++) {
+			sketch.increment("a".hashCode());
+		}
+		assertEquals(5, sketch.frequency("a".hashCode()));
+		for (int i = 0; i < 100; i++) {
+			sketch.increment("b".hashCode());
+		}
+		assertEquals(15, sketch.frequency("b".hashCode()));
+	}
+
+	public void testFrequencySketchAges() {
+		final int maxSize = 100;
+		FrequencySketch sketch = new FrequencySketch(maxSize);
+		for (int i = 0; i < 8; i++) {
+			sketch.increment(42);
+		}
+		assertEquals(8, sketch.frequency(42));
+		// the 10 * maxSize-th increment halves every counter; the other keys
+		// may collide with 42 and add to its estimate before that
+		for (int i = 8; i < 10 * maxSize; i++) {
+			sketch.increment(1000 + i);
+		}
+		int freq = sketch.frequency(42);
+		assertTrue(freq >= 4 && freq < 8);
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link TinyLfuSet} implementation.
+ */
+public class TinyLfuSetTest extends TestCase {
+
+	public void testAddContainsRemove() {
+		TinyLfuSet<String> set = TinyLfuSet.create(10);
+		assertTrue(set.add("foo"));
+		assertFalse(set.add("foo"));
+		assertTrue(set.contains("foo"));
+		assertFalse(set.contains("bar"));
+		assertEquals(1, set.size());
+		assertTrue(set.remove("foo"));
+		assertFalse(set.remove("foo"));
+		set.add("bar");
+		set.clear();
+		assertEquals(0, set.size());
+	}
+
+	public void testFrequentElementsSurviveScan() {
+		final int maxSize = 50;
+		TinyLfuSet<Integer> set = TinyLfuSet.create(maxSize);
+		for (int round = 0; round < 4; round++) {
+			for (int i = 0; i < 20; i++) {
+				access(set, i);
+			}
+		}
+		CacheStats stats = CacheStats.create("set");
+		set.setStats(stats);
+		for (int i = 0; i < 1000; i++) {
+			access(set, 1000 + i);
+			if (i % 2 == 0) {
+				access(set, (i / 2) % 20);
+			}
+		}
+		assertEquals(maxSize, set.size());
+		assertEquals(500L, stats.getHitCount().longValue());
+		assertEquals(1000L, stats.getMissCount().longValue());
+	}
+
+	private static void access(TinyLfuSet<Integer> set, int value) {
+		if (!set.contains(value)) {
+			set.add(value);
+		}
+	}
+}
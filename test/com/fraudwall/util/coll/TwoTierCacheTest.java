@@ -0,0 +1,287 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link TwoTierCache} and {@link OffHeapStore} implementations.
+ */
+public class TwoTierCacheTest extends TestCase {
+
+	private static final ValueCodec<String> STRING_CODEC = new ValueCodec<String>() {
+		public void write(String value, DataOutput out) throws IOException {
+			out.writeUTF(value);
+		}
+		public String read(DataInput in) throws IOException {
+			return in.readUTF();
+		}
+	};
+
+	private static TwoTierCache<Long,String> create(int hotMaxSize) {
+		return TwoTierCache.create(hotMaxSize, 1 << 16, 1000, STRING_CODEC);
+	}
+
+	public void testEvictedValuesSpillToColdTier() {
+		TwoTierCache<Long,String> cache = create(2);
+		for (long i = 0; i < 10; i++) {
+			cache.put(i, "v" + i);
+		}
+		assertEquals(2, cache.getHotSize());
+		assertEquals(8, cache.getColdSize());
+		assertEquals(10, cache.size());
+		for (long i = 0; i < 10; i++) {
+			assertTrue(cache.containsKey(i));
+		}
+		assertFalse(cache.containsKey(10L));
+	}
+
+	public void testGetPromotesColdValues() {
+		TwoTierCache<Long,String> cache = create(2);
+		cache.put(1L, "one");
+		cache.put(2L, "two");
+		cache.put(3L, "three");
+		assertEquals(1, cache.getColdSize());
+		assertEquals("one", cache.get(1L));
+		// 1 is promoted, which spills 2, the least recently used
+		assertEquals(2, cache.getHotSize());
+		assertEquals(1, cache.getColdSize());
+		assertEquals("two", cache.get(2L));
+		assertEquals("three", cache.get(3L));
+		assertEquals("one", cache.get(1L));
+		assertEquals(3, cache.size());
+		assertNull(cache.get(4L));
+	}
+
+	public void testPutReplacesColdValue() {
+		TwoTierCache<Long,String> cache = create(1);
+		cache.put(1L, "old");
+		cache.put(2L, "two");
+		cache.put(1L, "new");
+		assertEquals(2, cache.size());
+		assertEquals("new", cache.get(1L));
+		cache.put(3L, "three");
+		assertEquals("new", cache.get(1L));
+	}
+
+	public void testRemove() {
+		TwoTierCache<Long,String> cache = create(1);
+		cache.put(1L, "one");
+		cache.put(2L, "two");
+		assertEquals("one", cache.remove(1L));
+		assertEquals("two", cache.remove(2L));
+		assertNull(cache.remove(3L));
+		assertEquals(0, cache.size());
+		assertNull(cache.get(1L));
+	}
+
+	public void testClear() {
+		TwoTierCache<Long,String> cache = create(1);
+		cache.put(1L, "one");
+		cache.put(2L, "two");
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertNull(cache.get(1L));
+		cache.put(3L, "three");
+		cache.put(4L, "four");
+		assertEquals("three", cache.get(3L));
+	}
+
+	public void testStringKeys() {
+		TwoTierCache<String,String> cache = TwoTierCache.create(1, 1 << 16, 100, STRING_CODEC);
+		cache.put("http://a.com/", "good");
+		cache.put("http://b.com/", "bad");
+		assertEquals("good", cache.get("http://a.com/"));
+		assertEquals("bad", cache.get("http://b.com/"));
+	}
+
+	public void testNullCodecIsRejected() {
+		try {
+			TwoTierCache.create(1, 1 << 16, 100, null);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testNullValueIsRejected() {
+		try {
+			create(1).put(1L, null);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testColdTierDropsOldestValuesWhenFull() {
+		TwoTierCache<Long,String> cache = TwoTierCache.create(1, 1 << 16, 5, STRING_CODEC);
+		CacheStats stats = CacheStats.create("test");
+		cache.setStats(stats);
+		for (long i = 0; i < 10; i++) {
+			cache.put(i, "v" + i);
+		}
+		assertEquals(5, cache.getColdSize());
+		assertEquals(4, stats.getEvictionCount().longValue());
+		for (long i = 0; i < 4; i++) {
+			assertNull(cache.get(i));
+		}
+		for (long i = 4; i < 10; i++) {
+			assertEquals("v" + i, cache.get(i));
+		}
+		assertEquals(6, stats.getHitCount().longValue());
+		assertEquals(4, stats.getMissCount().longValue());
+	}
+
+	public void testFileBackedColdTier() throws IOException {
+		File file = File.createTempFile("TwoTierCacheTest", ".dat");
+		try {
+			TwoTierCache<Long,String> cache = TwoTierCache.create(10, file, 1 << 20, 10000, STRING_CODEC);
+			for (long i = 0; i < 5000; i++) {
+				cache.put(i, "value of " + i);
+			}
+			assertEquals(5000, cache.size());
+			assertEquals(1 << 20, file.length());
+			for (long i = 0; i < 5000; i++) {
+				assertEquals("value of " + i, cache.get(i));
+			}
+			cache.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testColdTierAboveOneSegmentOfEntries() {
+		// 100 million entries take three segments, whose indexes
+		// only grow as values are spilled
+		TwoTierCache<Long,String> cache = TwoTierCache.create(10, 1 << 24, 100000000, STRING_CODEC);
+		assertEquals(3, cache.getSegmentCount());
+		for (long i = 0; i < 200000; i++) {
+			cache.put(i, "v" + i);
+		}
+		assertEquals(200000, cache.size());
+		for (long i = 0; i < 200000; i += 997) {
+			assertEquals("v" + i, cache.get(i));
+		}
+		assertEquals(2, TwoTierCache.create(10, 1L << 20, (1 << 25) + 1, STRING_CODEC).getSegmentCount());
+	}
+
+	public void testStoreIndexGrows() {
+		OffHeapStore store = new OffHeapStore(ByteBuffer.allocate(1 << 20), 100000);
+		for (long fp = 1; fp <= 50000; fp++) {
+			assertTrue(store.put(fp, new byte[] { (byte) fp }));
+		}
+		assertEquals(50000, store.size());
+		for (long fp = 1; fp <= 50000; fp++) {
+			assertEquals((byte) fp, store.get(fp)[0]);
+		}
+		try {
+			new OffHeapStore(ByteBuffer.allocate(64), OffHeapStore.MAX_ENTRIES + 1);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+	}
+
+	public void testStoreRejectsValueLargerThanLog() {
+		OffHeapStore store = new OffHeapStore(ByteBuffer.allocate(64), 10);
+		assertFalse(store.put(1L, new byte[53]));
+		assertTrue(store.put(1L, new byte[52]));
+		assertEquals(1, store.size());
+		assertEquals(52, store.get(1L).length);
+	}
+
+	public void testStoreWrapsAroundLog() {
+		OffHeapStore store = new OffHeapStore(ByteBuffer.allocate(100), 10);
+		// three 30-byte records fill 90 bytes; the fourth wraps around
+		for (long fp = 1; fp <= 4; fp++) {
+			assertTrue(store.put(fp, new byte[] { (byte) fp, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 }));
+		}
+		assertNull(store.get(1L));
+		for (long fp = 2; fp <= 4; fp++) {
+			assertEquals(fp, store.get(fp)[0]);
+		}
+		assertEquals(3, store.size());
+		assertEquals(1, store.evictions());
+	}
+
+	/**
+	 * Checks against a reference map that the store never returns a stale
+	 * value, and that it keeps the most recent values.
+	 */
+	public void testStoreRandomOperations() {
+		Random rand = new Random(17);
+		OffHeapStore store = new OffHeapStore(ByteBuffer.allocateDirect(4096), 50);
+		Map<Long,Integer> model = new HashMap<Long,Integer>();
+		for (int op = 0; op < 100000; op++) {
+			long fp = rand.nextInt(200) * 0x10000000001L;
+			int r = rand.nextInt(10);
+			if (r < 6) {
+				int len = rand.nextInt(100);
+				byte[] value = new byte[len];
+				if (len > 0) {
+					value[len - 1] = (byte) op;
+				}
+				assertTrue(store.put(fp, value));
+				model.put(fp, (len << 8) | (op & 0xFF));
+				assertTrue(store.contains(fp));
+			} else if (r < 8) {
+				byte[] value = store.take(fp);
+				Integer expected = model.remove(fp);
+				if (value != null) {
+					assertEquals(expected.intValue() >>> 8, value.length);
+				}
+				assertFalse(store.contains(fp));
+			} else {
+				byte[] value = store.get(fp);
+				Integer expected = model.get(fp);
+				if (value != null) {
+					assertNotNull(expected);
+					assertEquals(expected.intValue() >>> 8, value.length);
+					if (value.length > 0) {
+						assertEquals((byte) expected.intValue(), value[value.length - 1]);
+					}
+				}
+			}
+			assertTrue(store.size() <= 50);
+		}
+	}
+}
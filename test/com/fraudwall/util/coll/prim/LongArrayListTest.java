@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll.prim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link LongArrayList} implementation.
+ */
+public class LongArrayListTest extends TestCase {
+
+	public void testAddGetSet() {
+		LongArrayList list = new LongArrayList(0);
+		for (long i = 0; i < 100; i++) {
+			list.add(i * 3);
+		}
+		assertEquals(100, list.size());
+		assertEquals(27L, list.get(9));
+		assertEquals(27L, list.set(9, -1L));
+		assertEquals(-1L, list.get(9));
+	}
+
+	public void testIndexOutOfBounds() {
+		LongArrayList list = new LongArrayList(new long[] { 1L });
+		try {
+			list.get(1);
+			fail();
+		} catch (IndexOutOfBoundsException ex) {
+			// expected case
+		}
+		try {
+			list.set(-1, 0L);
+			fail();
+		} catch (IndexOutOfBoundsException ex) {
+			// expected case
+		}
+	}
+
+	public void testInsertAndRemove() {
+		LongArrayList list = new LongArrayList(new long[] { 1L, 3L });
+		list.add(1, 2L);
+		list.add(0, 0L);
+		list.add(4, 4L);
+		assertEquals("[0, 1, 2, 3, 4]", list.toString());
+		assertEquals(2L, list.removeAt(2));
+		assertEquals(4L, list.removeLast());
+		assertEquals("[0, 1, 3]", list.toString());
+		list.clear();
+		assertTrue(list.isEmpty());
+		try {
+			list.removeLast();
+			fail();
+		} catch (NoSuchElementException ex) {
+			// expected case
+		}
+	}
+
+	public void testSearch() {
+		LongArrayList list = new LongArrayList();
+		list.addAll(new long[] { 9L, 5L, 7L, 5L });
+		assertEquals(1, list.indexOf(5L));
+		assertFalse(list.contains(6L));
+		list.sort();
+		assertEquals("[5, 5, 7, 9]", list.toString());
+		assertEquals(2, list.binarySearch(7L));
+		assertEquals(-3, list.binarySearch(6L));
+		assertEquals(-5, list.binarySearch(10L));
+	}
+
+	public void testIteratorAndToArray() {
+		LongArrayList list = new LongArrayList(new long[] { 4L, 5L });
+		LongIterator it = list.iterator();
+		assertEquals(4L, it.next());
+		assertEquals(5L, it.next());
+		assertFalse(it.hasNext());
+		long[] values = list.toArray();
+		values[0] = 0L;
+		assertEquals(4L, list.get(0));
+		list.trimToSize();
+		list.add(6L);
+		assertEquals(3, list.size());
+	}
+
+	public void testEqualsAndHashCode() {
+		LongArrayList a = new LongArrayList(new long[] { 1L, -1L, 1L << 40 });
+		LongArrayList b = new LongArrayList();
+		List<Long> boxed = new ArrayList<Long>();
+		for (long v : a.toArray()) {
+			b.add(v);
+			boxed.add(v);
+		}
+		assertEquals(a, b);
+		assertEquals(boxed.hashCode(), a.hashCode());
+		b.set(0, 2L);
+		assertFalse(a.equals(b));
+	}
+}
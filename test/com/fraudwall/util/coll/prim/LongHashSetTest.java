@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll.prim;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link LongHashSet} implementation.
+ */
+public class LongHashSetTest extends TestCase {
+
+	public void testAddContainsRemove() {
+		LongHashSet set = new LongHashSet();
+		assertTrue(set.isEmpty());
+		assertTrue(set.add(5L));
+		assertFalse(set.add(5L));
+		assertTrue(set.add(-5L));
+		assertTrue(set.contains(5L));
+		assertTrue(set.contains(-5L));
+		assertFalse(set.contains(6L));
+		assertEquals(2, set.size());
+		assertTrue(set.remove(5L));
+		assertFalse(set.remove(5L));
+		assertFalse(set.contains(5L));
+		assertEquals(1, set.size());
+	}
+
+	public void testZeroKey() {
+		LongHashSet set = new LongHashSet();
+		assertFalse(set.contains(0L));
+		assertTrue(set.add(0L));
+		assertFalse(set.add(0L));
+		assertTrue(set.contains(0L));
+		assertEquals(1, set.size());
+		assertEquals("[0]", set.toString());
+		assertTrue(set.remove(0L));
+		assertFalse(set.contains(0L));
+		assertEquals(0, set.size());
+	}
+
+	public void testGrows() {
+		LongHashSet set = new LongHashSet(0);
+		for (long i = 0; i < 10000; i++) {
+			assertTrue(set.add(i << 32));
+		}
+		assertEquals(10000, set.size());
+		for (long i = 0; i < 10000; i++) {
+			assertTrue(set.contains(i << 32));
+			assertFalse(set.contains((i << 32) + 1));
+		}
+	}
+
+	public void testClear() {
+		LongHashSet set = new LongHashSet(new long[] { 0L, 1L, 2L });
+		set.clear();
+		assertEquals(0, set.size());
+		assertFalse(set.contains(0L));
+		assertFalse(set.contains(1L));
+		assertTrue(set.add(1L));
+	}
+
+	public void testIterator() {
+		LongHashSet set = new LongHashSet(new long[] { 0L, 3L, 7L, 3L });
+		Set<Long> seen = new HashSet<Long>();
+		for (LongIterator it = set.iterator(); it.hasNext(); ) {
+			assertTrue(seen.add(it.next()));
+		}
+		assertEquals(3, seen.size());
+		assertTrue(seen.contains(0L));
+		assertTrue(seen.contains(3L));
+		assertTrue(seen.contains(7L));
+		try {
+			LongIterator it = new LongHashSet().iterator();
+			it.next();
+			fail();
+		} catch (NoSuchElementException ex) {
+			// expected case
+		}
+	}
+
+	public void testIteratorFailsFast() {
+		LongHashSet set = new LongHashSet(new long[] { 1L, 2L });
+		LongIterator it = set.iterator();
+		it.next();
+		set.add(3L);
+		try {
+			it.next();
+			fail();
+		} catch (ConcurrentModificationException ex) {
+			// expected case
+		}
+	}
+
+	public void testEqualsAndHashCode() {
+		LongHashSet a = new LongHashSet(new long[] { 1L, -1L, 1L << 40 });
+		LongHashSet b = new LongHashSet(new long[] { 1L << 40, 1L, -1L });
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		Set<Long> boxed = new HashSet<Long>();
+		boxed.add(1L);
+		boxed.add(-1L);
+		boxed.add(1L << 40);
+		assertEquals(boxed.hashCode(), a.hashCode());
+		b.remove(1L);
+		assertFalse(a.equals(b));
+	}
+
+	/** Checks random operations against a {@link HashSet}. */
+	public void testRandomOperations() {
+		Random rand = new Random(42);
+		LongHashSet set = new LongHashSet(4);
+		Set<Long> model = new HashSet<Long>();
+		for (int op = 0; op < 200000; op++) {
+			long v = rand.nextInt(1000) - 10;
+			switch (rand.nextInt(3)) {
+			case 0:
+				assertEquals(model.add(v), set.add(v));
+				break;
+			case 1:
+				assertEquals(model.remove(v), set.remove(v));
+				break;
+			default:
+				assertEquals(model.contains(v), set.contains(v));
+			}
+			assertEquals(model.size(), set.size());
+		}
+		long[] values = set.toArray();
+		assertEquals(model.size(), values.length);
+		for (long v : values) {
+			assertTrue(model.contains(v));
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll.prim;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link LongIntHashMap} implementation.
+ */
+public class LongIntHashMapTest extends TestCase {
+
+	public void testMissingValue() {
+		LongIntHashMap map = new LongIntHashMap(4, -1);
+		assertEquals(-1, map.getMissingValue());
+		assertEquals(-1, map.get(7L));
+		assertEquals(-1, map.put(7L, 3));
+		assertEquals(3, map.put(7L, -1));
+		assertEquals(-1, map.get(7L));
+		assertTrue(map.containsKey(7L));
+		assertEquals(-1, map.remove(7L));
+		assertFalse(map.containsKey(7L));
+		assertEquals(-1, map.remove(7L));
+		assertEquals(0, new LongIntHashMap().getMissingValue());
+	}
+
+	public void testZeroKey() {
+		LongIntHashMap map = new LongIntHashMap(4, -1);
+		assertFalse(map.containsKey(0L));
+		assertEquals(-1, map.put(0L, 5));
+		map.put(8L, 6);
+		assertTrue(map.containsKey(0L));
+		assertEquals(5, map.get(0L));
+		assertEquals(2, map.size());
+		assertEquals(5, map.remove(0L));
+		assertFalse(map.containsKey(0L));
+		assertEquals(-1, map.get(0L));
+		assertEquals(6, map.get(8L));
+		assertEquals(1, map.size());
+	}
+
+	public void testAddTo() {
+		LongIntHashMap map = new LongIntHashMap(4, 10);
+		assertEquals(13, map.addTo(1L, 3));
+		assertEquals(11, map.addTo(1L, -2));
+		assertEquals(12, map.addTo(0L, 2));
+		assertEquals(11, map.get(1L));
+		assertEquals(12, map.get(0L));
+		assertEquals(2, map.size());
+	}
+
+	/**
+	 * The inverse of the Fibonacci hashing multiplier: multiples of it hash
+	 * to slot 0 of a table of any size.
+	 */
+	private static final long COLLIDING = 0xF1DE83E19937733DL;
+
+	/**
+	 * Fills most of an eight-slot table with keys that all hash to slot 0,
+	 * plus two that hash to slots 1 and 2 and are displaced by them, then
+	 * removes the keys in every rotation of that order, checking after each
+	 * removal that the keys shifted back into the hole are still found.
+	 */
+	public void testRemoveShiftsCollidingKeysBack() {
+		long[] keys = {
+			COLLIDING, 2 * COLLIDING, 3 * COLLIDING, 4 * COLLIDING, 1L << 40, 4L << 40
+		};
+		int n = keys.length;
+		for (int first = 0; first < n; first++) {
+			LongIntHashMap map = new LongIntHashMap(0, -1);
+			for (int i = 0; i < n; i++) {
+				map.put(keys[i], i);
+			}
+			for (int r = 0; r < n; r++) {
+				int removed = (first + r) % n;
+				assertEquals(removed, map.remove(keys[removed]));
+				assertEquals(n - r - 1, map.size());
+				for (int i = 0; i < n; i++) {
+					boolean present = (i - first + n) % n > r;
+					assertEquals(present, map.containsKey(keys[i]));
+					assertEquals(present ? i : -1, map.get(keys[i]));
+				}
+			}
+		}
+	}
+
+	public void testCursor() {
+		LongIntHashMap map = new LongIntHashMap();
+		for (long i = -50; i < 50; i++) {
+			map.put(i, (int) i * 2);
+		}
+		int n = 0;
+		for (LongIntHashMap.Cursor c = map.cursor(); c.hasNext(); ) {
+			c.next();
+			assertEquals(c.key() * 2, c.value());
+			c.setValue(c.value() + 1);
+			n++;
+		}
+		assertEquals(100, n);
+		assertEquals(-13, map.get(-7L));
+		assertEquals(1, map.get(0L));
+	}
+
+	public void testCursorFailsFast() {
+		LongIntHashMap map = new LongIntHashMap();
+		map.put(1L, 1);
+		map.put(2L, 2);
+		LongIntHashMap.Cursor c = map.cursor();
+		c.next();
+		map.put(1L, 5);
+		c.next();
+		assertFalse(c.hasNext());
+		try {
+			c.next();
+			fail();
+		} catch (NoSuchElementException ex) {
+			// expected case
+		}
+		c = map.cursor();
+		c.next();
+		map.remove(2L);
+		try {
+			c.next();
+			fail();
+		} catch (ConcurrentModificationException ex) {
+			// expected case
+		}
+	}
+
+	/** Checks random operations against a {@link HashMap}. */
+	public void testRandomOperations() {
+		Random rand = new Random(5);
+		LongIntHashMap map = new LongIntHashMap(0, -1);
+		Map<Long,Integer> model = new HashMap<Long,Integer>();
+		for (int op = 0; op < 200000; op++) {
+			long k = rand.nextLong() & 0xFFF0000000000000L;
+			Integer old = model.get(k);
+			switch (rand.nextInt(4)) {
+			case 0:
+				model.put(k, op);
+				assertEquals(old == null ? -1 : old, map.put(k, op));
+				break;
+			case 1:
+				model.put(k, (old == null ? -1 : old) + 3);
+				assertEquals(model.get(k).intValue(), map.addTo(k, 3));
+				break;
+			case 2:
+				model.remove(k);
+				assertEquals(old == null ? -1 : old, map.remove(k));
+				break;
+			default:
+				assertEquals(old == null ? -1 : old, map.get(k));
+			}
+			assertEquals(model.size(), map.size());
+		}
+	}
+}
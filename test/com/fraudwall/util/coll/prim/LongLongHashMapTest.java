@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll.prim;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link LongLongHashMap} and {@link LongIntHashMap} implementations.
+ */
+public class LongLongHashMapTest extends TestCase {
+
+	public void testPutGetRemove() {
+		LongLongHashMap map = new LongLongHashMap();
+		assertEquals(0L, map.put(1L, 10L));
+		assertEquals(10L, map.put(1L, 11L));
+		assertEquals(0L, map.put(0L, 20L));
+		assertEquals(11L, map.get(1L));
+		assertEquals(20L, map.get(0L));
+		assertEquals(0L, map.get(2L));
+		assertEquals(2, map.size());
+		assertEquals(11L, map.remove(1L));
+		assertEquals(0L, map.remove(1L));
+		assertFalse(map.containsKey(1L));
+		assertTrue(map.containsKey(0L));
+		assertEquals(20L, map.remove(0L));
+		assertTrue(map.isEmpty());
+	}
+
+	public void testMissingValue() {
+		LongLongHashMap map = new LongLongHashMap(10, -1L);
+		assertEquals(-1L, map.getMissingValue());
+		assertEquals(-1L, map.get(7L));
+		assertEquals(-1L, map.put(7L, 0L));
+		assertEquals(0L, map.get(7L));
+		assertTrue(map.containsKey(7L));
+		assertEquals(-1L, map.remove(8L));
+		assertEquals(4L, map.addTo(9L, 5L));
+	}
+
+	public void testAddTo() {
+		LongLongHashMap map = new LongLongHashMap();
+		assertEquals(3L, map.addTo(5L, 3L));
+		assertEquals(7L, map.addTo(5L, 4L));
+		assertEquals(7L, map.get(5L));
+		assertEquals(-2L, map.addTo(0L, -2L));
+		assertEquals(2, map.size());
+	}
+
+	public void testCursor() {
+		LongLongHashMap map = new LongLongHashMap();
+		for (long i = 0; i < 100; i++) {
+			map.put(i, i * i);
+		}
+		int n = 0;
+		for (LongLongHashMap.Cursor c = map.cursor(); c.hasNext(); ) {
+			c.next();
+			assertEquals(c.key() * c.key(), c.value());
+			c.setValue(-c.value());
+			n++;
+		}
+		assertEquals(100, n);
+		assertEquals(-81L, map.get(9L));
+		assertEquals(100, map.keys().length);
+	}
+
+	public void testToString() {
+		LongLongHashMap map = new LongLongHashMap();
+		map.put(0L, 1L);
+		assertEquals("{0=1}", map.toString());
+	}
+
+	/** Checks random operations against a {@link HashMap}. */
+	public void testRandomOperations() {
+		Random rand = new Random(7);
+		LongLongHashMap map = new LongLongHashMap(0);
+		Map<Long,Long> model = new HashMap<Long,Long>();
+		for (int op = 0; op < 200000; op++) {
+			long k = rand.nextInt(2000) * 0x100000001L;
+			switch (rand.nextInt(4)) {
+			case 0:
+				Long prev = model.put(k, (long) op);
+				assertEquals(prev == null ? 0L : prev.longValue(), map.put(k, op));
+				break;
+			case 1:
+				prev = model.remove(k);
+				assertEquals(prev == null ? 0L : prev.longValue(), map.remove(k));
+				break;
+			case 2:
+				prev = model.get(k);
+				long sum = (prev == null ? 0L : prev.longValue()) + 3;
+				model.put(k, sum);
+				assertEquals(sum, map.addTo(k, 3));
+				break;
+			default:
+				prev = model.get(k);
+				assertEquals(prev != null, map.containsKey(k));
+				assertEquals(prev == null ? 0L : prev.longValue(), map.get(k));
+			}
+			assertEquals(model.size(), map.size());
+		}
+	}
+
+	public void testIntValues() {
+		LongIntHashMap map = new LongIntHashMap(0, Integer.MIN_VALUE);
+		for (long i = 0; i < 1000; i++) {
+			assertEquals(Integer.MIN_VALUE, map.put(i << 20, (int) i));
+		}
+		for (long i = 0; i < 1000; i++) {
+			assertEquals((int) i, map.get(i << 20));
+			assertEquals((int) i + 1, map.addTo(i << 20, 1));
+		}
+		for (long i = 0; i < 1000; i += 2) {
+			assertEquals((int) i + 1, map.remove(i << 20));
+		}
+		assertEquals(500, map.size());
+		assertEquals(Integer.MIN_VALUE, map.get(0L));
+		assertEquals(2, map.get(1L << 20));
+		int n = 0;
+		for (LongIntHashMap.Cursor c = map.cursor(); c.hasNext(); ) {
+			c.next();
+			assertEquals((int) (c.key() >> 20) + 1, c.value());
+			n++;
+		}
+		assertEquals(500, n);
+	}
+}
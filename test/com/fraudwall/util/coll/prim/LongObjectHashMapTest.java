@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.coll.prim;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link LongObjectHashMap} implementation.
+ */
+public class LongObjectHashMapTest extends TestCase {
+
+	public void testPutGetRemove() {
+		LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+		assertNull(map.put(1L, "one"));
+		assertEquals("one", map.put(1L, "uno"));
+		assertNull(map.put(0L, "zero"));
+		assertEquals("uno", map.get(1L));
+		assertEquals("zero", map.get(0L));
+		assertNull(map.get(2L));
+		assertEquals(2, map.size());
+		assertEquals("uno", map.remove(1L));
+		assertNull(map.remove(1L));
+		assertEquals("zero", map.remove(0L));
+		assertTrue(map.isEmpty());
+	}
+
+	public void testNullValue() {
+		LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+		map.put(3L, null);
+		assertTrue(map.containsKey(3L));
+		assertNull(map.get(3L));
+		assertFalse(map.containsKey(4L));
+	}
+
+	public void testCursor() {
+		LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+		for (long i = -50; i < 50; i++) {
+			map.put(i, Long.toString(i));
+		}
+		int n = 0;
+		for (LongObjectHashMap<String>.Cursor c = map.cursor(); c.hasNext(); ) {
+			c.next();
+			assertEquals(Long.toString(c.key()), c.value());
+			c.setValue(c.value() + "!");
+			n++;
+		}
+		assertEquals(100, n);
+		assertEquals("-7!", map.get(-7L));
+	}
+
+	public void testClear() {
+		LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+		map.put(0L, "zero");
+		map.put(1L, "one");
+		map.clear();
+		assertEquals(0, map.size());
+		assertNull(map.get(0L));
+		assertNull(map.get(1L));
+		assertEquals("{}", map.toString());
+	}
+
+	/** Checks random operations against a {@link HashMap}. */
+	public void testRandomOperations() {
+		Random rand = new Random(3);
+		LongObjectHashMap<Integer> map = new LongObjectHashMap<Integer>(0);
+		Map<Long,Integer> model = new HashMap<Long,Integer>();
+		for (int op = 0; op < 200000; op++) {
+			long k = rand.nextLong() & 0xFFF0000000000000L;
+			switch (rand.nextInt(3)) {
+			case 0:
+				assertEquals(model.put(k, op), map.put(k, op));
+				break;
+			case 1:
+				assertEquals(model.remove(k), map.remove(k));
+				break;
+			default:
+				assertEquals(model.get(k), map.get(k));
+			}
+			assertEquals(model.size(), map.size());
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2010, Anchor Intelligence. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the
+ *   distribution.
+ *
+ * - Neither the name of Anchor Intelligence nor the names of its
+ *   contributors may be used to endorse or promote products derived
+ *   from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package com.fraudwall.util.net;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.fraudwall.util.AbstractAnchorTest;
+
+/**
+ * Tests the {@link IpReputationStore} implementation.
+ */
+public class IpReputationStoreTest extends AbstractAnchorTest {
+	private static final long START = IpAddressUtils.ipToLong("10.0.0.0");
+	private static final long END = IpAddressUtils.ipToLong("10.0.255.255");
+
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = File.createTempFile("IpReputationStoreTest", ".dat");
+		file.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	public void testNewTableHasNoRecords() throws IOException {
+		IpReputationStore store = IpReputationStore.open(file, START, END);
+		assertEquals(START, store.getStartIp());
+		assertEquals(END, store.getEndIp());
+		assertFalse(store.contains(START));
+		assertEquals(-1, store.getFirstSeen(START + 17));
+		assertEquals(0, store.getCode(END));
+		assertEquals(0, store.getReports(END));
+		assertEquals(4096 + 6 * 65536, file.length());
+		store.close();
+	}
+
+	public void testSetAndGet() throws IOException {
+		IpReputationStore store = IpReputationStore.open(file, START, END);
+		long ip = IpAddressUtils.ipToLong("10.0.3.4");
+		store.setFirstSeen(ip, (short) 0);
+		store.setCode(ip, (short) -7);
+		store.setReports(ip, (short) 12);
+		assertTrue(store.contains(ip));
+		assertEquals(0, store.getFirstSeen(ip));
+		assertEquals(-7, store.getCode(ip));
+		assertEquals(12, store.getReports(ip));
+		assertFalse(store.contains(ip + 1));
+		assertFalse(store.contains(ip - 1));
+		store.remove(ip);
+		assertFalse(store.contains(ip));
+		assertEquals(0, store.getCode(ip));
+		store.close();
+	}
+
+	public void testReport() throws IOException {
+		IpReputationStore store = IpReputationStore.open(file, START, END);
+		store.report(END, (short) 100, (short) 3);
+		store.report(END, (short) 101, (short) 4);
+		assertEquals(100, store.getFirstSeen(END));
+		assertEquals(4, store.getCode(END));
+		assertEquals(2, store.getReports(END));
+		store.close();
+	}
+
+	public void testRecordWithoutFirstSeen() throws IOException {
+		IpReputationStore store = IpReputationStore.open(file, START, END);
+		long ip = IpAddressUtils.ipToLong("10.0.5.6");
+		store.setCode(ip, (short) 9);
+		assertTrue(store.contains(ip));
+		assertEquals(-1, store.getFirstSeen(ip));
+		store.remove(ip);
+		assertFalse(store.contains(ip));
+		store.addReports(ip, 2);
+		assertTrue(store.contains(ip));
+		// a report sets the missing first-seen day and keeps the count
+		store.report(ip, (short) 30, (short) 1);
+		assertEquals(30, store.getFirstSeen(ip));
+		assertEquals(3, store.getReports(ip));
+		store.close();
+	}
+
+	public void testAddReportsSaturates() throws IOException {
+		IpReputationStore store = IpReputationStore.open(file, START, END);
+		assertEquals(Short.MAX_VALUE, store.addReports(START, 100000));
+		assertEquals(Short.MAX_VALUE, store.addReports(START, 1));
+		assertEquals(Short.MAX_VALUE - 1, store.addReports(START, -1));
+		assertEquals(0, store.addReports(START, -100000));
+		assertEquals(Short.MAX_VALUE, store.addReports(START, Integer.MAX_VALUE));
+		assertEquals(0, store.addReports(START, Integer.MIN_VALUE));
+		store.close();
+	}
+
+	public void testIpOutsideRangeThrows() throws IOException {
+		IpReputationStore store = IpReputationStore.open(file, START, END);
+		try {
+			store.getCode(END + 1);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			assertEquals("IP not in table range: 10.1.0.0", ex.getMessage());
+		}
+		try {
+			store.setCode(START - 1, (short) 1);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			// expected case
+		}
+		store.close();
+	}
+
+	public void testRecordsSurviveReopen() throws IOException {
+		IpReputationStore store = IpReputationStore.open(file, START, END);
+		for (long ip = START; ip <= END; ip += 257) {
+			store.report(ip, (short) (ip & 0xFFF), (short) (ip % 11));
+		}
+		store.close();
+		store = IpReputationStore.open(file, START, END);
+		for (long ip = START; ip <= END; ip++) {
+			if ((ip - START) % 257 == 0) {
+				assertEquals((short) (ip & 0xFFF), store.getFirstSeen(ip));
+				assertEquals((short) (ip % 11), store.getCode(ip));
+				assertEquals(1, store.getReports(ip));
+			} else {
+				assertFalse(store.contains(ip));
+			}
+		}
+		store.close();
+	}
+
+	public void testReopenWithDifferentRangeThrows() throws IOException {
+		IpReputationStore.open(file, START, END).close();
+		try {
+			IpReputationStore.open(file, START, END + 1);
+			fail();
+		} catch (IOException ex) {
+			assertEquals("IP reputation table is for range 10.0.0.0-10.0.255.255", ex.getMessage());
+		}
+	}
+
+	public void testOpenRejectsOtherFiles() throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("not a table".getBytes());
+		out.close();
+		try {
+			IpReputationStore.open(file, START, END);
+			fail();
+		} catch (IOException ex) {
+			assertEquals("Not an IP reputation table", ex.getMessage());
+		}
+	}
+}